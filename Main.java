@@ -40,6 +40,7 @@ void setEndTime(LocalDateTime endTime): Sets the end time of the event.
 int getPriority(): Returns the priority of the event.
 void setPriority(int priority): Sets the priority of the event.
 boolean isRecurring(): Returns whether the event is recurring.
+static boolean isValidPriority(int priority): Whether a priority is in the range the scheduler accepts (1-4).
 
 2. IntervalNode
 Description: Represents a node in the interval tree, containing an event and pointers to its children.
@@ -53,16 +54,32 @@ IntervalNode getLeft(): Returns the left child node.
 IntervalNode getRight(): Returns the right child node.
 
 3. IntervalTree
-Description: A binary search tree that manages events based on their start and end times, allowing for efficient scheduling and conflict detection.
+Description: A height-balanced (AVL) binary search tree that manages events based on their start and end times, allowing for efficient scheduling and conflict detection.
 
 Operations:
 
 IntervalTree(): Constructor to create a new interval tree.
+IntervalTree(LocalDateTime windowStart, LocalDateTime windowEnd): Creates a tree that also maintains a FreeGapIndex for the given scheduling window.
 boolean insert(Event event): Inserts a new event into the tree. Returns false if the event ID already exists.
 boolean hasOverlap(Event newEvent): Checks if the new event overlaps with any existing events.
+boolean hasOverlap(LocalDateTime start, LocalDateTime end): Checks the half-open range [start, end).
+boolean setMinuteBitmap(boolean enabled): Keeps a MinuteBitmap of the scheduling window for overlap checks and fit-after queries.
+List<Event> findOverlapping(LocalDateTime start, LocalDateTime end): Returns all events overlapping the half-open range [start, end), ordered by start time.
 void delete(String eventId): Deletes an event from the tree based on its event ID.
+Event get(String eventId): Returns the stored event with the given ID, or null if absent.
+boolean contains(String eventId): Returns whether an event with the given ID is stored in the tree.
 List<TimeSlot> findFreeSlots(LocalDateTime dayStart, LocalDateTime dayEnd, Duration minDuration): Finds and returns a list of free time slots within a specified time range.
+TimeSlot findFirstFreeSlot(LocalDateTime after, LocalDateTime windowEnd, Duration minDuration): Returns the earliest free slot of at least minDuration after a given time, or null.
+Iterator<TimeSlot> freeSlotIterator(LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration): Lazily yields free slots inside a window, visiting only events that overlap it.
 List<Event> getAllEvents(): Returns a list of all events stored in the interval tree.
+TimeSlot findFirstFit(Duration duration): Returns the earliest free gap in the scheduling window lasting at least duration, or null.
+TimeSlot findLastFit(Duration duration): Returns the latest free gap in the scheduling window lasting at least duration, or null.
+TimeSlot findBestFit(Duration duration): Returns the shortest free gap in the scheduling window lasting at least duration, or null.
+TimeSlot findFitAfter(LocalDateTime after, Duration duration): Returns the earliest free slot starting at or after a given time that fits duration, or null.
+int size(): Returns the number of events stored in the tree.
+int height(): Returns the height of the tree.
+int checkInvariants(): Verifies the order, heights, balance and max of every node against the ID index; throws IllegalStateException on a violation.
+int bulkLoad(List<Event> events): Sorts a batch once and rebuilds the tree bottom-up with the stored events in O(n); returns how many were loaded.
 
 4. TimeSlot
 Description: Represents a time slot with a start and end time.
@@ -72,29 +89,214 @@ Operations:
 TimeSlot(LocalDateTime start, LocalDateTime end): Constructor to create a new time slot.
 LocalDateTime getStart(): Returns the start time of the time slot.
 LocalDateTime getEnd(): Returns the end time of the time slot.
-5. EventManagementSystem
-Description: The main class that manages the event scheduling system, including user interactions and event management.
+
+PersistentIntervalTree
+Description: An immutable interval tree; every change copies one root-to-node path and returns a new tree, so readers holding a tree need no locks.
+
+Operations:
+
+PersistentIntervalTree put(Event event), PersistentIntervalTree delete(Event event), PersistentIntervalTree putAll(Collection<Event> events): Return a new tree with the change applied.
+List<Event> findOverlapping(LocalDateTime start, LocalDateTime end), List<TimeSlot> findFreeSlots(...), List<Event> getAllEvents(): Same contract as IntervalTree.
+Event findCovering(LocalDateTime start, LocalDateTime end), List<Event> findAllCovering(...): Find stored intervals containing a whole range.
+
+EpochIntervalTree
+Description: An interval tree whose nodes are parallel long/int arrays holding UTC epoch seconds, for allocation-free overlap and free-slot scans.
+
+Operations:
+
+boolean insert(Event event), void delete(String eventId), Event get(String eventId): Same contract as IntervalTree.
+boolean hasOverlap(long start, long end): Checks the half-open range [start, end) of epoch seconds without allocating.
+int freeSlots(long windowStart, long windowEnd, long minLength, long[] out): Writes free (start, end) pairs into out and returns how many were written.
+List<TimeSlot> findFreeSlots(LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration): Boundary version returning TimeSlots.
+
+FreeGapIndex
+Description: The free gaps of a scheduling window, kept in a balanced tree augmented with the longest gap per subtree so fit queries run in O(log n).
+
+Operations:
+
+FreeGapIndex(LocalDateTime windowStart, LocalDateTime windowEnd): Creates an index whose only gap is the whole window.
+void occupy(LocalDateTime start, LocalDateTime end): Marks a range as busy.
+void release(LocalDateTime start, LocalDateTime end, List<Event> stillBusy): Frees a range except where other events still cover it.
+TimeSlot findFirstFit(Duration duration), findBestFit(Duration duration), findFitAfter(LocalDateTime after, Duration duration): Fit queries.
+
+MinuteBitmap
+Description: The busy minutes of a scheduling window, one bit per minute in a long[]. Overlap checks test a few masked words
+and fit-after queries scan for runs of free bits; events not on whole minutes make it unusable until removed.
+
+Operations:
+
+void occupy(Event event), void release(Event event, List<Event> stillBusy), void rebuild(Collection<Event> events): Keep the bits in step with the tree.
+boolean anyBusy(LocalDateTime start, LocalDateTime end): Checks a range inside the window.
+TimeSlot fitAfter(LocalDateTime after, Duration duration): Same contract as FreeGapIndex.findFitAfter.
+5. ConflictPolicy / ScheduleResult
+Description: ConflictPolicy tells the scheduler whether to reject overlaps (REJECT) or move lower-priority events out of the way (RESCHEDULE_LOWER_PRIORITY).
+ConflictResolver chooses new start times for displaced events: FirstFitResolver takes the earliest gap for each in turn,
+OptimalConflictResolver (the default, 5 ms budget) searches for the least priority-weighted displacement by branch and bound.
+ScheduleResult reports the outcome of a scheduling call: a Status (SCHEDULED, RESCHEDULED, CONFLICT, REJECTED, DUPLICATE, NOT_FOUND), the event, the events involved and a message.
+
+RecurrenceRule / RecurringSeries
+Description: A RecurrenceRule says on which dates a series occurs (daily, weekly on chosen weekdays or monthly, every n periods,
+limited by a count and/or an until date, minus exceptions). A RecurringSeries pairs a rule with a template event and is stored once;
+its occurrences are expanded per day on demand.
+
+Operations:
+
+static RecurrenceRule daily(LocalDate start), weekly(LocalDate start, DayOfWeek... days), monthly(LocalDate start): Create a rule.
+RecurrenceRule every(int interval), times(int count), until(LocalDate until), except(LocalDate date): Return a modified copy.
+boolean occursOn(LocalDate date): Checks a date in constant time (monthly rules count the skipped short months).
+List<LocalDate> occurrences(LocalDate from, LocalDate to): Lists the dates in a range.
+Event occurrence(LocalDate date): Builds a series' occurrence on a date with the usual occurrence ID.
+
+FreeSlotCache
+Description: A bounded LRU cache of free-slot results keyed by (day, query window, minimum duration). A write drops only
+the cached windows of its day that overlap the range it changed.
+
+Operations:
+
+List<TimeSlot> get(LocalDate date, LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration): A cached result, or null.
+void put(..., List<TimeSlot> slots, BooleanSupplier current): Caches a result if the state it came from is still current.
+void invalidate(LocalDate date, LocalDateTime start, LocalDateTime end), void invalidate(LocalDate date), void clear(): Drop entries.
+void setCapacity(int capacity): Resizes the cache; 0 disables it.
+long getHits(), getMisses(), getEvictions(), getInvalidations(), double getHitRate(): Counters for sizing.
+
+LatencyHistogram / SchedulerMetrics
+Description: LatencyHistogram records nanosecond latencies lock-free into log-linear buckets (within about 3%) and answers
+percentiles. SchedulerMetrics holds one per scheduler operation plus conflict counters, gauges and per-day sections;
+SchedulerMetrics.DISABLED records nothing and never reads the clock.
+
+Operations:
+
+void record(long nanos), long getValueAtPercentile(double percentile), long getCount(), long getMax(), double getMean(): Histogram.
+LatencyHistogram getLatency(Operation operation), long getCount(Counter counter): Recorded data.
+void gauge(String name, LongSupplier value), void section(String name, Supplier<List<String>> lines): Values read at report time.
+String report(), void dump(Path file), Closeable dumpEvery(Path file, Duration interval): Reports on demand or periodically.
+
+6. Scheduler
+Description: The non-interactive scheduling engine. Owns the per-day interval trees, kept in a date-sorted skip list, and the event index;
+never reads input or prints.
+Thread-safe: each day is guarded by a striped read/write lock, and multi-day operations lock their days in ascending order.
+
+Operations:
+
+Scheduler(LocalDate startDate, int totalDays, LocalTime dayStart, LocalTime dayEnd): Creates an empty calendar for the given days and daily window.
+static String occurrenceId(String baseEventId, LocalDate date): Returns the ID of a recurring event's occurrence on a date.
+static String occurrenceBaseId(String eventId): The base ID of an ID built by occurrenceId, or null if it does not end in "_" and a valid date; recurring events without one are indexed under their whole ID.
+List<LocalDate> getDates(): Returns the days that can be scheduled, in date order.
+List<LocalDate> getDates(LocalDate from, LocalDate to), List<Event> getEventsBetween(LocalDate from, LocalDate to): Range queries over the sorted day index.
+void setCreateDaysOnDemand(boolean createDaysOnDemand): Lets writes create days beyond the initial ones.
+boolean setMinuteBitmaps(boolean enabled): Makes day trees keep per-minute occupancy bitmaps.
+NavigableMap<LocalDate, List<Event>> archiveBefore(LocalDate cutoff): Drops past days from memory and returns their events.
+List<Event> getEvents(LocalDate date): Returns a day's events in start-time order.
+Event getEvent(LocalDate date, String eventId): Returns an occurrence, or null.
+Map<String, LocalDate> findOccurrences(String baseEventId): Returns the occurrence IDs of an event and their days.
+List<TimeSlot> findFreeSlots(LocalDate date, Duration duration): Returns the free slots of a day's window.
+List<TimeSlot> findFreeSlots(LocalDate date, LocalTime from, LocalTime to, Duration duration): Free slots between two times of day; results are cached.
+FreeSlotCache getFreeSlotCache(): Returns the free-slot cache, for its counters and capacity.
+void setMetrics(SchedulerMetrics metrics): Records operation latencies, conflict counters and day gauges.
+Iterator<Event> busyIterator(LocalDate date, LocalDateTime start, LocalDateTime end): Lazily yields a day's busy events in a range.
+List<Event> findConflicts(LocalDate date, Event event): Returns the events overlapping an event.
+ScheduleResult schedule(LocalDate date, Event event, ConflictPolicy policy): Schedules an event. Every scheduling entry point rejects priorities outside 1-4, and events that do not end after they start or leave the day's dayStart-dayEnd window (a dayEnd of LocalTime.MAX runs to midnight), as REJECTED.
+Map<LocalDate, ScheduleResult> scheduleSeries(Map<LocalDate, Event> occurrences, ConflictPolicy policy): Schedules the occurrences of a recurring event with every involved day locked at once.
+ScheduleResult modifyTime(LocalDate date, String eventId, LocalDateTime newStart, Duration newDuration, ConflictPolicy policy): Moves or resizes an occurrence.
+boolean updateDetails(LocalDate date, String eventId, String title, String description, Integer priority): Updates non-time fields; a priority outside 1-4 throws.
+ScheduleResult modify(LocalDate date, String eventId, LocalDateTime newStart, Duration newDuration, String title, String description, Integer priority, ConflictPolicy policy): Moves an occurrence and updates its details in one write; null arguments are kept.
+boolean delete(LocalDate date, String eventId): Deletes one occurrence.
+int deleteAll(String baseEventId): Deletes every occurrence of an event.
+ScheduleResult place(LocalDate date, Event event, PlacementPolicy policy): Picks a start time for an event from its duration (earliest, latest, best fit, preferred window or spread across days) and schedules it.
+List<ScheduleResult> placeAll(Collection<LocalDate> dates, List<Event> events, PlacementPolicy policy): Places a batch with the days locked once.
+ScheduleTransaction begin(): Starts a transaction whose schedule/move/delete changes are applied together by commit(), or not at all.
+ImportResult importEvents(Stream<Event> events): Groups a batch by day, rejects conflicts in one sweep per day and bulk-loads the rest.
+ScheduleResult addSeries(Event template, RecurrenceRule rule): Stores a recurring event as one rule; rejected as a whole if any occurrence on the calendar overlaps.
+List<RecurringSeries> getSeries(): Returns the stored series. Changing or deleting one occurrence excepts it from its series.
+void setConflictResolver(ConflictResolver resolver): Replaces the strategy used to place displaced events.
+void attachSnapshot(ColumnarSnapshot snapshot): Serves days from a mapped snapshot, building each day's tree on first access.
+
+LocationScheduler
+Description: One Scheduler per location, so events only conflict within their own room, plus a per-date index of every
+room's free gaps that answers "which room is free for D minutes at T" without visiting each room's tree.
+
+Operations:
+
+LocationScheduler(Collection<String> locations, LocalDate startDate, int totalDays, LocalTime dayStart, LocalTime dayEnd): Creates one calendar per location.
+Scheduler getScheduler(String location): Returns a location's calendar; every change made through it updates the room index.
+String findFreeRoom(LocalDateTime start, Duration duration), List<String> findFreeRooms(...): Rooms free for a whole range.
+String scheduleInAnyRoom(LocalDate date, Event event): Books an event in any room free at its time.
+int archiveBefore(LocalDate cutoff): Archives past days in every room.
+boolean setMinuteBitmaps(boolean enabled): Turns occupancy bitmaps on in every room.
+void setMetrics(SchedulerMetrics metrics): Records every room into one SchedulerMetrics.
+List<TimeSlot> findCommonFreeSlots(Collection<String> locations, LocalDate date, Duration minDuration): Slots free in every given room.
+
+CommonAvailability
+Description: Free time shared by many calendars, found by one k-way merge sweep over their busy events instead of intersecting
+each calendar's free-slot list. Results stream, so a first fit stops early.
+
+Operations:
+
+static Iterator<TimeSlot> freeSlots(List<Scheduler> calendars, LocalDate date, Duration minDuration): Shared free slots within every calendar's window.
+static TimeSlot firstFit(List<Scheduler> calendars, LocalDate date, Duration minDuration): The earliest shared free slot, or null.
+static Iterator<TimeSlot> sweep(List<Iterator<Event>> busy, LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration): The sweep over start-ordered busy events.
+
+EventStore / ColumnarSnapshot
+Description: EventStore journals every committed change to a write-ahead log and periodically writes a ColumnarSnapshot,
+which stores each day's events as fixed-width columns plus a string pool and is memory-mapped when opened.
+
+Operations:
+
+static EventStore open(Path directory, Scheduler scheduler, boolean syncOnCommit, int snapshotEvery): Maps the snapshot, replays the log and starts journaling.
+void snapshot(): Writes the series file and a new snapshot, copying the blocks of days that were never loaded, and truncates the log.
+void close(): Stops journaling and closes the log. Without syncOnCommit the log is flushed in the background; a failed flush is thrown from every later commit and from close().
+static ColumnarSnapshot open(Path file): Reads the header and directory and maps the day blocks and ID index.
+List<Event> readDay(LocalDate date): Builds the Event objects of one stored day.
+Map<String, LocalDate> findOccurrences(String baseEventId): Looks up stored occurrences in the ID index without reading any day.
+
+SchedulerHttpApi
+Description: HTTP/JSON front end over the location calendars on the JDK's built-in server. Each request runs on its own
+thread (a virtual thread where the JVM has them) or on a caller-supplied executor; the calendars do their own locking.
+
+Operations:
+
+SchedulerHttpApi(LocationScheduler rooms, SchedulerMetrics metrics, InetSocketAddress address[, Executor executor]): Starts serving.
+static void useServerDefaults(): Turns on TCP_NODELAY and raises the idle keep-alive limit of the JDK server; JVM-wide, so only applications call it, before the first server starts.
+GET /locations, GET /events?location=&date=, GET /events/{id}: Lists locations, a day's events or an event's occurrences.
+POST /events, PATCH /events/{id}, DELETE /events/{id}: Books (at a start, the earliest free slot or in any room), moves or edits, and deletes events. Malformed values are a 400; a non-positive duration, an ID, title or description over MAX_ID_LENGTH, MAX_TITLE_LENGTH or MAX_DESCRIPTION_LENGTH, or an event outside its day's window is a 422.
+GET /free-slots?location=&date=&duration=, GET /metrics: Free slots of a day (a non-positive duration is a 400) and the metrics report.
+int getPort(), void close(): The bound port; stops the server.
+
+7. EventManagementSystem
+Description: The console front end. Handles user interaction and delegates every scheduling decision to a Scheduler.
 
 Operations:
 
 EventManagementSystem(): Constructor to initialize the event management system.
 void initialize(): Initializes the system by prompting the user for locations, number of days, and daily start and end times.
+Scheduler getScheduler(): Returns the calendar of the location the console last worked on.
+LocationScheduler getRooms(): Returns the per-location calendars behind the console.
 void showMenu(): Displays the main menu and handles user input for various operations.
 void addEvent(): Prompts the user to enter details for a new event and schedules it.
 void deleteEvent(): Deletes an event based on user input.
 void modifyEvent(): Modifies an existing event based on user input.
 void displayEvents(): Displays all scheduled events.
 void displayFreeSlots(LocalDate date, Duration duration): Displays available time slots for scheduling events.
+static void main(String[] args): Runs the console; -Dems.http=<port> also serves the calendars over HTTP.
 */
 
 
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.time.*;
 import java.time.format.*;
 import java.util.*;
+import java.util.zip.CRC32;
 
 // Event class to store event details
 class Event {
+    // Priorities the scheduler accepts; the log and snapshots store them in one byte
+    static final int HIGHEST_PRIORITY = 1;
+    static final int LOWEST_PRIORITY = 4;
+
     private String eventId;
     private String title;
     private String description;
@@ -134,6 +336,10 @@ class Event {
     public void setPriority(int priority) { this.priority = priority; }
     public boolean isRecurring() { return isRecurring; }
     public List<LocalDateTime> getRecurringDates() { return recurringDates; }
+
+    static boolean isValidPriority(int priority) {
+        return priority >= HIGHEST_PRIORITY && priority <= LOWEST_PRIORITY;
+    }
 }
 
 // Interval Tree Node
@@ -141,220 +347,6237 @@ class IntervalNode {
     Event event;
     LocalDateTime max;
     IntervalNode left, right;
+    int height;
 
     public IntervalNode(Event event) {
         this.event = event;
         this.max = event.getEndTime();
         this.left = this.right = null;
+        this.height = 1;
     }
 }
 
 // Interval Tree implementation
+// Kept height-balanced (AVL) so that chronological loads do not degenerate into a linked list;
+// nodes are ordered by start time and then by event ID, and every rotation recomputes max.
 class IntervalTree {
     private IntervalNode root;
-    private Set<String> eventIds;
+    // Index of stored events by ID; an event's start time must not change while it is in the tree
+    private Map<String, Event> eventsById;
+    // Free gaps inside the scheduling window, or null when the tree has no window
+    private FreeGapIndex gaps;
+    // Busy minutes of the scheduling window, or null unless enabled with setMinuteBitmap
+    private MinuteBitmap minutes;
 
     public IntervalTree() {
         root = null;
-        eventIds = new HashSet<>();
+        eventsById = new HashMap<>();
+    }
+
+    // Creates a tree that also maintains the free gaps inside [windowStart, windowEnd).
+    public IntervalTree(LocalDateTime windowStart, LocalDateTime windowEnd) {
+        this();
+        gaps = new FreeGapIndex(windowStart, windowEnd);
     }
 
     // Insert a new event into the tree
     // Inserts a new event into the interval tree. Returns false if the event ID already exists; otherwise, it adds the event and returns true.
     public boolean insert(Event event) {
-        if (eventIds.contains(event.getEventId())) {
+        if (eventsById.containsKey(event.getEventId())) {
             return false; // Don't insert if event ID already exists
         }
-        root = insert(root, event);
-        eventIds.add(event.getEventId());
-        return true;
+        root = insert(root, event);
+        eventsById.put(event.getEventId(), event);
+        if (gaps != null) {
+            gaps.occupy(event.getStartTime(), event.getEndTime());
+        }
+        if (minutes != null) {
+            minutes.occupy(event);
+        }
+        return true;
+    }
+
+    // Keeps (or stops keeping) a per-minute bitmap of the scheduling window next to the gap index, which answers
+    // overlap checks and fit-after queries without walking the tree. First, last and best fit stay on the gap
+    // index, which already finds them in O(log n) and is as fast as a scan of the bitmap. Returns whether the bitmap is kept;
+    // windows that do not start and end on whole minutes cannot have one.
+    public boolean setMinuteBitmap(boolean enabled) {
+        if (!enabled || gaps == null || !MinuteBitmap.supports(gaps.getWindowStart(), gaps.getWindowEnd())) {
+            minutes = null;
+            return false;
+        }
+        if (minutes == null) {
+            MinuteBitmap bitmap = new MinuteBitmap(gaps.getWindowStart(), gaps.getWindowEnd());
+            bitmap.rebuild(eventsById.values());
+            minutes = bitmap;
+        }
+        return true;
+    }
+
+    //Recursive helper method to insert an event into the correct position in the tree based on the event's start time.
+    private IntervalNode insert(IntervalNode node, Event event) {
+        if (node == null) {
+            return new IntervalNode(event);
+        }
+
+        if (compare(event, node.event) < 0) {
+            node.left = insert(node.left, event);
+        } else {
+            node.right = insert(node.right, event);
+        }
+
+        return rebalance(node);
+    }
+
+    // Orders events by start time, breaking ties by event ID so every node has a unique position.
+    private int compare(Event e1, Event e2) {
+        int cmp = e1.getStartTime().compareTo(e2.getStartTime());
+        return cmp != 0 ? cmp : e1.getEventId().compareTo(e2.getEventId());
+    }
+
+    private int height(IntervalNode node) {
+        return node == null ? 0 : node.height;
+    }
+
+    // Recomputes height and max for a node whose children may have changed.
+    private void update(IntervalNode node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        updateMax(node);
+    }
+
+    private IntervalNode rotateRight(IntervalNode node) {
+        IntervalNode pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private IntervalNode rotateLeft(IntervalNode node) {
+        IntervalNode pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    // Restores the AVL balance condition at a node after an insert or delete below it.
+    private IntervalNode rebalance(IntervalNode node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    // Returns the height of the tree, 0 when empty.
+    public int height() {
+        return height(root);
+    }
+
+    // Returns the number of events stored in the tree.
+    public int size() {
+        return eventsById.size();
+    }
+
+    // Walks every node and throws IllegalStateException on a broken order, height, balance or max, or a node
+    // missing from the ID index. Returns the number of nodes; used by the benchmark's model checks.
+    int checkInvariants() {
+        int[] count = new int[1];
+        checkNode(root, null, null, count);
+        if (count[0] != eventsById.size()) {
+            throw new IllegalStateException("Tree holds " + count[0] + " nodes but indexes " + eventsById.size());
+        }
+        return count[0];
+    }
+
+    private void checkNode(IntervalNode node, Event lower, Event upper, int[] count) {
+        if (node == null) return;
+        if ((lower != null && compare(node.event, lower) <= 0) || (upper != null && compare(node.event, upper) >= 0)) {
+            throw new IllegalStateException("Node " + node.event.getEventId() + " is out of order");
+        }
+        if (eventsById.get(node.event.getEventId()) != node.event) {
+            throw new IllegalStateException("Node " + node.event.getEventId() + " is not in the ID index");
+        }
+        checkNode(node.left, lower, node.event, count);
+        checkNode(node.right, node.event, upper, count);
+        count[0]++;
+        int balance = height(node.left) - height(node.right);
+        int height = node.height;
+        LocalDateTime max = node.max;
+        update(node);
+        if (node.height != height || Math.abs(balance) > 1 || !node.max.equals(max)) {
+            throw new IllegalStateException("Node " + node.event.getEventId() + " has a stale height, max or balance");
+        }
+    }
+
+    // Number of children of the node holding the event, or -1 when it is not stored, so model checks can tell
+    // which delete case an operation exercises.
+    int childCount(String eventId) {
+        Event event = eventsById.get(eventId);
+        IntervalNode node = root;
+        while (event != null && node != null) {
+            int cmp = compare(event, node.event);
+            if (cmp == 0) {
+                return (node.left == null ? 0 : 1) + (node.right == null ? 0 : 1);
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return -1;
+    }
+
+    // ID of the event at the root, or null when the tree is empty.
+    String rootEventId() {
+        return root == null ? null : root.event.getEventId();
+    }
+
+    // Function for checking if there's any overlap with existing events returns True if there exists any
+    public boolean hasOverlap(Event newEvent) {
+        return hasOverlap(newEvent.getStartTime(), newEvent.getEndTime());
+    }
+
+    // Checks the half-open range [start, end); a word-wise bitmap test when the minute bitmap covers the range.
+    public boolean hasOverlap(LocalDateTime start, LocalDateTime end) {
+        if (minutes != null && minutes.covers(start, end)) {
+            return minutes.anyBusy(start, end);
+        }
+        return searchOverlap(root, start, end);
+    }
+
+    // Recursive method to search for any event overlapping [start, end), pruning subtrees whose max end is not after start.
+    private boolean searchOverlap(IntervalNode node, LocalDateTime start, LocalDateTime end) {
+        if (node == null || !node.max.isAfter(start)) return false;
+
+        if (searchOverlap(node.left, start, end)) {
+            return true;
+        }
+        if (!node.event.getStartTime().isBefore(end)) {
+            return false; // This node and everything to its right starts at or after end
+        }
+        return overlaps(node.event, start, end) || searchOverlap(node.right, start, end);
+    }
+
+    // Returns every event overlapping [start, end) in start-time order, in O(log n + k).
+    public List<Event> findOverlapping(LocalDateTime start, LocalDateTime end) {
+        List<Event> result = new ArrayList<>();
+        if (minutes != null && minutes.covers(start, end) && !minutes.anyBusy(start, end)) {
+            return result; // The common no-conflict case never touches the tree
+        }
+        collectOverlapping(root, start, end, result);
+        return result;
+    }
+
+    private void collectOverlapping(IntervalNode node, LocalDateTime start, LocalDateTime end, List<Event> result) {
+        if (node == null || !node.max.isAfter(start)) return;
+
+        collectOverlapping(node.left, start, end, result);
+        if (!node.event.getStartTime().isBefore(end)) {
+            return;
+        }
+        if (overlaps(node.event, start, end)) {
+            result.add(node.event);
+        }
+        collectOverlapping(node.right, start, end, result);
+    }
+
+    // Determines if an event overlaps the half-open range [start, end); back-to-back events do not overlap.
+    private boolean overlaps(Event event, LocalDateTime start, LocalDateTime end) {
+        return event.getStartTime().isBefore(end) && start.isBefore(event.getEndTime());
+    }
+
+    // Delete an event from the tree
+    // The ID index gives the event's (start time, event ID) key, so the node is reached in O(log n).
+    public void delete(String eventId) {
+        Event event = eventsById.remove(eventId);
+        if (event != null) {
+            root = delete(root, event);
+            if (gaps != null || minutes != null) {
+                // Only the parts of the range not covered by another event become free
+                List<Event> stillBusy = findOverlapping(event.getStartTime(), event.getEndTime());
+                if (gaps != null) {
+                    gaps.release(event.getStartTime(), event.getEndTime(), stillBusy);
+                }
+                if (minutes != null) {
+                    minutes.release(event, stillBusy);
+                }
+            }
+        }
+    }
+
+    // Returns the stored event with the given ID, or null if it is not in the tree.
+    public Event get(String eventId) {
+        return eventsById.get(eventId);
+    }
+
+    // Returns true if an event with the given ID is stored in the tree.
+    public boolean contains(String eventId) {
+        return eventsById.containsKey(eventId);
+    }
+
+    // Removes the node holding the given event, descending by (start time, event ID) and rebalancing on the way up.
+    private IntervalNode delete(IntervalNode node, Event event) {
+        if (node == null) return null;
+
+        int cmp = compare(event, node.event);
+        if (cmp < 0) {
+            node.left = delete(node.left, event);
+        } else if (cmp > 0) {
+            node.right = delete(node.right, event);
+        } else {
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+
+            IntervalNode successor = findMin(node.right);
+            node.right = delete(node.right, successor.event);
+            node.event = successor.event;
+        }
+
+        return rebalance(node);
+    }
+
+    private IntervalNode findMin(IntervalNode node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private void updateMax(IntervalNode node) {
+        node.max = node.event.getEndTime();
+        if (node.left != null && node.left.max.isAfter(node.max)) {
+            node.max = node.left.max;
+        }
+        if (node.right != null && node.right.max.isAfter(node.max)) {
+            node.max = node.right.max;
+        }
+    }
+
+
+    //Finds and returns a list of free time slots within a specified time range that can accommodate a minimum duration.
+    public List<TimeSlot> findFreeSlots(LocalDateTime dayStart, LocalDateTime dayEnd, Duration minDuration) {
+        List<TimeSlot> freeSlots = new ArrayList<>();
+        freeSlotIterator(dayStart, dayEnd, minDuration).forEachRemaining(freeSlots::add);
+        return freeSlots;
+    }
+
+    // Returns the earliest free slot of at least minDuration between after and windowEnd, or null if there is none.
+    public TimeSlot findFirstFreeSlot(LocalDateTime after, LocalDateTime windowEnd, Duration minDuration) {
+        Iterator<TimeSlot> slots = freeSlotIterator(after, windowEnd, minDuration);
+        return slots.hasNext() ? slots.next() : null;
+    }
+
+    // Returns the earliest free gap in the scheduling window lasting at least duration, or null.
+    public TimeSlot findFirstFit(Duration duration) {
+        return gapIndex().findFirstFit(duration);
+    }
+
+    // Returns the latest free gap in the scheduling window lasting at least duration, or null.
+    public TimeSlot findLastFit(Duration duration) {
+        return gapIndex().findLastFit(duration);
+    }
+
+    // Returns the shortest free gap in the scheduling window lasting at least duration, or null.
+    public TimeSlot findBestFit(Duration duration) {
+        return gapIndex().findBestFit(duration);
+    }
+
+    // Returns the earliest free slot starting at or after the given time that fits duration, or null.
+    public TimeSlot findFitAfter(LocalDateTime after, Duration duration) {
+        if (minutes != null && minutes.covers(after)) {
+            return minutes.fitAfter(after, duration);
+        }
+        return gapIndex().findFitAfter(after, duration);
+    }
+
+    private FreeGapIndex gapIndex() {
+        if (gaps == null) {
+            throw new IllegalStateException("Tree was created without a scheduling window");
+        }
+        return gaps;
+    }
+
+    // Lazily yields the free slots of at least minDuration inside [windowStart, windowEnd), in time order.
+    // Only events overlapping the window are visited; nothing is collected or sorted up front.
+    public Iterator<TimeSlot> freeSlotIterator(LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+        return new FreeSlotIterator(windowStart, windowEnd, minDuration);
+    }
+
+    // In-order walk over the events overlapping a window, emitting the gaps between them.
+    private class FreeSlotIterator implements Iterator<TimeSlot> {
+        private final LocalDateTime windowStart;
+        private final LocalDateTime windowEnd;
+        private final Duration minDuration;
+        private final Deque<IntervalNode> stack = new ArrayDeque<>();
+        private LocalDateTime currentTime;
+        private TimeSlot next;
+
+        FreeSlotIterator(LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+            this.windowStart = windowStart;
+            this.windowEnd = windowEnd;
+            this.minDuration = minDuration;
+            this.currentTime = windowStart;
+
+            // Validate inputs
+            if (windowStart.isAfter(windowEnd) || minDuration.isNegative() || minDuration.isZero()) {
+                this.currentTime = null;
+            } else {
+                pushLeft(root);
+            }
+        }
+
+        // Pushes the left spine of a subtree, skipping subtrees that end before the window starts.
+        private void pushLeft(IntervalNode node) {
+            while (node != null && node.max.isAfter(windowStart)) {
+                stack.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && currentTime != null) {
+                advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public TimeSlot next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            TimeSlot slot = next;
+            next = null;
+            return slot;
+        }
+
+        // Consumes one event (or the end of the window) and records the gap before it, if large enough.
+        private void advance() {
+            IntervalNode node = stack.isEmpty() ? null : stack.pop();
+            if (node == null || !node.event.getStartTime().isBefore(windowEnd)) {
+                // Check for remaining time after the last event
+                offer(currentTime, windowEnd);
+                currentTime = null;
+                return;
+            }
+            pushLeft(node.right);
+
+            Event event = node.event;
+            if (!event.getEndTime().isAfter(windowStart)) {
+                return; // Ends before the window; only its right subtree mattered
+            }
+            if (currentTime.isBefore(event.getStartTime())) {
+                offer(currentTime, event.getStartTime());
+            }
+            if (event.getEndTime().isAfter(currentTime)) {
+                currentTime = event.getEndTime();
+            }
+        }
+
+        private void offer(LocalDateTime start, LocalDateTime end) {
+            if (start.isBefore(end) && Duration.between(start, end).compareTo(minDuration) >= 0) {
+                next = new TimeSlot(start, end);
+            }
+        }
+    }
+
+    private void collectEvents(IntervalNode node, List<Event> events) {
+        if (node == null) return;
+        collectEvents(node.left, events);
+        events.add(node.event);
+        collectEvents(node.right, events);
+    }
+
+    // Get all events for display
+    public List<Event> getAllEvents() {
+        List<Event> events = new ArrayList<>();
+        collectEvents(root, events);
+        return events;
+    }
+
+    // Adds many events at once: sorts them once, merges them with the stored events and rebuilds the tree
+    // bottom-up in O(n), computing heights and max in the same pass. Events whose ID is already stored are skipped.
+    // Returns the number of events loaded.
+    public int bulkLoad(List<Event> events) {
+        List<Event> incoming = new ArrayList<>(events.size());
+        for (Event event : events) {
+            if (eventsById.putIfAbsent(event.getEventId(), event) == null) {
+                incoming.add(event);
+            }
+        }
+        if (incoming.isEmpty()) {
+            return 0;
+        }
+        incoming.sort(this::compare);
+
+        List<Event> existing = getAllEvents();
+        Event[] merged = new Event[existing.size() + incoming.size()];
+        int i = 0, j = 0, k = 0;
+        while (i < existing.size() && j < incoming.size()) {
+            merged[k++] = compare(existing.get(i), incoming.get(j)) <= 0 ? existing.get(i++) : incoming.get(j++);
+        }
+        while (i < existing.size()) merged[k++] = existing.get(i++);
+        while (j < incoming.size()) merged[k++] = incoming.get(j++);
+
+        root = build(merged, 0, merged.length - 1);
+        if (gaps != null) {
+            gaps.rebuild(Arrays.asList(merged));
+        }
+        if (minutes != null) {
+            minutes.rebuild(Arrays.asList(merged));
+        }
+        return incoming.size();
+    }
+
+    // Builds a perfectly balanced subtree from a sorted slice.
+    private IntervalNode build(Event[] sorted, int lo, int hi) {
+        if (lo > hi) return null;
+        int mid = (lo + hi) >>> 1;
+        IntervalNode node = new IntervalNode(sorted[mid]);
+        node.left = build(sorted, lo, mid - 1);
+        node.right = build(sorted, mid + 1, hi);
+        update(node);
+        return node;
+    }
+}
+
+// Time slot class for representing free time slots
+class TimeSlot {
+    private LocalDateTime start;
+    private LocalDateTime end;
+
+    public TimeSlot(LocalDateTime start, LocalDateTime end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public LocalDateTime getStart() { return start; }
+    public LocalDateTime getEnd() { return end; }
+}
+
+// Persistent (immutable) interval tree. insert and delete copy only the path from the root to the changed node and
+// return a new tree, so whoever holds a tree keeps a fixed set of events no matter what writers do afterwards and
+// can read it without locking. Ordering, max augmentation and AVL balancing match IntervalTree.
+// Events are copied on the way in, so later changes to the caller's Event objects never reach a stored tree;
+// the events it returns are shared by every reader of the tree and must not be modified.
+final class PersistentIntervalTree {
+    static final PersistentIntervalTree EMPTY = new PersistentIntervalTree(null, 0);
+
+    private static final class Node {
+        final Event event;
+        final LocalDateTime max;
+        final Node left, right;
+        final int height;
+
+        Node(Event event, Node left, Node right) {
+            this.event = event;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            LocalDateTime max = event.getEndTime();
+            if (left != null && left.max.isAfter(max)) max = left.max;
+            if (right != null && right.max.isAfter(max)) max = right.max;
+            this.max = max;
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+    private PersistentIntervalTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    // Builds a tree from events in any order; events with the same ID as an earlier one are skipped.
+    static PersistentIntervalTree of(Collection<Event> events) {
+        return EMPTY.putAll(events);
+    }
+
+    public int size() { return size; }
+    public int height() { return height(root); }
+
+    // Returns a tree that also holds a copy of the event, replacing a stored event with the same start time and ID.
+    public PersistentIntervalTree put(Event event) {
+        Event copy = copyOf(event);
+        boolean[] replaced = new boolean[1];
+        Node newRoot = insert(root, copy, replaced);
+        return new PersistentIntervalTree(newRoot, replaced[0] ? size : size + 1);
+    }
+
+    // Returns a tree without the stored event that has the given event's start time and ID; this tree if absent.
+    public PersistentIntervalTree delete(Event event) {
+        boolean[] removed = new boolean[1];
+        Node newRoot = delete(root, event, removed);
+        return removed[0] ? new PersistentIntervalTree(newRoot, size - 1) : this;
+    }
+
+    // Returns a tree that also holds copies of the given events: sorts them once, merges them with the stored
+    // events and builds the result bottom-up in O(n). Incoming events whose key is already stored are skipped.
+    public PersistentIntervalTree putAll(Collection<Event> events) {
+        List<Event> incoming = new ArrayList<>(events.size());
+        for (Event event : events) {
+            incoming.add(copyOf(event));
+        }
+        incoming.sort(PersistentIntervalTree::compare);
+
+        List<Event> existing = getAllEvents();
+        List<Event> merged = new ArrayList<>(existing.size() + incoming.size());
+        int i = 0, j = 0;
+        while (i < existing.size() || j < incoming.size()) {
+            Event next;
+            if (j == incoming.size() || (i < existing.size() && compare(existing.get(i), incoming.get(j)) <= 0)) {
+                next = existing.get(i++);
+            } else {
+                next = incoming.get(j++);
+            }
+            if (merged.isEmpty() || compare(merged.get(merged.size() - 1), next) != 0) {
+                merged.add(next);
+            }
+        }
+        return new PersistentIntervalTree(build(merged, 0, merged.size() - 1), merged.size());
+    }
+
+    // Returns true if any stored event overlaps the half-open range [start, end).
+    public boolean hasOverlap(LocalDateTime start, LocalDateTime end) {
+        return searchOverlap(root, start, end);
+    }
+
+    private static boolean searchOverlap(Node node, LocalDateTime start, LocalDateTime end) {
+        if (node == null || !node.max.isAfter(start)) return false;
+
+        if (searchOverlap(node.left, start, end)) {
+            return true;
+        }
+        if (!node.event.getStartTime().isBefore(end)) {
+            return false;
+        }
+        return start.isBefore(node.event.getEndTime()) || searchOverlap(node.right, start, end);
+    }
+
+    // Returns every event overlapping [start, end) in start-time order, in O(log n + k).
+    public List<Event> findOverlapping(LocalDateTime start, LocalDateTime end) {
+        List<Event> result = new ArrayList<>();
+        collectOverlapping(root, start, end, result);
+        return result;
+    }
+
+    private static void collectOverlapping(Node node, LocalDateTime start, LocalDateTime end, List<Event> result) {
+        if (node == null || !node.max.isAfter(start)) return;
+
+        collectOverlapping(node.left, start, end, result);
+        if (!node.event.getStartTime().isBefore(end)) {
+            return;
+        }
+        if (start.isBefore(node.event.getEndTime())) {
+            result.add(node.event);
+        }
+        collectOverlapping(node.right, start, end, result);
+    }
+
+    // Returns a stored event whose interval contains [start, end), or null, in O(log n). Every event left of a
+    // node starting no later than start also does, so the max augmentation alone decides where one ends late enough.
+    public Event findCovering(LocalDateTime start, LocalDateTime end) {
+        Node node = root;
+        while (node != null && !node.max.isBefore(end)) {
+            if (node.event.getStartTime().isAfter(start)) {
+                node = node.left;
+            } else if (node.left != null && !node.left.max.isBefore(end)) {
+                return endingAfter(node.left, end);
+            } else if (!node.event.getEndTime().isBefore(end)) {
+                return node.event;
+            } else {
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    // Some event of the subtree ending no earlier than end; the subtree's max must already be late enough.
+    private static Event endingAfter(Node node, LocalDateTime end) {
+        while (true) {
+            if (node.left != null && !node.left.max.isBefore(end)) {
+                node = node.left;
+            } else if (!node.event.getEndTime().isBefore(end)) {
+                return node.event;
+            } else {
+                node = node.right;
+            }
+        }
+    }
+
+    // Returns every stored event whose interval contains [start, end), in start-time order.
+    public List<Event> findAllCovering(LocalDateTime start, LocalDateTime end) {
+        List<Event> result = new ArrayList<>();
+        collectCovering(root, start, end, result);
+        return result;
+    }
+
+    private static void collectCovering(Node node, LocalDateTime start, LocalDateTime end, List<Event> result) {
+        if (node == null || node.max.isBefore(end)) return;
+
+        collectCovering(node.left, start, end, result);
+        if (node.event.getStartTime().isAfter(start)) {
+            return;
+        }
+        if (!node.event.getEndTime().isBefore(end)) {
+            result.add(node.event);
+        }
+        collectCovering(node.right, start, end, result);
+    }
+
+    // Returns the free slots of at least minDuration inside [windowStart, windowEnd), in time order.
+    // Only events overlapping the window are visited.
+    public List<TimeSlot> findFreeSlots(LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+        return freeSlotsAmong(findOverlapping(windowStart, windowEnd), windowStart, windowEnd, minDuration);
+    }
+
+    // Free slots of at least minDuration inside [windowStart, windowEnd) around events sorted by start time.
+    static List<TimeSlot> freeSlotsAmong(List<Event> sorted, LocalDateTime windowStart, LocalDateTime windowEnd,
+                                         Duration minDuration) {
+        List<TimeSlot> slots = new ArrayList<>();
+        if (windowStart.isAfter(windowEnd) || minDuration.isNegative() || minDuration.isZero()) {
+            return slots;
+        }
+        LocalDateTime currentTime = windowStart;
+        for (Event event : sorted) {
+            if (!event.getEndTime().isAfter(windowStart)) {
+                continue;
+            }
+            if (!event.getStartTime().isBefore(windowEnd)) {
+                break;
+            }
+            if (currentTime.isBefore(event.getStartTime())
+                    && Duration.between(currentTime, event.getStartTime()).compareTo(minDuration) >= 0) {
+                slots.add(new TimeSlot(currentTime, event.getStartTime()));
+            }
+            if (event.getEndTime().isAfter(currentTime)) {
+                currentTime = event.getEndTime();
+            }
+        }
+        if (currentTime.isBefore(windowEnd) && Duration.between(currentTime, windowEnd).compareTo(minDuration) >= 0) {
+            slots.add(new TimeSlot(currentTime, windowEnd));
+        }
+        return slots;
+    }
+
+    // Returns the earliest free slot of at least minDuration inside [windowStart, windowEnd), or null. Stops at the
+    // first gap that fits instead of listing every slot.
+    public TimeSlot findFirstFit(LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+        LocalDateTime currentTime = windowStart;
+        Deque<Node> stack = new ArrayDeque<>();
+        Node node = root;
+        while (true) {
+            while (node != null && node.max.isAfter(windowStart)) {
+                stack.push(node);
+                node = node.left;
+            }
+            if (stack.isEmpty() || !stack.peek().event.getStartTime().isBefore(windowEnd)) {
+                break;
+            }
+            Node next = stack.pop();
+            node = next.right;
+            Event event = next.event;
+            if (!event.getEndTime().isAfter(windowStart)) {
+                continue;
+            }
+            if (Duration.between(currentTime, event.getStartTime()).compareTo(minDuration) >= 0) {
+                return new TimeSlot(currentTime, event.getStartTime());
+            }
+            if (event.getEndTime().isAfter(currentTime)) {
+                currentTime = event.getEndTime();
+            }
+        }
+        if (currentTime.isBefore(windowEnd) && Duration.between(currentTime, windowEnd).compareTo(minDuration) >= 0) {
+            return new TimeSlot(currentTime, windowEnd);
+        }
+        return null;
+    }
+
+    // Returns all events in start-time order.
+    public List<Event> getAllEvents() {
+        List<Event> events = new ArrayList<>(size);
+        collectEvents(root, events);
+        return events;
+    }
+
+    // Lazily yields the events overlapping [start, end) in start-time order; a caller that stops early
+    // never visits the rest of the tree.
+    public Iterator<Event> overlappingIterator(LocalDateTime start, LocalDateTime end) {
+        return new Iterator<Event>() {
+            private final Deque<Node> stack = new ArrayDeque<>();
+            private Event next;
+
+            {
+                pushLeft(root);
+            }
+
+            // Pushes the left spine of a subtree, skipping subtrees that end before the range starts.
+            private void pushLeft(Node node) {
+                while (node != null && node.max.isAfter(start)) {
+                    stack.push(node);
+                    node = node.left;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !stack.isEmpty()) {
+                    Node node = stack.pop();
+                    if (!node.event.getStartTime().isBefore(end)) {
+                        stack.clear();
+                        break;
+                    }
+                    pushLeft(node.right);
+                    if (node.event.getEndTime().isAfter(start)) {
+                        next = node.event;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Event next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Event event = next;
+                next = null;
+                return event;
+            }
+        };
+    }
+
+    private static void collectEvents(Node node, List<Event> events) {
+        if (node == null) return;
+        collectEvents(node.left, events);
+        events.add(node.event);
+        collectEvents(node.right, events);
+    }
+
+    private static Node insert(Node node, Event event, boolean[] replaced) {
+        if (node == null) {
+            return new Node(event, null, null);
+        }
+        int cmp = compare(event, node.event);
+        if (cmp < 0) {
+            return rebalance(node.event, insert(node.left, event, replaced), node.right);
+        }
+        if (cmp > 0) {
+            return rebalance(node.event, node.left, insert(node.right, event, replaced));
+        }
+        replaced[0] = true;
+        return new Node(event, node.left, node.right);
+    }
+
+    private static Node delete(Node node, Event event, boolean[] removed) {
+        if (node == null) return null;
+
+        int cmp = compare(event, node.event);
+        if (cmp < 0) {
+            Node left = delete(node.left, event, removed);
+            return left == node.left ? node : rebalance(node.event, left, node.right);
+        }
+        if (cmp > 0) {
+            Node right = delete(node.right, event, removed);
+            return right == node.right ? node : rebalance(node.event, node.left, right);
+        }
+        removed[0] = true;
+        if (node.left == null) return node.right;
+        if (node.right == null) return node.left;
+
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return rebalance(successor.event, node.left, delete(node.right, successor.event, new boolean[1]));
+    }
+
+    // Creates the node for (event, left, right), rotating once or twice if the AVL condition is broken.
+    private static Node rebalance(Event event, Node left, Node right) {
+        int balance = height(left) - height(right);
+        if (balance > 1) {
+            if (height(left.left) < height(left.right)) {
+                Node pivot = left.right;
+                return new Node(pivot.event, new Node(left.event, left.left, pivot.left), new Node(event, pivot.right, right));
+            }
+            return new Node(left.event, left.left, new Node(event, left.right, right));
+        }
+        if (balance < -1) {
+            if (height(right.right) < height(right.left)) {
+                Node pivot = right.left;
+                return new Node(pivot.event, new Node(event, left, pivot.left), new Node(right.event, pivot.right, right.right));
+            }
+            return new Node(right.event, new Node(event, left, right.left), right.right);
+        }
+        return new Node(event, left, right);
+    }
+
+    private static Node build(List<Event> sorted, int lo, int hi) {
+        if (lo > hi) return null;
+        int mid = (lo + hi) >>> 1;
+        return new Node(sorted.get(mid), build(sorted, lo, mid - 1), build(sorted, mid + 1, hi));
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    // Orders events by start time, breaking ties by event ID, as IntervalTree does.
+    private static int compare(Event e1, Event e2) {
+        int cmp = e1.getStartTime().compareTo(e2.getStartTime());
+        return cmp != 0 ? cmp : e1.getEventId().compareTo(e2.getEventId());
+    }
+
+    private static Event copyOf(Event event) {
+        Event copy = new Event(event.getEventId(), event.getTitle(), event.getDescription(), event.getDuration(),
+                event.getStartTime(), event.getEndTime(), event.getPriority(), event.isRecurring());
+        copy.getRecurringDates().addAll(event.getRecurringDates());
+        return copy;
+    }
+}
+
+// Interval tree specialised to primitive times for the hot path. Nodes live in parallel arrays indexed by slot and
+// hold start, end and subtree max as UTC epoch seconds, so overlap checks and free-slot scans compare longs and
+// allocate nothing; LocalDateTime values are converted only at the API boundary (sub-second precision is dropped).
+// Ordering and balancing match IntervalTree, with ties on start broken by slot instead of event ID.
+class EpochIntervalTree {
+    private static final int NIL = -1;
+
+    private long[] starts;
+    private long[] ends;
+    private long[] maxEnds;
+    private int[] lefts;
+    private int[] rights;
+    private int[] heights;
+    private Event[] events;
+    private int root = NIL;
+    // Slots below nextSlot have been handed out; deleted ones are reused from releasedSlots
+    private int nextSlot;
+    private int[] releasedSlots = new int[16];
+    private int releasedCount;
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    // Traversal stack reused by free-slot scans
+    private int[] stack = new int[64];
+
+    public EpochIntervalTree() {
+        this(16);
+    }
+
+    public EpochIntervalTree(int capacity) {
+        starts = new long[capacity];
+        ends = new long[capacity];
+        maxEnds = new long[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        heights = new int[capacity];
+        events = new Event[capacity];
+    }
+
+    static long toEpochSecond(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static LocalDateTime toDateTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    // Inserts an event. Returns false if the event ID already exists.
+    public boolean insert(Event event) {
+        if (slotsById.containsKey(event.getEventId())) {
+            return false;
+        }
+        int slot = allocate();
+        starts[slot] = toEpochSecond(event.getStartTime());
+        ends[slot] = toEpochSecond(event.getEndTime());
+        maxEnds[slot] = ends[slot];
+        lefts[slot] = NIL;
+        rights[slot] = NIL;
+        heights[slot] = 1;
+        events[slot] = event;
+        root = insert(root, slot);
+        slotsById.put(event.getEventId(), slot);
+        return true;
+    }
+
+    private int insert(int node, int slot) {
+        if (node == NIL) {
+            return slot;
+        }
+        if (compare(slot, node) < 0) {
+            lefts[node] = insert(lefts[node], slot);
+        } else {
+            rights[node] = insert(rights[node], slot);
+        }
+        return rebalance(node);
+    }
+
+    private int allocate() {
+        if (releasedCount > 0) {
+            return releasedSlots[--releasedCount];
+        }
+        if (nextSlot == starts.length) {
+            int capacity = Math.max(16, starts.length * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            maxEnds = Arrays.copyOf(maxEnds, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+            events = Arrays.copyOf(events, capacity);
+        }
+        return nextSlot++;
+    }
+
+    // Orders slots by start time, breaking ties by slot so every node has a unique position.
+    private int compare(int a, int b) {
+        int cmp = Long.compare(starts[a], starts[b]);
+        return cmp != 0 ? cmp : Integer.compare(a, b);
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : heights[node];
+    }
+
+    private void update(int node) {
+        int left = lefts[node];
+        int right = rights[node];
+        heights[node] = 1 + Math.max(height(left), height(right));
+        long max = ends[node];
+        if (left != NIL && maxEnds[left] > max) max = maxEnds[left];
+        if (right != NIL && maxEnds[right] > max) max = maxEnds[right];
+        maxEnds[node] = max;
+    }
+
+    private int rotateRight(int node) {
+        int pivot = lefts[node];
+        lefts[node] = rights[pivot];
+        rights[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = rights[node];
+        rights[node] = lefts[pivot];
+        lefts[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    // Restores the AVL balance condition at a node after an insert or delete below it.
+    private int rebalance(int node) {
+        update(node);
+        int balance = height(lefts[node]) - height(rights[node]);
+
+        if (balance > 1) {
+            int left = lefts[node];
+            if (height(lefts[left]) < height(rights[left])) {
+                lefts[node] = rotateLeft(left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            int right = rights[node];
+            if (height(rights[right]) < height(lefts[right])) {
+                rights[node] = rotateRight(right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    // Deletes an event by ID; its slot gives the (start, slot) key, so the node is reached in O(log n).
+    public void delete(String eventId) {
+        Integer slot = slotsById.remove(eventId);
+        if (slot != null) {
+            root = delete(root, slot);
+            events[slot] = null;
+            if (releasedCount == releasedSlots.length) {
+                releasedSlots = Arrays.copyOf(releasedSlots, releasedCount * 2);
+            }
+            releasedSlots[releasedCount++] = slot;
+        }
+    }
+
+    // Unlinks a slot. The successor is moved into the deleted node's position rather than copied, since
+    // slots are the identity the ID map points at.
+    private int delete(int node, int slot) {
+        if (node == NIL) return NIL;
+
+        int cmp = compare(slot, node);
+        if (cmp < 0) {
+            lefts[node] = delete(lefts[node], slot);
+        } else if (cmp > 0) {
+            rights[node] = delete(rights[node], slot);
+        } else {
+            if (lefts[node] == NIL) return rights[node];
+            if (rights[node] == NIL) return lefts[node];
+
+            int successor = rights[node];
+            while (lefts[successor] != NIL) {
+                successor = lefts[successor];
+            }
+            rights[successor] = delete(rights[node], successor);
+            lefts[successor] = lefts[node];
+            node = successor;
+        }
+        return rebalance(node);
+    }
+
+    // Returns the stored event with the given ID, or null if it is not in the tree.
+    public Event get(String eventId) {
+        Integer slot = slotsById.get(eventId);
+        return slot == null ? null : events[slot];
+    }
+
+    public int size() {
+        return slotsById.size();
+    }
+
+    public int height() {
+        return height(root);
+    }
+
+    public boolean hasOverlap(Event event) {
+        return hasOverlap(toEpochSecond(event.getStartTime()), toEpochSecond(event.getEndTime()));
+    }
+
+    // Returns true if any stored event overlaps the half-open range [start, end) of epoch seconds.
+    public boolean hasOverlap(long start, long end) {
+        return searchOverlap(root, start, end);
+    }
+
+    private boolean searchOverlap(int node, long start, long end) {
+        if (node == NIL || maxEnds[node] <= start) return false;
+
+        if (searchOverlap(lefts[node], start, end)) {
+            return true;
+        }
+        if (starts[node] >= end) {
+            return false; // This node and everything to its right starts at or after end
+        }
+        return start < ends[node] || searchOverlap(rights[node], start, end);
+    }
+
+    // Returns every event overlapping [start, end) in start-time order.
+    public List<Event> findOverlapping(LocalDateTime start, LocalDateTime end) {
+        List<Event> result = new ArrayList<>();
+        collectOverlapping(root, toEpochSecond(start), toEpochSecond(end), result);
+        return result;
+    }
+
+    private void collectOverlapping(int node, long start, long end, List<Event> result) {
+        if (node == NIL || maxEnds[node] <= start) return;
+
+        collectOverlapping(lefts[node], start, end, result);
+        if (starts[node] >= end) {
+            return;
+        }
+        if (start < ends[node]) {
+            result.add(events[node]);
+        }
+        collectOverlapping(rights[node], start, end, result);
+    }
+
+    // Returns the free slots of at least minDuration inside [windowStart, windowEnd), in time order.
+    public List<TimeSlot> findFreeSlots(LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+        List<TimeSlot> slots = new ArrayList<>();
+        if (!minDuration.isNegative() && !minDuration.isZero()) {
+            long[] bounds = new long[64];
+            long from = toEpochSecond(windowStart);
+            long to = toEpochSecond(windowEnd);
+            int found;
+            do {
+                found = freeSlots(from, to, minDuration.getSeconds(), bounds);
+                for (int i = 0; i < found; i++) {
+                    slots.add(new TimeSlot(toDateTime(bounds[2 * i]), toDateTime(bounds[2 * i + 1])));
+                }
+                if (found > 0) {
+                    from = bounds[2 * found - 1];
+                }
+            } while (found == bounds.length / 2);
+        }
+        return slots;
+    }
+
+    // Writes the free slots of at least minLength seconds inside [windowStart, windowEnd) into out as
+    // (start, end) pairs and returns how many were written. Stops once out is full; scanning again from the
+    // last slot's end continues where it left off.
+    public int freeSlots(long windowStart, long windowEnd, long minLength, long[] out) {
+        int capacity = out.length / 2;
+        int found = 0;
+        if (windowStart >= windowEnd || minLength <= 0 || capacity == 0) {
+            return 0;
+        }
+        long cursor = windowStart;
+        int depth = pushLeft(root, cursor, 0);
+        while (depth > 0) {
+            int node = stack[--depth];
+            if (starts[node] >= windowEnd) {
+                break;
+            }
+            if (starts[node] - cursor >= minLength) {
+                out[2 * found] = cursor;
+                out[2 * found + 1] = starts[node];
+                if (++found == capacity) {
+                    return found;
+                }
+            }
+            if (ends[node] > cursor) {
+                cursor = ends[node];
+            }
+            // Subtrees ending at or before the cursor cannot open or close a gap
+            depth = pushLeft(rights[node], cursor, depth);
+        }
+        if (windowEnd - cursor >= minLength) {
+            out[2 * found] = cursor;
+            out[2 * found + 1] = windowEnd;
+            found++;
+        }
+        return found;
+    }
+
+    private int pushLeft(int node, long after, int depth) {
+        while (node != NIL && maxEnds[node] > after) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = node;
+            node = lefts[node];
+        }
+        return depth;
+    }
+}
+
+// Free gaps of a scheduling window, kept as an AVL tree ordered by gap start and augmented with the
+// longest gap in each subtree, plus a (length, start) ordered set for best-fit lookups.
+// All fit queries run in O(log n); occupy/release touch only the gaps around the changed range.
+class FreeGapIndex {
+    private static class Gap {
+        final LocalDateTime start;
+        final LocalDateTime end;
+        final Duration length;
+
+        Gap(LocalDateTime start, LocalDateTime end) {
+            this.start = start;
+            this.end = end;
+            this.length = Duration.between(start, end);
+        }
+    }
+
+    private static class GapNode {
+        Gap gap;
+        Duration maxLength;
+        GapNode left, right;
+        int height = 1;
+
+        GapNode(Gap gap) {
+            this.gap = gap;
+            this.maxLength = gap.length;
+        }
+    }
+
+    private static final Comparator<Gap> BY_LENGTH = (g1, g2) -> {
+        int cmp = g1.length.compareTo(g2.length);
+        return cmp != 0 ? cmp : g1.start.compareTo(g2.start);
+    };
+
+    private final LocalDateTime windowStart;
+    private final LocalDateTime windowEnd;
+    private GapNode root;
+    private final TreeSet<Gap> byLength = new TreeSet<>(BY_LENGTH);
+
+    public FreeGapIndex(LocalDateTime windowStart, LocalDateTime windowEnd) {
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        if (windowStart.isBefore(windowEnd)) {
+            add(windowStart, windowEnd);
+        }
+    }
+
+    public LocalDateTime getWindowStart() {
+        return windowStart;
+    }
+
+    public LocalDateTime getWindowEnd() {
+        return windowEnd;
+    }
+
+    // Recomputes every gap in one sweep over events sorted by start time, building the tree bottom-up.
+    public void rebuild(List<Event> sortedEvents) {
+        List<Gap> rebuilt = new ArrayList<>();
+        LocalDateTime cursor = windowStart;
+        for (Event event : sortedEvents) {
+            LocalDateTime start = clip(event.getStartTime());
+            if (cursor.isBefore(start)) {
+                rebuilt.add(new Gap(cursor, start));
+            }
+            LocalDateTime end = clip(event.getEndTime());
+            if (end.isAfter(cursor)) {
+                cursor = end;
+            }
+        }
+        if (cursor.isBefore(windowEnd)) {
+            rebuilt.add(new Gap(cursor, windowEnd));
+        }
+
+        root = build(rebuilt, 0, rebuilt.size() - 1);
+        byLength.clear();
+        byLength.addAll(rebuilt);
+    }
+
+    private static GapNode build(List<Gap> sorted, int lo, int hi) {
+        if (lo > hi) return null;
+        int mid = (lo + hi) >>> 1;
+        GapNode node = new GapNode(sorted.get(mid));
+        node.left = build(sorted, lo, mid - 1);
+        node.right = build(sorted, mid + 1, hi);
+        update(node);
+        return node;
+    }
+
+    // Marks [start, end) as busy, splitting or shrinking every gap it overlaps.
+    public void occupy(LocalDateTime start, LocalDateTime end) {
+        start = clip(start);
+        end = clip(end);
+        if (!start.isBefore(end)) return;
+
+        Gap gap = floor(start);
+        if (gap == null || !gap.end.isAfter(start)) {
+            gap = higher(start);
+        }
+        while (gap != null && gap.start.isBefore(end)) {
+            Gap following = higher(gap.start);
+            remove(gap);
+            if (gap.start.isBefore(start)) add(gap.start, start);
+            if (end.isBefore(gap.end)) add(end, gap.end);
+            gap = following;
+        }
+    }
+
+    // Frees [start, end) except where it is still covered by one of the given events (sorted by start time),
+    // merging the freed pieces with the gaps on either side.
+    public void release(LocalDateTime start, LocalDateTime end, List<Event> stillBusy) {
+        start = clip(start);
+        end = clip(end);
+        LocalDateTime cursor = start;
+        for (Event event : stillBusy) {
+            if (cursor.isBefore(event.getStartTime())) {
+                free(cursor, event.getStartTime().isBefore(end) ? event.getStartTime() : end);
+            }
+            if (event.getEndTime().isAfter(cursor)) {
+                cursor = event.getEndTime();
+            }
+            if (!cursor.isBefore(end)) return;
+        }
+        if (cursor.isBefore(end)) {
+            free(cursor, end);
+        }
+    }
+
+    // Inserts a newly freed range, coalescing it with gaps ending at its start or beginning at its end.
+    private void free(LocalDateTime start, LocalDateTime end) {
+        Gap before = lower(start);
+        if (before != null && before.end.equals(start)) {
+            remove(before);
+            start = before.start;
+        }
+        Gap after = floor(end);
+        if (after != null && after.start.equals(end)) {
+            remove(after);
+            end = after.end;
+        }
+        add(start, end);
+    }
+
+    // Earliest gap lasting at least duration.
+    public TimeSlot findFirstFit(Duration duration) {
+        GapNode node = root;
+        while (node != null && node.maxLength.compareTo(duration) >= 0) {
+            if (node.left != null && node.left.maxLength.compareTo(duration) >= 0) {
+                node = node.left;
+            } else if (node.gap.length.compareTo(duration) >= 0) {
+                return slot(node.gap);
+            } else {
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    // Latest gap lasting at least duration.
+    public TimeSlot findLastFit(Duration duration) {
+        GapNode node = root;
+        while (node != null && node.maxLength.compareTo(duration) >= 0) {
+            if (node.right != null && node.right.maxLength.compareTo(duration) >= 0) {
+                node = node.right;
+            } else if (node.gap.length.compareTo(duration) >= 0) {
+                return slot(node.gap);
+            } else {
+                node = node.left;
+            }
+        }
+        return null;
+    }
+
+    // Shortest gap lasting at least duration, earliest first among equals.
+    public TimeSlot findBestFit(Duration duration) {
+        Gap gap = byLength.ceiling(new Gap(LocalDateTime.MIN, LocalDateTime.MIN.plus(duration)));
+        return gap == null ? null : slot(gap);
+    }
+
+    // Earliest placement starting at or after the given time: either the rest of the gap containing it,
+    // or the first later gap lasting at least duration.
+    public TimeSlot findFitAfter(LocalDateTime after, Duration duration) {
+        Gap containing = floor(after);
+        if (containing != null && containing.end.isAfter(after)
+                && Duration.between(after, containing.end).compareTo(duration) >= 0) {
+            return new TimeSlot(after, containing.end);
+        }
+        Gap gap = firstFitAfter(root, after, duration);
+        return gap == null ? null : slot(gap);
+    }
+
+    private Gap firstFitAfter(GapNode node, LocalDateTime after, Duration duration) {
+        if (node == null || node.maxLength.compareTo(duration) < 0) return null;
+        if (!node.gap.start.isAfter(after)) {
+            return firstFitAfter(node.right, after, duration);
+        }
+        Gap gap = firstFitAfter(node.left, after, duration);
+        if (gap != null) return gap;
+        if (node.gap.length.compareTo(duration) >= 0) return node.gap;
+        return firstFitAfter(node.right, after, duration);
+    }
+
+    // Number of free gaps currently tracked.
+    public int size() {
+        return byLength.size();
+    }
+
+    private LocalDateTime clip(LocalDateTime time) {
+        if (time.isBefore(windowStart)) return windowStart;
+        if (time.isAfter(windowEnd)) return windowEnd;
+        return time;
+    }
+
+    private static TimeSlot slot(Gap gap) {
+        return new TimeSlot(gap.start, gap.end);
+    }
+
+    // Gap with the greatest start <= time.
+    private Gap floor(LocalDateTime time) {
+        Gap result = null;
+        for (GapNode node = root; node != null; ) {
+            if (node.gap.start.isAfter(time)) {
+                node = node.left;
+            } else {
+                result = node.gap;
+                node = node.right;
+            }
+        }
+        return result;
+    }
+
+    // Gap with the greatest start < time.
+    private Gap lower(LocalDateTime time) {
+        Gap result = null;
+        for (GapNode node = root; node != null; ) {
+            if (node.gap.start.isBefore(time)) {
+                result = node.gap;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    // Gap with the smallest start > time.
+    private Gap higher(LocalDateTime time) {
+        Gap result = null;
+        for (GapNode node = root; node != null; ) {
+            if (node.gap.start.isAfter(time)) {
+                result = node.gap;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return result;
+    }
+
+    private void add(LocalDateTime start, LocalDateTime end) {
+        Gap gap = new Gap(start, end);
+        root = insert(root, gap);
+        byLength.add(gap);
+    }
+
+    private void remove(Gap gap) {
+        root = delete(root, gap.start);
+        byLength.remove(gap);
+    }
+
+    private GapNode insert(GapNode node, Gap gap) {
+        if (node == null) return new GapNode(gap);
+        if (gap.start.isBefore(node.gap.start)) {
+            node.left = insert(node.left, gap);
+        } else {
+            node.right = insert(node.right, gap);
+        }
+        return rebalance(node);
+    }
+
+    private GapNode delete(GapNode node, LocalDateTime start) {
+        if (node == null) return null;
+        int cmp = start.compareTo(node.gap.start);
+        if (cmp < 0) {
+            node.left = delete(node.left, start);
+        } else if (cmp > 0) {
+            node.right = delete(node.right, start);
+        } else {
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+            GapNode successor = node.right;
+            while (successor.left != null) successor = successor.left;
+            node.right = delete(node.right, successor.gap.start);
+            node.gap = successor.gap;
+        }
+        return rebalance(node);
+    }
+
+    private static int height(GapNode node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void update(GapNode node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.maxLength = node.gap.length;
+        if (node.left != null && node.left.maxLength.compareTo(node.maxLength) > 0) {
+            node.maxLength = node.left.maxLength;
+        }
+        if (node.right != null && node.right.maxLength.compareTo(node.maxLength) > 0) {
+            node.maxLength = node.right.maxLength;
+        }
+    }
+
+    private static GapNode rotateRight(GapNode node) {
+        GapNode pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static GapNode rotateLeft(GapNode node) {
+        GapNode pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static GapNode rebalance(GapNode node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+}
+
+// Busy minutes of a scheduling window as a bitmap, one bit per minute (64 minutes per word), so overlap checks
+// are a masked test of a few words and fit-after queries are bit scans. Only events starting and ending on whole
+// minutes can be represented; while any stored event does not, covers() is false and callers fall back to the tree.
+final class MinuteBitmap {
+    private final LocalDateTime windowStart;
+    private final LocalDateTime windowEnd;
+    private final long baseSecond;
+    private final int minutes;
+    // Bit i is set while minute i of the window is busy; the bits past the window's last minute stay set
+    private final long[] words;
+    // Stored events that do not start and end on whole minutes
+    private int unrepresented;
+
+    public MinuteBitmap(LocalDateTime windowStart, LocalDateTime windowEnd) {
+        if (!supports(windowStart, windowEnd)) {
+            throw new IllegalArgumentException("Window must start and end on whole minutes: " + windowStart + " - " + windowEnd);
+        }
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.baseSecond = windowStart.toEpochSecond(ZoneOffset.UTC);
+        this.minutes = (int) ((windowEnd.toEpochSecond(ZoneOffset.UTC) - baseSecond) / 60);
+        this.words = new long[(minutes + 63) >>> 6];
+        clear();
+    }
+
+    // Whether a window can be kept as a bitmap: it must be non-empty and start and end on whole minutes.
+    static boolean supports(LocalDateTime windowStart, LocalDateTime windowEnd) {
+        return windowStart.isBefore(windowEnd) && aligned(windowStart) && aligned(windowEnd);
+    }
+
+    private static boolean aligned(LocalDateTime time) {
+        return time.getSecond() == 0 && time.getNano() == 0;
+    }
+
+    private static boolean representable(Event event) {
+        return aligned(event.getStartTime()) && aligned(event.getEndTime());
+    }
+
+    // True if the bitmap can answer an overlap check for the half-open range [start, end).
+    public boolean covers(LocalDateTime start, LocalDateTime end) {
+        return unrepresented == 0 && start.isBefore(end) && !start.isBefore(windowStart) && !end.isAfter(windowEnd);
+    }
+
+    // True if the bitmap can answer a fit query starting at the given time.
+    public boolean covers(LocalDateTime after) {
+        return unrepresented == 0 && aligned(after);
+    }
+
+    public void occupy(Event event) {
+        if (!representable(event)) {
+            unrepresented++;
+            return;
+        }
+        set(event.getStartTime(), event.getEndTime(), true);
+    }
+
+    // Frees an event's minutes except those still covered by other stored events.
+    public void release(Event event, List<Event> stillBusy) {
+        if (!representable(event)) {
+            unrepresented--;
+            return;
+        }
+        set(event.getStartTime(), event.getEndTime(), false);
+        for (Event other : stillBusy) {
+            if (representable(other)) {
+                set(other.getStartTime(), other.getEndTime(), true);
+            }
+        }
+    }
+
+    // Recomputes every bit from the stored events.
+    public void rebuild(Collection<Event> events) {
+        clear();
+        unrepresented = 0;
+        for (Event event : events) {
+            occupy(event);
+        }
+    }
+
+    // True if any minute of [start, end) is busy. Exact for a covered range: every stored event starts and ends
+    // on a whole minute, so it overlaps the range exactly when it overlaps the minutes the range touches.
+    public boolean anyBusy(LocalDateTime start, LocalDateTime end) {
+        int from = floorMinute(start);
+        int to = ceilMinute(end);
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long head = -1L << (from & 63);
+        long tail = -1L >>> (63 - ((to - 1) & 63));
+        if (first == last) {
+            return (words[first] & head & tail) != 0;
+        }
+        if ((words[first] & head) != 0 || (words[last] & tail) != 0) {
+            return true;
+        }
+        for (int i = first + 1; i < last; i++) {
+            if (words[i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Earliest placement starting at or after the given whole minute: either the rest of the free run containing it,
+    // or the first later run lasting at least duration. Same contract as FreeGapIndex.findFitAfter.
+    public TimeSlot fitAfter(LocalDateTime after, Duration duration) {
+        if (!after.isBefore(windowEnd)) {
+            return null;
+        }
+        int need = minutesNeeded(duration);
+        if (after.isBefore(windowStart)) {
+            return fitFrom(0, need);
+        }
+        int minute = floorMinute(after);
+        if (!busy(minute)) {
+            int runEnd = nextBusy(minute);
+            if (runEnd - minute >= need) {
+                return new TimeSlot(after, at(runEnd));
+            }
+            return fitFrom(runEnd, need);
+        }
+        return fitFrom(minute, need);
+    }
+
+    // Earliest whole free run lasting at least need minutes that starts at or after a busy (or first) minute.
+    // Runs of up to 64 minutes are found a word at a time: shifting the free bits and and-ing them in
+    // doubling steps leaves a bit set where need free minutes start, and a carry counts the free minutes
+    // running into the word from the one before.
+    private TimeSlot fitFrom(int minute, int need) {
+        if (need > 64) {
+            return scanFrom(minute, need);
+        }
+        int carry = 0;
+        for (int i = minute >>> 6; i < words.length; i++) {
+            long free = ~words[i];
+            if (i == minute >>> 6) {
+                free &= -1L << (minute & 63);
+            }
+            if (carry > 0 && carry + Long.numberOfTrailingZeros(~free) >= need) {
+                int runStart = (i << 6) - carry;
+                return new TimeSlot(at(runStart), at(nextBusy(runStart)));
+            }
+            long starts = free;
+            for (int covered = 1; covered < need && starts != 0; ) {
+                int shift = Math.min(covered, need - covered);
+                starts &= starts >>> shift;
+                covered += shift;
+            }
+            if (starts != 0) {
+                int runStart = (i << 6) + Long.numberOfTrailingZeros(starts);
+                return new TimeSlot(at(runStart), at(nextBusy(runStart)));
+            }
+            carry = free == -1L ? carry + 64 : Long.numberOfLeadingZeros(~free);
+        }
+        return null;
+    }
+
+    private TimeSlot scanFrom(int minute, int need) {
+        while (true) {
+            int runStart = nextFree(minute);
+            if (runStart < 0) {
+                return null;
+            }
+            int runEnd = nextBusy(runStart);
+            if (runEnd - runStart >= need) {
+                return new TimeSlot(at(runStart), at(runEnd));
+            }
+            minute = runEnd;
+        }
+    }
+
+    // First free minute at or after the given one, or -1.
+    private int nextFree(int minute) {
+        if (minute >= minutes) {
+            return -1;
+        }
+        int i = minute >>> 6;
+        long word = ~words[i] & (-1L << (minute & 63));
+        while (word == 0) {
+            if (++i == words.length) {
+                return -1;
+            }
+            word = ~words[i];
+        }
+        int free = (i << 6) + Long.numberOfTrailingZeros(word);
+        return free < minutes ? free : -1;
+    }
+
+    // First busy minute at or after the given one, or the window's length if the rest is free.
+    private int nextBusy(int minute) {
+        if (minute >= minutes) {
+            return minutes;
+        }
+        int i = minute >>> 6;
+        long word = words[i] & (-1L << (minute & 63));
+        while (word == 0) {
+            if (++i == words.length) {
+                return minutes;
+            }
+            word = words[i];
+        }
+        return Math.min(minutes, (i << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    private boolean busy(int minute) {
+        return (words[minute >>> 6] & (1L << (minute & 63))) != 0;
+    }
+
+    // Sets or clears the minutes of [start, end) that lie inside the window.
+    private void set(LocalDateTime start, LocalDateTime end, boolean busy) {
+        int from = Math.max(0, floorMinute(start));
+        int to = Math.min(minutes, ceilMinute(end));
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        for (int i = first; i <= last; i++) {
+            long mask = -1L;
+            if (i == first) mask &= -1L << (from & 63);
+            if (i == last) mask &= -1L >>> (63 - ((to - 1) & 63));
+            words[i] = busy ? words[i] | mask : words[i] & ~mask;
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(words, 0L);
+        if ((minutes & 63) != 0) {
+            words[words.length - 1] = -1L << (minutes & 63);
+        }
+    }
+
+    private int floorMinute(LocalDateTime time) {
+        long minute = Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC) - baseSecond, 60L);
+        return (int) Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, minute));
+    }
+
+    private int ceilMinute(LocalDateTime time) {
+        int minute = floorMinute(time);
+        return aligned(time) ? minute : minute + 1;
+    }
+
+    private LocalDateTime at(int minute) {
+        return windowStart.plusMinutes(minute);
+    }
+
+    // Whole minutes a duration needs; a free run of that many minutes is at least as long as the duration.
+    private static int minutesNeeded(Duration duration) {
+        long seconds = duration.getSeconds() + (duration.getNano() > 0 ? 1 : 0);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (seconds + 59) / 60));
+    }
+}
+
+// Where automatic placement puts an event, using only its duration.
+final class PlacementPolicy {
+    enum Kind {
+        EARLIEST,           // Start of the earliest gap that fits
+        LATEST,             // End of the latest gap that fits
+        BEST_FIT,           // Start of the shortest gap that fits, leaving long gaps for long events
+        PREFERRED_WINDOW,   // Earliest fit inside a time-of-day window, else the earliest fit of the day
+        SPREAD              // Earliest fit on the least busy of the candidate days
+    }
+
+    static final PlacementPolicy EARLIEST = new PlacementPolicy(Kind.EARLIEST, null, null);
+    static final PlacementPolicy LATEST = new PlacementPolicy(Kind.LATEST, null, null);
+    static final PlacementPolicy BEST_FIT = new PlacementPolicy(Kind.BEST_FIT, null, null);
+    static final PlacementPolicy SPREAD = new PlacementPolicy(Kind.SPREAD, null, null);
+
+    private final Kind kind;
+    private final LocalTime windowStart;
+    private final LocalTime windowEnd;
+
+    private PlacementPolicy(Kind kind, LocalTime windowStart, LocalTime windowEnd) {
+        this.kind = kind;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+    }
+
+    // Prefers [from, to) on each day; the event must fit entirely inside it to be placed there.
+    static PlacementPolicy preferredWindow(LocalTime from, LocalTime to) {
+        return new PlacementPolicy(Kind.PREFERRED_WINDOW, from, to);
+    }
+
+    public Kind getKind() { return kind; }
+    public LocalTime getWindowStart() { return windowStart; }
+    public LocalTime getWindowEnd() { return windowEnd; }
+}
+
+// How scheduling should treat overlaps with events already on the calendar.
+enum ConflictPolicy {
+    REJECT,                     // Report the conflicts and leave the calendar untouched
+    RESCHEDULE_LOWER_PRIORITY   // Move conflicting events of strictly lower priority, placed by the ConflictResolver
+}
+
+// Chooses new start times for the events a higher-priority booking displaces.
+interface ConflictResolver {
+    // Returns a start time for every displaced event so that none of them overlap each other or the busy events
+    // and all stay inside [windowStart, windowEnd), or null if no such arrangement was found.
+    Map<String, LocalDateTime> resolve(PersistentIntervalTree busy, LocalDateTime windowStart, LocalDateTime windowEnd,
+                                       List<Event> displaced);
+}
+
+// The original strategy: each displaced event, in the given order, goes to the start of the earliest gap it fits.
+class FirstFitResolver implements ConflictResolver {
+    @Override
+    public Map<String, LocalDateTime> resolve(PersistentIntervalTree busy, LocalDateTime windowStart,
+                                              LocalDateTime windowEnd, List<Event> displaced) {
+        Map<String, LocalDateTime> starts = new LinkedHashMap<>();
+        for (Event event : displaced) {
+            TimeSlot slot = busy.findFirstFit(windowStart, windowEnd, event.getDuration());
+            if (slot == null) {
+                return null;
+            }
+            starts.put(event.getEventId(), slot.getStart());
+            busy = busy.put(new Event(event.getEventId(), "", "", event.getDuration(), slot.getStart(),
+                    slot.getStart().plus(event.getDuration()), event.getPriority(), false));
+        }
+        return starts;
+    }
+}
+
+// Finds the least disruptive arrangement by branch and bound. Moving an event costs its distance from its original
+// start times a weight that doubles with each step of Eisenhower priority (priority 1 weighs 8, priority 4 weighs 1).
+// Each event is tried, most constrained first, in every free gap at the fitting position closest to its original
+// start and at both ends of the gap; a branch is cut once its cost plus the cheapest independent placement of the
+// remaining events cannot beat the best arrangement so far. The first-fit arrangement seeds the search, and when
+// the budget runs out the best arrangement found so far is returned.
+class OptimalConflictResolver implements ConflictResolver {
+    private final long budgetNanos;
+
+    OptimalConflictResolver(Duration budget) {
+        this.budgetNanos = budget.toNanos();
+    }
+
+    static long weight(Event event) {
+        return 1L << Math.max(0, Math.min(3, 4 - event.getPriority()));
+    }
+
+    // Total weighted displacement of an arrangement, in weighted nanoseconds.
+    static long disruption(List<Event> displaced, Map<String, LocalDateTime> starts) {
+        long total = 0;
+        for (Event event : displaced) {
+            total += weight(event) * Math.abs(Duration.between(event.getStartTime(), starts.get(event.getEventId())).toNanos());
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, LocalDateTime> resolve(PersistentIntervalTree busy, LocalDateTime windowStart,
+                                              LocalDateTime windowEnd, List<Event> displaced) {
+        return new Search(System.nanoTime() + budgetNanos).run(busy, windowStart, windowEnd, displaced);
+    }
+
+    // State of one search, so concurrent reschedules on different days can share the resolver.
+    // Times are nanoseconds after the window start; gaps are kept sorted and split in place as events are placed.
+    private static class Search {
+        private final long deadline;
+        private final List<long[]> gaps = new ArrayList<>();
+        private long[] lengths;
+        private long[] origins;
+        private long[] weights;
+        private long[] placed;
+        private long[] best;
+        private long bestCost = Long.MAX_VALUE;
+        private boolean timedOut;
+
+        Search(long deadline) {
+            this.deadline = deadline;
+        }
+
+        Map<String, LocalDateTime> run(PersistentIntervalTree busy, LocalDateTime windowStart,
+                                       LocalDateTime windowEnd, List<Event> displaced) {
+            if (displaced.isEmpty()) {
+                return new LinkedHashMap<>();
+            }
+            // Most constrained first: longest, then heaviest
+            List<Event> order = new ArrayList<>(displaced);
+            order.sort(Comparator.comparing(Event::getDuration).reversed()
+                    .thenComparing(Comparator.comparingLong(OptimalConflictResolver::weight).reversed()));
+            int k = order.size();
+            lengths = new long[k];
+            origins = new long[k];
+            weights = new long[k];
+            placed = new long[k];
+            for (int i = 0; i < k; i++) {
+                Event event = order.get(i);
+                lengths[i] = event.getDuration().toNanos();
+                origins[i] = Duration.between(windowStart, event.getStartTime()).toNanos();
+                weights[i] = weight(event);
+            }
+
+            Map<String, LocalDateTime> seed = new FirstFitResolver().resolve(busy, windowStart, windowEnd, displaced);
+            if (seed != null) {
+                best = new long[k];
+                bestCost = 0;
+                for (int i = 0; i < k; i++) {
+                    best[i] = Duration.between(windowStart, seed.get(order.get(i).getEventId())).toNanos();
+                    bestCost += cost(i, best[i]);
+                }
+            }
+
+            Duration shortest = order.get(k - 1).getDuration();
+            for (Event event : order) {
+                if (event.getDuration().compareTo(shortest) < 0) shortest = event.getDuration();
+            }
+            for (TimeSlot slot : busy.findFreeSlots(windowStart, windowEnd, shortest)) {
+                gaps.add(new long[]{Duration.between(windowStart, slot.getStart()).toNanos(),
+                        Duration.between(windowStart, slot.getEnd()).toNanos()});
+            }
+            search(0, 0);
+
+            if (best == null) {
+                return null;
+            }
+            Map<String, LocalDateTime> starts = new LinkedHashMap<>();
+            for (int i = 0; i < k; i++) {
+                starts.put(order.get(i).getEventId(), windowStart.plusNanos(best[i]));
+            }
+            return starts;
+        }
+
+        private long cost(int i, long start) {
+            return weights[i] * Math.abs(start - origins[i]);
+        }
+
+        // Fitting start in a gap closest to the event's original start.
+        private long nearest(int i, long[] gap) {
+            return Math.max(gap[0], Math.min(origins[i], gap[1] - lengths[i]));
+        }
+
+        // Index of the first gap starting after the given time.
+        private int locate(long time) {
+            int lo = 0, hi = gaps.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (gaps.get(mid)[0] <= time) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // Visits the gaps event i fits in, walking outward from its original start, while a placement there could
+        // cost less than limit. Gaps further out only cost more, so each direction stops at the first one that can't.
+        // Adds (gap, start, cost) candidates to out when it is not null; returns the cheapest cost seen, or -1.
+        private long scan(int i, long limit, List<long[]> out) {
+            long min = -1;
+            int mid = locate(origins[i]);
+            for (int h = mid - 1; h >= 0; h--) {
+                long[] gap = gaps.get(h);
+                if (weights[i] * Math.max(0, origins[i] - (gap[1] - lengths[i])) >= limit) break;
+                if (gap[1] - gap[0] < lengths[i]) continue;
+                min = offer(i, h, gap, min, out);
+                if (out == null) limit = Math.min(limit, min);
+            }
+            for (int h = mid; h < gaps.size(); h++) {
+                long[] gap = gaps.get(h);
+                if (weights[i] * (gap[0] - origins[i]) >= limit) break;
+                if (gap[1] - gap[0] < lengths[i]) continue;
+                min = offer(i, h, gap, min, out);
+                if (out == null) limit = Math.min(limit, min);
+            }
+            return min;
+        }
+
+        private long offer(int i, int h, long[] gap, long min, List<long[]> out) {
+            long near = nearest(i, gap);
+            long c = cost(i, near);
+            if (out != null) {
+                out.add(new long[]{h, near, c});
+                if (gap[0] != near) out.add(new long[]{h, gap[0], cost(i, gap[0])});
+                long last = gap[1] - lengths[i];
+                if (last != near && last != gap[0]) out.add(new long[]{h, last, cost(i, last)});
+            }
+            return min < 0 || c < min ? c : min;
+        }
+
+        private void search(int i, long cost) {
+            if (timedOut || System.nanoTime() > deadline) {
+                timedOut = true;
+                return;
+            }
+            if (i == lengths.length) {
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = placed.clone();
+                }
+                return;
+            }
+            // Placing more events only shrinks gaps, so independent cheapest placements bound the rest from below
+            long bound = cost;
+            for (int j = i; j < lengths.length; j++) {
+                long c = scan(j, bestCost - bound, null);
+                if (c < 0) return;
+                bound += c;
+                if (bound >= bestCost) return;
+            }
+
+            List<long[]> candidates = new ArrayList<>();
+            scan(i, bestCost - cost, candidates);
+            candidates.sort(Comparator.comparingLong(c -> c[2]));
+            for (long[] candidate : candidates) {
+                if (cost + candidate[2] >= bestCost) break;
+                int g = (int) candidate[0];
+                long start = candidate[1];
+                long[] gap = gaps.get(g);
+                boolean before = start > gap[0];
+                boolean after = start + lengths[i] < gap[1];
+
+                // Split the gap around the placement, search, then put it back
+                if (before && after) {
+                    gaps.set(g, new long[]{gap[0], start});
+                    gaps.add(g + 1, new long[]{start + lengths[i], gap[1]});
+                } else if (before) {
+                    gaps.set(g, new long[]{gap[0], start});
+                } else if (after) {
+                    gaps.set(g, new long[]{start + lengths[i], gap[1]});
+                } else {
+                    gaps.remove(g);
+                }
+                placed[i] = start;
+                search(i + 1, cost + candidate[2]);
+                if (before && after) {
+                    gaps.remove(g + 1);
+                    gaps.set(g, gap);
+                } else if (before || after) {
+                    gaps.set(g, gap);
+                } else {
+                    gaps.add(g, gap);
+                }
+                if (timedOut) return;
+            }
+        }
+    }
+}
+
+// Outcome of a scheduling operation, with the events involved in any conflict.
+class ScheduleResult {
+    enum Status { SCHEDULED, RESCHEDULED, CONFLICT, REJECTED, DUPLICATE, NOT_FOUND }
+
+    private final Status status;
+    private final Event event;
+    private final List<Event> conflicts;
+    private final String message;
+
+    private ScheduleResult(Status status, Event event, List<Event> conflicts, String message) {
+        this.status = status;
+        this.event = event;
+        this.conflicts = conflicts;
+        this.message = message;
+    }
+
+    static ScheduleResult scheduled(Event event) {
+        return new ScheduleResult(Status.SCHEDULED, event, Collections.emptyList(), "Event scheduled successfully!");
+    }
+
+    static ScheduleResult rescheduled(Event event, List<Event> moved) {
+        return new ScheduleResult(Status.RESCHEDULED, event, moved, "Event scheduled; conflicting events were rescheduled:");
+    }
+
+    static ScheduleResult conflict(Event event, List<Event> conflicts) {
+        return new ScheduleResult(Status.CONFLICT, event, conflicts, "Time slot conflict detected!");
+    }
+
+    static ScheduleResult rejected(Event event, List<Event> conflicts, String message) {
+        return new ScheduleResult(Status.REJECTED, event, conflicts, message);
+    }
+
+    static ScheduleResult duplicate(Event event) {
+        return new ScheduleResult(Status.DUPLICATE, event, Collections.emptyList(), "Event ID already exists on this day!");
+    }
+
+    static ScheduleResult committed(List<Event> events) {
+        return new ScheduleResult(Status.SCHEDULED, null, events, "All changes committed successfully!");
+    }
+
+    static ScheduleResult notFound(String what) {
+        return new ScheduleResult(Status.NOT_FOUND, null, Collections.emptyList(), what + " not found!");
+    }
+
+    public Status getStatus() { return status; }
+    public Event getEvent() { return event; }
+    // Overlapping events for CONFLICT, blocking events for REJECTED, moved events for RESCHEDULED,
+    // the scheduled and moved events of a committed transaction
+    public List<Event> getConflicts() { return conflicts; }
+    public String getMessage() { return message; }
+    public boolean isSuccess() { return status == Status.SCHEDULED || status == Status.RESCHEDULED; }
+}
+
+// Outcome of a batch import: how many events were loaded and why the others were not.
+class ImportResult {
+    private final int importedCount;
+    private final List<ScheduleResult> rejected;
+
+    ImportResult(int importedCount, List<ScheduleResult> rejected) {
+        this.importedCount = importedCount;
+        this.rejected = rejected;
+    }
+
+    public int getImportedCount() { return importedCount; }
+    // One CONFLICT, REJECTED, DUPLICATE or NOT_FOUND result per event that was not imported
+    public List<ScheduleResult> getRejected() { return rejected; }
+}
+
+// When a recurring series repeats, in the spirit of an iCalendar RRULE: every interval days, weeks (on chosen
+// weekdays) or months (on the start's day of month, skipping months too short for it), from a start date,
+// optionally limited by a count and/or an inclusive until date, minus excepted dates. Exceptions still count
+// towards the count. occursOn is arithmetic, so no occurrence list is ever built.
+final class RecurrenceRule {
+    enum Frequency { DAILY, WEEKLY, MONTHLY }
+
+    private final Frequency frequency;
+    private final int interval;
+    private final LocalDate start;
+    private final Set<DayOfWeek> weekdays;
+    private final int count;                    // 0 = no limit
+    private final LocalDate until;              // null = no limit
+    private final Set<LocalDate> exceptions;
+
+    RecurrenceRule(Frequency frequency, int interval, LocalDate start, Set<DayOfWeek> weekdays, int count,
+                   LocalDate until, Set<LocalDate> exceptions) {
+        if (interval < 1 || count < 0) {
+            throw new IllegalArgumentException("Interval must be positive and count non-negative");
+        }
+        this.frequency = frequency;
+        this.interval = interval;
+        this.start = start;
+        this.weekdays = weekdays.isEmpty() ? EnumSet.of(start.getDayOfWeek()) : EnumSet.copyOf(weekdays);
+        this.count = count;
+        this.until = until;
+        this.exceptions = Collections.unmodifiableSet(new HashSet<>(exceptions));
+    }
+
+    static RecurrenceRule daily(LocalDate start) {
+        return new RecurrenceRule(Frequency.DAILY, 1, start, EnumSet.noneOf(DayOfWeek.class), 0, null, Collections.emptySet());
+    }
+
+    // Weekly on the given weekdays, or on the start's weekday if none are given.
+    static RecurrenceRule weekly(LocalDate start, DayOfWeek... days) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        weekdays.addAll(Arrays.asList(days));
+        return new RecurrenceRule(Frequency.WEEKLY, 1, start, weekdays, 0, null, Collections.emptySet());
+    }
+
+    static RecurrenceRule monthly(LocalDate start) {
+        return new RecurrenceRule(Frequency.MONTHLY, 1, start, EnumSet.noneOf(DayOfWeek.class), 0, null, Collections.emptySet());
+    }
+
+    RecurrenceRule every(int interval) {
+        return new RecurrenceRule(frequency, interval, start, weekdays, count, until, exceptions);
+    }
+
+    RecurrenceRule times(int count) {
+        return new RecurrenceRule(frequency, interval, start, weekdays, count, until, exceptions);
+    }
+
+    RecurrenceRule until(LocalDate until) {
+        return new RecurrenceRule(frequency, interval, start, weekdays, count, until, exceptions);
+    }
+
+    RecurrenceRule except(LocalDate date) {
+        Set<LocalDate> excepted = new HashSet<>(exceptions);
+        excepted.add(date);
+        return new RecurrenceRule(frequency, interval, start, weekdays, count, until, excepted);
+    }
+
+    public Frequency getFrequency() { return frequency; }
+    public int getInterval() { return interval; }
+    public LocalDate getStart() { return start; }
+    public Set<DayOfWeek> getWeekdays() { return Collections.unmodifiableSet(weekdays); }
+    public int getCount() { return count; }
+    public LocalDate getUntil() { return until; }
+    public Set<LocalDate> getExceptions() { return exceptions; }
+
+    // Returns true if the series has an occurrence on the date.
+    public boolean occursOn(LocalDate date) {
+        if (date.isBefore(start) || (until != null && date.isAfter(until)) || exceptions.contains(date)) {
+            return false;
+        }
+        long index = index(date);
+        return index >= 0 && (count == 0 || index < count);
+    }
+
+    // Dates of the occurrences in [from, to], in order.
+    public List<LocalDate> occurrences(LocalDate from, LocalDate to) {
+        List<LocalDate> dates = new ArrayList<>();
+        LocalDate last = until != null && until.isBefore(to) ? until : to;
+        for (LocalDate date = from.isBefore(start) ? start : from; !date.isAfter(last); date = date.plusDays(1)) {
+            if (occursOn(date)) {
+                dates.add(date);
+            }
+        }
+        return dates;
+    }
+
+    // Position of the date among the rule's dates (exceptions included), or -1 if the pattern skips it.
+    private long index(LocalDate date) {
+        switch (frequency) {
+            case DAILY: {
+                long days = java.time.temporal.ChronoUnit.DAYS.between(start, date);
+                return days % interval == 0 ? days / interval : -1;
+            }
+            case WEEKLY: {
+                if (!weekdays.contains(date.getDayOfWeek())) {
+                    return -1;
+                }
+                long weeks = java.time.temporal.ChronoUnit.WEEKS.between(
+                        start.with(DayOfWeek.MONDAY), date.with(DayOfWeek.MONDAY));
+                if (weeks % interval != 0) {
+                    return -1;
+                }
+                // Chosen weekdays of the first week that fall before the start never happen
+                return weeks / interval * weekdays.size() + weekdaysBefore(date.getDayOfWeek())
+                        - weekdaysBefore(start.getDayOfWeek());
+            }
+            default: {
+                int day = start.getDayOfMonth();
+                if (date.getDayOfMonth() != day) {
+                    return -1;
+                }
+                YearMonth first = YearMonth.from(start);
+                long months = java.time.temporal.ChronoUnit.MONTHS.between(first, YearMonth.from(date));
+                if (months % interval != 0) {
+                    return -1;
+                }
+                long index = 0;
+                for (long m = 0; m < months; m += interval) {
+                    if (first.plusMonths(m).isValidDay(day)) {
+                        index++;
+                    }
+                }
+                return index;
+            }
+        }
+    }
+
+    private int weekdaysBefore(DayOfWeek day) {
+        int n = 0;
+        for (DayOfWeek weekday : weekdays) {
+            if (weekday.compareTo(day) < 0) n++;
+        }
+        return n;
+    }
+}
+
+// A recurring event stored once: a rule plus a template holding the details, time of day and duration.
+// Occurrences are built on demand and carry the same IDs as materialized occurrences (baseEventId_yyyy-MM-dd).
+final class RecurringSeries {
+    private final String baseEventId;
+    private final Event template;
+    private final RecurrenceRule rule;
+
+    RecurringSeries(String baseEventId, Event template, RecurrenceRule rule) {
+        this.baseEventId = baseEventId;
+        this.template = template;
+        this.rule = rule;
+    }
+
+    public String getBaseEventId() { return baseEventId; }
+    public Event getTemplate() { return template; }
+    public RecurrenceRule getRule() { return rule; }
+
+    public boolean occursOn(LocalDate date) {
+        return rule.occursOn(date);
+    }
+
+    // The occurrence on a date; only meaningful if occursOn(date).
+    public Event occurrence(LocalDate date) {
+        LocalDateTime start = LocalDateTime.of(date, template.getStartTime().toLocalTime());
+        return new Event(Scheduler.occurrenceId(baseEventId, date), template.getTitle(), template.getDescription(),
+                template.getDuration(), start, start.plus(template.getDuration()), template.getPriority(), true);
+    }
+
+    public RecurringSeries withException(LocalDate date) {
+        return new RecurringSeries(baseEventId, template, rule.except(date));
+    }
+}
+
+// Bounded, least-recently-used cache of free-slot query results, keyed by day, query window and minimum duration.
+// A change to a day drops only the cached windows on that day that overlap the changed range, so polling a
+// calendar that rarely changes is answered from memory. Hit, miss, eviction and invalidation counts are kept
+// so the capacity can be sized. Thread-safe.
+final class FreeSlotCache {
+    private static final class Key {
+        final LocalDate date;
+        final LocalDateTime windowStart;
+        final LocalDateTime windowEnd;
+        final Duration minDuration;
+
+        Key(LocalDate date, LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+            this.date = date;
+            this.windowStart = windowStart;
+            this.windowEnd = windowEnd;
+            this.minDuration = minDuration;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return date.equals(key.date) && windowStart.equals(key.windowStart)
+                    && windowEnd.equals(key.windowEnd) && minDuration.equals(key.minDuration);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(date, windowStart, windowEnd, minDuration);
+        }
+
+        // Whether a change to the half-open range [start, end) can alter this query's result.
+        boolean touches(LocalDateTime start, LocalDateTime end) {
+            return start.isBefore(windowEnd) && windowStart.isBefore(end);
+        }
+    }
+
+    private int capacity;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    private final LinkedHashMap<Key, List<TimeSlot>> entries = new LinkedHashMap<Key, List<TimeSlot>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, List<TimeSlot>> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            forget(eldest.getKey());
+            evictions++;
+            return true;
+        }
+    };
+    // Cached keys by day, so a change visits only its own day's entries
+    private final Map<LocalDate, Set<Key>> byDate = new HashMap<>();
+
+    // Creates a cache holding up to capacity results; 0 disables caching.
+    public FreeSlotCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    // Returns a copy of the cached result, or null (counted as a miss) if the query is not cached.
+    public synchronized List<TimeSlot> get(LocalDate date, LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+        List<TimeSlot> slots = entries.get(new Key(date, windowStart, windowEnd, minDuration));
+        if (slots == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ArrayList<>(slots);
+    }
+
+    // Caches a result unless current reports that the state it was computed from has changed since. The check
+    // runs under the cache's lock, so it cannot interleave with an invalidation.
+    public synchronized void put(LocalDate date, LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration,
+                                 List<TimeSlot> slots, java.util.function.BooleanSupplier current) {
+        if (capacity == 0 || !current.getAsBoolean()) {
+            return;
+        }
+        Key key = new Key(date, windowStart, windowEnd, minDuration);
+        entries.put(key, new ArrayList<>(slots));
+        byDate.computeIfAbsent(date, d -> new HashSet<>()).add(key);
+    }
+
+    // Drops the day's cached results whose window overlaps [start, end).
+    public synchronized void invalidate(LocalDate date, LocalDateTime start, LocalDateTime end) {
+        Set<Key> keys = byDate.get(date);
+        if (keys == null) {
+            return;
+        }
+        for (Iterator<Key> it = keys.iterator(); it.hasNext(); ) {
+            Key key = it.next();
+            if (key.touches(start, end)) {
+                it.remove();
+                entries.remove(key);
+                invalidations++;
+            }
+        }
+        if (keys.isEmpty()) {
+            byDate.remove(date);
+        }
+    }
+
+    // Drops every cached result of a day.
+    public synchronized void invalidate(LocalDate date) {
+        Set<Key> keys = byDate.remove(date);
+        if (keys != null) {
+            entries.keySet().removeAll(keys);
+            invalidations += keys.size();
+        }
+    }
+
+    // Drops every cached result.
+    public synchronized void clear() {
+        invalidations += entries.size();
+        entries.clear();
+        byDate.clear();
+    }
+
+    // Changes how many results are kept, evicting the least recently used ones beyond it.
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        for (Iterator<Key> it = entries.keySet().iterator(); entries.size() > capacity && it.hasNext(); ) {
+            forget(it.next());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private void forget(Key key) {
+        Set<Key> keys = byDate.get(key.date);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            byDate.remove(key.date);
+        }
+    }
+
+    public synchronized int getCapacity() { return capacity; }
+    public synchronized int size() { return entries.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized long getInvalidations() { return invalidations; }
+
+    // Fraction of lookups answered from the cache, 0 before the first lookup.
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d cached, %d hits, %d misses (%.1f%% hit rate), %d evicted, %d invalidated",
+                entries.size(), capacity, hits, misses, 100 * getHitRate(), evictions, invalidations);
+    }
+}
+
+// Lock-free latency histogram in the style of HdrHistogram: values below 64 ns get a bucket each, larger values
+// fall into 32 linear sub-buckets per power of two, so every recorded value is kept to within 1/32 (about 3%)
+// in a fixed 1888-slot array. Any number of threads may record and read at once.
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 32;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int SLOTS = LINEAR + (63 - 6) * SUB_BUCKETS;
+
+    private final java.util.concurrent.atomic.AtomicLongArray counts = new java.util.concurrent.atomic.AtomicLongArray(SLOTS);
+    private final java.util.concurrent.atomic.LongAdder total = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAdder sum = new java.util.concurrent.atomic.LongAdder();
+    private final java.util.concurrent.atomic.LongAccumulator max = new java.util.concurrent.atomic.LongAccumulator(Math::max, 0);
+
+    // Records one value in nanoseconds; negative values count as 0.
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(slot(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    // Smallest recorded value that at least the given percentage of values do not exceed, rounded up to the end
+    // of its bucket (never beyond the maximum); 0 when nothing was recorded.
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[SLOTS];
+        long count = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestInSlot(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int slot(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - 5)) - SUB_BUCKETS;
+        return LINEAR + (exponent - 6) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestInSlot(int slot) {
+        if (slot < LINEAR) {
+            return slot;
+        }
+        int exponent = 6 + (slot - LINEAR) / SUB_BUCKETS;
+        long subBucket = SUB_BUCKETS + (slot - LINEAR) % SUB_BUCKETS;
+        return ((subBucket + 1) << (exponent - 5)) - 1;
+    }
+}
+
+// Operation metrics of a scheduler: a latency histogram per operation, counters for conflict handling, and gauges
+// and per-day sections that are only read when a report is made. Recording never locks. DISABLED records nothing
+// and does not even read the clock, so an uninstrumented scheduler pays one volatile read and a branch per operation.
+final class SchedulerMetrics {
+    enum Operation {
+        SCHEDULE, MODIFY, DELETE, PLACE, COMMIT, IMPORT, ADD_SERIES, FIND_FREE_SLOTS, FIND_CONFLICTS, RESCHEDULE
+    }
+
+    enum Counter {
+        CONFLICTS,              // Bookings and moves that overlapped other events
+        RESCHEDULES,            // Conflicts resolved by moving lower-priority events
+        RESCHEDULE_FAILURES     // Conflicts whose events could not all be moved
+    }
+
+    static final SchedulerMetrics DISABLED = new SchedulerMetrics(false);
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final boolean enabled;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final java.util.concurrent.atomic.LongAdder[] counters = new java.util.concurrent.atomic.LongAdder[Counter.values().length];
+    private final Map<String, java.util.function.LongSupplier> gauges = new java.util.concurrent.ConcurrentSkipListMap<>();
+    private final Map<String, java.util.function.Supplier<List<String>>> sections = new java.util.concurrent.ConcurrentSkipListMap<>();
+
+    public SchedulerMetrics() {
+        this(true);
+    }
+
+    private SchedulerMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new java.util.concurrent.atomic.LongAdder();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Start time of an operation to pass to record(), or 0 when disabled.
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(Operation operation, long started) {
+        if (enabled) {
+            latencies[operation.ordinal()].record(System.nanoTime() - started);
+        }
+    }
+
+    void increment(Counter counter) {
+        if (enabled) {
+            counters[counter.ordinal()].increment();
+        }
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    // Registers a value read at report time, replacing any gauge of the same name. Ignored when disabled.
+    public void gauge(String name, java.util.function.LongSupplier value) {
+        if (enabled) {
+            gauges.put(name, value);
+        }
+    }
+
+    // Registers a block of lines produced at report time, such as one line per day. Ignored when disabled.
+    public void section(String name, java.util.function.Supplier<List<String>> lines) {
+        if (enabled) {
+            sections.put(name, lines);
+        }
+    }
+
+    // Latency percentiles in microseconds for every operation that ran, then counters, gauges and sections.
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        out.append("# Scheduler metrics at ").append(LocalDateTime.now().format(TIMESTAMP)).append('\n');
+        out.append(String.format("%-16s %10s %10s %10s %10s %10s %10s %10s  (us)%n",
+                "operation", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            out.append(String.format(Locale.ROOT, "%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    operation.name().toLowerCase(Locale.ROOT), histogram.getCount(), histogram.getMean() / 1e3,
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(90) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+                    histogram.getMax() / 1e3));
+        }
+        for (Counter counter : Counter.values()) {
+            out.append("counter ").append(counter.name().toLowerCase(Locale.ROOT)).append(' ').append(getCount(counter)).append('\n');
+        }
+        for (Map.Entry<String, java.util.function.LongSupplier> gauge : gauges.entrySet()) {
+            out.append("gauge ").append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, java.util.function.Supplier<List<String>>> section : sections.entrySet()) {
+            out.append('[').append(section.getKey()).append("]\n");
+            for (String line : section.getValue().get()) {
+                out.append(line).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    // Writes a report to a file, replacing it atomically so readers never see half a report.
+    public void dump(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, report().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Dumps a report to a file at a fixed interval from a daemon thread until the returned handle is closed,
+    // which writes one last report. A failed write does not stop the timer; close() throws the last one.
+    public Closeable dumpEvery(Path file, Duration interval) {
+        java.util.concurrent.atomic.AtomicReference<IOException> failure = new java.util.concurrent.atomic.AtomicReference<>();
+        java.util.concurrent.ScheduledExecutorService timer = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "scheduler-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        }, interval.toMillis(), interval.toMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
+        return () -> {
+            // Lets a running dump finish instead of interrupting it halfway through the file
+            timer.shutdown();
+            try {
+                timer.awaitTermination(1, java.util.concurrent.TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            IOException last = failure.get();
+            try {
+                dump(file);
+            } catch (IOException e) {
+                if (last != null) {
+                    e.addSuppressed(last);
+                }
+                throw e;
+            }
+            if (last != null) {
+                throw last;
+            }
+        };
+    }
+}
+
+// A batch of scheduling changes applied all together or not at all. Changes are only recorded until commit(),
+// which locks every involved day, checks the whole batch against the calendar as it would look after the earlier
+// changes, and applies it only if every change fits. Other threads see either none or all of the batch.
+// Overlaps are always rejected; a transaction never moves events it does not name.
+class ScheduleTransaction {
+    enum Kind { SCHEDULE, MOVE, DELETE }
+
+    // One staged change; start and duration are only used by MOVE.
+    static class Change {
+        final Kind kind;
+        final LocalDate date;
+        final Event event;
+        final String eventId;
+        final LocalDateTime newStart;
+        final Duration newDuration;
+
+        Change(Kind kind, LocalDate date, Event event, String eventId, LocalDateTime newStart, Duration newDuration) {
+            this.kind = kind;
+            this.date = date;
+            this.event = event;
+            this.eventId = eventId;
+            this.newStart = newStart;
+            this.newDuration = newDuration;
+        }
+    }
+
+    private final Scheduler scheduler;
+    private final List<Change> changes = new ArrayList<>();
+
+    ScheduleTransaction(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    // Stages a new event on a day.
+    public ScheduleTransaction schedule(LocalDate date, Event event) {
+        changes.add(new Change(Kind.SCHEDULE, date, event, event.getEventId(), null, null));
+        return this;
+    }
+
+    // Stages moving an occurrence to a new start time and duration on the same day.
+    public ScheduleTransaction move(LocalDate date, String eventId, LocalDateTime newStart, Duration newDuration) {
+        changes.add(new Change(Kind.MOVE, date, null, eventId, newStart, newDuration));
+        return this;
+    }
+
+    // Stages removing an occurrence.
+    public ScheduleTransaction delete(LocalDate date, String eventId) {
+        changes.add(new Change(Kind.DELETE, date, null, eventId, null, null));
+        return this;
+    }
+
+    List<Change> getChanges() { return changes; }
+
+    // Applies every staged change, or none of them. On failure the result names the change that did not fit.
+    public ScheduleResult commit() {
+        return scheduler.commit(this);
+    }
+}
+
+// Non-interactive scheduling engine: owns the per-day interval trees and the event index,
+// and reports every outcome as a ScheduleResult instead of prompting or printing.
+// Thread-safe: each day is guarded by one of LOCK_STRIPES read/write locks, so bookings on different days run in
+// parallel. Operations spanning several days take their stripes in ascending order, and every write also holds
+// the calendar lock in shared mode so freeze() can wait for a quiet calendar. Journal commits run after all locks
+// are released, so concurrent committers can share an fsync.
+// Availability queries (getEvents, findFreeSlots, findConflicts) take no lock: they read a PersistentIntervalTree
+// per day that a write stages privately and publishes only when it finishes, so they never see half of a change.
+// Rule-based series are kept apart from the trees and expanded per day into a small cache; every query and
+// conflict check sees a day's stored events and series occurrences together.
+class Scheduler {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final int LOCK_STRIPES = 64;
+    private static final int EXPANSION_CACHE_DAYS = 1024;
+    private static final int FREE_SLOT_CACHE_SIZE = 4096;
+
+    // Sorted by date, so day listings come out in order and date ranges are a submap
+    private final java.util.concurrent.ConcurrentNavigableMap<LocalDate, IntervalTree> dailyEvents;
+    // Base event ID -> (occurrence ID -> date), so lookups never scan every day's tree
+    private final Map<String, Map<String, LocalDate>> eventIndex;
+    private final LocalTime dayStart;
+    private final LocalTime dayEnd;
+    // Day locks, striped by epoch day so consecutive days never share a lock
+    private final java.util.concurrent.locks.ReentrantReadWriteLock[] dayLocks;
+    // One monitor per lock stripe, held while a day is loaded from the snapshot; readers share the day lock itself
+    private final Object[] loadLocks;
+    // Held shared by every write and exclusively by freeze()
+    private final java.util.concurrent.locks.ReentrantReadWriteLock calendarLock =
+            new java.util.concurrent.locks.ReentrantReadWriteLock();
+    // Receives every change so it can be made durable; NONE keeps the calendar in memory only
+    private volatile ScheduleJournal journal = ScheduleJournal.NONE;
+    // Latencies, conflict counters and gauges; DISABLED records nothing
+    private volatile SchedulerMetrics metrics = SchedulerMetrics.DISABLED;
+    // Places the events displaced by RESCHEDULE_LOWER_PRIORITY
+    private volatile ConflictResolver resolver = new OptimalConflictResolver(Duration.ofMillis(5));
+    // Days not yet in dailyEvents are materialized from this snapshot the first time they are touched
+    private volatile ColumnarSnapshot snapshot;
+    // Days before this date have been archived and are no longer part of the calendar; null if none were
+    private volatile LocalDate archivedBefore;
+    // Whether a write to a day the calendar does not have yet creates it
+    private volatile boolean createDaysOnDemand;
+    // Whether day trees keep a per-minute occupancy bitmap
+    private volatile boolean minuteBitmaps;
+    // Read-only copy of each materialized day as of the last finished write; present whenever the day's tree is
+    private final Map<LocalDate, PersistentIntervalTree> views = new java.util.concurrent.ConcurrentHashMap<>();
+    // Copies changed by writes still in progress, published to views when the write releases its locks
+    private final Map<LocalDate, PersistentIntervalTree> staged = new java.util.concurrent.ConcurrentHashMap<>();
+    // Rule-based recurring series by base event ID, each stored once
+    private final Map<String, RecurringSeries> seriesById = new java.util.concurrent.ConcurrentHashMap<>();
+    // Series occurrences excepted by writes in progress, applied to seriesById when the day is published
+    private final Map<LocalDate, Set<String>> stagedExceptions = new java.util.concurrent.ConcurrentHashMap<>();
+    // Bumped after every series change; cached expansions made under an older version are recomputed
+    private final java.util.concurrent.atomic.AtomicLong seriesVersion = new java.util.concurrent.atomic.AtomicLong();
+    // Told about every day a write changed, with the changed ranges and the day still locked
+    private volatile java.util.function.BiConsumer<LocalDate, List<TimeSlot>> publishListener = (date, changed) -> { };
+    // Ranges changed by writes still in progress, whose cached free slots are dropped when the day is published
+    private final Map<LocalDate, List<TimeSlot>> stagedChanges = new java.util.concurrent.ConcurrentHashMap<>();
+    // Results of recent findFreeSlots queries
+    private final FreeSlotCache freeSlotCache = new FreeSlotCache(FREE_SLOT_CACHE_SIZE);
+    // Most recently used days' series occurrences
+    private final Map<LocalDate, ExpandedDay> expansions = Collections.synchronizedMap(
+            new LinkedHashMap<LocalDate, ExpandedDay>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<LocalDate, ExpandedDay> eldest) {
+                    return size() > EXPANSION_CACHE_DAYS;
+                }
+            });
+
+    // The series occurrences of one day, as of a series version.
+    private static class ExpandedDay {
+        final long version;
+        final PersistentIntervalTree occurrences;
+
+        ExpandedDay(long version, PersistentIntervalTree occurrences) {
+            this.version = version;
+            this.occurrences = occurrences;
+        }
+    }
+
+    // Creates an empty tree for each of the given number of days starting at startDate.
+    public Scheduler(LocalDate startDate, int totalDays, LocalTime dayStart, LocalTime dayEnd) {
+        this.dailyEvents = new java.util.concurrent.ConcurrentSkipListMap<>();
+        this.eventIndex = new java.util.concurrent.ConcurrentHashMap<>();
+        this.dayStart = dayStart;
+        this.dayEnd = dayEnd;
+        this.dayLocks = new java.util.concurrent.locks.ReentrantReadWriteLock[LOCK_STRIPES];
+        this.loadLocks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            dayLocks[i] = new java.util.concurrent.locks.ReentrantReadWriteLock();
+            loadLocks[i] = new Object();
+        }
+        for (int i = 0; i < totalDays; i++) {
+            addDay(startDate.plusDays(i));
+        }
+    }
+
+    private java.util.concurrent.locks.ReentrantReadWriteLock dayLock(LocalDate date) {
+        return dayLocks[(int) Math.floorMod(date.toEpochDay(), (long) LOCK_STRIPES)];
+    }
+
+    // Runs a read under the day's shared lock.
+    private <T> T readDay(LocalDate date, java.util.function.Supplier<T> action) {
+        java.util.concurrent.locks.Lock lock = dayLock(date).readLock();
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs a change under the day's exclusive lock.
+    private <T> T writeDay(LocalDate date, java.util.function.Supplier<T> action) {
+        return writeDays(Collections.singleton(date), action);
+    }
+
+    // Runs a change under the exclusive locks of several days, taken in ascending stripe order so two
+    // multi-day operations can never wait on each other in a cycle.
+    private <T> T writeDays(Collection<LocalDate> dates, java.util.function.Supplier<T> action) {
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (LocalDate date : dates) {
+            stripes[(int) Math.floorMod(date.toEpochDay(), (long) LOCK_STRIPES)] = true;
+        }
+        calendarLock.readLock().lock();
+        int locked = 0;
+        try {
+            for (; locked < LOCK_STRIPES; locked++) {
+                if (stripes[locked]) {
+                    dayLocks[locked].writeLock().lock();
+                }
+            }
+            if (createDaysOnDemand) {
+                for (LocalDate date : dates) {
+                    if (dayTree(date) == null && !isArchived(date)) {
+                        addWrittenDay(date);
+                    }
+                }
+            }
+            return action.get();
+        } finally {
+            publish(dates);
+            while (--locked >= 0) {
+                if (stripes[locked]) {
+                    dayLocks[locked].writeLock().unlock();
+                }
+            }
+            calendarLock.readLock().unlock();
+        }
+    }
+
+    // Makes the staged copies of the given days visible to readers, then applies their staged series exceptions.
+    // Called with the days still locked.
+    private void publish(Collection<LocalDate> dates) {
+        for (LocalDate date : dates) {
+            PersistentIntervalTree view = staged.remove(date);
+            if (view != null) {
+                views.put(date, view);
+            }
+            List<TimeSlot> changed = stagedChanges.remove(date);
+            changed = changed == null ? new ArrayList<>() : changed;
+            for (TimeSlot range : changed) {
+                freeSlotCache.invalidate(date, range.getStart(), range.getEnd());
+            }
+            Set<String> excepted = stagedExceptions.remove(date);
+            if (excepted != null) {
+                List<Event> freed = new ArrayList<>();
+                for (String baseEventId : excepted) {
+                    RecurringSeries series = seriesById.computeIfPresent(baseEventId, (id, old) -> old.withException(date));
+                    if (series != null) {
+                        freed.add(series.occurrence(date));
+                    }
+                }
+                seriesVersion.incrementAndGet();
+                for (Event occurrence : freed) {
+                    freeSlotCache.invalidate(date, occurrence.getStartTime(), occurrence.getEndTime());
+                    changed.add(new TimeSlot(occurrence.getStartTime(), occurrence.getEndTime()));
+                }
+            }
+            if (!changed.isEmpty()) {
+                publishListener.accept(date, changed);
+            }
+        }
+    }
+
+    // Notes that a running write changed [start, end) on a day. Called with the day locked for writing.
+    private void recordChange(LocalDate date, LocalDateTime start, LocalDateTime end) {
+        stagedChanges.computeIfAbsent(date, d -> new ArrayList<>()).add(new TimeSlot(start, end));
+    }
+
+    // Drops cached free slots on the days a series occurs and records them as changed. Called after the series
+    // change is visible, with those days locked for writing.
+    private void invalidateSeries(RecurringSeries series) {
+        for (LocalDate date : getDates()) {
+            if (series.occursOn(date)) {
+                Event occurrence = series.occurrence(date);
+                freeSlotCache.invalidate(date, occurrence.getStartTime(), occurrence.getEndTime());
+                recordChange(date, occurrence.getStartTime(), occurrence.getEndTime());
+            }
+        }
+    }
+
+    // Starts recording operation latencies and conflict counters into metrics, and registers this calendar's
+    // gauges and per-day tree sizes with it. Pass SchedulerMetrics.DISABLED to stop recording.
+    public void setMetrics(SchedulerMetrics metrics) {
+        setMetrics(metrics, "");
+    }
+
+    // Same, with every gauge and section name prefixed, so several calendars can report into one SchedulerMetrics.
+    void setMetrics(SchedulerMetrics metrics, String prefix) {
+        metrics.gauge(prefix + "days", dailyEvents::size);
+        metrics.gauge(prefix + "events", () -> views.values().stream().mapToLong(PersistentIntervalTree::size).sum());
+        metrics.gauge(prefix + "max-day-events", () -> views.values().stream().mapToLong(PersistentIntervalTree::size).max().orElse(0));
+        metrics.gauge(prefix + "max-day-height", () -> views.values().stream().mapToLong(PersistentIntervalTree::height).max().orElse(0));
+        metrics.gauge(prefix + "series", seriesById::size);
+        metrics.gauge(prefix + "free-slot-cache-hits", freeSlotCache::getHits);
+        metrics.gauge(prefix + "free-slot-cache-misses", freeSlotCache::getMisses);
+        metrics.section(prefix + "days", () -> {
+            // Published copies are immutable and balanced like the day trees, so they are read without locking
+            List<String> lines = new ArrayList<>();
+            for (Map.Entry<LocalDate, IntervalTree> day : dailyEvents.entrySet()) {
+                PersistentIntervalTree view = views.get(day.getKey());
+                if (view != null) {
+                    lines.add(day.getKey() + " events=" + view.size() + " height=" + view.height());
+                }
+            }
+            return lines;
+        });
+        this.metrics = metrics;
+    }
+
+    public SchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Returns the cache behind findFreeSlots, for its hit/miss counters and capacity.
+    public FreeSlotCache getFreeSlotCache() {
+        return freeSlotCache;
+    }
+
+    // Registers a callback run after each write for every day whose busy time it changed, with the changed
+    // ranges, once the day's new state is visible to readers and before the day is unlocked, so callbacks for one
+    // day run in the order of its writes. Outside the ranges, the day's free time is as it was.
+    void setPublishListener(java.util.function.BiConsumer<LocalDate, List<TimeSlot>> listener) {
+        this.publishListener = listener;
+    }
+
+    // Whether the calendar has the day, in memory or in its snapshot, without loading it.
+    boolean hasDay(LocalDate date) {
+        ColumnarSnapshot source = snapshot;
+        return dailyEvents.containsKey(date) || (source != null && source.hasDay(date) && !isArchived(date));
+    }
+
+    // Occurrences of every rule-based series on a day, expanded once per series version.
+    private PersistentIntervalTree seriesOccurrences(LocalDate date) {
+        if (seriesById.isEmpty()) {
+            return PersistentIntervalTree.EMPTY;
+        }
+        long version = seriesVersion.get();
+        ExpandedDay cached = expansions.get(date);
+        if (cached != null && cached.version == version) {
+            return cached.occurrences;
+        }
+        List<Event> occurrences = new ArrayList<>();
+        for (RecurringSeries series : seriesById.values()) {
+            if (series.occursOn(date)) {
+                occurrences.add(series.occurrence(date));
+            }
+        }
+        PersistentIntervalTree expanded = PersistentIntervalTree.of(occurrences);
+        expansions.put(date, new ExpandedDay(version, expanded));
+        return expanded;
+    }
+
+    // Series occurrences a write on the day must respect: leaves out those excepted by the running write and
+    // those already stored as events. Called with the day locked for writing.
+    private List<Event> activeOccurrences(LocalDate date, IntervalTree tree) {
+        PersistentIntervalTree expanded = seriesOccurrences(date);
+        if (expanded.size() == 0) {
+            return Collections.emptyList();
+        }
+        Set<String> excepted = stagedExceptions.getOrDefault(date, Collections.emptySet());
+        List<Event> active = new ArrayList<>(expanded.size());
+        for (Event occurrence : expanded.getAllEvents()) {
+            if (!tree.contains(occurrence.getEventId()) && !excepted.contains(baseEventId(occurrence))) {
+                active.add(occurrence);
+            }
+        }
+        return active;
+    }
+
+    // Everything busy on a day for a running write: the staged copy of its events plus its active series occurrences.
+    private PersistentIntervalTree busyView(LocalDate date, IntervalTree tree) {
+        List<Event> occurrences = activeOccurrences(date, tree);
+        PersistentIntervalTree view = workingView(date);
+        return occurrences.isEmpty() ? view : view.putAll(occurrences);
+    }
+
+    // Merges two start-ordered event lists; an event whose ID is already in the first list is dropped from the second.
+    private static List<Event> mergeByStart(List<Event> stored, List<Event> occurrences) {
+        if (occurrences.isEmpty()) {
+            return stored;
+        }
+        Set<String> storedIds = new HashSet<>();
+        for (Event event : stored) {
+            storedIds.add(event.getEventId());
+        }
+        List<Event> merged = new ArrayList<>(stored.size() + occurrences.size());
+        int i = 0;
+        for (Event occurrence : occurrences) {
+            if (storedIds.contains(occurrence.getEventId())) {
+                continue;
+            }
+            while (i < stored.size() && !stored.get(i).getStartTime().isAfter(occurrence.getStartTime())) {
+                merged.add(stored.get(i++));
+            }
+            merged.add(occurrence);
+        }
+        while (i < stored.size()) {
+            merged.add(stored.get(i++));
+        }
+        return merged;
+    }
+
+    // Returns the copy of a day that the running write is building. Called with the day locked for writing.
+    private PersistentIntervalTree workingView(LocalDate date) {
+        PersistentIntervalTree view = staged.get(date);
+        return view != null ? view : views.getOrDefault(date, PersistentIntervalTree.EMPTY);
+    }
+
+    // Returns the published copy of a day, materializing it from the snapshot first if needed; null if the day does not exist.
+    private PersistentIntervalTree publishedView(LocalDate date) {
+        PersistentIntervalTree view = views.get(date);
+        if (view == null && readDay(date, () -> dayTree(date)) != null) {
+            view = views.get(date);
+        }
+        return view;
+    }
+
+    // Blocks new changes and waits for running ones to finish, so the calendar can be read consistently
+    // (e.g. for a snapshot). Must be paired with unfreeze() on the same thread.
+    void freeze() {
+        calendarLock.writeLock().lock();
+    }
+
+    void unfreeze() {
+        calendarLock.writeLock().unlock();
+    }
+
+    private IntervalTree newDayTree(LocalDate date) {
+        IntervalTree tree = new IntervalTree(LocalDateTime.of(date, dayStart), LocalDateTime.of(date, dayEnd));
+        if (minuteBitmaps) {
+            tree.setMinuteBitmap(true);
+        }
+        return tree;
+    }
+
+    // Adds an empty day; the view goes in first so a reader that finds the tree always finds the view.
+    private void addDay(LocalDate date) {
+        views.put(date, PersistentIntervalTree.EMPTY);
+        dailyEvents.put(date, newDayTree(date));
+    }
+
+    private static ScheduleResult invalidPriority(Event event) {
+        return ScheduleResult.rejected(event, Collections.emptyList(), "Priority must be between "
+                + Event.HIGHEST_PRIORITY + " and " + Event.LOWEST_PRIORITY + ": " + event.getPriority());
+    }
+
+    // Rejects an event that does not lie inside date's window with a positive length, or returns null. Overlaps
+    // are only checked within one day's tree, so an event reaching past midnight (or outside the window) could
+    // overlap bookings of the next day unseen. A window ending at LocalTime.MAX runs to midnight.
+    ScheduleResult outsideWindow(LocalDate date, Event event) {
+        LocalDateTime windowStart = LocalDateTime.of(date, dayStart);
+        LocalDateTime windowEnd = dayEnd.equals(LocalTime.MAX) ? date.plusDays(1).atStartOfDay() : LocalDateTime.of(date, dayEnd);
+        if (event.getStartTime() == null || event.getEndTime() == null || !event.getStartTime().isBefore(event.getEndTime())) {
+            return ScheduleResult.rejected(event, Collections.emptyList(), "An event must end after it starts");
+        }
+        if (event.getStartTime().isBefore(windowStart) || event.getEndTime().isAfter(windowEnd)) {
+            return ScheduleResult.rejected(event, Collections.emptyList(), "An event must lie between " + windowStart
+                    + " and " + windowEnd + ": " + event.getStartTime() + " to " + event.getEndTime());
+        }
+        return null;
+    }
+
+    // Adds an empty day inside a write; its whole window becomes free, which publishing reports as changed.
+    private void addWrittenDay(LocalDate date) {
+        addDay(date);
+        recordChange(date, LocalDateTime.of(date, dayStart), LocalDateTime.of(date, dayEnd));
+    }
+
+    // Returns a day's tree, materializing it from the snapshot on first use; null if the day does not exist.
+    private IntervalTree dayTree(LocalDate date) {
+        IntervalTree tree = dailyEvents.get(date);
+        ColumnarSnapshot source = snapshot;
+        if (tree == null && source != null && source.hasDay(date) && !isArchived(date)) {
+            // Readers of the same day race here under its shared lock. The first one to take the stripe's load
+            // monitor loads the day; the others wait for it and then find the day in dailyEvents, which is put
+            // last, so whoever sees the tree also sees its view and index entries.
+            synchronized (loadLocks[(int) Math.floorMod(date.toEpochDay(), (long) LOCK_STRIPES)]) {
+                tree = dailyEvents.get(date);
+                if (tree == null) {
+                    IntervalTree loaded = newDayTree(date);
+                    views.put(date, PersistentIntervalTree.of(loadFromSnapshot(date, loaded)));
+                    dailyEvents.put(date, loaded);
+                    tree = loaded;
+                }
+            }
+        }
+        return tree;
+    }
+
+    private List<Event> loadFromSnapshot(LocalDate date, IntervalTree tree) {
+        List<Event> events = snapshot.readDay(date);
+        tree.bulkLoad(events);
+        for (Event event : events) {
+            index(date, event);
+        }
+        return events;
+    }
+
+    // Recovery: serves days lazily from a snapshot. Days that already exist in memory receive the
+    // snapshot's events for that day right away.
+    void attachSnapshot(ColumnarSnapshot snapshot) {
+        this.snapshot = snapshot;
+        for (Map.Entry<LocalDate, IntervalTree> day : dailyEvents.entrySet()) {
+            if (snapshot.hasDay(day.getKey())) {
+                List<Event> events = loadFromSnapshot(day.getKey(), day.getValue());
+                views.merge(day.getKey(), PersistentIntervalTree.of(events), (view, loaded) -> view.putAll(events));
+            }
+        }
+        freeSlotCache.clear();
+    }
+
+    // Switches lazy loading to a newer snapshot that already contains every materialized day.
+    void replaceSnapshot(ColumnarSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    // Returns true if the day's events are held in memory.
+    boolean isMaterialized(LocalDate date) {
+        return dailyEvents.containsKey(date);
+    }
+
+    private boolean isArchived(LocalDate date) {
+        LocalDate cutoff = archivedBefore;
+        return cutoff != null && date.isBefore(cutoff);
+    }
+
+    // With createDaysOnDemand, scheduling on a day beyond the calendar's initial days creates that day's tree on
+    // first write instead of reporting NOT_FOUND; reads of a missing day stay empty and create nothing.
+    // Archived days are never recreated.
+    public void setCreateDaysOnDemand(boolean createDaysOnDemand) {
+        this.createDaysOnDemand = createDaysOnDemand;
+    }
+
+    // Makes every day tree keep a per-minute occupancy bitmap, so conflict checks and preferred-window placement
+    // are bit tests instead of tree walks. Days holding events that do not start and end on whole minutes
+    // keep answering from the tree. Returns false if the daily window itself is not on whole minutes.
+    public boolean setMinuteBitmaps(boolean enabled) {
+        if (enabled && !MinuteBitmap.supports(LocalDateTime.of(LocalDate.EPOCH, dayStart), LocalDateTime.of(LocalDate.EPOCH, dayEnd))) {
+            return false;
+        }
+        List<LocalDate> days = new ArrayList<>(dailyEvents.keySet());
+        return writeDays(days, () -> {
+            minuteBitmaps = enabled;
+            for (LocalDate date : days) {
+                IntervalTree tree = dailyEvents.get(date);
+                if (tree != null) {
+                    tree.setMinuteBitmap(enabled);
+                }
+            }
+            return true;
+        });
+    }
+
+    // Removes every day before cutoff from the calendar to bound memory: their trees, published copies, index
+    // entries and cached series occurrences are dropped, and days still in the snapshot are not loaded again.
+    // Returns the archived days' stored events by date so the caller can keep them elsewhere.
+    public NavigableMap<LocalDate, List<Event>> archiveBefore(LocalDate cutoff) {
+        List<LocalDate> days = getDates(LocalDate.MIN, cutoff.minusDays(1));
+        NavigableMap<LocalDate, List<Event>> archived = writeDays(days, () -> {
+            journal.recordArchive(cutoff);
+            NavigableMap<LocalDate, List<Event>> removed = new TreeMap<>();
+            for (LocalDate date : days) {
+                IntervalTree tree = dayTree(date);
+                if (tree == null) {
+                    continue;
+                }
+                List<Event> events = tree.getAllEvents();
+                for (Event event : events) {
+                    eventIndex.computeIfPresent(baseEventId(event), (id, occurrences) -> {
+                        occurrences.remove(event.getEventId());
+                        return occurrences.isEmpty() ? null : occurrences;
+                    });
+                }
+                removed.put(date, events);
+            }
+            if (archivedBefore == null || cutoff.isAfter(archivedBefore)) {
+                archivedBefore = cutoff;
+            }
+            // The cutoff goes first so a reader missing the tree does not load the day from the snapshot again
+            for (LocalDate date : days) {
+                dailyEvents.remove(date);
+                views.remove(date);
+                staged.remove(date);
+                stagedExceptions.remove(date);
+                stagedChanges.remove(date);
+                expansions.remove(date);
+                freeSlotCache.invalidate(date);
+            }
+            return removed;
+        });
+        journal.commit();
+        return archived;
+    }
+
+    // Recovery: replays a logged archive. Nothing is journaled.
+    void restoreArchive(LocalDate cutoff) {
+        ScheduleJournal active = journal;
+        journal = ScheduleJournal.NONE;
+        try {
+            archiveBefore(cutoff);
+        } finally {
+            journal = active;
+        }
+    }
+
+    // ID of the occurrence of a recurring event on the given date.
+    public static String occurrenceId(String baseEventId, LocalDate date) {
+        return baseEventId + "_" + date.format(DATE_FORMATTER);
+    }
+
+    // The base ID of an ID built by occurrenceId, or null if the ID does not end in "_" and a valid date. The
+    // characters are checked before parsing, so the IDs of single events cost no exception.
+    static String occurrenceBaseId(String eventId) {
+        int split = eventId.length() - "_yyyy-MM-dd".length();
+        if (split < 0 || eventId.charAt(split) != '_') {
+            return null;
+        }
+        for (int i = split + 1; i < eventId.length(); i++) {
+            char c = eventId.charAt(i);
+            if (i == split + 5 || i == split + 8 ? c != '-' : c < '0' || c > '9') {
+                return null;
+            }
+        }
+        try {
+            LocalDate.parse(eventId.substring(split + 1), DateTimeFormatter.ISO_LOCAL_DATE);
+        } catch (DateTimeException e) {
+            return null;
+        }
+        return eventId.substring(0, split);
+    }
+
+    // Routes every subsequent change to the given journal.
+    public void setJournal(ScheduleJournal journal) {
+        this.journal = journal == null ? ScheduleJournal.NONE : journal;
+    }
+
+    // Replaces the strategy used to place displaced events.
+    public void setConflictResolver(ConflictResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    public LocalTime getDayStart() { return dayStart; }
+    public LocalTime getDayEnd() { return dayEnd; }
+
+    // Returns the days that can be scheduled in date order, including snapshot days that have not been loaded yet.
+    public List<LocalDate> getDates() {
+        return getDates(LocalDate.MIN, LocalDate.MAX);
+    }
+
+    // Returns the days in [from, to] in date order; only the part of the day index inside the range is visited.
+    public List<LocalDate> getDates(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return new ArrayList<>();
+        }
+        List<LocalDate> dates = new ArrayList<>(dailyEvents.subMap(from, true, to, true).keySet());
+        ColumnarSnapshot source = snapshot;
+        if (source != null) {
+            boolean added = false;
+            for (LocalDate date : source.getDates(from, to)) {
+                if (!dailyEvents.containsKey(date) && !isArchived(date)) {
+                    dates.add(date);
+                    added = true;
+                }
+            }
+            if (added) {
+                Collections.sort(dates);
+            }
+        }
+        return dates;
+    }
+
+    // Returns the events of every day in [from, to] in start-time order, as getEvents would for each day.
+    public List<Event> getEventsBetween(LocalDate from, LocalDate to) {
+        List<Event> events = new ArrayList<>();
+        for (LocalDate date : getDates(from, to)) {
+            events.addAll(getEvents(date));
+        }
+        return events;
+    }
+
+    // Returns the events of a day in start-time order, as of the last finished change. The events are
+    // read-only copies; use getEvent for the live occurrence.
+    public List<Event> getEvents(LocalDate date) {
+        PersistentIntervalTree view = publishedView(date);
+        if (view == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(mergeByStart(view.getAllEvents(), seriesOccurrences(date).getAllEvents()));
+    }
+
+    // Lazily yields a day's events and series occurrences overlapping [start, end) in start-time order,
+    // from the last published copy of the day; null if the day is not part of the calendar.
+    public Iterator<Event> busyIterator(LocalDate date, LocalDateTime start, LocalDateTime end) {
+        PersistentIntervalTree view = publishedView(date);
+        if (view == null) {
+            return null;
+        }
+        PersistentIntervalTree occurrences = seriesOccurrences(date);
+        if (occurrences.size() == 0) {
+            return view.overlappingIterator(start, end);
+        }
+        return mergeByStart(view.findOverlapping(start, end), occurrences.findOverlapping(start, end)).iterator();
+    }
+
+    // Returns a day's stored events only, without series occurrences, for snapshots.
+    List<Event> getStoredEvents(LocalDate date) {
+        PersistentIntervalTree view = publishedView(date);
+        return view == null ? new ArrayList<>() : view.getAllEvents();
+    }
+
+    // Returns the occurrence with the given ID on a day, or null. A series occurrence that was never changed on its
+    // own is returned as a fresh copy.
+    public Event getEvent(LocalDate date, String eventId) {
+        return readDay(date, () -> {
+            Event event = liveEvent(date, eventId);
+            return event != null || dayTree(date) == null ? event : activeOccurrence(date, eventId);
+        });
+    }
+
+    private Event liveEvent(LocalDate date, String eventId) {
+        IntervalTree tree = dayTree(date);
+        return tree == null ? null : tree.get(eventId);
+    }
+
+    // A fresh copy of the series occurrence with the given ID on a day, or null if there is none or it is excepted.
+    private Event activeOccurrence(LocalDate date, String eventId) {
+        String baseEventId = occurrenceBaseId(eventId);
+        if (baseEventId == null) {
+            return null;
+        }
+        RecurringSeries series = seriesById.get(baseEventId);
+        if (series == null || !series.occursOn(date) || !occurrenceId(baseEventId, date).equals(eventId)
+                || stagedExceptions.getOrDefault(date, Collections.emptySet()).contains(baseEventId)) {
+            return null;
+        }
+        return series.occurrence(date);
+    }
+
+    // Returns the occurrence IDs of an event mapped to the day each one is scheduled on. Occurrences of a
+    // rule-based series are listed for the calendar's days only.
+    public Map<String, LocalDate> findOccurrences(String baseEventId) {
+        Map<String, LocalDate> occurrences = new HashMap<>(eventIndex.getOrDefault(baseEventId, Collections.emptyMap()));
+        ColumnarSnapshot source = snapshot;
+        if (source != null) {
+            // Occurrences on days still in the snapshot come from its ID index
+            source.findOccurrences(baseEventId).forEach((occurrenceId, date) -> {
+                if (!dailyEvents.containsKey(date) && !isArchived(date)) {
+                    occurrences.put(occurrenceId, date);
+                }
+            });
+        }
+        RecurringSeries series = seriesById.get(baseEventId);
+        if (series != null) {
+            for (LocalDate date : getDates()) {
+                if (series.occursOn(date)) {
+                    occurrences.putIfAbsent(occurrenceId(baseEventId, date), date);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(occurrences);
+    }
+
+    // Returns the free slots of at least the given duration within the day's scheduling window.
+    public List<TimeSlot> findFreeSlots(LocalDate date, Duration duration) {
+        return findFreeSlots(date, dayStart, dayEnd, duration);
+    }
+
+    // Returns the free slots of at least the given duration between two times of day, limited to the day's
+    // scheduling window. Results are cached until a write changes the day inside the queried window.
+    public List<TimeSlot> findFreeSlots(LocalDate date, LocalTime from, LocalTime to, Duration duration) {
+        long started = metrics.start();
+        List<TimeSlot> slots = freeSlots(date, from, to, duration);
+        metrics.record(SchedulerMetrics.Operation.FIND_FREE_SLOTS, started);
+        return slots;
+    }
+
+    private List<TimeSlot> freeSlots(LocalDate date, LocalTime from, LocalTime to, Duration duration) {
+        LocalDateTime windowStart = LocalDateTime.of(date, from.isAfter(dayStart) ? from : dayStart);
+        LocalDateTime windowEnd = LocalDateTime.of(date, to.isBefore(dayEnd) ? to : dayEnd);
+        List<TimeSlot> cached = freeSlotCache.get(date, windowStart, windowEnd, duration);
+        if (cached != null) {
+            return cached;
+        }
+        long version = seriesVersion.get();
+        PersistentIntervalTree view = publishedView(date);
+        if (view == null) {
+            return new ArrayList<>();
+        }
+        List<TimeSlot> slots;
+        PersistentIntervalTree occurrences = seriesOccurrences(date);
+        if (occurrences.size() == 0) {
+            slots = view.findFreeSlots(windowStart, windowEnd, duration);
+        } else {
+            slots = PersistentIntervalTree.freeSlotsAmong(mergeByStart(view.findOverlapping(windowStart, windowEnd),
+                    occurrences.findOverlapping(windowStart, windowEnd)), windowStart, windowEnd, duration);
+        }
+        // Not cached if a write was published while this ran; its invalidation may already have happened
+        freeSlotCache.put(date, windowStart, windowEnd, duration, slots,
+                () -> views.get(date) == view && seriesVersion.get() == version);
+        return slots;
+    }
+
+    // Returns the events on a day that overlap the given event, excluding the event itself.
+    // Like getEvents, this reads the last published copy of the day and returns read-only events.
+    public List<Event> findConflicts(LocalDate date, Event event) {
+        long started = metrics.start();
+        PersistentIntervalTree view = publishedView(date);
+        List<Event> conflicts = new ArrayList<>();
+        if (view != null) {
+            conflicts.addAll(mergeByStart(view.findOverlapping(event.getStartTime(), event.getEndTime()),
+                    seriesOccurrences(date).findOverlapping(event.getStartTime(), event.getEndTime())));
+            conflicts.removeIf(other -> other.getEventId().equals(event.getEventId()));
+        }
+        metrics.record(SchedulerMetrics.Operation.FIND_CONFLICTS, started);
+        return conflicts;
+    }
+
+    // Returns the live events and active series occurrences on a day that overlap the given event, excluding the
+    // event itself. Called with the day locked for writing.
+    private List<Event> conflictsOnDay(LocalDate date, IntervalTree tree, Event event) {
+        List<Event> conflicts = tree.findOverlapping(event.getStartTime(), event.getEndTime());
+        List<Event> occurrences = new ArrayList<>();
+        for (Event occurrence : activeOccurrences(date, tree)) {
+            if (occurrence.getStartTime().isBefore(event.getEndTime()) && event.getStartTime().isBefore(occurrence.getEndTime())) {
+                occurrences.add(occurrence);
+            }
+        }
+        conflicts = new ArrayList<>(mergeByStart(conflicts, occurrences));
+
+        // Skip if it's the same event (important for modifications)
+        conflicts.removeIf(other -> other.getEventId().equals(event.getEventId()));
+        return conflicts;
+    }
+
+    // Adds a recurring event stored as a rule: its details, time of day and duration come from the template, whose
+    // ID is the series' base ID. The series is checked against every calendar day it falls on and rejected as a
+    // whole if any occurrence would overlap; it never displaces events. Later days are checked as they are booked.
+    public ScheduleResult addSeries(Event template, RecurrenceRule rule) {
+        long started = metrics.start();
+        String baseEventId = template.getEventId();
+        RecurringSeries series = new RecurringSeries(baseEventId, template, rule);
+        List<LocalDate> dates = getDates();
+        ScheduleResult result = writeDays(dates, () -> {
+            if (!Event.isValidPriority(template.getPriority())) {
+                return invalidPriority(template);
+            }
+            // Every occurrence has the template's time of day, so one checks them all
+            ScheduleResult outside = outsideWindow(rule.getStart(), series.occurrence(rule.getStart()));
+            if (outside != null) {
+                return ScheduleResult.rejected(template, outside.getConflicts(), outside.getMessage());
+            }
+            if (seriesById.containsKey(baseEventId) || !findOccurrences(baseEventId).isEmpty()) {
+                return ScheduleResult.duplicate(template);
+            }
+            List<Event> conflicts = new ArrayList<>();
+            for (LocalDate date : dates) {
+                if (series.occursOn(date)) {
+                    conflicts.addAll(conflictsOnDay(date, dayTree(date), series.occurrence(date)));
+                }
+            }
+            if (!conflicts.isEmpty()) {
+                return ScheduleResult.conflict(template, conflicts);
+            }
+            journal.recordSeriesPut(series);
+            seriesById.put(baseEventId, series);
+            seriesVersion.incrementAndGet();
+            invalidateSeries(series);
+            return ScheduleResult.scheduled(template);
+        });
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.ADD_SERIES, started);
+        return result;
+    }
+
+    // Returns the rule-based series currently stored.
+    public List<RecurringSeries> getSeries() {
+        return new ArrayList<>(seriesById.values());
+    }
+
+    // Turns an active series occurrence into a stored event, excepting it from its series, so it can be changed on
+    // its own. Returns the stored occurrence, or null if there is none. Called with the day locked for writing.
+    private Event detach(LocalDate date, String eventId) {
+        Event event = liveEvent(date, eventId);
+        if (event != null || dayTree(date) == null) {
+            return event;
+        }
+        Event occurrence = activeOccurrence(date, eventId);
+        if (occurrence == null) {
+            return null;
+        }
+        exceptOccurrence(date, occurrence);
+        insertEvent(date, occurrence);
+        return occurrence;
+    }
+
+    // Removes one occurrence from its series from the end of the running write on.
+    private void exceptOccurrence(LocalDate date, Event occurrence) {
+        String baseEventId = baseEventId(occurrence);
+        journal.recordSeriesException(baseEventId, date);
+        stagedExceptions.computeIfAbsent(date, d -> java.util.concurrent.ConcurrentHashMap.newKeySet()).add(baseEventId);
+    }
+
+    // Schedules an event on a day, resolving overlaps according to the policy.
+    public ScheduleResult schedule(LocalDate date, Event event, ConflictPolicy policy) {
+        long started = metrics.start();
+        ScheduleResult result = writeDay(date, () -> scheduleOnDay(date, event, policy));
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.SCHEDULE, started);
+        return result;
+    }
+
+    // Schedules the occurrences of a recurring event, holding every involved day's lock at once so other
+    // operations see either none or all of the series' placements. Each day is resolved by the policy on its own;
+    // results are returned in date order.
+    public Map<LocalDate, ScheduleResult> scheduleSeries(Map<LocalDate, Event> occurrences, ConflictPolicy policy) {
+        Map<LocalDate, ScheduleResult> results = writeDays(occurrences.keySet(), () -> {
+            Map<LocalDate, ScheduleResult> byDate = new TreeMap<>();
+            for (Map.Entry<LocalDate, Event> occurrence : new TreeMap<>(occurrences).entrySet()) {
+                byDate.put(occurrence.getKey(), scheduleOnDay(occurrence.getKey(), occurrence.getValue(), policy));
+            }
+            return byDate;
+        });
+        journal.commit();
+        return results;
+    }
+
+    // Places an event on a day without a start time of its own: the policy picks a free slot for its duration,
+    // and the event's start and end are set to it. Never moves other events.
+    public ScheduleResult place(LocalDate date, Event event, PlacementPolicy policy) {
+        return place(Collections.singletonList(date), event, policy);
+    }
+
+    // Places an event on one of several days: the least busy day that fits for SPREAD, otherwise the first day
+    // in date order that fits.
+    public ScheduleResult place(Collection<LocalDate> dates, Event event, PlacementPolicy policy) {
+        return placeAll(dates, Collections.singletonList(event), policy).get(0);
+    }
+
+    // Places a batch of events one after another, each seeing the ones placed before it, with the candidate days
+    // locked once and a single journal commit. Results are in the order of the events.
+    public List<ScheduleResult> placeAll(Collection<LocalDate> dates, List<Event> events, PlacementPolicy policy) {
+        long started = metrics.start();
+        List<LocalDate> days = new ArrayList<>(new TreeSet<>(dates));
+        List<ScheduleResult> results = writeDays(days, () -> {
+            List<ScheduleResult> placed = new ArrayList<>(events.size());
+            for (Event event : events) {
+                placed.add(placeOnDays(days, event, policy));
+            }
+            return placed;
+        });
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.PLACE, started);
+        return results;
+    }
+
+    // Places one occurrence of a recurring event on each of the given days, copying the template's details.
+    // Every day is placed on its own; the results are in date order.
+    public Map<LocalDate, ScheduleResult> placeSeries(String baseEventId, Event template, Collection<LocalDate> dates,
+                                                      PlacementPolicy policy) {
+        Map<LocalDate, ScheduleResult> results = writeDays(dates, () -> {
+            Map<LocalDate, ScheduleResult> byDate = new TreeMap<>();
+            for (LocalDate date : new TreeSet<>(dates)) {
+                Event occurrence = new Event(occurrenceId(baseEventId, date), template.getTitle(),
+                        template.getDescription(), template.getDuration(), null, null, template.getPriority(), true);
+                byDate.put(date, placeOnDays(Collections.singletonList(date), occurrence, policy));
+            }
+            return byDate;
+        });
+        journal.commit();
+        return results;
+    }
+
+    private ScheduleResult placeOnDays(List<LocalDate> days, Event event, PlacementPolicy policy) {
+        if (!Event.isValidPriority(event.getPriority())) {
+            return invalidPriority(event);
+        }
+        LocalDate chosenDay = null;
+        LocalDateTime chosenStart = null;
+        int chosenLoad = Integer.MAX_VALUE;
+        for (LocalDate date : days) {
+            IntervalTree tree = dayTree(date);
+            if (tree == null) {
+                continue;
+            }
+            if (tree.contains(event.getEventId()) || activeOccurrence(date, event.getEventId()) != null) {
+                return ScheduleResult.duplicate(event);
+            }
+            LocalDateTime start = chooseStart(date, tree, event.getDuration(), policy);
+            if (start != null && (policy.getKind() != PlacementPolicy.Kind.SPREAD || tree.size() < chosenLoad)) {
+                chosenDay = date;
+                chosenStart = start;
+                chosenLoad = tree.size();
+                if (policy.getKind() != PlacementPolicy.Kind.SPREAD) {
+                    break;
+                }
+            }
+        }
+        if (chosenDay == null) {
+            return ScheduleResult.rejected(event, Collections.emptyList(), "No free slot fits the event!");
+        }
+        event.setStartTime(chosenStart);
+        event.setEndTime(chosenStart.plus(event.getDuration()));
+        insertEvent(chosenDay, event);
+        return ScheduleResult.scheduled(event);
+    }
+
+    // Start time the policy picks on one day, or null if nothing fits. Every policy is a single gap-index query.
+    private LocalDateTime chooseStart(LocalDate date, IntervalTree tree, Duration duration, PlacementPolicy policy) {
+        if (!activeOccurrences(date, tree).isEmpty()) {
+            return chooseStart(date, busyView(date, tree).findFreeSlots(LocalDateTime.of(date, dayStart),
+                    LocalDateTime.of(date, dayEnd), duration), duration, policy);
+        }
+        TimeSlot slot;
+        switch (policy.getKind()) {
+            case LATEST:
+                slot = tree.findLastFit(duration);
+                return slot == null ? null : slot.getEnd().minus(duration);
+            case BEST_FIT:
+                slot = tree.findBestFit(duration);
+                break;
+            case PREFERRED_WINDOW:
+                slot = tree.findFitAfter(LocalDateTime.of(date, policy.getWindowStart()), duration);
+                if (slot != null && !slot.getStart().plus(duration).isAfter(LocalDateTime.of(date, policy.getWindowEnd()))) {
+                    return slot.getStart();
+                }
+                slot = tree.findFirstFit(duration);
+                break;
+            default:
+                slot = tree.findFirstFit(duration);
+        }
+        return slot == null ? null : slot.getStart();
+    }
+
+    // The same choice made from a list of a day's free slots, for days whose series occurrences are not in the
+    // tree's gap index.
+    private LocalDateTime chooseStart(LocalDate date, List<TimeSlot> slots, Duration duration, PlacementPolicy policy) {
+        if (slots.isEmpty()) {
+            return null;
+        }
+        switch (policy.getKind()) {
+            case LATEST:
+                return slots.get(slots.size() - 1).getEnd().minus(duration);
+            case BEST_FIT:
+                TimeSlot best = slots.get(0);
+                for (TimeSlot slot : slots) {
+                    if (Duration.between(slot.getStart(), slot.getEnd())
+                            .compareTo(Duration.between(best.getStart(), best.getEnd())) < 0) {
+                        best = slot;
+                    }
+                }
+                return best.getStart();
+            case PREFERRED_WINDOW:
+                LocalDateTime windowStart = LocalDateTime.of(date, policy.getWindowStart());
+                for (TimeSlot slot : slots) {
+                    LocalDateTime start = slot.getStart().isBefore(windowStart) ? windowStart : slot.getStart();
+                    if (!start.plus(duration).isAfter(slot.getEnd())) {
+                        if (!start.plus(duration).isAfter(LocalDateTime.of(date, policy.getWindowEnd()))) {
+                            return start;
+                        }
+                        break;
+                    }
+                }
+                return slots.get(0).getStart();
+            default:
+                return slots.get(0).getStart();
+        }
+    }
+
+    // Starts an empty transaction on this calendar.
+    public ScheduleTransaction begin() {
+        return new ScheduleTransaction(this);
+    }
+
+    // Validates a transaction's changes in order against copies of the involved days and, if all of them fit,
+    // applies the net result of each day in one pass. Nothing is changed when any of them fails.
+    ScheduleResult commit(ScheduleTransaction transaction) {
+        long started = metrics.start();
+        Set<LocalDate> days = new HashSet<>();
+        for (ScheduleTransaction.Change change : transaction.getChanges()) {
+            days.add(change.date);
+        }
+        ScheduleResult result = writeDays(days, () -> {
+            Map<LocalDate, PersistentIntervalTree> overlays = new HashMap<>();
+            Map<LocalDate, Map<String, Event>> plans = new TreeMap<>();
+            Map<LocalDate, Map<String, Event>> created = new HashMap<>();
+            List<Event> changed = new ArrayList<>();
+
+            for (ScheduleTransaction.Change change : transaction.getChanges()) {
+                LocalDate date = change.date;
+                IntervalTree tree = dayTree(date);
+                if (tree == null) {
+                    return ScheduleResult.notFound("Day " + date);
+                }
+                Map<String, Event> plan = plans.computeIfAbsent(date, d -> new LinkedHashMap<>());
+                Map<String, Event> booked = created.computeIfAbsent(date, d -> new HashMap<>());
+                PersistentIntervalTree overlay = overlays.computeIfAbsent(date, d -> busyView(d, tree));
+                Event current = plan.containsKey(change.eventId) ? plan.get(change.eventId) : tree.get(change.eventId);
+                if (current == null && !plan.containsKey(change.eventId)) {
+                    current = activeOccurrence(date, change.eventId);
+                }
+
+                Event planned;
+                if (change.kind == ScheduleTransaction.Kind.SCHEDULE) {
+                    if (!Event.isValidPriority(change.event.getPriority())) {
+                        return invalidPriority(change.event);
+                    }
+                    ScheduleResult outside = outsideWindow(date, change.event);
+                    if (outside != null) {
+                        return outside;
+                    }
+                    if (current != null) {
+                        return ScheduleResult.duplicate(change.event);
+                    }
+                    planned = change.event;
+                    booked.put(change.eventId, change.event);
+                } else if (current == null) {
+                    return ScheduleResult.notFound("Event " + change.eventId);
+                } else if (change.kind == ScheduleTransaction.Kind.DELETE) {
+                    overlays.put(date, overlay.delete(current));
+                    plan.put(change.eventId, null);
+                    booked.remove(change.eventId);
+                    continue;
+                } else {
+                    overlay = overlay.delete(current);
+                    planned = withTime(current, change.newStart, change.newDuration);
+                    ScheduleResult outside = outsideWindow(date, planned);
+                    if (outside != null) {
+                        return outside;
+                    }
+                }
+
+                List<Event> conflicts = overlay.findOverlapping(planned.getStartTime(), planned.getEndTime());
+                if (!conflicts.isEmpty()) {
+                    return ScheduleResult.conflict(planned, conflicts);
+                }
+                overlays.put(date, overlay.put(planned));
+                plan.put(change.eventId, planned);
+            }
+
+            for (Map.Entry<LocalDate, Map<String, Event>> plan : plans.entrySet()) {
+                changed.addAll(applyPlan(plan.getKey(), plan.getValue(), created.get(plan.getKey())));
+            }
+            return ScheduleResult.committed(changed);
+        });
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.COMMIT, started);
+        return result;
+    }
+
+    // Copy of an event at a new start time and duration, used to plan a move without touching the stored event.
+    private static Event withTime(Event event, LocalDateTime start, Duration duration) {
+        return new Event(event.getEventId(), event.getTitle(), event.getDescription(), duration,
+                start, start.plus(duration), event.getPriority(), event.isRecurring());
+    }
+
+    // Applies a validated plan for one day: event ID -> planned event, or null to delete. Every stored occurrence
+    // named in the plan is removed first, then the planned ones are inserted. created holds the new events the plan
+    // books; any other planned ID is a move, and the stored event keeps its identity and receives the planned times.
+    // A planned ID that is only a series occurrence is excepted from its series and, unless deleted, stored.
+    // Returns the events now stored, in plan order.
+    private List<Event> applyPlan(LocalDate date, Map<String, Event> plan, Map<String, Event> created) {
+        IntervalTree tree = dayTree(date);
+        Map<String, Event> stored = new HashMap<>();
+        for (String eventId : plan.keySet()) {
+            Event live = tree.get(eventId);
+            if (live != null) {
+                stored.put(eventId, live);
+                removeEvent(date, eventId);
+            } else if (!created.containsKey(eventId) && (live = activeOccurrence(date, eventId)) != null) {
+                stored.put(eventId, live);
+                exceptOccurrence(date, live);
+            }
+        }
+        List<Event> applied = new ArrayList<>();
+        for (Map.Entry<String, Event> entry : plan.entrySet()) {
+            Event planned = entry.getValue();
+            if (planned == null) {
+                continue;
+            }
+            Event event = created.containsKey(entry.getKey()) ? created.get(entry.getKey()) : stored.get(entry.getKey());
+            event.setStartTime(planned.getStartTime());
+            event.setEndTime(planned.getEndTime());
+            event.setDuration(planned.getDuration());
+            insertEvent(date, event);
+            applied.add(event);
+        }
+        return applied;
+    }
+
+    private ScheduleResult scheduleOnDay(LocalDate date, Event event, ConflictPolicy policy) {
+        if (!Event.isValidPriority(event.getPriority())) {
+            return invalidPriority(event);
+        }
+        ScheduleResult outside = outsideWindow(date, event);
+        if (outside != null) {
+            return outside;
+        }
+        IntervalTree tree = dayTree(date);
+        if (tree == null) {
+            return ScheduleResult.notFound("Day " + date);
+        }
+        if (tree.contains(event.getEventId()) || activeOccurrence(date, event.getEventId()) != null) {
+            return ScheduleResult.duplicate(event);
+        }
+
+        List<Event> conflicts = conflictsOnDay(date, tree, event);
+        if (conflicts.isEmpty()) {
+            insertEvent(date, event);
+            return ScheduleResult.scheduled(event);
+        }
+        metrics.increment(SchedulerMetrics.Counter.CONFLICTS);
+        if (policy == ConflictPolicy.REJECT) {
+            return ScheduleResult.conflict(event, conflicts);
+        }
+        return rescheduleConflicts(date, event, null, conflicts);
+    }
+
+    // Moves an occurrence to a new start time and duration. The calendar is unchanged unless the result is a success.
+    public ScheduleResult modifyTime(LocalDate date, String eventId, LocalDateTime newStart, Duration newDuration,
+                                     ConflictPolicy policy) {
+        long started = metrics.start();
+        ScheduleResult result = writeDay(date, () -> moveEvent(date, eventId, newStart, newDuration, null, policy));
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.MODIFY, started);
+        return result;
+    }
+
+    // Moves an occurrence and updates its details in a single write, so readers and the log see all of the changes
+    // or none of them. Null arguments are left unchanged; a new priority already applies to conflicts of the move.
+    // The calendar is unchanged unless the result is a success. An invalid priority or a duration that is not
+    // positive is an IllegalArgumentException.
+    public ScheduleResult modify(LocalDate date, String eventId, LocalDateTime newStart, Duration newDuration,
+                                 String title, String description, Integer priority, ConflictPolicy policy) {
+        checkDetails(priority);
+        if (newDuration != null && (newDuration.isZero() || newDuration.isNegative())) {
+            throw new IllegalArgumentException("Duration must be positive: " + newDuration);
+        }
+        long started = metrics.start();
+        ScheduleResult result = writeDay(date, () -> {
+            ScheduleResult moved = null;
+            if (newStart != null || newDuration != null) {
+                Event current = liveEvent(date, eventId);
+                if (current == null && dayTree(date) != null) {
+                    current = activeOccurrence(date, eventId);
+                }
+                if (current == null) {
+                    return ScheduleResult.notFound("Event " + eventId);
+                }
+                moved = moveEvent(date, eventId, newStart != null ? newStart : current.getStartTime(),
+                        newDuration != null ? newDuration : current.getDuration(), priority, policy);
+                if (!moved.isSuccess()) {
+                    return moved;
+                }
+            }
+            Event event = updateOnDay(date, eventId, title, description, priority);
+            if (event == null) {
+                return ScheduleResult.notFound("Event " + eventId);
+            }
+            return moved != null && moved.getStatus() == ScheduleResult.Status.RESCHEDULED
+                    ? ScheduleResult.rescheduled(event, moved.getConflicts()) : ScheduleResult.scheduled(event);
+        });
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.MODIFY, started);
+        return result;
+    }
+
+    // Plans the move on a copy of the day and touches the tree only once the new time is known to fit.
+    // A non-null priority replaces the event's own when resolving conflicts; it is not stored here.
+    private ScheduleResult moveEvent(LocalDate date, String eventId, LocalDateTime newStart, Duration newDuration,
+                                     Integer priority, ConflictPolicy policy) {
+        Event event = liveEvent(date, eventId);
+        if (event == null && dayTree(date) != null) {
+            // A series occurrence is only detached from its series once the move is known to succeed
+            event = activeOccurrence(date, eventId);
+        }
+        if (event == null) {
+            return ScheduleResult.notFound("Event " + eventId);
+        }
+        Event planned = withTime(event, newStart, newDuration);
+        if (priority != null) {
+            planned.setPriority(priority);
+        }
+        ScheduleResult outside = outsideWindow(date, planned);
+        if (outside != null) {
+            return outside;
+        }
+        List<Event> conflicts = conflictsOnDay(date, dayTree(date), planned);
+        if (conflicts.isEmpty()) {
+            Map<String, Event> plan = new LinkedHashMap<>();
+            plan.put(eventId, planned);
+            return ScheduleResult.scheduled(applyPlan(date, plan, Collections.emptyMap()).get(0));
+        }
+        metrics.increment(SchedulerMetrics.Counter.CONFLICTS);
+        if (policy == ConflictPolicy.REJECT) {
+            return ScheduleResult.conflict(planned, conflicts);
+        }
+        return rescheduleConflicts(date, planned, event, conflicts);
+    }
+
+    // Updates the non-time fields of an occurrence; null arguments are left unchanged. A priority outside
+    // Event.HIGHEST_PRIORITY..LOWEST_PRIORITY is an IllegalArgumentException.
+    public boolean updateDetails(LocalDate date, String eventId, String title, String description, Integer priority) {
+        checkDetails(priority);
+        boolean updated = writeDay(date, () -> updateOnDay(date, eventId, title, description, priority) != null);
+        journal.commit();
+        return updated;
+    }
+
+    private static void checkDetails(Integer priority) {
+        if (priority != null && !Event.isValidPriority(priority)) {
+            throw new IllegalArgumentException("Priority must be between " + Event.HIGHEST_PRIORITY + " and "
+                    + Event.LOWEST_PRIORITY + ": " + priority);
+        }
+    }
+
+    // Applies the non-null details to an occurrence. Called with the day locked for writing; returns the updated
+    // event, or null if it is not scheduled on that day.
+    private Event updateOnDay(LocalDate date, String eventId, String title, String description, Integer priority) {
+        if (title == null && description == null && priority == null) {
+            Event event = liveEvent(date, eventId);
+            return event != null || dayTree(date) == null ? event : activeOccurrence(date, eventId);
+        }
+        Event event = detach(date, eventId);
+        if (event == null) {
+            return null;
+        }
+        journal.recordPut(date, new Event(event.getEventId(), title != null ? title : event.getTitle(),
+                description != null ? description : event.getDescription(), event.getDuration(), event.getStartTime(),
+                event.getEndTime(), priority != null ? priority : event.getPriority(), event.isRecurring()));
+        if (title != null) event.setTitle(title);
+        if (description != null) event.setDescription(description);
+        if (priority != null) event.setPriority(priority);
+        staged.put(date, workingView(date).put(event));
+        return event;
+    }
+
+    // Deletes a single occurrence. Returns false if it was not scheduled on that day.
+    public boolean delete(LocalDate date, String eventId) {
+        long started = metrics.start();
+        boolean removed = writeDay(date, () -> removeEvent(date, eventId) || removeOccurrence(date, eventId));
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.DELETE, started);
+        return removed;
+    }
+
+    // Excepts an active series occurrence from its series. Called with the day locked for writing.
+    private boolean removeOccurrence(LocalDate date, String eventId) {
+        Event occurrence = dayTree(date) == null ? null : activeOccurrence(date, eventId);
+        if (occurrence == null) {
+            return false;
+        }
+        exceptOccurrence(date, occurrence);
+        return true;
+    }
+
+    // Deletes every occurrence of an event, touching only the days it is scheduled on. Returns how many were removed.
+    // The days are locked together; if an occurrence lands on another day before the locks are held, it retries.
+    // A rule-based series is removed as a whole; only its occurrences on the calendar's days are counted.
+    public int deleteAll(String baseEventId) {
+        int removed;
+        while (true) {
+            Set<LocalDate> days = new HashSet<>(findOccurrences(baseEventId).values());
+            Integer count = writeDays(days, () -> {
+                Map<String, LocalDate> occurrences = findOccurrences(baseEventId);
+                if (!days.containsAll(occurrences.values())) {
+                    return null;
+                }
+                int n = 0;
+                for (Map.Entry<String, LocalDate> occurrence : new ArrayList<>(occurrences.entrySet())) {
+                    if (removeEvent(occurrence.getValue(), occurrence.getKey())
+                            || removeOccurrence(occurrence.getValue(), occurrence.getKey())) {
+                        n++;
+                    }
+                }
+                RecurringSeries series = seriesById.get(baseEventId);
+                if (series != null) {
+                    journal.recordSeriesRemove(baseEventId);
+                    seriesById.remove(baseEventId);
+                    seriesVersion.incrementAndGet();
+                    invalidateSeries(series);
+                }
+                return n;
+            });
+            if (count != null) {
+                removed = count;
+                break;
+            }
+        }
+        journal.commit();
+        return removed;
+    }
+
+    // Imports a batch of events: groups them by day, sorts each day once, detects conflicts in a single sweep
+    // against the existing schedule and bulk-loads the accepted events. Conflicting events are reported, not scheduled.
+    public ImportResult importEvents(java.util.stream.Stream<Event> events) {
+        long started = metrics.start();
+        Map<LocalDate, List<Event>> byDay = new HashMap<>();
+        List<ScheduleResult> rejected = new ArrayList<>();
+        events.forEach(event -> {
+            ScheduleResult outside = event.getStartTime() == null ? null : outsideWindow(event.getStartTime().toLocalDate(), event);
+            if (!Event.isValidPriority(event.getPriority())) {
+                rejected.add(invalidPriority(event));
+            } else if (event.getStartTime() == null || outside != null) {
+                rejected.add(outside != null ? outside : ScheduleResult.rejected(event, Collections.emptyList(), "An event must have a start"));
+            } else {
+                byDay.computeIfAbsent(event.getStartTime().toLocalDate(), d -> new ArrayList<>()).add(event);
+            }
+        });
+
+        int imported = 0;
+        Comparator<Event> byStart = (e1, e2) -> {
+            int cmp = e1.getStartTime().compareTo(e2.getStartTime());
+            return cmp != 0 ? cmp : e1.getEventId().compareTo(e2.getEventId());
+        };
+
+        for (Map.Entry<LocalDate, List<Event>> day : byDay.entrySet()) {
+            imported += writeDay(day.getKey(), () -> importDay(day.getKey(), day.getValue(), byStart, rejected));
+        }
+        journal.commit();
+        metrics.record(SchedulerMetrics.Operation.IMPORT, started);
+        return new ImportResult(imported, rejected);
+    }
+
+    // Sweeps one day's sorted batch against its schedule and bulk-loads the accepted events.
+    private int importDay(LocalDate date, List<Event> incoming, Comparator<Event> byStart, List<ScheduleResult> rejected) {
+        IntervalTree tree = dayTree(date);
+        if (tree == null) {
+            for (Event event : incoming) {
+                rejected.add(ScheduleResult.notFound("Day " + date));
+            }
+            return 0;
+        }
+        incoming.sort(byStart);
+        List<Event> existing = mergeByStart(tree.getAllEvents(), activeOccurrences(date, tree));
+        List<Event> accepted = new ArrayList<>();
+        Set<String> acceptedIds = new HashSet<>();
+
+        // Sweep: latest is the accepted event reaching furthest right so far; existing events are always kept
+        Event latest = null;
+        int next = 0;
+        for (Event event : incoming) {
+            while (next < existing.size() && !existing.get(next).getStartTime().isAfter(event.getStartTime())) {
+                latest = later(latest, existing.get(next++));
+            }
+            if (tree.contains(event.getEventId()) || activeOccurrence(date, event.getEventId()) != null
+                    || !acceptedIds.add(event.getEventId())) {
+                rejected.add(ScheduleResult.duplicate(event));
+            } else if (latest != null && latest.getEndTime().isAfter(event.getStartTime())) {
+                acceptedIds.remove(event.getEventId());
+                rejected.add(ScheduleResult.conflict(event, Collections.singletonList(latest)));
+            } else if (next < existing.size() && existing.get(next).getStartTime().isBefore(event.getEndTime())) {
+                acceptedIds.remove(event.getEventId());
+                rejected.add(ScheduleResult.conflict(event, Collections.singletonList(existing.get(next))));
+            } else {
+                accepted.add(event);
+                latest = later(latest, event);
+            }
+        }
+
+        for (Event event : accepted) {
+            journal.recordPut(date, event);
+        }
+        int imported = tree.bulkLoad(accepted);
+        staged.put(date, workingView(date).putAll(accepted));
+        for (Event event : accepted) {
+            recordChange(date, event.getStartTime(), event.getEndTime());
+            index(date, event);
+        }
+        return imported;
+    }
+
+    private static Event later(Event current, Event candidate) {
+        return current == null || candidate.getEndTime().isAfter(current.getEndTime()) ? candidate : current;
+    }
+
+    // Attempts to reschedule conflicting events based on priority and available time slots. Every placement is
+    // planned on a copy of the day first, so a failure leaves the tree untouched and a success changes it once.
+    // stored is the occurrence being moved to newEvent's time, or null when newEvent is a new booking.
+    private ScheduleResult rescheduleConflicts(LocalDate date, Event newEvent, Event stored, List<Event> conflicts) {
+        long started = metrics.start();
+        ScheduleResult result = resolveConflicts(date, newEvent, stored, conflicts);
+        metrics.record(SchedulerMetrics.Operation.RESCHEDULE, started);
+        metrics.increment(result.isSuccess() ? SchedulerMetrics.Counter.RESCHEDULES : SchedulerMetrics.Counter.RESCHEDULE_FAILURES);
+        return result;
+    }
+
+    // The rescheduling itself, timed and counted by rescheduleConflicts.
+    private ScheduleResult resolveConflicts(LocalDate date, Event newEvent, Event stored, List<Event> conflicts) {
+        // Check if new event has higher priority than all conflicts
+        IntervalTree tree = dayTree(date);
+        for (Event conflict : conflicts) {
+            if (conflict.getPriority() <= newEvent.getPriority()) {
+                return ScheduleResult.rejected(newEvent, Collections.singletonList(conflict),
+                        "Cannot reschedule - Conflicting event has equal or higher priority:");
+            }
+            if (!tree.contains(conflict.getEventId())) {
+                return ScheduleResult.rejected(newEvent, Collections.singletonList(conflict),
+                        "Cannot reschedule - Conflicting event belongs to a recurring series:");
+            }
+        }
+
+        // The day without the conflicting events (and the old position of a moved event), plus the new event
+        PersistentIntervalTree overlay = busyView(date, tree);
+        if (stored != null) {
+            overlay = overlay.delete(stored);
+        }
+        for (Event event : conflicts) {
+            overlay = overlay.delete(event);
+        }
+        overlay = overlay.put(newEvent);
+
+        LocalDateTime windowStart = LocalDateTime.of(date, dayStart);
+        LocalDateTime windowEnd = LocalDateTime.of(date, dayEnd);
+        Map<String, LocalDateTime> starts = resolver.resolve(overlay, windowStart, windowEnd, conflicts);
+        if (starts == null) {
+            return ScheduleResult.rejected(newEvent, conflicts, "Failed to reschedule all conflicts! No arrangement fits:");
+        }
+
+        Map<String, Event> plan = new LinkedHashMap<>();
+        plan.put(newEvent.getEventId(), newEvent);
+        for (Event event : conflicts) {
+            LocalDateTime start = starts.get(event.getEventId());
+            Event planned = start == null ? null : withTime(event, start, event.getDuration());
+            // A resolver may be supplied by the caller, so its answer is checked before anything is applied
+            if (planned == null || planned.getStartTime().isBefore(windowStart) || planned.getEndTime().isAfter(windowEnd)
+                    || overlay.hasOverlap(planned.getStartTime(), planned.getEndTime())) {
+                throw new IllegalStateException("Conflict resolver returned an invalid slot for " + event.getEventId());
+            }
+            overlay = overlay.put(planned);
+            plan.put(event.getEventId(), planned);
+        }
+
+        Map<String, Event> created = stored == null
+                ? Collections.singletonMap(newEvent.getEventId(), newEvent) : Collections.emptyMap();
+        List<Event> applied = applyPlan(date, plan, created);
+        return ScheduleResult.rescheduled(applied.get(0), applied.subList(1, applied.size()));
+    }
+
+    // Recovery: replays a logged put, replacing any stored occurrence with the same ID. Nothing is journaled.
+    void restorePut(LocalDate date, Event event) {
+        ScheduleJournal active = journal;
+        journal = ScheduleJournal.NONE;
+        try {
+            writeDay(date, () -> {
+                if (dayTree(date) == null) {
+                    addWrittenDay(date);
+                }
+                removeEvent(date, event.getEventId());
+                return insertEvent(date, event);
+            });
+        } finally {
+            journal = active;
+        }
+    }
+
+    // Recovery: loads or replays a series. Nothing is journaled.
+    void restoreSeries(RecurringSeries series) {
+        seriesById.put(series.getBaseEventId(), series);
+        seriesVersion.incrementAndGet();
+        freeSlotCache.clear();
+    }
+
+    // Recovery: replays a logged series removal. Nothing is journaled.
+    void restoreSeriesRemove(String baseEventId) {
+        seriesById.remove(baseEventId);
+        seriesVersion.incrementAndGet();
+        freeSlotCache.clear();
+    }
+
+    // Recovery: replays a logged series exception. Nothing is journaled.
+    void restoreSeriesException(String baseEventId, LocalDate date) {
+        seriesById.computeIfPresent(baseEventId, (id, series) -> series.withException(date));
+        seriesVersion.incrementAndGet();
+        freeSlotCache.invalidate(date);
+    }
+
+    // Recovery: replays a logged removal. Nothing is journaled.
+    void restoreRemove(LocalDate date, String eventId) {
+        ScheduleJournal active = journal;
+        journal = ScheduleJournal.NONE;
+        try {
+            writeDay(date, () -> removeEvent(date, eventId));
+        } finally {
+            journal = active;
+        }
+    }
+
+    // Returns the ID shared by all occurrences of an event; recurring occurrences carry a "_yyyy-MM-dd" suffix.
+    // A recurring event whose ID has no such suffix is its own base.
+    static String baseEventId(Event event) {
+        String eventId = event.getEventId();
+        String baseEventId = event.isRecurring() ? occurrenceBaseId(eventId) : null;
+        return baseEventId != null ? baseEventId : eventId;
+    }
+
+    // Inserts an event into a day's tree and records it in the event index. The journal record goes first: if it
+    // cannot be written, the exception leaves the day exactly as it was.
+    private boolean insertEvent(LocalDate date, Event event) {
+        IntervalTree tree = dayTree(date);
+        if (tree.contains(event.getEventId())) {
+            return false;
+        }
+        journal.recordPut(date, event);
+        tree.insert(event);
+        staged.put(date, workingView(date).put(event));
+        recordChange(date, event.getStartTime(), event.getEndTime());
+        index(date, event);
+        return true;
+    }
+
+    // Index entries of one base ID can be touched from several days at once, so each update is a single compute
+    private void index(LocalDate date, Event event) {
+        eventIndex.compute(baseEventId(event), (id, occurrences) -> {
+            if (occurrences == null) {
+                occurrences = new java.util.concurrent.ConcurrentHashMap<>();
+            }
+            occurrences.put(event.getEventId(), date);
+            return occurrences;
+        });
+    }
+
+    // Removes an occurrence from a day's tree and from the event index.
+    private boolean removeEvent(LocalDate date, String eventId) {
+        IntervalTree tree = dayTree(date);
+        Event event = tree == null ? null : tree.get(eventId);
+        if (event == null) {
+            return false;
+        }
+        journal.recordRemove(date, eventId);
+        tree.delete(eventId);
+        staged.put(date, workingView(date).delete(event));
+        recordChange(date, event.getStartTime(), event.getEndTime());
+
+        eventIndex.computeIfPresent(baseEventId(event), (id, occurrences) -> {
+            occurrences.remove(eventId);
+            return occurrences.isEmpty() ? null : occurrences;
+        });
+        return true;
+    }
+}
+
+// Location-aware calendar: one Scheduler per location, so each (location, date) pair has its own interval tree
+// and events in different rooms never conflict. Callers book through getScheduler(location).
+// For "which room is free for D minutes at T" it keeps, per date, one PersistentIntervalTree holding the free
+// gaps of every location (each gap is an Event whose ID is its location). A gap contains [T, T + D) exactly when
+// it starts no later than T and ends no earlier than T + D, which the tree answers in O(log n) from its max
+// augmentation instead of checking each location's tree. A date's index is built on the first query of a date
+// some location has, and then kept current by the Schedulers' publish callbacks, which re-read only the gaps
+// around each write's changed ranges; like other availability reads it takes no lock.
+class LocationScheduler {
+    private final Map<String, Scheduler> schedulers = new LinkedHashMap<>();
+    private final Map<LocalDate, RoomIndex> indexes = new java.util.concurrent.ConcurrentHashMap<>();
+
+    // Answer for dates no location has; never stored in indexes
+    private static final RoomIndex NO_DAY = new RoomIndex();
+
+    // Free gaps of every indexed location on one date. The monitor guards changes; it is never held while a
+    // Scheduler is called, since publish callbacks take it with their day locked.
+    private static class RoomIndex {
+        volatile PersistentIntervalTree gaps = PersistentIntervalTree.EMPTY;
+        // Location -> its gaps currently in the tree, in start order
+        final Map<String, List<Event>> byLocation = new java.util.concurrent.ConcurrentHashMap<>();
+        // Location -> number of its writes published since the index was created
+        final Map<String, Long> versions = new HashMap<>();
+    }
+
+    // Creates an empty calendar for each location with the same days and daily window.
+    public LocationScheduler(Collection<String> locations, LocalDate startDate, int totalDays,
+                             LocalTime dayStart, LocalTime dayEnd) {
+        for (String location : locations) {
+            Scheduler scheduler = new Scheduler(startDate, totalDays, dayStart, dayEnd);
+            scheduler.setPublishListener((date, changed) -> {
+                RoomIndex index = indexes.get(date);
+                if (index != null) {
+                    refresh(index, location, scheduler, date, changed);
+                }
+            });
+            schedulers.put(location, scheduler);
+        }
+    }
+
+    public List<String> getLocations() {
+        return new ArrayList<>(schedulers.keySet());
+    }
+
+    // Returns the calendar of one location, or null if the location is unknown.
+    public Scheduler getScheduler(String location) {
+        return schedulers.get(location);
+    }
+
+    // Returns a location free for the whole of [start, start + duration), or null if none is.
+    public String findFreeRoom(LocalDateTime start, Duration duration) {
+        Event gap = index(start.toLocalDate()).gaps.findCovering(start, start.plus(duration));
+        return gap == null ? null : gap.getEventId();
+    }
+
+    // Returns every location free for the whole of [start, start + duration).
+    public List<String> findFreeRooms(LocalDateTime start, Duration duration) {
+        List<String> free = new ArrayList<>();
+        for (Event gap : index(start.toLocalDate()).gaps.findAllCovering(start, start.plus(duration))) {
+            free.add(gap.getEventId());
+        }
+        return free;
+    }
+
+    // Number of dates with a room index, for checks that unknown dates are not indexed.
+    int indexedDates() {
+        return indexes.size();
+    }
+
+    // Archives every location's days before cutoff and drops their room indexes. Returns how many events were archived.
+    public int archiveBefore(LocalDate cutoff) {
+        int archived = 0;
+        for (Scheduler scheduler : schedulers.values()) {
+            for (List<Event> events : scheduler.archiveBefore(cutoff).values()) {
+                archived += events.size();
+            }
+        }
+        indexes.keySet().removeIf(date -> date.isBefore(cutoff));
+        return archived;
+    }
+
+    // Records every location's operations into one SchedulerMetrics; gauges and day listings are prefixed with the location.
+    public void setMetrics(SchedulerMetrics metrics) {
+        for (Map.Entry<String, Scheduler> room : schedulers.entrySet()) {
+            room.getValue().setMetrics(metrics, room.getKey() + ".");
+        }
+    }
+
+    // Turns per-minute occupancy bitmaps on or off in every location's calendar.
+    public boolean setMinuteBitmaps(boolean enabled) {
+        boolean kept = true;
+        for (Scheduler scheduler : schedulers.values()) {
+            kept &= scheduler.setMinuteBitmaps(enabled);
+        }
+        return kept;
+    }
+
+    // Returns the free slots of at least minDuration that all the given locations share on a date.
+    public List<TimeSlot> findCommonFreeSlots(Collection<String> locations, LocalDate date, Duration minDuration) {
+        List<Scheduler> calendars = new ArrayList<>();
+        for (String location : locations) {
+            calendars.add(schedulers.get(location));
+        }
+        List<TimeSlot> slots = new ArrayList<>();
+        CommonAvailability.freeSlots(calendars, date, minDuration).forEachRemaining(slots::add);
+        return slots;
+    }
+
+    // Books an event at its start time in whichever location is free, retrying if another booking takes the room
+    // first. Returns the location, or null if no location was free.
+    public String scheduleInAnyRoom(LocalDate date, Event event) {
+        while (true) {
+            String location = findFreeRoom(event.getStartTime(), event.getDuration());
+            if (location == null) {
+                return null;
+            }
+            ScheduleResult result = schedulers.get(location).schedule(date, event, ConflictPolicy.REJECT);
+            if (result.isSuccess()) {
+                return location;
+            }
+            if (result.getStatus() != ScheduleResult.Status.CONFLICT) {
+                return null;
+            }
+        }
+    }
+
+    // Returns a date's index, first filling in every location not indexed yet; dates no location has are not
+    // indexed. Each missing location's gaps are read without the monitor and kept only if no write of that
+    // location was published meanwhile; otherwise they are read again. A write published after they are kept
+    // finds the location indexed and refreshes it itself.
+    private RoomIndex index(LocalDate date) {
+        RoomIndex index = indexes.get(date);
+        if (index == null) {
+            if (schedulers.values().stream().noneMatch(scheduler -> scheduler.hasDay(date))) {
+                return NO_DAY;
+            }
+            index = indexes.computeIfAbsent(date, d -> new RoomIndex());
+        }
+        while (index.byLocation.size() < schedulers.size()) {
+            for (Map.Entry<String, Scheduler> entry : schedulers.entrySet()) {
+                String location = entry.getKey();
+                if (index.byLocation.containsKey(location)) {
+                    continue;
+                }
+                long version;
+                synchronized (index) {
+                    version = index.versions.getOrDefault(location, 0L);
+                }
+                List<Event> gaps = gaps(location, entry.getValue(), date, LocalTime.MIN, LocalTime.MAX);
+                synchronized (index) {
+                    if (!index.byLocation.containsKey(location) && index.versions.getOrDefault(location, 0L) == version) {
+                        // One bulk build per location rather than one path copy per gap
+                        index.gaps = index.gaps.putAll(gaps);
+                        index.byLocation.put(location, gaps);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    // Updates a location's gaps in a date's index after a write changed the given ranges. Only gaps touching the
+    // span of the ranges can have changed; those are replaced by the location's free slots over the span widened
+    // to cover them, whose ends are then busy or the window's. Called with the day locked for writing.
+    private static void refresh(RoomIndex index, String location, Scheduler scheduler, LocalDate date,
+                                List<TimeSlot> changed) {
+        List<Event> current;
+        synchronized (index) {
+            index.versions.merge(location, 1L, Long::sum);
+            current = index.byLocation.get(location);
+        }
+        if (current == null) {
+            // Not indexed yet; a fill running now sees the new version and reads the gaps again
+            return;
+        }
+        LocalDateTime from = LocalDateTime.MAX;
+        LocalDateTime to = LocalDateTime.MIN;
+        for (TimeSlot range : changed) {
+            from = range.getStart().isBefore(from) ? range.getStart() : from;
+            to = range.getEnd().isAfter(to) ? range.getEnd() : to;
+        }
+        List<Event> replaced = new ArrayList<>();
+        List<Event> kept = new ArrayList<>();
+        LocalDateTime spanStart = from;
+        LocalDateTime spanEnd = to;
+        for (Event gap : current) {
+            if (gap.getEndTime().isBefore(from) || gap.getStartTime().isAfter(to)) {
+                kept.add(gap);
+                continue;
+            }
+            replaced.add(gap);
+            spanStart = gap.getStartTime().isBefore(spanStart) ? gap.getStartTime() : spanStart;
+            spanEnd = gap.getEndTime().isAfter(spanEnd) ? gap.getEndTime() : spanEnd;
+        }
+        List<Event> fresh = gaps(location, scheduler, date,
+                spanStart.toLocalDate().isBefore(date) ? LocalTime.MIN : spanStart.toLocalTime(),
+                spanEnd.toLocalDate().isAfter(date) ? LocalTime.MAX : spanEnd.toLocalTime());
+        kept.addAll(fresh);
+        kept.sort(Comparator.comparing(Event::getStartTime));
+        synchronized (index) {
+            PersistentIntervalTree tree = index.gaps;
+            for (Event gap : replaced) {
+                tree = tree.delete(gap);
+            }
+            for (Event gap : fresh) {
+                tree = tree.put(gap);
+            }
+            index.gaps = tree;
+            index.byLocation.put(location, kept);
+        }
+    }
+
+    // A location's free slots on a date between two times of day as gap events named after the location.
+    private static List<Event> gaps(String location, Scheduler scheduler, LocalDate date, LocalTime from, LocalTime to) {
+        List<Event> gaps = new ArrayList<>();
+        for (TimeSlot slot : scheduler.findFreeSlots(date, from, to, Duration.ofNanos(1))) {
+            gaps.add(new Event(location, location, "", Duration.between(slot.getStart(), slot.getEnd()),
+                    slot.getStart(), slot.getEnd(), 4, false));
+        }
+        return gaps;
+    }
+}
+
+// Free time shared by several calendars (people or rooms). Each calendar contributes its busy events in start
+// order; a k-way merge over them with a priority queue keyed by the next event's start sweeps the union of all
+// busy time once, and every gap in that union long enough is a slot everyone has free. Slots are produced on
+// demand, so firstFit stops at the first shared gap after looking only at the events before it.
+// O(n log k) for n busy events across k calendars.
+final class CommonAvailability {
+    private CommonAvailability() { }
+
+    // Shared free slots of at least minDuration of the given calendars on one day, inside the part of the day
+    // that lies within every calendar's window. Empty if a calendar does not have the day.
+    static Iterator<TimeSlot> freeSlots(List<Scheduler> calendars, LocalDate date, Duration minDuration) {
+        LocalTime from = LocalTime.MIN;
+        LocalTime to = LocalTime.MAX;
+        for (Scheduler calendar : calendars) {
+            if (calendar.getDayStart().isAfter(from)) from = calendar.getDayStart();
+            if (calendar.getDayEnd().isBefore(to)) to = calendar.getDayEnd();
+        }
+        LocalDateTime windowStart = LocalDateTime.of(date, from);
+        LocalDateTime windowEnd = LocalDateTime.of(date, to);
+        List<Iterator<Event>> busy = new ArrayList<>(calendars.size());
+        for (Scheduler calendar : calendars) {
+            Iterator<Event> events = calendar.busyIterator(date, windowStart, windowEnd);
+            if (events == null) {
+                return Collections.emptyIterator();
+            }
+            busy.add(events);
+        }
+        return sweep(busy, windowStart, windowEnd, minDuration);
+    }
+
+    // The earliest shared free slot of at least minDuration, or null.
+    static TimeSlot firstFit(List<Scheduler> calendars, LocalDate date, Duration minDuration) {
+        Iterator<TimeSlot> slots = freeSlots(calendars, date, minDuration);
+        return slots.hasNext() ? slots.next() : null;
+    }
+
+    // Shared free slots of at least minDuration inside [windowStart, windowEnd), given each calendar's busy
+    // events in start-time order (for an IntervalTree, its findOverlapping list).
+    static Iterator<TimeSlot> sweep(List<Iterator<Event>> busy, LocalDateTime windowStart, LocalDateTime windowEnd,
+                                    Duration minDuration) {
+        return new Sweep(busy, windowStart, windowEnd, minDuration);
+    }
+
+    // One calendar's next busy event, its start as UTC epoch seconds for cheap heap comparisons, and the rest
+    // of its events.
+    private static final class Head {
+        Event event;
+        long start;
+        final Iterator<Event> rest;
+
+        Head(Event event, Iterator<Event> rest) {
+            this.rest = rest;
+            set(event);
+        }
+
+        void set(Event event) {
+            this.event = event;
+            this.start = event.getStartTime().toEpochSecond(ZoneOffset.UTC);
+        }
+    }
+
+    private static final class Sweep implements Iterator<TimeSlot> {
+        private final LocalDateTime windowEnd;
+        private final Duration minDuration;
+        // Binary min-heap on Head.start; the top is replaced in place as its calendar advances
+        private final Head[] heads;
+        private int size;
+        // Everything before this instant is either busy for someone or already emitted; null once done
+        private LocalDateTime cursor;
+        private TimeSlot next;
+
+        Sweep(List<Iterator<Event>> busy, LocalDateTime windowStart, LocalDateTime windowEnd, Duration minDuration) {
+            this.windowEnd = windowEnd;
+            this.minDuration = minDuration;
+            this.heads = new Head[busy.size()];
+            for (Iterator<Event> events : busy) {
+                if (events.hasNext()) {
+                    heads[size++] = new Head(events.next(), events);
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+            boolean valid = windowStart.isBefore(windowEnd) && !minDuration.isNegative() && !minDuration.isZero();
+            this.cursor = valid ? windowStart : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && cursor != null) {
+                advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public TimeSlot next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            TimeSlot slot = next;
+            next = null;
+            return slot;
+        }
+
+        // Consumes the earliest-starting busy event of any calendar (or the end of the window).
+        private void advance() {
+            Head head = size == 0 ? null : heads[0];
+            if (head == null || !head.event.getStartTime().isBefore(windowEnd)) {
+                offer(cursor, windowEnd);
+                cursor = null;
+                return;
+            }
+            Event event = head.event;
+            if (head.rest.hasNext()) {
+                head.set(head.rest.next());
+            } else {
+                heads[0] = heads[--size];
+                heads[size] = null;
+            }
+            siftDown(0);
+            if (event.getStartTime().isAfter(cursor)) {
+                offer(cursor, event.getStartTime());
+            }
+            if (event.getEndTime().isAfter(cursor)) {
+                cursor = event.getEndTime();
+            }
+            if (!cursor.isBefore(windowEnd)) {
+                cursor = null;
+            }
+        }
+
+        private void offer(LocalDateTime start, LocalDateTime end) {
+            if (Duration.between(start, end).compareTo(minDuration) >= 0) {
+                next = new TimeSlot(start, end);
+            }
+        }
+
+        private void siftDown(int i) {
+            Head head = heads[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heads[child + 1].start < heads[child].start) {
+                    child++;
+                }
+                if (heads[child].start >= head.start) {
+                    break;
+                }
+                heads[i] = heads[child];
+                i = child;
+            }
+            if (size > 0 && i < size) {
+                heads[i] = head;
+            }
+        }
+    }
+}
+
+// Receives every change the Scheduler makes so it can be persisted.
+// recordPut/recordRemove describe individual tree mutations; commit marks the end of one public operation.
+// The Scheduler records each change before applying it, so a record method that throws leaves that change undone.
+interface ScheduleJournal {
+    ScheduleJournal NONE = new ScheduleJournal() {
+        public void recordPut(LocalDate date, Event event) { }
+        public void recordRemove(LocalDate date, String eventId) { }
+        public void recordSeriesPut(RecurringSeries series) { }
+        public void recordSeriesRemove(String baseEventId) { }
+        public void recordSeriesException(String baseEventId, LocalDate date) { }
+        public void recordArchive(LocalDate cutoff) { }
+        public void commit() { }
+    };
+
+    // An event was stored on a day; replaying it replaces any occurrence with the same ID.
+    void recordPut(LocalDate date, Event event);
+
+    // An occurrence was removed from a day.
+    void recordRemove(LocalDate date, String eventId);
+
+    // A rule-based series was added.
+    void recordSeriesPut(RecurringSeries series);
+
+    // A rule-based series was removed with all its occurrences.
+    void recordSeriesRemove(String baseEventId);
+
+    // One occurrence of a series was excepted: it was deleted or is now stored as an event of its own.
+    void recordSeriesException(String baseEventId, LocalDate date);
+
+    // Every day before cutoff was archived.
+    void recordArchive(LocalDate cutoff);
+
+    // The current operation is complete; implementations may block until it is durable.
+    void commit();
+}
+
+// Append-only binary log with group commit. Each record is framed as
+// [int length][int crc32][long sequence][payload] so a torn tail is detected and cut off on recovery.
+// Appends only fill an in-memory batch; sync() makes everything up to a sequence durable, and a single
+// write + fsync covers every record appended while the previous fsync was running.
+class WriteAheadLog implements Closeable {
+    // Writes a record payload.
+    interface RecordWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    // Receives the payload of each intact record during replay.
+    interface RecordReader {
+        void read(long sequence, DataInput in) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private ByteArrayOutputStream batch = new ByteArrayOutputStream(1 << 16);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private long lastSequence;
+    private long durableSequence;
+    private boolean flushing;
+
+    // Opens the log for appending, continuing after the given sequence.
+    WriteAheadLog(Path file, long lastSequence) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.channel.position(channel.size());
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+    }
+
+    // Reads every intact record with a sequence above afterSequence, truncating the file at the first torn
+    // or corrupt record. Returns the highest sequence found (or afterSequence if there is none).
+    static long replay(Path file, long afterSequence, RecordReader reader) throws IOException {
+        if (!Files.exists(file)) {
+            return afterSequence;
+        }
+        long lastSequence = afterSequence;
+        long validLength = 0;
+        long fileSize = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                byte[] body;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    // A corrupt length is never allocated: nothing longer than the rest of the file can be intact
+                    if (length < Long.BYTES || length > fileSize - validLength - 2 * Integer.BYTES) break;
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) break;
+
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(body));
+                long sequence = recordIn.readLong();
+                if (sequence > afterSequence) {
+                    reader.read(sequence, recordIn);
+                    lastSequence = Math.max(lastSequence, sequence);
+                }
+                validLength += 2 * Integer.BYTES + length;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+        return lastSequence;
+    }
+
+    // Adds a record to the current batch and returns its sequence number. Not durable until synced.
+    long append(RecordWriter writer) throws IOException {
+        synchronized (lock) {
+            long sequence = lastSequence + 1;
+            record.reset();
+            recordOut.writeLong(sequence);
+            writer.write(recordOut);
+
+            byte[] body = record.toByteArray();
+            crc.reset();
+            crc.update(body, 0, body.length);
+            DataOutputStream out = new DataOutputStream(batch);
+            out.writeInt(body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(body);
+            lastSequence = sequence;
+            return sequence;
+        }
+    }
+
+    // Returns the sequence of the last appended record.
+    long lastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    // Blocks until every record up to the given sequence is on disk. The first waiting thread writes and
+    // fsyncs the whole pending batch outside the lock; the others wait for it and usually find their
+    // records already covered, so concurrent committers share one fsync.
+    void sync(long sequence) throws IOException {
+        ByteArrayOutputStream pending;
+        long target;
+        synchronized (lock) {
+            while (durableSequence < sequence && flushing) {
+                awaitFlush();
+            }
+            if (durableSequence >= sequence) {
+                return;
+            }
+            flushing = true;
+            pending = batch;
+            target = lastSequence;
+            batch = new ByteArrayOutputStream(1 << 16);
+        }
+
+        boolean written = false;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            written = true;
+        } finally {
+            synchronized (lock) {
+                flushing = false;
+                if (written) {
+                    durableSequence = target;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void awaitFlush() throws IOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for log sync");
+        }
+    }
+
+    // Discards the file contents once a snapshot covers every record up to the given sequence.
+    // If later records have already reached the file it is left alone; the next snapshot reclaims it.
+    void truncate(long upToSequence) throws IOException {
+        sync(upToSequence);
+        synchronized (lock) {
+            while (flushing) {
+                awaitFlush();
+            }
+            if (durableSequence == upToSequence) {
+                channel.truncate(0);
+                channel.position(0);
+                channel.force(true);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync(lastSequence());
+        channel.close();
+    }
+}
+
+// Durable storage for a Scheduler: every change goes to a write-ahead log, and every snapshotEvery records
+// the whole calendar is written to a snapshot and the log is cleared. Recovery loads the latest snapshot
+// and replays the log records written after it.
+class EventStore implements ScheduleJournal, Closeable {
+    private static final String LOG_FILE = "events.wal";
+    private static final String SNAPSHOT_FILE = "events.snapshot";
+    private static final String SERIES_FILE = "series.dat";
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SERIES_PUT = 3;
+    private static final byte SERIES_REMOVE = 4;
+    private static final byte SERIES_EXCEPTION = 5;
+    private static final byte ARCHIVE = 6;
+    // Set on the type of every record whose strings are length-prefixed UTF-8. Older records used writeUTF, which
+    // cannot hold a string over 64 KB; they still replay.
+    private static final byte LENGTH_PREFIXED = 0x40;
+    // First int of a series file with length-prefixed strings, followed by the count; older files start with the count
+    private static final int SERIES_FORMAT = -2;
+    private static final long FLUSH_INTERVAL_MILLIS = 10;
+
+    private final Path directory;
+    private final Scheduler scheduler;
+    private final WriteAheadLog log;
+    private final boolean syncOnCommit;
+    private final int snapshotEvery;
+    private final Timer flusher;
+    // First failure of the background flush. A failed flush drops its batch, so later flushes cannot make the log
+    // whole again: every commit() and close() after it throws it.
+    private final java.util.concurrent.atomic.AtomicReference<IOException> flushFailure = new java.util.concurrent.atomic.AtomicReference<>();
+    private final java.util.concurrent.atomic.AtomicLong recordsSinceSnapshot = new java.util.concurrent.atomic.AtomicLong();
+    // Latest snapshot; the scheduler materializes days from it lazily
+    private ColumnarSnapshot current;
+
+    private EventStore(Path directory, Scheduler scheduler, WriteAheadLog log, boolean syncOnCommit, int snapshotEvery) {
+        this.directory = directory;
+        this.scheduler = scheduler;
+        this.log = log;
+        this.syncOnCommit = syncOnCommit;
+        this.snapshotEvery = snapshotEvery;
+        if (syncOnCommit) {
+            this.flusher = null;
+        } else {
+            // Without per-commit syncs, at most the last FLUSH_INTERVAL_MILLIS of changes can be lost
+            this.flusher = new Timer("event-store-flusher", true);
+            this.flusher.schedule(new TimerTask() {
+                public void run() {
+                    try {
+                        log.sync(log.lastSequence());
+                    } catch (IOException e) {
+                        flushFailure.compareAndSet(null, e);
+                        cancel();
+                    }
+                }
+            }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS);
+        }
+    }
+
+    // Opens (or creates) a store in the directory, recovers its contents into the scheduler and starts journaling
+    // the scheduler's changes. With syncOnCommit every operation waits for its records to be fsynced (concurrent
+    // operations share an fsync); otherwise the log is flushed in the background.
+    static EventStore open(Path directory, Scheduler scheduler, boolean syncOnCommit, int snapshotEvery) throws IOException {
+        Files.createDirectories(directory);
+        ColumnarSnapshot snapshot = null;
+        long snapshotSequence = 0;
+        if (Files.exists(directory.resolve(SNAPSHOT_FILE))) {
+            snapshot = ColumnarSnapshot.open(directory.resolve(SNAPSHOT_FILE));
+            snapshotSequence = snapshot.getSequence();
+            scheduler.attachSnapshot(snapshot);
+        }
+        // Series are few and small, so they are kept whole in their own file, written with every snapshot
+        if (Files.exists(directory.resolve(SERIES_FILE))) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(directory.resolve(SERIES_FILE))))) {
+                int count = in.readInt();
+                boolean legacy = count != SERIES_FORMAT;
+                for (int n = legacy ? count : in.readInt(); n > 0; n--) {
+                    scheduler.restoreSeries(readSeries(in, legacy));
+                }
+            }
+        }
+        long lastSequence = WriteAheadLog.replay(directory.resolve(LOG_FILE), snapshotSequence, (sequence, in) -> {
+            byte flagged = in.readByte();
+            boolean legacy = (flagged & LENGTH_PREFIXED) == 0;
+            byte type = (byte) (flagged & ~LENGTH_PREFIXED);
+            if (type == SERIES_PUT) {
+                scheduler.restoreSeries(readSeries(in, legacy));
+            } else if (type == SERIES_REMOVE) {
+                scheduler.restoreSeriesRemove(readString(in, legacy));
+            } else if (type == SERIES_EXCEPTION) {
+                scheduler.restoreSeriesException(readString(in, legacy), LocalDate.ofEpochDay(in.readLong()));
+            } else if (type == ARCHIVE) {
+                scheduler.restoreArchive(LocalDate.ofEpochDay(in.readLong()));
+            } else {
+                LocalDate date = LocalDate.ofEpochDay(in.readLong());
+                if (type == PUT) {
+                    scheduler.restorePut(date, readEvent(in, legacy));
+                } else if (type == REMOVE) {
+                    scheduler.restoreRemove(date, readString(in, legacy));
+                }
+            }
+        });
+
+        EventStore store = new EventStore(directory, scheduler,
+                new WriteAheadLog(directory.resolve(LOG_FILE), lastSequence), syncOnCommit, snapshotEvery);
+        store.current = snapshot;
+        scheduler.setJournal(store);
+        return store;
+    }
+
+    @Override
+    public void recordPut(LocalDate date, Event event) {
+        append(out -> {
+            out.writeByte(PUT | LENGTH_PREFIXED);
+            out.writeLong(date.toEpochDay());
+            writeEvent(out, event);
+        });
+    }
+
+    @Override
+    public void recordRemove(LocalDate date, String eventId) {
+        append(out -> {
+            out.writeByte(REMOVE | LENGTH_PREFIXED);
+            out.writeLong(date.toEpochDay());
+            writeString(out, eventId);
+        });
+    }
+
+    @Override
+    public void recordSeriesPut(RecurringSeries series) {
+        append(out -> {
+            out.writeByte(SERIES_PUT | LENGTH_PREFIXED);
+            writeSeries(out, series);
+        });
+    }
+
+    @Override
+    public void recordSeriesRemove(String baseEventId) {
+        append(out -> {
+            out.writeByte(SERIES_REMOVE | LENGTH_PREFIXED);
+            writeString(out, baseEventId);
+        });
+    }
+
+    @Override
+    public void recordSeriesException(String baseEventId, LocalDate date) {
+        append(out -> {
+            out.writeByte(SERIES_EXCEPTION | LENGTH_PREFIXED);
+            writeString(out, baseEventId);
+            out.writeLong(date.toEpochDay());
+        });
+    }
+
+    @Override
+    public void recordArchive(LocalDate cutoff) {
+        append(out -> {
+            out.writeByte(ARCHIVE | LENGTH_PREFIXED);
+            out.writeLong(cutoff.toEpochDay());
+        });
+    }
+
+    @Override
+    public void commit() {
+        IOException failed = flushFailure.get();
+        if (failed != null) {
+            throw new UncheckedIOException("Flushing the log in the background failed", failed);
+        }
+        try {
+            if (syncOnCommit) {
+                log.sync(log.lastSequence());
+            }
+            if (recordsSinceSnapshot.get() >= snapshotEvery) {
+                synchronized (this) {
+                    // Several committers may cross the threshold together; only the first one snapshots
+                    if (recordsSinceSnapshot.get() >= snapshotEvery) {
+                        snapshot();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void append(WriteAheadLog.RecordWriter writer) {
+        try {
+            log.append(writer);
+            recordsSinceSnapshot.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes a new columnar snapshot, atomically replaces the old one and clears the log. Days the scheduler
+    // never loaded are copied from the previous snapshot as-is. Scheduler changes are held off while the
+    // snapshot is written so it matches the log sequence it records.
+    public synchronized void snapshot() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        Path seriesTemp = directory.resolve(SERIES_FILE + ".tmp");
+
+        scheduler.freeze();
+        try {
+            long sequence = log.lastSequence();
+            // The series file goes first: if the snapshot move never happens, replaying a series record
+            // the file already covers only puts the same series again
+            List<RecurringSeries> series = scheduler.getSeries();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(seriesTemp)))) {
+                out.writeInt(SERIES_FORMAT);
+                out.writeInt(series.size());
+                for (RecurringSeries entry : series) {
+                    writeSeries(out, entry);
+                }
+            }
+            Files.move(seriesTemp, directory.resolve(SERIES_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            ColumnarSnapshot.write(temp, sequence, scheduler.getDates(),
+                    date -> scheduler.isMaterialized(date) ? scheduler.getStoredEvents(date) : null, current);
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            current = ColumnarSnapshot.open(snapshot);
+            scheduler.replaceSnapshot(current);
+            // With changes held off, no later record can reach the file first, so the log is always cleared
+            log.truncate(sequence);
+            recordsSinceSnapshot.set(0);
+        } finally {
+            scheduler.unfreeze();
+        }
+    }
+
+    static void writeEvent(DataOutput out, Event event) throws IOException {
+        writeString(out, event.getEventId());
+        writeString(out, event.getTitle());
+        writeString(out, event.getDescription());
+        out.writeLong(event.getDuration().getSeconds());
+        out.writeInt(event.getDuration().getNano());
+        writeTime(out, event.getStartTime());
+        writeTime(out, event.getEndTime());
+        out.writeByte(event.getPriority());
+        out.writeBoolean(event.isRecurring());
+    }
+
+    // Reads an event written by writeEvent, or by its writeUTF predecessor when legacy is set.
+    static Event readEvent(DataInput in, boolean legacy) throws IOException {
+        String eventId = readString(in, legacy);
+        String title = readString(in, legacy);
+        String description = readString(in, legacy);
+        Duration duration = Duration.ofSeconds(in.readLong(), in.readInt());
+        LocalDateTime start = readTime(in);
+        LocalDateTime end = readTime(in);
+        int priority = in.readByte();
+        boolean recurring = in.readBoolean();
+        return new Event(eventId, title, description, duration, start, end, priority, recurring);
+    }
+
+    // A series is its template event followed by its rule.
+    static void writeSeries(DataOutput out, RecurringSeries series) throws IOException {
+        writeEvent(out, series.getTemplate());
+        RecurrenceRule rule = series.getRule();
+        out.writeByte(rule.getFrequency().ordinal());
+        out.writeInt(rule.getInterval());
+        out.writeLong(rule.getStart().toEpochDay());
+        int weekdays = 0;
+        for (DayOfWeek day : rule.getWeekdays()) {
+            weekdays |= 1 << day.ordinal();
+        }
+        out.writeByte(weekdays);
+        out.writeInt(rule.getCount());
+        out.writeLong(rule.getUntil() == null ? Long.MIN_VALUE : rule.getUntil().toEpochDay());
+        out.writeInt(rule.getExceptions().size());
+        for (LocalDate date : rule.getExceptions()) {
+            out.writeLong(date.toEpochDay());
+        }
+    }
+
+    static RecurringSeries readSeries(DataInput in, boolean legacy) throws IOException {
+        Event template = readEvent(in, legacy);
+        RecurrenceRule.Frequency frequency = RecurrenceRule.Frequency.values()[in.readByte()];
+        int interval = in.readInt();
+        LocalDate start = LocalDate.ofEpochDay(in.readLong());
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        int bits = in.readByte();
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if ((bits & 1 << day.ordinal()) != 0) {
+                weekdays.add(day);
+            }
+        }
+        int count = in.readInt();
+        long until = in.readLong();
+        Set<LocalDate> exceptions = new HashSet<>();
+        for (int n = in.readInt(); n > 0; n--) {
+            exceptions.add(LocalDate.ofEpochDay(in.readLong()));
+        }
+        return new RecurringSeries(template.getEventId(), template, new RecurrenceRule(frequency, interval, start,
+                weekdays, count, until == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(until), exceptions));
+    }
+
+    // A string as its UTF-8 length and bytes, with no limit on its size.
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in, boolean legacy) throws IOException {
+        if (legacy) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private static void writeTime(DataOutput out, LocalDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(time.getNano());
+    }
+
+    private static LocalDateTime readTime(DataInput in) throws IOException {
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+
+    // Stops journaling and closes the log; throws the background flush's failure if there was one.
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.cancel();
+        }
+        scheduler.setJournal(ScheduleJournal.NONE);
+        IOException failed = flushFailure.get();
+        try {
+            log.close();
+        } catch (IOException e) {
+            if (failed == null) {
+                throw e;
+            }
+            failed.addSuppressed(e);
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+}
+
+// Read-only, memory-mapped calendar snapshot in a columnar layout:
+//   header     magic, version, log sequence, day count, ID index offset
+//   directory  one entry per day, sorted by date: epoch day, block offset, block length, event count
+//   day block  fixed-width columns (start, end, duration, priority, flags, ID/title/description offsets)
+//              followed by the day's pool of length-prefixed UTF-8 strings
+//   ID index   (epoch day, base ID, occurrence ID) entries sorted by base ID, with their own string pool
+// Opening reads only the header and directory; the day blocks and ID index are memory-mapped, so their
+// pages are read on demand, and a day's Event objects are built only when that day is read.
+// Times are stored as UTC epoch seconds.
+class ColumnarSnapshot {
+    private static final int MAGIC = 0x45564E43; // "EVNC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int DIRECTORY_ENTRY_BYTES = 24;
+    // start, end and duration longs, priority and flags bytes, three string offsets
+    private static final int ROW_BYTES = 3 * Long.BYTES + 2 + 3 * Integer.BYTES;
+    private static final int INDEX_ENTRY_BYTES = 16;
+    private static final byte RECURRING = 1;
+    // Day blocks are mapped in segments of at most this many bytes
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final long sequence;
+    private final long[] epochDays;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] eventCounts;
+    private final ByteBuffer[] segments;
+    private final int[] daySegments;
+    private final int[] segmentOffsets;
+    private final ByteBuffer index;
+    private final int indexEntries;
+
+    private ColumnarSnapshot(FileChannel channel) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a columnar event snapshot");
+        }
+        this.sequence = header.getLong(8);
+        int days = header.getInt(16);
+        long indexOffset = header.getLong(24);
+
+        ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, (long) days * DIRECTORY_ENTRY_BYTES);
+        this.epochDays = new long[days];
+        this.blockOffsets = new long[days];
+        this.blockLengths = new int[days];
+        this.eventCounts = new int[days];
+        for (int d = 0; d < days; d++) {
+            int entry = d * DIRECTORY_ENTRY_BYTES;
+            epochDays[d] = directory.getLong(entry);
+            blockOffsets[d] = directory.getLong(entry + 8);
+            blockLengths[d] = directory.getInt(entry + 16);
+            eventCounts[d] = directory.getInt(entry + 20);
+        }
+
+        // Group consecutive blocks into mappings; the mappings stay valid after the channel is closed
+        List<ByteBuffer> mapped = new ArrayList<>();
+        this.daySegments = new int[days];
+        this.segmentOffsets = new int[days];
+        for (int first = 0; first < days; ) {
+            long start = blockOffsets[first];
+            int last = first;
+            while (last + 1 < days && blockOffsets[last + 1] + blockLengths[last + 1] - start <= MAX_SEGMENT_BYTES) {
+                last++;
+            }
+            for (int d = first; d <= last; d++) {
+                daySegments[d] = mapped.size();
+                segmentOffsets[d] = (int) (blockOffsets[d] - start);
+            }
+            mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, blockOffsets[last] + blockLengths[last] - start));
+            first = last + 1;
+        }
+        this.segments = mapped.toArray(new ByteBuffer[0]);
+
+        this.index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, channel.size() - indexOffset);
+        this.indexEntries = index.getInt(0);
+    }
+
+    // Maps an existing snapshot file.
+    static ColumnarSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new ColumnarSnapshot(channel);
+        }
+    }
+
+    // Log sequence covered by this snapshot.
+    long getSequence() {
+        return sequence;
+    }
+
+    boolean hasDay(LocalDate date) {
+        return Arrays.binarySearch(epochDays, date.toEpochDay()) >= 0;
+    }
+
+    List<LocalDate> getDates() {
+        List<LocalDate> dates = new ArrayList<>(epochDays.length);
+        for (long epochDay : epochDays) {
+            dates.add(LocalDate.ofEpochDay(epochDay));
+        }
+        return dates;
+    }
+
+    // The stored days in [from, to], found by binary search over the sorted directory.
+    List<LocalDate> getDates(LocalDate from, LocalDate to) {
+        int first = Arrays.binarySearch(epochDays, from.toEpochDay());
+        first = first >= 0 ? first : -first - 1;
+        List<LocalDate> dates = new ArrayList<>();
+        for (int d = first; d < epochDays.length && epochDays[d] <= to.toEpochDay(); d++) {
+            dates.add(LocalDate.ofEpochDay(epochDays[d]));
+        }
+        return dates;
+    }
+
+    // Materializes a day's events in start-time order; empty if the day is not in the snapshot.
+    List<Event> readDay(LocalDate date) {
+        int d = Arrays.binarySearch(epochDays, date.toEpochDay());
+        if (d < 0) {
+            return new ArrayList<>();
+        }
+        ByteBuffer block = mapBlock(d);
+        int n = eventCounts[d];
+        int pool = n * ROW_BYTES;
+        List<Event> events = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            LocalDateTime start = LocalDateTime.ofEpochSecond(block.getLong(i * 8), 0, ZoneOffset.UTC);
+            LocalDateTime end = LocalDateTime.ofEpochSecond(block.getLong(n * 8 + i * 8), 0, ZoneOffset.UTC);
+            Duration duration = Duration.ofSeconds(block.getLong(n * 16 + i * 8));
+            int priority = block.get(n * 24 + i);
+            boolean recurring = (block.get(n * 25 + i) & RECURRING) != 0;
+            String eventId = readString(block, pool + block.getInt(n * 26 + i * 4));
+            String title = readString(block, pool + block.getInt(n * 30 + i * 4));
+            String description = readString(block, pool + block.getInt(n * 34 + i * 4));
+            events.add(new Event(eventId, title, description, duration, start, end, priority, recurring));
+        }
+        return events;
+    }
+
+    // Returns the occurrence IDs of an event and their days, found by binary search over the ID index.
+    Map<String, LocalDate> findOccurrences(String baseEventId) {
+        Map<String, LocalDate> occurrences = new HashMap<>();
+        byte[] target = baseEventId.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        int pool = Integer.BYTES + indexEntries * INDEX_ENTRY_BYTES;
+
+        int lo = 0, hi = indexEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareUtf8(index, pool + index.getInt(entry(mid) + 8), target) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < indexEntries; i++) {
+            int entry = entry(i);
+            if (compareUtf8(index, pool + index.getInt(entry + 8), target) != 0) break;
+            occurrences.put(readString(index, pool + index.getInt(entry + 12)), LocalDate.ofEpochDay(index.getLong(entry)));
+        }
+        return occurrences;
+    }
+
+    private static int entry(int i) {
+        return Integer.BYTES + i * INDEX_ENTRY_BYTES;
+    }
+
+    private ByteBuffer mapBlock(int d) {
+        return segments[daySegments[d]].slice(segmentOffsets[d], blockLengths[d]);
+    }
+
+    private static String readString(ByteBuffer buffer, int position) {
+        return new String(readBytes(buffer, position), java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int position) {
+        byte[] bytes = new byte[buffer.getInt(position)];
+        buffer.get(position + Integer.BYTES, bytes);
+        return bytes;
+    }
+
+    // Compares a pooled UTF-8 string with the target bytes, unsigned byte by byte.
+    private static int compareUtf8(ByteBuffer buffer, int position, byte[] target) {
+        int length = buffer.getInt(position);
+        int common = Math.min(length, target.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.compareUnsigned(buffer.get(position + Integer.BYTES + i), target[i]);
+            if (cmp != 0) return cmp;
+        }
+        return length - target.length;
+    }
+
+    // One ID index entry collected while writing.
+    private static class IndexEntry {
+        static final Comparator<IndexEntry> ORDER = (e1, e2) -> {
+            int cmp = Arrays.compareUnsigned(e1.baseEventId, e2.baseEventId);
+            return cmp != 0 ? cmp : Long.compare(e1.epochDay, e2.epochDay);
+        };
+
+        final long epochDay;
+        final byte[] baseEventId;
+        final byte[] eventId;
+
+        IndexEntry(long epochDay, byte[] baseEventId, byte[] eventId) {
+            this.epochDay = epochDay;
+            this.baseEventId = baseEventId;
+            this.eventId = eventId;
+        }
+    }
+
+    // Writes and fsyncs a snapshot of the given days. materialized returns a day's events, or null for a day
+    // that is unchanged since previous; such days have their block copied from previous without building Events.
+    static void write(Path file, long sequence, List<LocalDate> dates,
+                      java.util.function.Function<LocalDate, List<Event>> materialized,
+                      ColumnarSnapshot previous) throws IOException {
+        List<LocalDate> sorted = new ArrayList<>(dates);
+        Collections.sort(sorted);
+        List<IndexEntry> entries = new ArrayList<>();
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer directory = ByteBuffer.allocate(sorted.size() * DIRECTORY_ENTRY_BYTES);
+            long position = HEADER_BYTES + directory.capacity();
+
+            Set<Long> copiedDays = new HashSet<>();
+            for (LocalDate date : sorted) {
+                List<Event> events = materialized.apply(date);
+                ByteBuffer block;
+                int count;
+                if (events != null) {
+                    block = encodeDay(date, events, entries);
+                    count = events.size();
+                } else {
+                    int d = Arrays.binarySearch(previous.epochDays, date.toEpochDay());
+                    block = previous.mapBlock(d);
+                    count = previous.eventCounts[d];
+                    copiedDays.add(date.toEpochDay());
+                }
+                directory.putLong(date.toEpochDay()).putLong(position).putInt(block.remaining()).putInt(count);
+                position += writeFully(out, block, position);
+            }
+
+            // Only the rewritten days are sorted; the copied days' entries are already in order in previous
+            entries.sort(IndexEntry.ORDER);
+            if (!copiedDays.isEmpty()) {
+                entries = merge(entries, previous.indexEntries(copiedDays));
+            }
+            long indexOffset = position;
+            position += writeFully(out, encodeIndex(entries), position);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(sequence).putInt(sorted.size()).putInt(0).putLong(indexOffset);
+            header.flip();
+            directory.flip();
+            writeFully(out, header, 0);
+            writeFully(out, directory, HEADER_BYTES);
+            out.force(true);
+        }
+    }
+
+    private static ByteBuffer encodeDay(LocalDate date, List<Event> events, List<IndexEntry> entries) {
+        int n = events.size();
+        ByteArrayOutputStream pool = new ByteArrayOutputStream(n * 32);
+        ByteBuffer columns = ByteBuffer.allocate(n * ROW_BYTES);
+        for (int i = 0; i < n; i++) {
+            Event event = events.get(i);
+            byte[] eventId = event.getEventId().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            columns.putLong(i * 8, event.getStartTime().toEpochSecond(ZoneOffset.UTC));
+            columns.putLong(n * 8 + i * 8, event.getEndTime().toEpochSecond(ZoneOffset.UTC));
+            columns.putLong(n * 16 + i * 8, event.getDuration().getSeconds());
+            columns.put(n * 24 + i, (byte) event.getPriority());
+            columns.put(n * 25 + i, event.isRecurring() ? RECURRING : 0);
+            columns.putInt(n * 26 + i * 4, pool(pool, eventId));
+            columns.putInt(n * 30 + i * 4, pool(pool, event.getTitle().getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            columns.putInt(n * 34 + i * 4, pool(pool, event.getDescription().getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            entries.add(new IndexEntry(date.toEpochDay(),
+                    Scheduler.baseEventId(event).getBytes(java.nio.charset.StandardCharsets.UTF_8), eventId));
+        }
+        ByteBuffer block = ByteBuffer.allocate(columns.capacity() + pool.size());
+        block.put(columns.array()).put(pool.toByteArray());
+        block.flip();
+        return block;
+    }
+
+    // Returns the ID index entries of the given days, in index order, without decoding their strings.
+    private List<IndexEntry> indexEntries(Set<Long> days) {
+        List<IndexEntry> entries = new ArrayList<>();
+        int pool = Integer.BYTES + indexEntries * INDEX_ENTRY_BYTES;
+        for (int i = 0; i < indexEntries; i++) {
+            int entry = entry(i);
+            long epochDay = index.getLong(entry);
+            if (days.contains(epochDay)) {
+                entries.add(new IndexEntry(epochDay, readBytes(index, pool + index.getInt(entry + 8)),
+                        readBytes(index, pool + index.getInt(entry + 12))));
+            }
+        }
+        return entries;
+    }
+
+    private static List<IndexEntry> merge(List<IndexEntry> a, List<IndexEntry> b) {
+        List<IndexEntry> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0, j = 0;
+        while (i < a.size() && j < b.size()) {
+            merged.add(IndexEntry.ORDER.compare(a.get(i), b.get(j)) <= 0 ? a.get(i++) : b.get(j++));
+        }
+        merged.addAll(a.subList(i, a.size()));
+        merged.addAll(b.subList(j, b.size()));
+        return merged;
+    }
+
+    private static ByteBuffer encodeIndex(List<IndexEntry> entries) {
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        ByteBuffer table = ByteBuffer.allocate(Integer.BYTES + entries.size() * INDEX_ENTRY_BYTES);
+        table.putInt(entries.size());
+        byte[] lastBase = null;
+        int lastBaseOffset = 0;
+        for (IndexEntry entry : entries) {
+            // Entries are sorted by base ID, so each distinct base ID is pooled once
+            if (lastBase == null || !Arrays.equals(lastBase, entry.baseEventId)) {
+                lastBase = entry.baseEventId;
+                lastBaseOffset = pool(pool, lastBase);
+            }
+            table.putLong(entry.epochDay).putInt(lastBaseOffset).putInt(pool(pool, entry.eventId));
+        }
+        ByteBuffer index = ByteBuffer.allocate(table.capacity() + pool.size());
+        index.put(table.array()).put(pool.toByteArray());
+        index.flip();
+        return index;
+    }
+
+    // Appends a length-prefixed string to a pool and returns its offset.
+    private static int pool(ByteArrayOutputStream pool, byte[] bytes) {
+        int offset = pool.size();
+        pool.write(bytes.length >>> 24);
+        pool.write(bytes.length >>> 16);
+        pool.write(bytes.length >>> 8);
+        pool.write(bytes.length);
+        pool.write(bytes, 0, bytes.length);
+        return offset;
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        return written;
+    }
+}
+
+// HTTP/JSON front end over the location calendars, built on the JDK's com.sun.net.httpserver. Every request runs
+// on its own thread from the given executor; threadPerRequest() gives it a virtual thread on JVMs that have them.
+// The calendars do their own locking, so handlers share nothing else. Bodies are flat JSON objects; times use
+// ISO-8601 (2024-01-01T09:30), durations are minutes.
+//
+//   GET    /locations                                        location names
+//   GET    /events?location=&date= | &from=&to=              events of a day or a date range
+//   GET    /events/{id}?location=                            every occurrence of an event
+//   POST   /events?location=       {id,title,description,start,duration,priority,policy}
+//                                                            books an event; without start it takes the earliest free
+//                                                            slot of "date"; location=any picks a free room
+//   PATCH  /events/{id}?location=&date=  {start,duration,title,description,priority,policy}
+//   DELETE /events/{id}?location=[&date=]                    one occurrence, or all of them without date
+//   GET    /free-slots?location=&date=&duration=[&from=&to=] free slots of at least duration minutes
+//   GET    /metrics                                          the metrics report as text
+final class SchedulerHttpApi implements Closeable {
+    private static final int BACKLOG = 4096;
+    // Longest accepted field values, in characters; longer ones are rejected with 422
+    static final int MAX_ID_LENGTH = 256;
+    static final int MAX_TITLE_LENGTH = 1_024;
+    static final int MAX_DESCRIPTION_LENGTH = 65_536;
+
+    private final LocationScheduler rooms;
+    private final SchedulerMetrics metrics;
+    private final com.sun.net.httpserver.HttpServer server;
+    private final java.util.concurrent.ExecutorService ownedExecutor;
+
+    // The JDK server writes headers and body separately; with Nagle's algorithm on, the body waits for the client's
+    // delayed ACK and every response takes about 40 ms. It also closes keep-alive connections beyond 200 idle ones,
+    // which clients that reuse them see as dropped requests. Both are JVM-wide system properties read when the first
+    // server starts, so this class never sets them itself: applications call this before starting a server, or pass
+    // -Dsun.net.httpserver.nodelay=true -Dsun.net.httpserver.maxIdleConnections=100000. Values already set are kept.
+    static void useServerDefaults() {
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+        System.getProperties().putIfAbsent("sun.net.httpserver.maxIdleConnections", "100000");
+    }
+
+    // Starts serving on the address with a thread per request.
+    public SchedulerHttpApi(LocationScheduler rooms, SchedulerMetrics metrics, java.net.InetSocketAddress address) throws IOException {
+        this(rooms, metrics, address, threadPerRequest(), true);
+    }
+
+    // Starts serving on the address with a caller-supplied executor, which the caller shuts down.
+    public SchedulerHttpApi(LocationScheduler rooms, SchedulerMetrics metrics, java.net.InetSocketAddress address,
+                            java.util.concurrent.Executor executor) throws IOException {
+        this(rooms, metrics, address, executor, false);
+    }
+
+    private SchedulerHttpApi(LocationScheduler rooms, SchedulerMetrics metrics, java.net.InetSocketAddress address,
+                             java.util.concurrent.Executor executor, boolean owned) throws IOException {
+        this.rooms = rooms;
+        this.metrics = metrics;
+        this.ownedExecutor = owned ? (java.util.concurrent.ExecutorService) executor : null;
+        server = com.sun.net.httpserver.HttpServer.create(address, BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/locations", exchange -> handle(exchange, this::locations));
+        server.createContext("/events", exchange -> handle(exchange, this::events));
+        server.createContext("/free-slots", exchange -> handle(exchange, this::freeSlots));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+        server.start();
+    }
+
+    // A new thread for every task: virtual threads where the JVM has them (Java 21 and later), otherwise
+    // platform daemon threads, reused while idle.
+    static java.util.concurrent.ExecutorService threadPerRequest() {
+        try {
+            return (java.util.concurrent.ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return java.util.concurrent.Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "scheduler-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Stops accepting requests, waits up to a second for running ones and stops the executor if it was ours.
+    @Override
+    public void close() {
+        server.stop(1);
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+        final String contentType;
+
+        Response(int status, String body, String contentType) {
+            this.status = status;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        static Response json(int status, String body) {
+            return new Response(status, body, "application/json");
+        }
+
+        static Response error(int status, String message) {
+            return json(status, "{\"error\":" + quote(message) + "}");
+        }
+    }
+
+    private interface Handler {
+        Response handle(com.sun.net.httpserver.HttpExchange exchange) throws IOException;
+    }
+
+    // Runs a handler and writes its response. Bad input is a 400; anything else thrown is a 500.
+    private static void handle(com.sun.net.httpserver.HttpExchange exchange, Handler handler) throws IOException {
+        Response response;
+        try {
+            response = handler.handle(exchange);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            response = Response.error(400, e.getMessage() == null ? e.toString() : e.getMessage());
+        } catch (RuntimeException e) {
+            response = Response.error(500, e.toString());
+        }
+        byte[] body = response.body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", response.contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private Response locations(com.sun.net.httpserver.HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            return Response.error(405, "Use GET");
+        }
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        for (String location : rooms.getLocations()) {
+            out.add(quote(location));
+        }
+        return Response.json(200, out.toString());
+    }
+
+    private Response metrics(com.sun.net.httpserver.HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            return Response.error(405, "Use GET");
+        }
+        return new Response(200, metrics.report(), "text/plain");
+    }
+
+    private Response freeSlots(com.sun.net.httpserver.HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            return Response.error(405, "Use GET");
+        }
+        Map<String, String> query = query(exchange);
+        Scheduler scheduler = scheduler(query);
+        LocalDate date = LocalDate.parse(required(query, "date"));
+        Duration duration = duration(required(query, "duration"));
+        LocalTime from = query.containsKey("from") ? LocalTime.parse(query.get("from")) : scheduler.getDayStart();
+        LocalTime to = query.containsKey("to") ? LocalTime.parse(query.get("to")) : scheduler.getDayEnd();
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        for (TimeSlot slot : scheduler.findFreeSlots(date, from, to, duration)) {
+            out.add("{\"start\":" + quote(slot.getStart().toString()) + ",\"end\":" + quote(slot.getEnd().toString()) + "}");
+        }
+        return Response.json(200, out.toString());
+    }
+
+    // /events and /events/{id}
+    private Response events(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String id = path.length() > "/events/".length() ? path.substring("/events/".length()) : null;
+        Map<String, String> query = query(exchange);
+        String method = exchange.getRequestMethod();
+        if (id == null && method.equals("GET")) {
+            return listEvents(scheduler(query), query);
+        }
+        if (id == null && method.equals("POST")) {
+            return createEvent(query, body(exchange));
+        }
+        if (id != null && method.equals("GET")) {
+            return findEvent(scheduler(query), id);
+        }
+        if (id != null && method.equals("PATCH")) {
+            return modifyEvent(scheduler(query), id, query, body(exchange));
+        }
+        if (id != null && method.equals("DELETE")) {
+            return deleteEvent(scheduler(query), id, query);
+        }
+        return Response.error(405, method + " is not supported on " + path);
+    }
+
+    private Response listEvents(Scheduler scheduler, Map<String, String> query) {
+        List<Event> events;
+        if (query.containsKey("date")) {
+            events = scheduler.getEvents(LocalDate.parse(query.get("date")));
+        } else {
+            List<LocalDate> dates = scheduler.getDates();
+            if (dates.isEmpty()) {
+                return Response.json(200, "[]");
+            }
+            LocalDate from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : dates.get(0);
+            LocalDate to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : dates.get(dates.size() - 1);
+            events = scheduler.getEventsBetween(from, to);
+        }
+        return Response.json(200, events(events));
+    }
+
+    private Response findEvent(Scheduler scheduler, String id) {
+        List<Event> events = new ArrayList<>();
+        for (Map.Entry<String, LocalDate> occurrence : scheduler.findOccurrences(id).entrySet()) {
+            Event event = scheduler.getEvent(occurrence.getValue(), occurrence.getKey());
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        if (events.isEmpty()) {
+            return Response.error(404, "Event " + id + " not found");
+        }
+        events.sort(Comparator.comparing(Event::getStartTime));
+        return Response.json(200, events(events));
+    }
+
+    // Books an event at its start time, or at the earliest free slot of its date when it has none. The whole body
+    // is checked first: malformed values are a 400, and a non-positive duration, oversized fields or an event that
+    // leaves its day's window (crossing midnight included) a 422, before any calendar is touched.
+    private Response createEvent(Map<String, String> query, Map<String, String> body) {
+        String id = required(body, "id");
+        long minutes = Long.parseLong(required(body, "duration"));
+        int priority = body.containsKey("priority") ? priority(body.get("priority")) : Event.LOWEST_PRIORITY;
+        LocalDateTime start = body.containsKey("start") ? LocalDateTime.parse(body.get("start")) : null;
+        LocalDate date = start != null ? start.toLocalDate() : LocalDate.parse(required(body, "date"));
+        boolean anyLocation = "any".equalsIgnoreCase(query.get("location"));
+        if (anyLocation && start == null) {
+            throw new IllegalArgumentException("Booking any location needs a start");
+        }
+        ConflictPolicy policy = policy(body);
+        // Every location shares one daily window, so the first one's stands for "any"
+        Scheduler scheduler = anyLocation ? scheduler(Collections.emptyMap()) : scheduler(query);
+        String invalid = minutes <= 0 ? "Duration must be positive: " + minutes : oversized(id, body);
+        if (invalid != null) {
+            return result(ScheduleResult.rejected(null, Collections.emptyList(), invalid), 0);
+        }
+        Duration duration = Duration.ofMinutes(minutes);
+        // Without a start the event must at least fit in the window; placing it sets its real start
+        LocalDateTime checkedStart = start != null ? start : LocalDateTime.of(date, scheduler.getDayStart());
+        Event event = new Event(id, body.getOrDefault("title", ""), body.getOrDefault("description", ""), duration,
+                checkedStart, checkedStart.plus(duration), priority, false);
+        ScheduleResult outside = scheduler.outsideWindow(date, event);
+        if (outside != null) {
+            return result(outside, 0);
+        }
+
+        if (anyLocation) {
+            String location = rooms.scheduleInAnyRoom(start.toLocalDate(), event);
+            return location == null ? Response.error(409, "No location is free at " + start)
+                    : Response.json(201, "{\"location\":" + quote(location) + ",\"event\":" + event(event) + "}");
+        }
+        ScheduleResult result = start == null
+                ? scheduler.place(date, event, PlacementPolicy.EARLIEST)
+                : scheduler.schedule(date, event, policy);
+        return result(result, result.isSuccess() ? 201 : 0);
     }
 
-    //Recursive helper method to insert an event into the correct position in the tree based on the event's start time.
-    private IntervalNode insert(IntervalNode node, Event event) {
-        if (node == null) {
-            return new IntervalNode(event);
+    // Why the ID or a title or description in the body is too long, or null if none is.
+    private static String oversized(String id, Map<String, String> body) {
+        if (id != null && id.length() > MAX_ID_LENGTH) {
+            return "ID is longer than " + MAX_ID_LENGTH + " characters";
         }
+        if (body.getOrDefault("title", "").length() > MAX_TITLE_LENGTH) {
+            return "Title is longer than " + MAX_TITLE_LENGTH + " characters";
+        }
+        if (body.getOrDefault("description", "").length() > MAX_DESCRIPTION_LENGTH) {
+            return "Description is longer than " + MAX_DESCRIPTION_LENGTH + " characters";
+        }
+        return null;
+    }
 
-        LocalDateTime start = event.getStartTime();
-        LocalDateTime nodeStart = node.event.getStartTime();
+    // Changes an occurrence's time, duration and details. Without a date the event must occur only once.
+    // The whole body is checked before anything is written, and the changes are applied together or not at all.
+    private Response modifyEvent(Scheduler scheduler, String id, Map<String, String> query, Map<String, String> body) {
+        LocalDateTime newStart = body.containsKey("start") ? LocalDateTime.parse(body.get("start")) : null;
+        Duration newDuration = body.containsKey("duration") ? duration(body.get("duration")) : null;
+        Integer priority = body.containsKey("priority") ? priority(body.get("priority")) : null;
+        ConflictPolicy policy = policy(body);
+        LocalDate date = occurrenceDate(scheduler, id, query);
+        if (date == null) {
+            return Response.error(404, "Event " + id + " not found" + (query.containsKey("date") ? " on " + query.get("date") : ""));
+        }
+        if (newStart != null && !newStart.toLocalDate().equals(date)) {
+            throw new IllegalArgumentException("An occurrence can only move within its day " + date);
+        }
+        String invalid = oversized(null, body);
+        if (invalid != null) {
+            return result(ScheduleResult.rejected(null, Collections.emptyList(), invalid), 0);
+        }
+        ScheduleResult result = scheduler.modify(date, occurrenceOn(scheduler, id, date), newStart, newDuration, body.get("title"),
+                body.get("description"), priority, policy);
+        if (!result.isSuccess()) {
+            return result(result, 0);
+        }
+        return Response.json(200, event(result.getEvent()));
+    }
 
-        if (start.isBefore(nodeStart)) {
-            node.left = insert(node.left, event);
+    // Deletes the occurrence on the given date, or every occurrence without one.
+    private Response deleteEvent(Scheduler scheduler, String id, Map<String, String> query) {
+        int deleted;
+        if (query.containsKey("date")) {
+            LocalDate date = LocalDate.parse(query.get("date"));
+            deleted = scheduler.delete(date, occurrenceOn(scheduler, id, date)) ? 1 : 0;
         } else {
-            node.right = insert(node.right, event);
+            deleted = scheduler.deleteAll(id);
         }
+        return deleted == 0 ? Response.error(404, "Event " + id + " not found")
+                : Response.json(200, "{\"deleted\":" + deleted + "}");
+    }
 
-        if (node.max.isBefore(event.getEndTime())) {
-            node.max = event.getEndTime();
+    // The date named in the query, or the only date the event occurs on.
+    private static LocalDate occurrenceDate(Scheduler scheduler, String id, Map<String, String> query) {
+        if (query.containsKey("date")) {
+            return LocalDate.parse(query.get("date"));
         }
-
-        return node;
+        Map<String, LocalDate> occurrences = scheduler.findOccurrences(id);
+        if (occurrences.size() > 1) {
+            throw new IllegalArgumentException("Event " + id + " occurs " + occurrences.size() + " times; name a date");
+        }
+        return occurrences.isEmpty() ? null : occurrences.values().iterator().next();
     }
 
-    // Function for checking if there's any overlap with existing events returns True if there exists any
-    public boolean hasOverlap(Event newEvent) {
-        return searchOverlap(root, newEvent);
+    // A single event keeps its own ID; a recurring one has an occurrence ID per day.
+    private static String occurrenceOn(Scheduler scheduler, String id, LocalDate date) {
+        return scheduler.getEvent(date, id) != null ? id : Scheduler.occurrenceId(id, date);
     }
-    //  Recursive method to search for overlapping events in the tree.
-    private boolean searchOverlap(IntervalNode node, Event event) {
-        if (node == null) return false;
 
-        if (overlaps(node.event, event)) {
-            return true;
+    // Maps a scheduling result to a status: the given one on success, otherwise by how it failed.
+    private static Response result(ScheduleResult result, int successStatus) {
+        int status;
+        switch (result.getStatus()) {
+            case SCHEDULED:
+            case RESCHEDULED:
+                status = successStatus == 0 ? 200 : successStatus;
+                break;
+            case NOT_FOUND:
+                status = 404;
+                break;
+            case REJECTED:
+                status = 422;
+                break;
+            default:
+                status = 409;
         }
-
-        if (node.left != null && !node.left.event.getStartTime().isAfter(event.getEndTime())) {
-            return searchOverlap(node.left, event);
+        StringBuilder out = new StringBuilder("{\"status\":").append(quote(result.getStatus().name()));
+        if (result.getMessage() != null) {
+            out.append(",\"message\":").append(quote(result.getMessage()));
         }
-
-        return searchOverlap(node.right, event);
+        if (result.getEvent() != null) {
+            out.append(",\"event\":").append(event(result.getEvent()));
+        }
+        out.append(",\"conflicts\":").append(events(result.getConflicts())).append('}');
+        return Response.json(status, out.toString());
     }
 
-    // Determines if two events overlap based on their start and end times.
-    private boolean overlaps(Event e1, Event e2) {
-        return !(e1.getEndTime().isBefore(e2.getStartTime()) ||
-                e2.getEndTime().isBefore(e1.getStartTime()));
+    private Scheduler scheduler(Map<String, String> query) {
+        String location = query.get("location");
+        if (location == null) {
+            return rooms.getScheduler(rooms.getLocations().get(0));
+        }
+        Scheduler scheduler = rooms.getScheduler(location);
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Unknown location " + location);
+        }
+        return scheduler;
     }
 
-    // Delete an event from the tree
-    public void delete(String eventId) {
-        root = delete(root, eventId);
-        eventIds.remove(eventId);
+    // A duration in minutes, which must be positive.
+    private static Duration duration(String minutes) {
+        Duration duration = Duration.ofMinutes(Long.parseLong(minutes));
+        if (duration.isZero() || duration.isNegative()) {
+            throw new IllegalArgumentException("Duration must be positive: " + minutes);
+        }
+        return duration;
     }
 
-    private IntervalNode delete(IntervalNode node, String eventId) {
-        if (node == null) return null;
-
-        if (node.event.getEventId().equals(eventId)) {
-            if (node.left == null) return node.right;
-            if (node.right == null) return node.left;
-
-            IntervalNode successor = findMin(node.right);
-            node.event = successor.event;
-            node.right = delete(node.right, successor.event.getEventId());
-        } else if (node.left != null && node.left.event.getEventId().equals(eventId)) {
-            node.left = delete(node.left, eventId);
-        } else {
-            node.right = delete(node.right, eventId);
+    private static int priority(String value) {
+        int priority = Integer.parseInt(value);
+        if (!Event.isValidPriority(priority)) {
+            throw new IllegalArgumentException("Priority must be between " + Event.HIGHEST_PRIORITY + " and "
+                    + Event.LOWEST_PRIORITY + ": " + value);
         }
+        return priority;
+    }
 
-        updateMax(node);
-        return node;
+    private static ConflictPolicy policy(Map<String, String> body) {
+        return body.containsKey("policy") ? ConflictPolicy.valueOf(body.get("policy")) : ConflictPolicy.REJECT;
     }
 
-    private IntervalNode findMin(IntervalNode node) {
-        while (node.left != null) {
-            node = node.left;
+    private static String required(Map<String, String> values, String name) {
+        String value = values.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name);
         }
-        return node;
+        return value;
     }
 
-    private void updateMax(IntervalNode node) {
-        node.max = node.event.getEndTime();
-        if (node.left != null && node.left.max.isAfter(node.max)) {
-            node.max = node.left.max;
+    private static Map<String, String> query(com.sun.net.httpserver.HttpExchange exchange) {
+        Map<String, String> values = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return values;
         }
-        if (node.right != null && node.right.max.isAfter(node.max)) {
-            node.max = node.right.max;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                values.put(java.net.URLDecoder.decode(pair.substring(0, eq), java.nio.charset.StandardCharsets.UTF_8),
+                        java.net.URLDecoder.decode(pair.substring(eq + 1), java.nio.charset.StandardCharsets.UTF_8));
+            }
         }
+        return values;
     }
 
-
-    //Finds and returns a list of free time slots within a specified time range that can accommodate a minimum duration.
-    public List<TimeSlot> findFreeSlots(LocalDateTime dayStart, LocalDateTime dayEnd, Duration minDuration) {
-        List<Event> events = new ArrayList<>();
-        collectEvents(root, events);
-
-        // Sort events by start time
-        events.sort(Comparator.comparing(Event::getStartTime));
-
-        List<TimeSlot> freeSlots = new ArrayList<>();
-        LocalDateTime currentTime = dayStart;
-
-        // Validate inputs
-        if (dayStart.isAfter(dayEnd) || minDuration.isNegative() || minDuration.isZero()) {
-            return freeSlots;
+    private static Map<String, String> body(com.sun.net.httpserver.HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return parseObject(new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
         }
+    }
 
-        // If there are no events, return the entire day as free
-        if (events.isEmpty()) {
-            freeSlots.add(new TimeSlot(dayStart, dayEnd));
-            return freeSlots;
+    static String events(List<Event> events) {
+        StringJoiner out = new StringJoiner(",", "[", "]");
+        for (Event event : events) {
+            out.add(event(event));
         }
+        return out.toString();
+    }
 
-        for (Event event : events) {
-            // Skip events outside our day range
-            if (event.getEndTime().isBefore(dayStart) || event.getStartTime().isAfter(dayEnd)) {
-                continue;
+    static String event(Event event) {
+        return "{\"id\":" + quote(event.getEventId())
+                + ",\"title\":" + quote(event.getTitle())
+                + ",\"description\":" + quote(event.getDescription())
+                + ",\"start\":" + quote(String.valueOf(event.getStartTime()))
+                + ",\"end\":" + quote(String.valueOf(event.getEndTime()))
+                + ",\"duration\":" + event.getDuration().toMinutes()
+                + ",\"priority\":" + event.getPriority()
+                + ",\"recurring\":" + event.isRecurring() + "}";
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
             }
+        }
+        return out.append('"').toString();
+    }
 
-            // Check for free slot before the current event
-            if (currentTime.isBefore(event.getStartTime())) {
-                Duration slotDuration = Duration.between(currentTime, event.getStartTime());
-                if (slotDuration.compareTo(minDuration) >= 0) {
-                    freeSlots.add(new TimeSlot(currentTime, event.getStartTime()));
+    // Parses a flat JSON object of strings, numbers, booleans and nulls into text values; null members are left out.
+    static Map<String, String> parseObject(String json) {
+        Map<String, String> values = new HashMap<>();
+        int[] at = {skipSpace(json, 0)};
+        if (json.trim().isEmpty()) {
+            return values;
+        }
+        expect(json, at, '{');
+        if (peek(json, at) == '}') {
+            at[0]++;
+        } else {
+            while (true) {
+                String name = parseString(json, at);
+                expect(json, at, ':');
+                String value = peek(json, at) == '"' ? parseString(json, at) : parseLiteral(json, at);
+                if (value != null) {
+                    values.put(name, value);
                 }
+                if (peek(json, at) == ',') {
+                    at[0]++;
+                    continue;
+                }
+                expect(json, at, '}');
+                break;
             }
-
-            // Update current time to the end of current event
-            currentTime = event.getEndTime();
         }
+        if (skipSpace(json, at[0]) != json.length()) {
+            throw new IllegalArgumentException("Unexpected text after JSON object at " + at[0]);
+        }
+        return values;
+    }
 
-        // Check for remaining time after the last event
-        if (currentTime.isBefore(dayEnd)) {
-            Duration finalSlotDuration = Duration.between(currentTime, dayEnd);
-            if (finalSlotDuration.compareTo(minDuration) >= 0) {
-                freeSlots.add(new TimeSlot(currentTime, dayEnd));
+    private static String parseString(String json, int[] at) {
+        expect(json, at, '"');
+        StringBuilder out = new StringBuilder();
+        for (int i = at[0]; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                at[0] = i + 1;
+                return out.toString();
+            }
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (++i == json.length()) {
+                break;
+            }
+            char escaped = json.charAt(i);
+            switch (escaped) {
+                case 'n': out.append('\n'); break;
+                case 't': out.append('\t'); break;
+                case 'r': out.append('\r'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u':
+                    if (i + 4 >= json.length()) {
+                        throw new IllegalArgumentException("Bad \\u escape at " + i);
+                    }
+                    out.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default: out.append(escaped);
             }
         }
-
-        return freeSlots;
+        throw new IllegalArgumentException("Unterminated string in JSON");
     }
 
-    private void collectEvents(IntervalNode node, List<Event> events) {
-        if (node == null) return;
-        collectEvents(node.left, events);
-        events.add(node.event);
-        collectEvents(node.right, events);
+    // A number, true, false or null; null comes back as null.
+    private static String parseLiteral(String json, int[] at) {
+        int start = at[0];
+        int end = start;
+        while (end < json.length() && ",}] \t\r\n".indexOf(json.charAt(end)) < 0) {
+            end++;
+        }
+        String literal = json.substring(start, end);
+        if (literal.isEmpty() || !(literal.equals("true") || literal.equals("false") || literal.equals("null")
+                || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?"))) {
+            throw new IllegalArgumentException("Bad JSON value at " + start + ": " + literal);
+        }
+        at[0] = end;
+        return literal.equals("null") ? null : literal;
     }
 
-    // Get all events for display
-    public List<Event> getAllEvents() {
-        List<Event> events = new ArrayList<>();
-        collectEvents(root, events);
-        return events;
+    private static char peek(String json, int[] at) {
+        at[0] = skipSpace(json, at[0]);
+        if (at[0] >= json.length()) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        return json.charAt(at[0]);
     }
-}
-
-// Time slot class for representing free time slots
-class TimeSlot {
-    private LocalDateTime start;
-    private LocalDateTime end;
 
-    public TimeSlot(LocalDateTime start, LocalDateTime end) {
-        this.start = start;
-        this.end = end;
+    private static void expect(String json, int[] at, char c) {
+        if (peek(json, at) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at " + at[0] + " in JSON");
+        }
+        at[0]++;
     }
 
-    public LocalDateTime getStart() { return start; }
-    public LocalDateTime getEnd() { return end; }
+    private static int skipSpace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
 }
 
 // Main Event Management System
+// Console front end: all scheduling decisions are delegated to Scheduler.
 public class EventManagementSystem {
-    private Map<LocalDate, IntervalTree> dailyEvents;
+    private LocationScheduler rooms;
+    // Calendar of the location being worked on
+    private Scheduler scheduler;
+    // Operation metrics of every location's calendar
+    private final SchedulerMetrics metrics = new SchedulerMetrics();
     private Set<String> locations;
-    private LocalTime defaultStartTime;
-    private LocalTime defaultEndTime;
-    private int totalDays;
     private Scanner scanner;
     private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
     public EventManagementSystem() {
-        this.dailyEvents = new HashMap<>();
-        this.locations = new HashSet<>();
+        this.locations = new LinkedHashSet<>();
         this.scanner = new Scanner(System.in);
     }
 
@@ -363,22 +6586,55 @@ public class EventManagementSystem {
         System.out.println("Enter locations (comma-separated):");
         String[] locs = scanner.nextLine().split(",");
         for (String loc : locs) {
-            locations.add(loc.trim());
+            if (!loc.trim().isEmpty()) {
+                locations.add(loc.trim());
+            }
+        }
+        if (locations.isEmpty()) {
+            locations.add("Main");
         }
 
         System.out.println("Enter number of days for the event:");
-        totalDays = Integer.parseInt(scanner.nextLine());
+        int totalDays = Integer.parseInt(scanner.nextLine());
 
         System.out.println("Enter daily start time (HH:mm):");
-        defaultStartTime = LocalTime.parse(scanner.nextLine(), TIME_FORMATTER);
+        LocalTime startTime = LocalTime.parse(scanner.nextLine(), TIME_FORMATTER);
 
         System.out.println("Enter daily end time (HH:mm):");
-        defaultEndTime = LocalTime.parse(scanner.nextLine(), TIME_FORMATTER);
+        LocalTime endTime = LocalTime.parse(scanner.nextLine(), TIME_FORMATTER);
 
-        LocalDate startDate = LocalDate.now();
-        for (int i = 0; i < totalDays; i++) {
-            dailyEvents.put(startDate.plusDays(i), new IntervalTree());
+        rooms = new LocationScheduler(locations, LocalDate.now(), totalDays, startTime, endTime);
+        rooms.setMetrics(metrics);
+        scheduler = rooms.getScheduler(locations.iterator().next());
+    }
+
+    // Returns the calendar of the location the console last worked on, for embedding callers.
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    // Returns the per-location calendars behind the console.
+    public LocationScheduler getRooms() {
+        return rooms;
+    }
+
+    // Asks which location to work on when there is more than one. With allowAny, 'any' leaves the choice to
+    // the scheduler and returns true.
+    private boolean selectLocation(boolean allowAny) {
+        if (locations.size() == 1) {
+            return false;
+        }
+        System.out.println("Enter location (" + String.join(", ", locations) + (allowAny ? ", or 'any'" : "") + "):");
+        String location = scanner.nextLine().trim();
+        while (rooms.getScheduler(location) == null && !(allowAny && location.equalsIgnoreCase("any"))) {
+            System.out.println("Unknown location, enter one of: " + String.join(", ", locations));
+            location = scanner.nextLine().trim();
         }
+        if (location.equalsIgnoreCase("any") && rooms.getScheduler(location) == null) {
+            return true;
+        }
+        scheduler = rooms.getScheduler(location);
+        return false;
     }
 
     // Displays the main menu and handles user input for various operations such as adding, deleting, modifying, and displaying events.
@@ -389,7 +6645,8 @@ public class EventManagementSystem {
             System.out.println("2. Delete Event");
             System.out.println("3. Modify Event");
             System.out.println("4. Display Events");
-            System.out.println("5. Exit");
+            System.out.println("5. Show Metrics");
+            System.out.println("6. Exit");
             System.out.print("Enter your choice: ");
 
             int choice = Integer.parseInt(scanner.nextLine());
@@ -408,6 +6665,9 @@ public class EventManagementSystem {
                     displayEvents();
                     break;
                 case 5:
+                    System.out.print(metrics.report());
+                    break;
+                case 6:
                     System.out.println("Exiting...");
                     return;
                 default:
@@ -441,18 +6701,20 @@ public class EventManagementSystem {
         System.out.println("4 - Neither Urgent nor Important");
         int priority = Integer.parseInt(scanner.nextLine());
 
+        boolean anyRoom = selectLocation(!isRecurring);
         if (isRecurring) {
             scheduleRecurringEvent(eventId, title, description, duration, priority);
         } else {
-            scheduleSingleEvent(eventId, title, description, duration, priority);
+            scheduleSingleEvent(eventId, title, description, duration, priority, anyRoom);
         }
     }
 
-    // Schedules a single event for a selected day, checking for free slots and conflicts.
+    // Schedules a single event for a selected day, checking for free slots and conflicts. With anyRoom the
+    // event goes to whichever location is free at the chosen time.
     private void scheduleSingleEvent(String eventId, String title, String description,
-                                     Duration duration, int priority) {
+                                     Duration duration, int priority, boolean anyRoom) {
         System.out.println("\nAvailable days:");
-        List<LocalDate> dates = new ArrayList<>(dailyEvents.keySet());
+        List<LocalDate> dates = scheduler.getDates();
         for (int i = 0; i < dates.size(); i++) {
             System.out.println((i + 1) + ". " + dates.get(i).format(DATE_FORMATTER));
         }
@@ -461,9 +6723,28 @@ public class EventManagementSystem {
         int dayChoice = Integer.parseInt(scanner.nextLine()) - 1;
         LocalDate selectedDate = dates.get(dayChoice);
 
+        if (anyRoom) {
+            System.out.println("Enter start time (HH:mm):");
+            LocalDateTime eventStart = LocalDateTime.of(selectedDate, LocalTime.parse(scanner.nextLine(), TIME_FORMATTER));
+            Event newEvent = new Event(eventId, title, description, duration,
+                    eventStart, eventStart.plus(duration), priority, false);
+            String location = rooms.scheduleInAnyRoom(selectedDate, newEvent);
+            System.out.println(location == null ? "No location is free at that time!" : "Event scheduled in " + location + "!");
+            return;
+        }
         displayFreeSlots(selectedDate, duration);
-        System.out.println("Enter start time (HH:mm):");
-        LocalTime startTime = LocalTime.parse(scanner.nextLine(), TIME_FORMATTER);
+        System.out.println("Enter start time (HH:mm) or 'auto' for the earliest free slot:");
+        String input = scanner.nextLine();
+
+        if (input.equalsIgnoreCase("auto")) {
+            Event newEvent = new Event(eventId, title, description, duration, null, null, priority, false);
+            ScheduleResult result = scheduler.place(selectedDate, newEvent, PlacementPolicy.EARLIEST);
+            System.out.println(result.isSuccess()
+                    ? "Event scheduled at " + newEvent.getStartTime().format(TIME_FORMATTER) + "!"
+                    : result.getMessage());
+            return;
+        }
+        LocalTime startTime = LocalTime.parse(input, TIME_FORMATTER);
 
         LocalDateTime eventStart = LocalDateTime.of(selectedDate, startTime);
         LocalDateTime eventEnd = eventStart.plus(duration);
@@ -477,173 +6758,149 @@ public class EventManagementSystem {
     }
 
     // Schedules a recurring event for multiple days, allowing the user to specify start times for each occurrence.
+    // The chosen occurrences are committed together; if any of them conflicts, each day is resolved on its own.
     private void scheduleRecurringEvent(String eventId, String title, String description,
                                         Duration duration, int priority) {
+        System.out.println("Repeat by rule (daily/weekly/monthly) or enter 'custom' to pick each day:");
+        String frequency = scanner.nextLine().trim().toUpperCase();
+        if (!frequency.equals("CUSTOM")) {
+            scheduleSeries(eventId, title, description, duration, priority, RecurrenceRule.Frequency.valueOf(frequency));
+            return;
+        }
         System.out.println("\nSchedule recurring event for each day:");
 
-        for (LocalDate date : dailyEvents.keySet()) {
+        ScheduleTransaction series = scheduler.begin();
+        Map<LocalDate, Event> occurrences = new TreeMap<>();
+        for (LocalDate date : scheduler.getDates()) {
             System.out.println("\nScheduling for " + date.format(DATE_FORMATTER));
             displayFreeSlots(date, duration);
 
-            System.out.println("Enter start time for this day (HH:mm) or 'skip' to skip:");
+            System.out.println("Enter start time for this day (HH:mm), 'auto' for the earliest free slot or 'skip' to skip:");
             String input = scanner.nextLine();
 
+            if (input.equalsIgnoreCase("auto")) {
+                List<TimeSlot> freeSlots = scheduler.findFreeSlots(date, duration);
+                if (freeSlots.isEmpty()) {
+                    System.out.println("No free slot on " + date.format(DATE_FORMATTER) + "; skipping.");
+                    continue;
+                }
+                input = freeSlots.get(0).getStart().format(TIME_FORMATTER);
+            }
             if (!input.equalsIgnoreCase("skip")) {
                 LocalTime startTime = LocalTime.parse(input, TIME_FORMATTER);
                 LocalDateTime eventStart = LocalDateTime.of(date, startTime);
                 LocalDateTime eventEnd = eventStart.plus(duration);
 
-                Event newEvent = new Event(eventId + "_" + date.format(DATE_FORMATTER),
+                Event newEvent = new Event(Scheduler.occurrenceId(eventId, date),
                         title, description, duration, eventStart, eventEnd,
                         priority, true);
-
-                if (checkAndScheduleEvent(date, newEvent)) {
-                    System.out.println("Event scheduled for " + date.format(DATE_FORMATTER));
-                }
+                series.schedule(date, newEvent);
+                occurrences.put(date, newEvent);
             }
         }
-    }
-
-    //Checks for conflicts with an event and attempts to schedule it if no conflicts are found.
-    private boolean checkAndScheduleEvent(LocalDate date, Event newEvent) {
-        IntervalTree tree = dailyEvents.get(date);
+        if (occurrences.isEmpty()) {
+            return;
+        }
 
-        if (tree.hasOverlap(newEvent)) {
-            System.out.println("Time slot conflict detected!");
-            if (handleConflict(date, newEvent)) {
-                tree.insert(newEvent);
-                return true;
+        ScheduleResult result = series.commit();
+        if (result.isSuccess()) {
+            for (LocalDate date : occurrences.keySet()) {
+                System.out.println("Event scheduled for " + date.format(DATE_FORMATTER));
             }
-            return false;
+            return;
         }
-
-        tree.insert(newEvent);
-        return true;
-    }
-
-    // Handles conflicts by allowing the user to choose a new time slot, attempt to reschedule conflicting events, or cancel scheduling.
-    private boolean handleConflict(LocalDate date, Event newEvent) {
-        System.out.println("Would you like to:");
-        System.out.println("1. Choose another time slot");
-        System.out.println("2. Try to reschedule conflicting events (if priority permits)");
-        System.out.println("3. Cancel scheduling");
-
-        int choice = Integer.parseInt(scanner.nextLine());
-
-        switch (choice) {
-            case 1:
-                displayFreeSlots(date, newEvent.getDuration());
-                System.out.println("Enter new start time (HH:mm):");
-                LocalTime newStartTime = LocalTime.parse(scanner.nextLine(), TIME_FORMATTER);
-                newEvent.setStartTime(LocalDateTime.of(date, newStartTime));
-                newEvent.setEndTime(newEvent.getStartTime().plus(newEvent.getDuration()));
-                return checkAndScheduleEvent(date, newEvent);
-
-            case 2:
-                return tryRescheduleConflicts(date, newEvent);
-
-            default:
-                return false;
+        System.out.println(result.getMessage());
+        for (Event event : result.getConflicts()) {
+            displayEvent(event);
+        }
+        System.out.println("Nothing was scheduled; resolving each day separately.");
+        for (Map.Entry<LocalDate, Event> occurrence : occurrences.entrySet()) {
+            if (checkAndScheduleEvent(occurrence.getKey(), occurrence.getValue())) {
+                System.out.println("Event scheduled for " + occurrence.getKey().format(DATE_FORMATTER));
+            }
         }
     }
 
-    // Attempts to reschedule conflicting events based on priority and available time slots.
-    private boolean tryRescheduleConflicts(LocalDate date, Event newEvent) {
-        IntervalTree tree = dailyEvents.get(date);
-        List<Event> conflicts = findConflictingEvents(date, newEvent);
-
-        if (conflicts.isEmpty()) {
-            tree.insert(newEvent);  // Only insert if there are no conflicts
-            return true;
+    // Stores a recurring event as a single rule starting on the first calendar day.
+    private void scheduleSeries(String eventId, String title, String description, Duration duration, int priority,
+                                RecurrenceRule.Frequency frequency) {
+        LocalDate first = scheduler.getDates().get(0);
+        System.out.println("Enter start time (HH:mm):");
+        LocalDateTime start = LocalDateTime.of(first, LocalTime.parse(scanner.nextLine(), TIME_FORMATTER));
+        System.out.println("Repeat every how many " + (frequency == RecurrenceRule.Frequency.DAILY ? "days"
+                : frequency == RecurrenceRule.Frequency.WEEKLY ? "weeks" : "months") + "?");
+        int interval = Integer.parseInt(scanner.nextLine());
+        System.out.println("Number of occurrences (0 for no limit):");
+        int count = Integer.parseInt(scanner.nextLine());
+        System.out.println("Last date (yyyy-MM-dd) or empty for none:");
+        String until = scanner.nextLine().trim();
+
+        RecurrenceRule rule = frequency == RecurrenceRule.Frequency.DAILY ? RecurrenceRule.daily(first)
+                : frequency == RecurrenceRule.Frequency.WEEKLY ? RecurrenceRule.weekly(first) : RecurrenceRule.monthly(first);
+        rule = rule.every(interval).times(count);
+        if (!until.isEmpty()) {
+            rule = rule.until(LocalDate.parse(until, DATE_FORMATTER));
         }
-
-        // Check if new event has higher priority than all conflicts
-        for (Event conflict : conflicts) {
-            if (conflict.getPriority() <= newEvent.getPriority()) {
-                System.out.println("Cannot reschedule - Conflicting event has equal or higher priority:");
-                displayEvent(conflict);
-                return false;
-            }
+        Event template = new Event(eventId, title, description, duration, start, start.plus(duration), priority, true);
+        ScheduleResult result = scheduler.addSeries(template, rule);
+        if (result.isSuccess()) {
+            System.out.println("Recurring event scheduled!");
+            return;
         }
-
-        // Remove all conflicting events
-        for (Event event : conflicts) {
-            tree.delete(event.getEventId());
+        System.out.println(result.getMessage());
+        for (Event event : result.getConflicts()) {
+            displayEvent(event);
         }
+    }
 
-        // Schedule the new event
-        tree.insert(newEvent);
+    //Checks for conflicts with an event and schedules it, asking the user how to resolve any conflict.
+    private boolean checkAndScheduleEvent(LocalDate date, Event newEvent) {
+        return scheduleInteractively(date, newEvent.getStartTime(), newEvent.getDuration(), (start, policy) -> {
+            newEvent.setStartTime(start);
+            newEvent.setEndTime(start.plus(newEvent.getDuration()));
+            return scheduler.schedule(date, newEvent, policy);
+        });
+    }
 
-        // Try to reschedule conflicting events
-        boolean allRescheduled = true;
-        for (Event event : conflicts) {
-            List<TimeSlot> freeSlots = tree.findFreeSlots(
-                    LocalDateTime.of(date, defaultStartTime),
-                    LocalDateTime.of(date, defaultEndTime),
-                    event.getDuration()
-            );
+    // Runs a scheduling attempt and, while it conflicts, lets the user choose a new time slot,
+    // attempt to reschedule conflicting events, or cancel scheduling.
+    private boolean scheduleInteractively(LocalDate date, LocalDateTime start, Duration duration,
+                                          java.util.function.BiFunction<LocalDateTime, ConflictPolicy, ScheduleResult> attempt) {
+        ScheduleResult result = attempt.apply(start, ConflictPolicy.REJECT);
 
-            if (freeSlots.isEmpty()) {
-                System.out.println("Failed to reschedule all conflicts!");
-                allRescheduled = false;
-                break;
-            }
+        while (result.getStatus() == ScheduleResult.Status.CONFLICT) {
+            System.out.println(result.getMessage());
+            System.out.println("Would you like to:");
+            System.out.println("1. Choose another time slot");
+            System.out.println("2. Try to reschedule conflicting events (if priority permits)");
+            System.out.println("3. Cancel scheduling");
 
-            // Schedule in the first available slot
-            TimeSlot slot = freeSlots.get(0);
-            event.setStartTime(slot.getStart());
-            event.setEndTime(slot.getStart().plus(event.getDuration()));
-            tree.insert(event);
-        }
+            int choice = Integer.parseInt(scanner.nextLine());
 
-        if (!allRescheduled) {
-            // If rescheduling failed, revert all changes
-            tree.delete(newEvent.getEventId());
-            for (Event event : conflicts) {
-                tree.insert(event);
+            if (choice == 1) {
+                displayFreeSlots(date, duration);
+                System.out.println("Enter new start time (HH:mm):");
+                start = LocalDateTime.of(date, LocalTime.parse(scanner.nextLine(), TIME_FORMATTER));
+                result = attempt.apply(start, ConflictPolicy.REJECT);
+            } else if (choice == 2) {
+                result = attempt.apply(start, ConflictPolicy.RESCHEDULE_LOWER_PRIORITY);
+            } else {
+                return false;
             }
-            return false;
         }
 
-        return true;
-    }
-
-    private List<Event> findConflictingEvents(LocalDate date, Event newEvent) {
-        List<Event> conflicts = new ArrayList<>();
-        IntervalTree tree = dailyEvents.get(date);
-        List<Event> allEvents = tree.getAllEvents();
-
-        for (Event event : allEvents) {
-            // Skip if it's the same event (important for modifications)
-            if (event.getEventId().equals(newEvent.getEventId())) {
-                continue;
-            }
-
-            // Check for time overlap
-            boolean hasOverlap = isTimeOverlapping(event, newEvent);
-            if (hasOverlap) {
-                conflicts.add(event);
+        if (result.getStatus() != ScheduleResult.Status.SCHEDULED) {
+            System.out.println(result.getMessage());
+            for (Event event : result.getConflicts()) {
+                displayEvent(event);
             }
         }
-
-        return conflicts;
-    }
-
-    private boolean isTimeOverlapping(Event event1, Event event2) {
-        // Event times overlap if one event doesn't end before the other starts
-        return !(event1.getEndTime().isBefore(event2.getStartTime()) ||
-                event2.getEndTime().isBefore(event1.getStartTime()));
+        return result.isSuccess();
     }
 
-
-
     private void displayFreeSlots(LocalDate date, Duration duration) {
         System.out.println("\nAvailable time slots:");
-        List<TimeSlot> freeSlots = dailyEvents.get(date).findFreeSlots(
-                LocalDateTime.of(date, defaultStartTime),
-                LocalDateTime.of(date, defaultEndTime),
-                duration
-        );
+        List<TimeSlot> freeSlots = scheduler.findFreeSlots(date, duration);
 
         if (freeSlots.isEmpty()) {
             System.out.println("No free slots available for the requested duration!");
@@ -654,31 +6911,24 @@ public class EventManagementSystem {
             TimeSlot slot = freeSlots.get(i);
             System.out.printf("%d. %s - %s\n",
                     i + 1,
-                    slot.getStart().format(DateTimeFormatter.ofPattern("HH:mm")),
-                    slot.getEnd().format(DateTimeFormatter.ofPattern("HH:mm"))
+                    slot.getStart().format(TIME_FORMATTER),
+                    slot.getEnd().format(TIME_FORMATTER)
             );
         }
     }
 
     private void deleteEvent() {
+        selectLocation(false);
         System.out.println("\nEnter Event ID to delete:");
         String eventId = scanner.nextLine();
 
         // Check if it's a recurring event
-        boolean isRecurring = false;
-        LocalDate recurringDate = null;
-
-        for (Map.Entry<LocalDate, IntervalTree> entry : dailyEvents.entrySet()) {
-            List<Event> events = entry.getValue().getAllEvents();
-            for (Event event : events) {
-                if (event.getEventId().startsWith(eventId + "_")) {
-                    isRecurring = true;
-                    recurringDate = entry.getKey();
-                    break;
-                }
-            }
-            if (isRecurring) break;
+        Map<String, LocalDate> occurrences = scheduler.findOccurrences(eventId);
+        if (occurrences.isEmpty()) {
+            System.out.println("Event not found!");
+            return;
         }
+        boolean isRecurring = !occurrences.containsKey(eventId) || occurrences.size() > 1;
 
         if (isRecurring) {
             System.out.println("This is a recurring event. Delete:");
@@ -687,54 +6937,38 @@ public class EventManagementSystem {
             int choice = Integer.parseInt(scanner.nextLine());
 
             if (choice == 1) {
-                deleteRecurringEvent(eventId);
+                scheduler.deleteAll(eventId);
             } else {
                 System.out.println("Enter the date (yyyy-MM-dd):");
                 LocalDate date = LocalDate.parse(scanner.nextLine(), DATE_FORMATTER);
-                dailyEvents.get(date).delete(eventId + "_" + date.format(DATE_FORMATTER));
+                scheduler.delete(date, Scheduler.occurrenceId(eventId, date));
             }
         } else {
             // Delete single event
-            for (IntervalTree tree : dailyEvents.values()) {
-                tree.delete(eventId);
-            }
+            scheduler.delete(occurrences.get(eventId), eventId);
         }
         System.out.println("Event(s) deleted successfully!");
     }
 
-    private void deleteRecurringEvent(String baseEventId) {
-        for (Map.Entry<LocalDate, IntervalTree> entry : dailyEvents.entrySet()) {
-            entry.getValue().delete(baseEventId + "_" + entry.getKey().format(DATE_FORMATTER));
-        }
-    }
-
     private void modifyEvent() {
+        selectLocation(false);
         System.out.println("\nEnter Event ID to modify:");
         String eventId = scanner.nextLine();
 
-        List<Event> eventsToModify = new ArrayList<>();
-        List<LocalDate> eventDates = new ArrayList<>();
-
-        // Find all occurrences of the recurring event
-        for (Map.Entry<LocalDate, IntervalTree> entry : dailyEvents.entrySet()) {
-            List<Event> events = entry.getValue().getAllEvents();
-            for (Event event : events) {
-                if (event.getEventId().equals(eventId) || event.getEventId().startsWith(eventId + "_")) {
-                    eventsToModify.add(event);
-                    eventDates.add(entry.getKey());
-                }
-            }
-        }
+        // Find all occurrences of the recurring event, in date order
+        List<Map.Entry<String, LocalDate>> occurrences = new ArrayList<>(scheduler.findOccurrences(eventId).entrySet());
+        occurrences.sort(Map.Entry.comparingByValue());
 
-        if (eventsToModify.isEmpty()) {
+        if (occurrences.isEmpty()) {
             System.out.println("Event not found!");
             return;
         }
 
         // Modify each occurrence of the event separately
-        for (int i = 0; i < eventsToModify.size(); i++) {
-            Event eventToModify = eventsToModify.get(i);
-            LocalDate eventDate = eventDates.get(i);
+        for (Map.Entry<String, LocalDate> occurrence : occurrences) {
+            String occurrenceId = occurrence.getKey();
+            LocalDate eventDate = occurrence.getValue();
+            Event eventToModify = scheduler.getEvent(eventDate, occurrenceId);
 
             System.out.println("\nModifying event on date: " + eventDate.format(DATE_FORMATTER));
             displayEvent(eventToModify);
@@ -747,102 +6981,89 @@ public class EventManagementSystem {
             System.out.println("5. Priority");
 
             int choice = Integer.parseInt(scanner.nextLine());
+            boolean modified = true;
 
             switch (choice) {
                 case 1:
                     System.out.println("Enter new title:");
-                    eventToModify.setTitle(scanner.nextLine());
+                    scheduler.updateDetails(eventDate, occurrenceId, scanner.nextLine(), null, null);
                     break;
 
                 case 2:
                     System.out.println("Enter new description:");
-                    eventToModify.setDescription(scanner.nextLine());
+                    scheduler.updateDetails(eventDate, occurrenceId, null, scanner.nextLine(), null);
                     break;
 
                 case 3:
                     System.out.println("Enter new duration (minutes):");
                     Duration newDuration = Duration.ofMinutes(Integer.parseInt(scanner.nextLine()));
-                    modifyEventDuration(eventToModify, eventDate, newDuration);
+                    modified = modifyEventDuration(eventToModify, eventDate, newDuration);
                     break;
 
                 case 4:
-                    modifyEventTimeSlot(eventToModify, eventDate);
+                    modified = modifyEventTimeSlot(eventToModify, eventDate);
                     break;
 
                 case 5:
                     System.out.println("Enter new priority (1-4):");
-                    eventToModify.setPriority(Integer.parseInt(scanner.nextLine()));
+                    int newPriority = Integer.parseInt(scanner.nextLine());
+                    if (Event.isValidPriority(newPriority)) {
+                        scheduler.updateDetails(eventDate, occurrenceId, null, null, newPriority);
+                    } else {
+                        System.out.println("Priority must be between 1 and 4!");
+                        modified = false;
+                    }
                     break;
             }
 
-            // Re-insert the modified event into the interval tree
-            IntervalTree tree = dailyEvents.get(eventDate);
-            tree.delete(eventToModify.getEventId());
-            tree.insert(eventToModify);
-
-            System.out.println("Event modified successfully on " + eventDate.format(DATE_FORMATTER) + "!");
+            if (modified) {
+                System.out.println("Event modified successfully on " + eventDate.format(DATE_FORMATTER) + "!");
+            }
         }
     }
 
 
-    private void modifyEventDuration(Event event, LocalDate date, Duration newDuration) {
-        IntervalTree tree = dailyEvents.get(date);
-        LocalDateTime newEndTime = event.getStartTime().plus(newDuration);
-
-        // Check if extended duration creates conflicts
-        Event tempEvent = new Event(
-                event.getEventId(), event.getTitle(), event.getDescription(),
-                newDuration, event.getStartTime(), newEndTime,
-                event.getPriority(), event.isRecurring()
-        );
-
-        tree.delete(event.getEventId());
-        if (checkAndScheduleEvent(date, tempEvent)) {
-            event.setDuration(newDuration);
-            event.setEndTime(newEndTime);
-        } else {
-            tree.insert(event); // Revert if modification failed
+    private boolean modifyEventDuration(Event event, LocalDate date, Duration newDuration) {
+        boolean modified = scheduleInteractively(date, event.getStartTime(), newDuration, (start, policy) ->
+                scheduler.modifyTime(date, event.getEventId(), start, newDuration, policy));
+        if (!modified) {
             System.out.println("Could not modify duration due to conflicts!");
         }
+        return modified;
     }
 
-    private void modifyEventTimeSlot(Event event, LocalDate date) {
-        IntervalTree tree = dailyEvents.get(date);
-        tree.delete(event.getEventId());
-
+    private boolean modifyEventTimeSlot(Event event, LocalDate date) {
         displayFreeSlots(date, event.getDuration());
         System.out.println("Enter new start time (HH:mm):");
         LocalTime newStartTime = LocalTime.parse(scanner.nextLine(), TIME_FORMATTER);
 
-        LocalDateTime newStartDateTime = LocalDateTime.of(date, newStartTime);
-        event.setStartTime(newStartDateTime);
-        event.setEndTime(newStartDateTime.plus(event.getDuration()));
-
-        if (!checkAndScheduleEvent(date, event)) {
+        Duration duration = event.getDuration();
+        boolean modified = scheduleInteractively(date, LocalDateTime.of(date, newStartTime), duration, (start, policy) ->
+                scheduler.modifyTime(date, event.getEventId(), start, duration, policy));
+        if (!modified) {
             System.out.println("Could not modify time slot due to conflicts!");
-            // Revert to original time slot
-            tree.insert(event);
         }
+        return modified;
     }
 
     private void displayEvents() {
         System.out.println("\n=== Events Schedule ===");
 
-        for (Map.Entry<LocalDate, IntervalTree> entry : dailyEvents.entrySet()) {
-            LocalDate date = entry.getKey();
-            List<Event> events = entry.getValue().getAllEvents();
+        for (String location : rooms.getLocations()) {
+            Scheduler room = rooms.getScheduler(location);
+            for (LocalDate date : room.getDates()) {
+                List<Event> events = room.getEvents(date);
 
-            if (events.isEmpty()) continue;
+                if (events.isEmpty()) continue;
 
-            System.out.println("\nDate: " + date.format(DATE_FORMATTER));
-            System.out.println(String.format("%-10s %-20s %-15s %-15s %-10s %-10s",
-                    "ID", "Title", "Start", "End", "Priority", "Recurring"));
-            System.out.println("-".repeat(80));
+                System.out.println("\nDate: " + date.format(DATE_FORMATTER) + (locations.size() > 1 ? "  Location: " + location : ""));
+                System.out.println(String.format("%-10s %-20s %-15s %-15s %-10s %-10s",
+                        "ID", "Title", "Start", "End", "Priority", "Recurring"));
+                System.out.println("-".repeat(80));
 
-            events.sort((e1, e2) -> e1.getStartTime().compareTo(e2.getStartTime()));
-
-            for (Event event : events) {
-                displayEvent(event);
+                for (Event event : events) {
+                    displayEvent(event);
+                }
             }
         }
     }
@@ -858,9 +7079,51 @@ public class EventManagementSystem {
         ));
     }
 
-    public static void main(String[] args) {
+    // An optional argument names a data directory; changes are then logged there and survive restarts.
+    // Each location keeps its own store in a subdirectory named after it.
+    // With -Dems.metrics=<file>, a metrics report is written to the file every minute and on exit.
+    // With -Dems.http=<port>, the calendars are also served over HTTP (see SchedulerHttpApi).
+    public static void main(String[] args) throws IOException {
         EventManagementSystem system = new EventManagementSystem();
         system.initialize();
-        system.showMenu();
+        String metricsFile = System.getProperty("ems.metrics");
+        if (metricsFile != null) {
+            Closeable dumps = system.metrics.dumpEvery(Paths.get(metricsFile), Duration.ofMinutes(1));
+            try {
+                run(system, args);
+            } finally {
+                dumps.close();
+            }
+            return;
+        }
+        run(system, args);
+    }
+
+    // The HTTP API starts once the stores are recovered and serves alongside the console until it exits.
+    private static void run(EventManagementSystem system, String[] args) throws IOException {
+        List<EventStore> stores = new ArrayList<>();
+        try {
+            if (args.length > 0) {
+                for (String location : system.getRooms().getLocations()) {
+                    stores.add(EventStore.open(Paths.get(args[0]).resolve(location),
+                            system.getRooms().getScheduler(location), true, 10_000));
+                }
+            }
+            String httpPort = System.getProperty("ems.http");
+            if (httpPort != null) {
+                SchedulerHttpApi.useServerDefaults();
+            }
+            try (SchedulerHttpApi api = httpPort == null ? null : new SchedulerHttpApi(system.getRooms(), system.metrics,
+                    new java.net.InetSocketAddress(Integer.parseInt(httpPort)))) {
+                if (api != null) {
+                    System.out.println("HTTP API listening on port " + api.getPort());
+                }
+                system.showMenu();
+            }
+        } finally {
+            for (EventStore store : stores) {
+                store.close();
+            }
+        }
     }
 }
@@ -0,0 +1,134 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// JMH runs of the SchedulerBenchmark suite cases, built from the same seeded WorkloadGenerator, so both harnesses
+// measure identical workloads. Every invocation gets fresh state from the case's trial, outside the timing, and
+// the score is the time of one whole case body (n inserts, n deletes, 100k overlap probes, ...).
+// JMH refuses benchmarks in the default package, and named packages cannot import from it, so the cases are
+// looked up through SchedulerBenchmark.suiteCase by reflection.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SuiteBenchmarks {
+
+    // Inserting or deleting n events in one tree.
+    @State(Scope.Thread)
+    public static class TreeWrites extends SuiteCase {
+        @Param({"tree-insert", "tree-delete"})
+        public String benchmark;
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int n;
+        @Param({"SPARSE", "DENSE"})
+        public String density;
+        @Param({"RANDOM", "CHRONOLOGICAL"})
+        public String order;
+
+        @Setup(Level.Trial)
+        public void find() {
+            load(benchmark, "n=" + n + " density=" + density + " order=" + order);
+        }
+    }
+
+    // Overlap probes and free-slot queries against a tree of n events.
+    @State(Scope.Thread)
+    public static class TreeQueries extends SuiteCase {
+        @Param({"tree-overlap", "tree-free-slots"})
+        public String benchmark;
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int n;
+        @Param({"SPARSE", "DENSE"})
+        public String density;
+
+        @Setup(Level.Trial)
+        public void find() {
+            load(benchmark, "n=" + n + " density=" + density);
+        }
+    }
+
+    // Recurring series across 365 days.
+    @State(Scope.Thread)
+    public static class Series extends SuiteCase {
+        @Param({"series-add", "series-free-slots"})
+        public String benchmark;
+        @Param({"4", "20"})
+        public int series;
+
+        @Setup(Level.Trial)
+        public void find() {
+            load(benchmark, "series=" + series + " days=365");
+        }
+    }
+
+    // Urgent bookings that push lower-priority events aside on a busy month.
+    @State(Scope.Thread)
+    public static class RescheduleStorm extends SuiteCase {
+        @Param({"SPARSE", "DENSE"})
+        public String density;
+
+        @Setup(Level.Trial)
+        public void find() {
+            load("reschedule-storm", "urgent=120 days=30 density=" + density);
+        }
+    }
+
+    @Benchmark
+    public int treeWrites(TreeWrites state) {
+        return state.body.getAsInt();
+    }
+
+    @Benchmark
+    public int treeQueries(TreeQueries state) {
+        return state.body.getAsInt();
+    }
+
+    @Benchmark
+    public int series(Series state) {
+        return state.body.getAsInt();
+    }
+
+    @Benchmark
+    public int rescheduleStorm(RescheduleStorm state) {
+        return state.body.getAsInt();
+    }
+
+    // A suite case and the body of the next invocation.
+    public abstract static class SuiteCase {
+        private Supplier<IntSupplier> trial;
+        IntSupplier body;
+
+        @SuppressWarnings("unchecked")
+        void load(String benchmark, String params) {
+            try {
+                Method suiteCase = Class.forName("SchedulerBenchmark").getDeclaredMethod("suiteCase", String.class, String.class);
+                suiteCase.setAccessible(true);
+                trial = (Supplier<IntSupplier>) suiteCase.invoke(null, benchmark, params);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot load suite case " + benchmark + " " + params, e);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void fresh() {
+            body = trial.get();
+        }
+    }
+}
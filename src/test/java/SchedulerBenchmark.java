@@ -0,0 +1,2474 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+
+// Micro-benchmarks for the scheduling data structures.
+// Run with: java -cp target/classes:target/test-classes SchedulerBenchmark [scenario...]  (no arguments runs every
+// scenario except "suite" and "http-load")
+// The regression suite runs with: java -Xmx4g -Dsuite.sizes=1000,10000 -Dsuite.csv=results.csv SchedulerBenchmark suite
+// With Maven, mvn test runs the default scenarios through SchedulerScenariosTest, mvn test-compile exec:exec@suite
+// the suite, and mvn test-compile exec:exec@jmh the suite cases under JMH.
+class SchedulerBenchmark {
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+    // Seed of every suite workload; change it only together with the baseline results
+    private static final long SUITE_SEED = 20241104L;
+    // Measured time each suite iteration accumulates, running fresh trials until it is reached
+    private static final long SUITE_ITERATION_NANOS = 100_000_000L;
+    // Results of measured code land here so the JIT cannot drop the work that produced them
+    static volatile long sink;
+
+    public static void main(String[] args) {
+        Set<String> scenarios = new HashSet<>(Arrays.asList(args));
+        if (scenarios.isEmpty() || scenarios.contains("sorted-insert")) {
+            sortedInsert();
+        }
+        if (scenarios.isEmpty() || scenarios.contains("interval-tree-model")) {
+            intervalTreeModel(500, 400);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("event-index")) {
+            eventIndex(365, 10_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("bulk-import")) {
+            bulkImport(90, 10_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("persistence")) {
+            persistence(100, 10_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("columnar-snapshot")) {
+            columnarSnapshot(365, 2_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("primitive-tree")) {
+            primitiveTree(100_000, 200_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("concurrent-booking")) {
+            concurrentBooking(8, 4, 20_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("concurrent-rooms")) {
+            concurrentRooms(8, 8, 10, 20_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("snapshot-reads")) {
+            snapshotReads(200, 200_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("transactions")) {
+            transactions(1_000, 20_000, 365);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("conflict-resolver")) {
+            conflictResolver(200);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("auto-placement")) {
+            autoPlacement(365, 10_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("recurrence")) {
+            recurrence(365, 60);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("free-room")) {
+            freeRoom(500, 30, 20_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("common-availability")) {
+            for (int participants : new int[]{2, 50, 1000}) {
+                commonAvailability(participants, 5);
+            }
+        }
+        if (scenarios.isEmpty() || scenarios.contains("day-index")) {
+            dayIndex(3 * 365, 20, 10_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("minute-bitmap")) {
+            minuteBitmap(120, 1_000_000);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("free-slot-cache")) {
+            freeSlotCache(30, 200_000, 500);
+        }
+        if (scenarios.isEmpty() || scenarios.contains("metrics")) {
+            metrics(1_000_000, 20_000);
+        }
+        if (scenarios.contains("suite")) {
+            suite();
+        }
+        if (scenarios.contains("http-load")) {
+            httpLoad();
+        }
+    }
+
+    // Histogram percentiles against exact ones, lock-free recording from several threads, the cost of metrics on
+    // booking and free-slot queries (enabled against disabled) and a report written to a file.
+    static void metrics(int samples, int operations) {
+        Random random = new Random(24);
+        long[] values = new long[samples];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < samples; i++) {
+            // Log-uniform between 100 ns and 100 ms, like real latencies
+            values[i] = (long) Math.pow(10, 2 + 6 * random.nextDouble());
+            histogram.record(values[i]);
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double percentile : new double[]{50, 90, 99, 99.9, 100}) {
+            long exact = sorted[Math.max(0, (int) Math.ceil(percentile / 100 * samples) - 1)];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            if (estimate < exact || estimate > exact + exact / 32 + 1) {
+                throw new IllegalStateException("p" + percentile + " estimated " + estimate + " ns, exact " + exact + " ns");
+            }
+        }
+
+        LatencyHistogram shared = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < samples; i++) {
+                    shared.record(values[i]);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        report("histogram-record threads=8", 8 * samples, System.nanoTime() - start);
+        if (shared.getCount() != 8L * samples || shared.getMax() != sorted[samples - 1]) {
+            throw new IllegalStateException("Concurrent recording lost values: " + shared.getCount());
+        }
+
+        SchedulerMetrics recorded = null;
+        for (int round = 0; round < 3; round++) {
+            for (boolean enabled : new boolean[]{false, true}) {
+                Scheduler scheduler = new Scheduler(BASE.toLocalDate(), 30, LocalTime.of(8, 0), LocalTime.of(20, 0));
+                scheduler.getFreeSlotCache().setCapacity(0);
+                SchedulerMetrics metrics = enabled ? new SchedulerMetrics() : SchedulerMetrics.DISABLED;
+                scheduler.setMetrics(metrics);
+                Random workload = new Random(24);
+                start = System.nanoTime();
+                for (int i = 0; i < operations; i++) {
+                    LocalDate date = BASE.toLocalDate().plusDays(workload.nextInt(30));
+                    LocalDateTime at = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(5L * workload.nextInt(140));
+                    scheduler.schedule(date, new Event("M" + i, "", "", Duration.ofMinutes(20), at, at.plusMinutes(20),
+                            1 + workload.nextInt(4), false), ConflictPolicy.RESCHEDULE_LOWER_PRIORITY);
+                    scheduler.findFreeSlots(date, Duration.ofMinutes(30));
+                }
+                report("book+query metrics=" + (enabled ? "on" : "off"), operations, System.nanoTime() - start);
+                if (enabled) {
+                    recorded = metrics;
+                }
+            }
+        }
+        if (recorded.getLatency(SchedulerMetrics.Operation.SCHEDULE).getCount() != operations
+                || recorded.getLatency(SchedulerMetrics.Operation.FIND_FREE_SLOTS).getCount() != operations
+                || recorded.getCount(SchedulerMetrics.Counter.CONFLICTS) == 0
+                || recorded.getCount(SchedulerMetrics.Counter.RESCHEDULES) + recorded.getCount(SchedulerMetrics.Counter.RESCHEDULE_FAILURES)
+                        != recorded.getLatency(SchedulerMetrics.Operation.RESCHEDULE).getCount()
+                || SchedulerMetrics.DISABLED.getLatency(SchedulerMetrics.Operation.SCHEDULE).getCount() != 0) {
+            throw new IllegalStateException("Metrics do not add up:\n" + recorded.report());
+        }
+        try {
+            Path file = Files.createTempFile("scheduler-metrics", ".txt");
+            recorded.dump(file);
+            List<String> lines = Files.readAllLines(file);
+            System.out.println("  " + String.join("\n  ", lines.subList(0, Math.min(lines.size(), 16))));
+            if (lines.stream().noneMatch(line -> line.startsWith("schedule ")) || lines.stream().noneMatch(line -> line.startsWith(BASE.toLocalDate() + " events="))) {
+                throw new IllegalStateException("Metrics dump is missing operations or days");
+            }
+            Files.delete(file);
+
+            // Periodic dumps into a missing directory: close() must surface the failures instead of dropping them
+            Path missing = file.resolveSibling(file.getFileName() + ".missing").resolve("metrics.txt");
+            Closeable dumps = recorded.dumpEvery(missing, Duration.ofMillis(5));
+            Thread.sleep(50);
+            try {
+                dumps.close();
+                throw new IllegalStateException("Failed periodic metrics dumps were not reported");
+            } catch (IOException expected) {
+                if (expected.getSuppressed().length != 1) {
+                    throw new IllegalStateException("close() lost the failure of the periodic dumps", expected);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Load test of the HTTP API: each of N clients is a thread with its own seeded request mix (free-slot queries,
+    // bookings, day listings and moves and deletes of its own bookings) sent over a shared java.net.http client.
+    // Reports throughput and p50/p99 latency per client count, for a thread per request and for a fixed pool, then
+    // checks that no response was a 4xx/5xx error other than conflicts and that the calendars match the responses.
+    // Client counts come from -Dhttp.clients (default 100, 1000 and 2000), requests per client from -Dhttp.requests.
+    static void httpLoad() {
+        SchedulerHttpApi.useServerDefaults();
+        httpEdits();
+        int[] clientCounts = Arrays.stream(System.getProperty("http.clients", "100,1000,2000").split(","))
+                .mapToInt(clients -> Integer.parseInt(clients.trim())).toArray();
+        int requests = Integer.getInteger("http.requests", 50);
+        int poolSize = 2 * Runtime.getRuntime().availableProcessors();
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(poolSize);
+        try {
+            // Warm-up of the server, the client and the scheduler code paths
+            httpLoad(null, 100, requests, null);
+            for (int clients : clientCounts) {
+                httpLoad("http clients=" + clients + " per-request", clients, requests, null);
+                httpLoad("http clients=" + clients + " fixed-" + poolSize, clients, requests, pool);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // PATCH and POST check the whole body before writing: an invalid field, an event outside the window or a
+    // conflicting move leaves the calendar exactly as it was, and a valid PATCH applies its time and detail changes
+    // together.
+    static void httpEdits() {
+        LocationScheduler rooms = new LocationScheduler(Collections.singletonList("R1"), BASE.toLocalDate(), 1,
+                LocalTime.of(8, 0), LocalTime.of(20, 0));
+        Scheduler scheduler = rooms.getScheduler("R1");
+        LocalDate day = BASE.toLocalDate();
+        java.net.http.HttpClient http = java.net.http.HttpClient.newHttpClient();
+        try (SchedulerHttpApi api = new SchedulerHttpApi(rooms, SchedulerMetrics.DISABLED,
+                new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0))) {
+            String events = "http://localhost:" + api.getPort() + "/events";
+            String a = events + "/A?location=R1&date=" + day;
+            String[][] requests = {
+                    // method, URI, body, expected status
+                    {"POST", events + "?location=R1", "{\"id\":\"A\",\"title\":\"A\",\"start\":\"" + day.atTime(9, 0) + "\",\"duration\":60,\"priority\":3}", "201"},
+                    {"POST", events + "?location=R1", "{\"id\":\"B\",\"start\":\"" + day.atTime(10, 0) + "\",\"duration\":60,\"priority\":1}", "201"},
+                    {"POST", events + "?location=R1", "{\"id\":\"C\",\"start\":\"" + day.atTime(14, 0) + "\",\"duration\":0}", "422"},
+                    {"POST", events + "?location=R1", "{\"id\":\"C\",\"start\":\"" + day.atTime(19, 30) + "\",\"duration\":60}", "422"},
+                    {"POST", events + "?location=any", "{\"id\":\"C\",\"start\":\"" + day.atTime(23, 30) + "\",\"duration\":120}", "422"},
+                    {"POST", events + "?location=R1", "{\"id\":\"C\",\"date\":\"" + day + "\",\"duration\":780}", "422"},
+                    {"POST", events + "?location=R1", "{\"id\":\"C\",\"start\":\"" + day.atTime(14, 0) + "\",\"duration\":30,\"title\":\""
+                            + "x".repeat(SchedulerHttpApi.MAX_TITLE_LENGTH + 1) + "\"}", "422"},
+                    {"POST", events + "?location=R1", "{\"id\":\"" + "C".repeat(SchedulerHttpApi.MAX_ID_LENGTH + 1) + "\",\"start\":\""
+                            + day.atTime(14, 0) + "\",\"duration\":30}", "422"},
+                    {"POST", events + "?location=R1", "{\"id\":\"C\",\"start\":\"" + day.atTime(14, 0) + "\",\"duration\":30,\"priority\":300}", "400"},
+                    {"PATCH", a, "{\"start\":\"" + day.atTime(10, 30) + "\",\"title\":\"lost\",\"priority\":2}", "409"},
+                    {"PATCH", a, "{\"start\":\"" + day.atTime(12, 0) + "\",\"title\":\"lost\",\"duration\":0}", "400"},
+                    {"PATCH", a, "{\"start\":\"" + day.atTime(12, 0) + "\",\"title\":\"lost\",\"priority\":5}", "400"},
+                    {"PATCH", a, "{\"start\":\"" + day.plusDays(1).atTime(9, 0) + "\",\"title\":\"lost\"}", "400"},
+                    {"PATCH", events + "/X?location=R1&date=" + day, "{\"title\":\"lost\"}", "404"},
+                    {"PATCH", a, "{\"start\":\"" + day.atTime(12, 0) + "\",\"description\":\""
+                            + "x".repeat(SchedulerHttpApi.MAX_DESCRIPTION_LENGTH + 1) + "\"}", "422"},
+                    {"GET", "http://localhost:" + api.getPort() + "/free-slots?location=R1&date=" + day + "&duration=0", "", "400"},
+            };
+            for (int i = 0; i < requests.length; i++) {
+                String[] request = requests[i];
+                int status = http.send(java.net.http.HttpRequest.newBuilder(java.net.URI.create(request[1]))
+                                .method(request[0], java.net.http.HttpRequest.BodyPublishers.ofString(request[2])).build(),
+                        java.net.http.HttpResponse.BodyHandlers.discarding()).statusCode();
+                Event event = scheduler.getEvent(day, "A");
+                // The first two requests book A and B; everything after them must leave both untouched
+                if (status != Integer.parseInt(request[3]) || (i > 1 && (scheduler.getEvents(day).size() != 2
+                        || !event.getTitle().equals("A") || !event.getStartTime().equals(day.atTime(9, 0)) || event.getPriority() != 3))) {
+                    throw new IllegalStateException(request[0] + " " + request[2] + " answered " + status + " and left "
+                            + scheduler.getEvents(day).size() + " events, A \"" + event.getTitle() + "\" at " + event.getStartTime());
+                }
+            }
+            int status = http.send(java.net.http.HttpRequest.newBuilder(java.net.URI.create(a)).method("PATCH",
+                            java.net.http.HttpRequest.BodyPublishers.ofString("{\"start\":\"" + day.atTime(12, 0)
+                                    + "\",\"duration\":30,\"title\":\"moved\",\"priority\":2}")).build(),
+                    java.net.http.HttpResponse.BodyHandlers.discarding()).statusCode();
+            Event event = scheduler.getEvent(day, "A");
+            if (status != 200 || !event.getStartTime().equals(day.atTime(12, 0)) || !event.getDuration().equals(Duration.ofMinutes(30))
+                    || !event.getTitle().equals("moved") || event.getPriority() != 2) {
+                throw new IllegalStateException("PATCH answered " + status + " but did not apply every change");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // One load run against a fresh server, reported under the label unless it is null. A null executor means
+    // a thread per request.
+    static void httpLoad(String label, int clients, int requests, java.util.concurrent.Executor executor) {
+        List<String> locations = Arrays.asList("R1", "R2", "R3", "R4", "R5");
+        int days = 30;
+        LocationScheduler rooms = new LocationScheduler(locations, BASE.toLocalDate(), days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        LatencyHistogram latency = new LatencyHistogram();
+        java.util.concurrent.atomic.LongAdder booked = new java.util.concurrent.atomic.LongAdder();
+        java.util.concurrent.atomic.LongAdder deleted = new java.util.concurrent.atomic.LongAdder();
+        Map<Integer, java.util.concurrent.atomic.LongAdder> statuses = new java.util.concurrent.ConcurrentSkipListMap<>();
+        java.net.InetSocketAddress address = new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0);
+        java.net.http.HttpClient http = java.net.http.HttpClient.newBuilder()
+                .version(java.net.http.HttpClient.Version.HTTP_1_1).build();
+
+        long elapsed;
+        try (SchedulerHttpApi api = executor == null ? new SchedulerHttpApi(rooms, SchedulerMetrics.DISABLED, address)
+                : new SchedulerHttpApi(rooms, SchedulerMetrics.DISABLED, address, executor)) {
+            String base = "http://localhost:" + api.getPort();
+            java.util.concurrent.CountDownLatch ready = new java.util.concurrent.CountDownLatch(clients);
+            java.util.concurrent.CountDownLatch go = new java.util.concurrent.CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                Thread thread = new Thread(() -> {
+                    Random random = new Random(SUITE_SEED + client);
+                    // Own bookings as ID -> location and date, so moves and deletes address existing events
+                    List<String[]> mine = new ArrayList<>();
+                    try {
+                        ready.countDown();
+                        go.await();
+                        for (int i = 0; i < requests; i++) {
+                            String location = locations.get(random.nextInt(locations.size()));
+                            LocalDate date = BASE.toLocalDate().plusDays(random.nextInt(days));
+                            int kind = random.nextInt(100);
+                            java.net.http.HttpRequest.Builder request;
+                            String id = null;
+                            String[] own = null;
+                            if (kind < 40 || (kind >= 75 && mine.isEmpty())) {
+                                request = java.net.http.HttpRequest.newBuilder(java.net.URI.create(base + "/free-slots?location=" + location
+                                        + "&date=" + date + "&duration=" + (15 + 15 * random.nextInt(4)))).GET();
+                            } else if (kind < 65) {
+                                id = "c" + client + "-" + i;
+                                LocalDateTime start = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(15L * random.nextInt(44));
+                                request = java.net.http.HttpRequest.newBuilder(java.net.URI.create(base + "/events?location=" + location))
+                                        .POST(java.net.http.HttpRequest.BodyPublishers.ofString("{\"id\":\"" + id + "\",\"start\":\"" + start
+                                                + "\",\"duration\":" + (15 + 15 * random.nextInt(4)) + ",\"priority\":" + (1 + random.nextInt(4))
+                                                + ",\"policy\":\"" + (random.nextBoolean() ? "REJECT" : "RESCHEDULE_LOWER_PRIORITY") + "\"}"));
+                            } else if (kind < 75) {
+                                request = java.net.http.HttpRequest.newBuilder(java.net.URI.create(base + "/events?location=" + location
+                                        + "&date=" + date)).GET();
+                            } else if (kind < 88) {
+                                own = mine.get(random.nextInt(mine.size()));
+                                LocalDateTime start = LocalDateTime.of(LocalDate.parse(own[2]), LocalTime.of(8, 0)).plusMinutes(15L * random.nextInt(44));
+                                request = java.net.http.HttpRequest.newBuilder(java.net.URI.create(base + "/events/" + own[0]
+                                        + "?location=" + own[1] + "&date=" + own[2]))
+                                        .method("PATCH", java.net.http.HttpRequest.BodyPublishers.ofString("{\"start\":\"" + start + "\"}"));
+                                own = null;
+                            } else {
+                                own = mine.remove(random.nextInt(mine.size()));
+                                request = java.net.http.HttpRequest.newBuilder(java.net.URI.create(base + "/events/" + own[0]
+                                        + "?location=" + own[1])).DELETE();
+                            }
+                            long started = System.nanoTime();
+                            java.net.http.HttpResponse<String> response = http.send(request.timeout(Duration.ofSeconds(60)).build(),
+                                    java.net.http.HttpResponse.BodyHandlers.ofString());
+                            latency.record(System.nanoTime() - started);
+                            statuses.computeIfAbsent(response.statusCode(), status -> new java.util.concurrent.atomic.LongAdder()).increment();
+                            if (id != null && response.statusCode() == 201) {
+                                booked.increment();
+                                mine.add(new String[]{id, location, date.toString()});
+                            }
+                            if (own != null && response.statusCode() == 200) {
+                                deleted.increment();
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            ready.await();
+            long start = System.nanoTime();
+            go.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            elapsed = System.nanoTime() - start;
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException(failures.size() + " clients failed", failures.get(0));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (label != null) {
+            report(label, clients * requests, elapsed);
+            System.out.printf("  p50 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  max %.2f ms  statuses %s%n",
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+                    latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6, statuses);
+        }
+        for (int status : statuses.keySet()) {
+            if (status != 200 && status != 201 && status != 409 && status != 422) {
+                throw new IllegalStateException("Unexpected HTTP status " + status + " under load: " + statuses);
+            }
+        }
+        long stored = 0;
+        for (String location : locations) {
+            Scheduler scheduler = rooms.getScheduler(location);
+            for (LocalDate date : scheduler.getDates()) {
+                List<Event> events = scheduler.getEvents(date);
+                stored += events.size();
+                for (int i = 1; i < events.size(); i++) {
+                    if (events.get(i).getStartTime().isBefore(events.get(i - 1).getEndTime())) {
+                        throw new IllegalStateException("Overlapping events in " + location + " on " + date + ": "
+                                + events.get(i - 1).getEventId() + ", " + events.get(i).getEventId());
+                    }
+                }
+            }
+        }
+        if (stored != booked.sum() - deleted.sum()) {
+            throw new IllegalStateException("Calendars hold " + stored + " events, responses booked " + booked.sum()
+                    + " and deleted " + deleted.sum());
+        }
+    }
+
+    // Regression suite: every case is parameterized, built from a WorkloadGenerator with a fixed seed, warmed up and
+    // then measured over several iterations with fresh state each time, so runs of different versions are comparable.
+    // Sizes come from -Dsuite.sizes (default 1k to 1M); -Dsuite.csv appends one row per case to a CSV file.
+    static void suite() {
+        int[] sizes = Arrays.stream(System.getProperty("suite.sizes", "1000,10000,100000,1000000").split(","))
+                .mapToInt(size -> Integer.parseInt(size.trim())).toArray();
+        String csv = System.getProperty("suite.csv");
+        List<String> rows = new ArrayList<>();
+        for (SuiteCase suiteCase : suiteCases(sizes)) {
+            rows.add(measure(suiteCase.benchmark, suiteCase.params, suiteCase.size, suiteCase.trial));
+        }
+
+        if (csv != null) {
+            try {
+                Path file = Paths.get(csv);
+                if (!Files.exists(file)) {
+                    Files.write(file, Collections.singletonList("benchmark,params,seed,iterations,mean_ops_per_s,stddev_ops_per_s,min_ops_per_s,max_ops_per_s"));
+                }
+                Files.write(file, rows, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // One parameterized suite case; measure describes how its trial is run.
+    static final class SuiteCase {
+        final String benchmark;
+        final String params;
+        final int size;
+        final java.util.function.Supplier<java.util.function.IntSupplier> trial;
+
+        SuiteCase(String benchmark, String params, int size, java.util.function.Supplier<java.util.function.IntSupplier> trial) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.size = size;
+            this.trial = trial;
+        }
+    }
+
+    // Every suite case for the given tree sizes, in the order the suite runs them. Building the list is cheap;
+    // no workload is generated until a trial runs.
+    static List<SuiteCase> suiteCases(int[] sizes) {
+        List<SuiteCase> cases = new ArrayList<>();
+        LocalTime open = LocalTime.of(8, 0);
+        LocalTime close = LocalTime.of(20, 0);
+
+        for (int n : sizes) {
+            for (WorkloadGenerator.Density density : WorkloadGenerator.Density.values()) {
+                for (WorkloadGenerator.Order order : WorkloadGenerator.Order.values()) {
+                    cases.add(new SuiteCase("tree-insert", "n=" + n + " density=" + density + " order=" + order, n, () -> {
+                        List<Event> events = generator().events(n, density, order);
+                        IntervalTree tree = new IntervalTree();
+                        return () -> {
+                            for (Event event : events) {
+                                tree.insert(event);
+                            }
+                            return events.size();
+                        };
+                    }));
+                    cases.add(new SuiteCase("tree-delete", "n=" + n + " density=" + density + " order=" + order, n, () -> {
+                        List<Event> events = generator().events(n, density, order);
+                        IntervalTree tree = new IntervalTree();
+                        tree.bulkLoad(events);
+                        return () -> {
+                            for (Event event : events) {
+                                tree.delete(event.getEventId());
+                            }
+                            return events.size();
+                        };
+                    }));
+                }
+                int days = WorkloadGenerator.days(n, density);
+                cases.add(new SuiteCase("tree-overlap", "n=" + n + " density=" + density, n, () -> {
+                    WorkloadGenerator generator = generator();
+                    IntervalTree tree = new IntervalTree();
+                    tree.bulkLoad(generator.events(n, density, WorkloadGenerator.Order.RANDOM));
+                    List<TimeSlot> probes = generator.probes(100_000, days, Duration.ofMinutes(10));
+                    return () -> {
+                        int hits = 0;
+                        for (TimeSlot probe : probes) {
+                            if (tree.hasOverlap(probe.getStart(), probe.getEnd())) hits++;
+                        }
+                        sink += hits;
+                        return probes.size();
+                    };
+                }));
+                cases.add(new SuiteCase("tree-free-slots", "n=" + n + " density=" + density, n, () -> {
+                    WorkloadGenerator generator = generator();
+                    IntervalTree tree = new IntervalTree();
+                    tree.bulkLoad(generator.events(n, density, WorkloadGenerator.Order.RANDOM));
+                    List<TimeSlot> windows = generator.probes(10_000, days, Duration.ofHours(4));
+                    return () -> {
+                        int slots = 0;
+                        for (TimeSlot window : windows) {
+                            slots += tree.findFreeSlots(window.getStart(), window.getEnd(), Duration.ofMinutes(15)).size();
+                        }
+                        sink += slots;
+                        return windows.size();
+                    };
+                }));
+            }
+        }
+
+        for (int count : new int[]{4, 20}) {
+            cases.add(new SuiteCase("series-add", "series=" + count + " days=365", count, () -> {
+                Map<Event, RecurrenceRule> series = generator().series(count);
+                Scheduler scheduler = new Scheduler(BASE.toLocalDate(), 365, open, close);
+                return () -> {
+                    for (Map.Entry<Event, RecurrenceRule> entry : series.entrySet()) {
+                        if (!scheduler.addSeries(entry.getKey(), entry.getValue()).isSuccess()) {
+                            throw new IllegalStateException("Generated series " + entry.getKey().getEventId() + " was rejected");
+                        }
+                    }
+                    return series.size();
+                };
+            }));
+            cases.add(new SuiteCase("series-free-slots", "series=" + count + " days=365", 365, () -> {
+                Scheduler scheduler = new Scheduler(BASE.toLocalDate(), 365, open, close);
+                scheduler.getFreeSlotCache().setCapacity(0);
+                generator().series(count).forEach(scheduler::addSeries);
+                return () -> {
+                    int slots = 0;
+                    for (LocalDate date : scheduler.getDates()) {
+                        slots += scheduler.findFreeSlots(date, Duration.ofMinutes(30)).size();
+                    }
+                    sink += slots;
+                    return 365;
+                };
+            }));
+        }
+
+        for (WorkloadGenerator.Density density : WorkloadGenerator.Density.values()) {
+            int days = 30;
+            cases.add(new SuiteCase("reschedule-storm", "urgent=" + 4 * days + " days=" + days + " density=" + density, 4 * days, () -> {
+                WorkloadGenerator generator = generator();
+                Scheduler scheduler = new Scheduler(BASE.toLocalDate(), days, open, close);
+                // Overlapping workload events would be rejected by the import, which is fine: what stays is a busy calendar
+                scheduler.importEvents(generator.events(days * density.eventsPerDay, density, WorkloadGenerator.Order.RANDOM).stream());
+                List<Event> urgent = generator.urgent(4 * days, days);
+                return () -> {
+                    int moved = 0;
+                    for (Event event : urgent) {
+                        ScheduleResult result = scheduler.schedule(event.getStartTime().toLocalDate(), event,
+                                ConflictPolicy.RESCHEDULE_LOWER_PRIORITY);
+                        moved += result.getStatus() == ScheduleResult.Status.RESCHEDULED ? 1 : 0;
+                    }
+                    sink += moved;
+                    return urgent.size();
+                };
+            }));
+        }
+        return cases;
+    }
+
+    // Looks up one case by the benchmark and parameters the suite prints, e.g. "tree-insert" and
+    // "n=1000 density=SPARSE order=RANDOM"; tree sizes are not limited to the suite's defaults. The JMH benchmarks
+    // in src/jmh/java reach the cases through this method.
+    static java.util.function.Supplier<java.util.function.IntSupplier> suiteCase(String benchmark, String params) {
+        java.util.regex.Matcher size = java.util.regex.Pattern.compile("\\bn=(\\d+)").matcher(params);
+        int[] sizes = {size.find() ? Integer.parseInt(size.group(1)) : 1000};
+        for (SuiteCase suiteCase : suiteCases(sizes)) {
+            if (suiteCase.benchmark.equals(benchmark) && suiteCase.params.equals(params)) {
+                return suiteCase.trial;
+            }
+        }
+        throw new IllegalArgumentException("No suite case " + benchmark + " " + params);
+    }
+
+    private static WorkloadGenerator generator() {
+        return new WorkloadGenerator(SUITE_SEED, BASE.toLocalDate(), LocalTime.of(8, 0), LocalTime.of(20, 0));
+    }
+
+    // Runs one suite case: trial builds fresh state outside the timing and returns the measured body, which reports
+    // how many operations it performed. Each iteration runs trials until SUITE_ITERATION_NANOS of measured time
+    // have passed; large cases get fewer iterations. Prints the mean and relative deviation of the throughput and
+    // returns mean, standard deviation and range as a CSV row.
+    private static String measure(String benchmark, String params, int size,
+                                  java.util.function.Supplier<java.util.function.IntSupplier> trial) {
+        int warmups = size >= 1_000_000 ? 1 : 3;
+        int iterations = size >= 1_000_000 ? 3 : 5;
+        double[] throughput = new double[iterations];
+        for (int i = -warmups; i < iterations; i++) {
+            long operations = 0;
+            long elapsed = 0;
+            while (elapsed < SUITE_ITERATION_NANOS) {
+                java.util.function.IntSupplier body = trial.get();
+                long start = System.nanoTime();
+                operations += body.getAsInt();
+                elapsed += System.nanoTime() - start;
+            }
+            if (i >= 0) {
+                throughput[i] = operations / (elapsed / 1e9);
+            }
+        }
+        double mean = Arrays.stream(throughput).average().orElse(0);
+        double variance = Arrays.stream(throughput).map(x -> (x - mean) * (x - mean)).sum() / Math.max(1, iterations - 1);
+        double min = Arrays.stream(throughput).min().orElse(0);
+        double max = Arrays.stream(throughput).max().orElse(0);
+        System.out.printf("%-18s %-44s %,14.0f ops/s +- %5.1f%%%n", benchmark, params, mean, 100 * Math.sqrt(variance) / mean);
+        return String.format(Locale.ROOT, "%s,%s,%d,%d,%.1f,%.1f,%.1f,%.1f", benchmark, params, SUITE_SEED, iterations,
+                mean, Math.sqrt(variance), min, max);
+    }
+
+    // Builds an event of the given length in seconds, starting offset seconds after BASE.
+    static Event event(String eventId, long offsetSeconds, long lengthSeconds) {
+        LocalDateTime start = BASE.plusSeconds(offsetSeconds);
+        Duration duration = Duration.ofSeconds(lengthSeconds);
+        return new Event(eventId, eventId, "", duration, start, start.plus(duration), 4, false);
+    }
+
+    static void report(String scenario, int operations, long nanos) {
+        System.out.printf("%-28s %,10d ops %,12.0f ops/s %10.1f ms%n",
+                scenario, operations, operations / (nanos / 1e9), nanos / 1e6);
+    }
+
+    // Chronological inserts used to degrade the tree into a list; this shows they now stay logarithmic.
+    static void sortedInsert() {
+        for (int n : new int[]{10_000, 100_000, 1_000_000}) {
+            List<Event> events = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                events.add(event("E" + i, i * 2L, 1));
+            }
+
+            IntervalTree tree = new IntervalTree();
+            long start = System.nanoTime();
+            for (Event event : events) {
+                tree.insert(event);
+            }
+            long elapsed = System.nanoTime() - start;
+            report("sorted-insert n=" + n + " h=" + tree.height(), n, elapsed);
+        }
+    }
+
+    // Random inserts and deletes on small trees, checked after every operation against a brute-force list of
+    // the stored events: the tree's order, heights, max and balance, its contents, overlap queries, free slots
+    // and the gap index's fits. Fails unless deletes hit leaves, nodes with one and with two children, and the root.
+    static void intervalTreeModel(int trials, int operationsPerTrial) {
+        Random random = new Random(3);
+        LocalDateTime windowStart = BASE.plusMinutes(60);
+        LocalDateTime windowEnd = BASE.plusMinutes(540);
+        int[] deleteCases = new int[4]; // leaf, one child, two children, root
+        long start = System.nanoTime();
+        for (int trial = 0; trial < trials; trial++) {
+            IntervalTree tree = new IntervalTree(windowStart, windowEnd);
+            tree.setMinuteBitmap(trial % 2 == 0);
+            Map<String, Event> model = new HashMap<>();
+            int ids = 8 + random.nextInt(56);
+            // Past the random operations the tree is emptied, which deletes the root again and again
+            for (int op = 0; op < operationsPerTrial || !model.isEmpty(); op++) {
+                boolean draining = op >= operationsPerTrial;
+                String id = draining ? model.keySet().iterator().next() : "E" + random.nextInt(ids);
+                if (!draining && random.nextInt(5) < 3) {
+                    Event event = event(id, 60L * random.nextInt(600), 60L * (1 + random.nextInt(90)));
+                    if (tree.insert(event) != (model.putIfAbsent(id, event) == null)) {
+                        throw new IllegalStateException("insert(" + id + ") disagrees with the model");
+                    }
+                } else {
+                    int children = tree.childCount(id);
+                    if ((children >= 0) != model.containsKey(id)) {
+                        throw new IllegalStateException("Tree and model disagree on whether " + id + " is stored");
+                    }
+                    if (children >= 0) {
+                        deleteCases[children]++;
+                        if (id.equals(tree.rootEventId())) {
+                            deleteCases[3]++;
+                        }
+                    }
+                    tree.delete(id);
+                    model.remove(id);
+                }
+                checkAgainstModel(tree, model, random, windowStart, windowEnd);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        for (int deleteCase = 0; deleteCase < deleteCases.length; deleteCase++) {
+            if (deleteCases[deleteCase] == 0) {
+                throw new IllegalStateException("Delete case " + deleteCase + " was never exercised");
+            }
+        }
+        report("interval-tree-model leaf=" + deleteCases[0] + " one=" + deleteCases[1] + " two=" + deleteCases[2]
+                + " root=" + deleteCases[3], trials * operationsPerTrial, elapsed);
+    }
+
+    private static void checkAgainstModel(IntervalTree tree, Map<String, Event> model, Random random,
+                                          LocalDateTime windowStart, LocalDateTime windowEnd) {
+        if (tree.checkInvariants() != model.size() || tree.size() != model.size()) {
+            throw new IllegalStateException("Tree holds " + tree.size() + " events, the model " + model.size());
+        }
+        List<Event> sorted = new ArrayList<>(model.values());
+        sorted.sort(Comparator.comparing(Event::getStartTime).thenComparing(Event::getEventId));
+        if (!sorted.equals(tree.getAllEvents())) {
+            throw new IllegalStateException("getAllEvents differs from the model");
+        }
+
+        LocalDateTime from = BASE.plusMinutes(random.nextInt(700));
+        LocalDateTime to = from.plusMinutes(random.nextInt(120));
+        List<Event> overlapping = new ArrayList<>();
+        for (Event event : sorted) {
+            if (event.getStartTime().isBefore(to) && event.getEndTime().isAfter(from)) {
+                overlapping.add(event);
+            }
+        }
+        if (!overlapping.equals(tree.findOverlapping(from, to)) || overlapping.isEmpty() == tree.hasOverlap(from, to)) {
+            throw new IllegalStateException("Overlap queries on [" + from + ", " + to + ") differ from the model");
+        }
+
+        List<TimeSlot> gaps = new ArrayList<>();
+        LocalDateTime current = windowStart;
+        for (Event event : sorted) {
+            if (event.getStartTime().isBefore(windowEnd) && event.getEndTime().isAfter(current)) {
+                if (current.isBefore(event.getStartTime())) {
+                    gaps.add(new TimeSlot(current, event.getStartTime()));
+                }
+                current = event.getEndTime();
+            }
+        }
+        if (current.isBefore(windowEnd)) {
+            gaps.add(new TimeSlot(current, windowEnd));
+        }
+        Duration duration = Duration.ofMinutes(1 + random.nextInt(120));
+        List<TimeSlot> fitting = new ArrayList<>();
+        TimeSlot best = null;
+        for (TimeSlot gap : gaps) {
+            Duration length = Duration.between(gap.getStart(), gap.getEnd());
+            if (length.compareTo(duration) >= 0) {
+                fitting.add(gap);
+                if (best == null || length.compareTo(Duration.between(best.getStart(), best.getEnd())) < 0) {
+                    best = gap;
+                }
+            }
+        }
+        List<TimeSlot> slots = tree.findFreeSlots(windowStart, windowEnd, duration);
+        boolean same = slots.size() == fitting.size();
+        for (int i = 0; same && i < slots.size(); i++) {
+            same = sameSlot(slots.get(i), fitting.get(i));
+        }
+        same = same && sameSlot(tree.findFirstFit(duration), fitting.isEmpty() ? null : fitting.get(0))
+                && sameSlot(tree.findLastFit(duration), fitting.isEmpty() ? null : fitting.get(fitting.size() - 1));
+        TimeSlot bestFit = tree.findBestFit(duration);
+        same = same && (best == null ? bestFit == null : bestFit != null && Duration.between(bestFit.getStart(),
+                bestFit.getEnd()).equals(Duration.between(best.getStart(), best.getEnd())));
+        if (!same) {
+            throw new IllegalStateException("Free slots of at least " + duration + " differ from the model");
+        }
+    }
+
+    // Locating and deleting an event through the global index versus scanning every day's tree.
+    static void eventIndex(int days, int eventsPerDay) {
+        LocalDate firstDay = BASE.toLocalDate();
+        Scheduler scheduler = new Scheduler(firstDay, days, LocalTime.MIN, LocalTime.MAX);
+
+        int series = 100;
+        for (int d = 0; d < days; d++) {
+            LocalDate date = firstDay.plusDays(d);
+            LocalDateTime dayStart = date.atStartOfDay();
+            Duration duration = Duration.ofSeconds(5);
+            for (int i = 0; i < eventsPerDay; i++) {
+                boolean recurring = i < series;
+                String eventId = recurring ? Scheduler.occurrenceId("R" + i, date) : "S" + d + "_" + i;
+                LocalDateTime start = dayStart.plusSeconds(i * 8L);
+                scheduler.schedule(date, new Event(eventId, "", "", duration,
+                        start, start.plus(duration), 4, recurring), ConflictPolicy.REJECT);
+            }
+        }
+        int total = days * eventsPerDay;
+
+        // Legacy lookup: every day's tree is flattened and each ID prefix-checked
+        int scans = 3;
+        long start = System.nanoTime();
+        int found = 0;
+        for (int k = 0; k < scans; k++) {
+            String prefix = "R" + k + "_";
+            for (int d = 0; d < days; d++) {
+                for (Event event : scheduler.getEvents(firstDay.plusDays(d))) {
+                    if (event.getEventId().startsWith(prefix)) found++;
+                }
+            }
+        }
+        report("scan-lookup n=" + total, scans, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int k = 0; k < series; k++) {
+            found += scheduler.findOccurrences("R" + k).size();
+        }
+        report("index-lookup n=" + total, series, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int k = 0; k < series; k++) {
+            scheduler.deleteAll("R" + k);
+        }
+        report("index-delete-series x" + days, series, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        int singles = 10_000;
+        for (int k = 0; k < singles; k++) {
+            String eventId = "S" + (k % days) + "_" + (series + k / days);
+            scheduler.deleteAll(eventId);
+        }
+        report("index-delete-single", singles, System.nanoTime() - start);
+        if (found < 0) System.out.println(found);
+        occurrenceIds(firstDay);
+    }
+
+    // Recurring events whose IDs lack a "_yyyy-MM-dd" suffix, or are shorter than one, are indexed under their
+    // whole ID, in the live index and in a columnar snapshot alike.
+    private static void occurrenceIds(LocalDate day) {
+        Scheduler scheduler = new Scheduler(day, 1, LocalTime.MIN, LocalTime.MAX);
+        String[] ids = {"R", "standup_weekly", "retro_2024-13-01", "demo_2024-02-30", Scheduler.occurrenceId("plan", day)};
+        String[] bases = {"R", "standup_weekly", "retro_2024-13-01", "demo_2024-02-30", "plan"};
+        for (int i = 0; i < ids.length; i++) {
+            LocalDateTime start = day.atTime(i, 0);
+            Event event = new Event(ids[i], "", "", Duration.ofMinutes(30), start, start.plusMinutes(30), 2, true);
+            if (!scheduler.schedule(day, event, ConflictPolicy.REJECT).isSuccess() || scheduler.getEvent(day, ids[i]) == null) {
+                throw new IllegalStateException("Recurring event " + ids[i] + " was not scheduled");
+            }
+        }
+        try {
+            Path file = Files.createTempFile("occurrence-ids", ".snapshot");
+            try {
+                ColumnarSnapshot.write(file, 0, Collections.singletonList(day), scheduler::getEvents, null);
+                ColumnarSnapshot snapshot = ColumnarSnapshot.open(file);
+                for (int i = 0; i < ids.length; i++) {
+                    if (!scheduler.findOccurrences(bases[i]).containsKey(ids[i]) || !snapshot.findOccurrences(bases[i]).containsKey(ids[i])) {
+                        throw new IllegalStateException(ids[i] + " is not indexed under " + bases[i]);
+                    }
+                }
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A season of events loaded one schedule() call at a time versus one importEvents() batch.
+    static void bulkImport(int days, int eventsPerDay) {
+        LocalDate firstDay = BASE.toLocalDate();
+        List<Event> events = new ArrayList<>(days * eventsPerDay);
+        Duration duration = Duration.ofSeconds(5);
+        for (int d = 0; d < days; d++) {
+            LocalDateTime dayStart = firstDay.plusDays(d).atStartOfDay();
+            for (int i = 0; i < eventsPerDay; i++) {
+                LocalDateTime start = dayStart.plusSeconds(i * 8L);
+                events.add(new Event("E" + d + "_" + i, "", "", duration, start, start.plus(duration), 4, false));
+            }
+        }
+        Collections.shuffle(events, new Random(42));
+
+        Scheduler single = new Scheduler(firstDay, days, LocalTime.MIN, LocalTime.MAX);
+        long start = System.nanoTime();
+        for (Event event : events) {
+            single.schedule(event.getStartTime().toLocalDate(), event, ConflictPolicy.REJECT);
+        }
+        report("schedule-each n=" + events.size(), events.size(), System.nanoTime() - start);
+
+        Scheduler batch = new Scheduler(firstDay, days, LocalTime.MIN, LocalTime.MAX);
+        start = System.nanoTime();
+        ImportResult result = batch.importEvents(events.stream());
+        report("import-batch n=" + result.getImportedCount(), events.size(), System.nanoTime() - start);
+    }
+
+    // Write throughput of the journaled scheduler, group commit across threads, and recovery time from the
+    // log alone and from a snapshot. Priorities outside 1-4 are rejected before they reach the log, and every
+    // accepted one is recovered unchanged.
+    static void persistence(int days, int eventsPerDay) {
+        try {
+            Path directory = Files.createTempDirectory("event-store-bench");
+            LocalDate firstDay = BASE.toLocalDate();
+            int total = days * eventsPerDay;
+            Duration duration = Duration.ofSeconds(5);
+
+            Scheduler scheduler = new Scheduler(firstDay, days, LocalTime.MIN, LocalTime.MAX);
+            EventStore store = EventStore.open(directory, scheduler, false, Integer.MAX_VALUE);
+            long start = System.nanoTime();
+            for (int d = 0; d < days; d++) {
+                LocalDate date = firstDay.plusDays(d);
+                for (int i = 0; i < eventsPerDay; i++) {
+                    LocalDateTime eventStart = date.atStartOfDay().plusSeconds(i * 8L);
+                    scheduler.schedule(date, new Event("E" + d + "_" + i, "Title", "", duration,
+                            eventStart, eventStart.plus(duration), 1 + i % 4, false), ConflictPolicy.REJECT);
+                }
+            }
+            store.close();
+            report("journaled-writes n=" + total, total, System.nanoTime() - start);
+
+            // One fsync per commit from a single thread, then the same volume shared by eight threads
+            int syncedWrites = 2_000;
+            for (int threads : new int[]{1, 8}) {
+                Path logFile = directory.resolve("group-commit-" + threads + ".wal");
+                WriteAheadLog log = new WriteAheadLog(logFile, 0);
+                List<Thread> writers = new ArrayList<>();
+                start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    int perThread = syncedWrites / threads;
+                    Thread writer = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < perThread; i++) {
+                                log.sync(log.append(out -> out.writeLong(42)));
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    writers.add(writer);
+                    writer.start();
+                }
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+                report("synced-commits threads=" + threads, syncedWrites, System.nanoTime() - start);
+                log.close();
+            }
+
+            start = System.nanoTime();
+            Scheduler recovered = new Scheduler(firstDay, 0, LocalTime.MIN, LocalTime.MAX);
+            store = EventStore.open(directory, recovered, false, Integer.MAX_VALUE);
+            report("recover-from-log n=" + total, total, System.nanoTime() - start);
+            checkPriorities(recovered, firstDay, eventsPerDay);
+            store.snapshot();
+            store.close();
+
+            start = System.nanoTime();
+            recovered = new Scheduler(firstDay, 0, LocalTime.MIN, LocalTime.MAX);
+            store = EventStore.open(directory, recovered, false, Integer.MAX_VALUE);
+            report("recover-from-snapshot n=" + total, total, System.nanoTime() - start);
+            checkPriorities(recovered, firstDay, eventsPerDay);
+            store.close();
+
+            rejectedPriorities(directory.resolve("priorities"), firstDay);
+            journalFirst(directory.resolve("journal-first"), firstDay);
+            try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Strings over writeUTF's 64 KB limit survive recovery, a log written with writeUTF still replays, and a journal
+    // that fails to record a change leaves the calendar without it.
+    private static void journalFirst(Path directory, LocalDate day) throws IOException {
+        String longText = "x".repeat(70_000);
+        LocalDateTime start = day.atTime(9, 0);
+        Scheduler scheduler = new Scheduler(day, 1, LocalTime.MIN, LocalTime.MAX);
+        EventStore store = EventStore.open(directory.resolve("long"), scheduler, false, Integer.MAX_VALUE);
+        scheduler.schedule(day, new Event("L", longText, longText, Duration.ofMinutes(30), start, start.plusMinutes(30), 2, false),
+                ConflictPolicy.REJECT);
+        store.close();
+        Scheduler recovered = new Scheduler(day, 0, LocalTime.MIN, LocalTime.MAX);
+        store = EventStore.open(directory.resolve("long"), recovered, false, Integer.MAX_VALUE);
+        Event event = recovered.getEvent(day, "L");
+        store.close();
+        if (event == null || !event.getDescription().equals(longText) || !event.getTitle().equals(longText)) {
+            throw new IllegalStateException("A 70,000-character description did not survive recovery");
+        }
+
+        // A PUT record as logs held it before strings were length-prefixed
+        Files.createDirectories(directory.resolve("legacy"));
+        try (WriteAheadLog log = new WriteAheadLog(directory.resolve("legacy").resolve("events.wal"), 0)) {
+            log.append(out -> {
+                out.writeByte(1);
+                out.writeLong(day.toEpochDay());
+                out.writeUTF("OLD");
+                out.writeUTF("title");
+                out.writeUTF("");
+                out.writeLong(1800);
+                out.writeInt(0);
+                out.writeLong(start.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(0);
+                out.writeLong(start.plusMinutes(30).toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(0);
+                out.writeByte(3);
+                out.writeBoolean(false);
+            });
+        }
+        recovered = new Scheduler(day, 0, LocalTime.MIN, LocalTime.MAX);
+        store = EventStore.open(directory.resolve("legacy"), recovered, false, Integer.MAX_VALUE);
+        event = recovered.getEvent(day, "OLD");
+        store.close();
+        if (event == null || !event.getTitle().equals("title") || event.getPriority() != 3) {
+            throw new IllegalStateException("A log written with writeUTF no longer replays");
+        }
+
+        // A record header claiming nearly 2 GB after the last intact record ends the log without being allocated
+        Path wal = directory.resolve("legacy").resolve("events.wal");
+        long intact = Files.size(wal);
+        Files.write(wal, ByteBuffer.allocate(2 * Integer.BYTES).putInt(Integer.MAX_VALUE - 8).putInt(0).array(),
+                StandardOpenOption.APPEND);
+        recovered = new Scheduler(day, 0, LocalTime.MIN, LocalTime.MAX);
+        store = EventStore.open(directory.resolve("legacy"), recovered, false, Integer.MAX_VALUE);
+        event = recovered.getEvent(day, "OLD");
+        store.close();
+        if (event == null || Files.size(wal) != intact) {
+            throw new IllegalStateException("A corrupt record length was not treated as the end of the log");
+        }
+
+        Scheduler failing = new Scheduler(day, 1, LocalTime.MIN, LocalTime.MAX);
+        failing.setJournal(new ScheduleJournal() {
+            public void recordPut(LocalDate date, Event put) { throw new UncheckedIOException(new IOException("disk full")); }
+            public void recordRemove(LocalDate date, String eventId) { }
+            public void recordSeriesPut(RecurringSeries series) { }
+            public void recordSeriesRemove(String baseEventId) { }
+            public void recordSeriesException(String baseEventId, LocalDate date) { }
+            public void recordArchive(LocalDate cutoff) { }
+            public void commit() { }
+        });
+        try {
+            failing.schedule(day, new Event("F", "", "", Duration.ofMinutes(30), start, start.plusMinutes(30), 2, false),
+                    ConflictPolicy.REJECT);
+            throw new IllegalStateException("A failed journal append was not reported");
+        } catch (UncheckedIOException expected) {
+            // The booking must not have happened
+        }
+        if (!failing.getEvents(day).isEmpty() || !failing.findOccurrences("F").isEmpty()
+                || failing.findFreeSlots(day, Duration.ofHours(23)).size() != 1) {
+            throw new IllegalStateException("An event whose journal append failed is still booked");
+        }
+        flushFailure(directory.resolve("flush"), day);
+    }
+
+    // A failed background flush is thrown from the next commit and from close() instead of stopping the flusher
+    // silently. The log is closed underneath the store, so the flusher's next write fails.
+    private static void flushFailure(Path directory, LocalDate day) throws IOException {
+        Scheduler scheduler = new Scheduler(day, 1, LocalTime.MIN, LocalTime.MAX);
+        EventStore store = EventStore.open(directory, scheduler, false, Integer.MAX_VALUE);
+        try {
+            java.lang.reflect.Field log = EventStore.class.getDeclaredField("log");
+            log.setAccessible(true);
+            ((WriteAheadLog) log.get(store)).close();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        LocalDateTime start = day.atTime(9, 0);
+        boolean reported = false;
+        // The first booking may commit before the flusher has run; one of the next ones must see the failure
+        for (int i = 0; i < 100 && !reported; i++) {
+            try {
+                scheduler.schedule(day, new Event("F" + i, "", "", Duration.ofMinutes(1), start.plusMinutes(i), start.plusMinutes(i + 1), 2, false),
+                        ConflictPolicy.REJECT);
+                Thread.sleep(10);
+            } catch (UncheckedIOException expected) {
+                reported = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!reported) {
+            throw new IllegalStateException("A failed background flush was not reported by commit");
+        }
+        try {
+            store.close();
+            throw new IllegalStateException("A failed background flush was not reported by close()");
+        } catch (java.nio.channels.ClosedChannelException expected) {
+            // The flusher's failure, with the final sync's suppressed
+        }
+    }
+
+    // Every entry point rejects a priority outside 1-4, and nothing of it reaches the log.
+    private static void rejectedPriorities(Path directory, LocalDate day) throws IOException {
+        Scheduler scheduler = new Scheduler(day, 1, LocalTime.MIN, LocalTime.MAX);
+        EventStore store = EventStore.open(directory, scheduler, false, Integer.MAX_VALUE);
+        LocalDateTime start = day.atTime(9, 0);
+        Event kept = new Event("P4", "", "", Duration.ofMinutes(30), start, start.plusMinutes(30), 4, false);
+        scheduler.schedule(day, kept, ConflictPolicy.REJECT);
+        Event outOfRange = new Event("P300", "", "", Duration.ofMinutes(30), start.plusHours(1), start.plusMinutes(90), 300, false);
+        List<ScheduleResult> results = Arrays.asList(
+                scheduler.schedule(day, outOfRange, ConflictPolicy.REJECT),
+                scheduler.place(day, outOfRange, PlacementPolicy.EARLIEST),
+                scheduler.addSeries(outOfRange, RecurrenceRule.daily(day)),
+                scheduler.begin().schedule(day, outOfRange).commit(),
+                scheduler.importEvents(java.util.stream.Stream.of(outOfRange)).getRejected().get(0));
+        for (ScheduleResult result : results) {
+            if (result.getStatus() != ScheduleResult.Status.REJECTED) {
+                throw new IllegalStateException("Priority 300 was not rejected: " + result.getStatus());
+            }
+        }
+        try {
+            scheduler.updateDetails(day, "P4", null, null, 0);
+            throw new IllegalStateException("Priority 0 was accepted by updateDetails");
+        } catch (IllegalArgumentException expected) {
+            // Rejected before the day is touched
+        }
+        store.close();
+
+        Scheduler recovered = new Scheduler(day, 0, LocalTime.MIN, LocalTime.MAX);
+        store = EventStore.open(directory, recovered, false, Integer.MAX_VALUE);
+        List<Event> events = recovered.getEvents(day);
+        store.close();
+        if (events.size() != 1 || events.get(0).getPriority() != 4 || !recovered.getSeries().isEmpty()) {
+            throw new IllegalStateException("Rejected priorities reached the log: " + events.size() + " events");
+        }
+    }
+
+    // The persistence workload gives event i of each day priority 1 + i % 4.
+    private static void checkPriorities(Scheduler recovered, LocalDate date, int eventsPerDay) {
+        List<Event> events = recovered.getEvents(date);
+        if (events.size() != eventsPerDay) {
+            throw new IllegalStateException("Recovered " + events.size() + " events on " + date + ", expected " + eventsPerDay);
+        }
+        for (Event event : events) {
+            int i = Integer.parseInt(event.getEventId().substring(event.getEventId().indexOf('_') + 1));
+            if (event.getPriority() != 1 + i % 4) {
+                throw new IllegalStateException("Recovered " + event.getEventId() + " with priority " + event.getPriority());
+            }
+        }
+    }
+
+    // Opening a columnar snapshot maps it without building any events; the cost is paid per day on first touch.
+    static void columnarSnapshot(int days, int eventsPerDay) {
+        try {
+            Path directory = Files.createTempDirectory("columnar-bench");
+            LocalDate firstDay = BASE.toLocalDate();
+            int total = days * eventsPerDay;
+            Duration duration = Duration.ofSeconds(5);
+
+            Scheduler scheduler = new Scheduler(firstDay, days, LocalTime.MIN, LocalTime.MAX);
+            for (int d = 0; d < days; d++) {
+                LocalDate date = firstDay.plusDays(d);
+                List<Event> events = new ArrayList<>(eventsPerDay);
+                for (int i = 0; i < eventsPerDay; i++) {
+                    LocalDateTime eventStart = date.atStartOfDay().plusSeconds(i * 8L);
+                    events.add(new Event("E" + d + "_" + i, "Title", "", duration,
+                            eventStart, eventStart.plus(duration), 4, false));
+                }
+                scheduler.importEvents(events.stream());
+            }
+            EventStore store = EventStore.open(directory, scheduler, false, Integer.MAX_VALUE);
+            long start = System.nanoTime();
+            store.snapshot();
+            report("snapshot-write n=" + total, total, System.nanoTime() - start);
+            store.close();
+
+            start = System.nanoTime();
+            Scheduler lazy = new Scheduler(firstDay, 0, LocalTime.MIN, LocalTime.MAX);
+            store = EventStore.open(directory, lazy, false, Integer.MAX_VALUE);
+            report("open-lazy days=" + days, total, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            Map<String, LocalDate> found = lazy.findOccurrences("E" + (days / 2) + "_" + (eventsPerDay / 2));
+            report("lookup-unloaded hits=" + found.size(), 1, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            lazy.getEvents(firstDay.plusDays(days / 2));
+            report("touch-one-day", eventsPerDay, System.nanoTime() - start);
+
+            // Only one day was loaded and changed, so every other block is copied from the previous snapshot
+            lazy.delete(firstDay.plusDays(days / 2), "E" + (days / 2) + "_0");
+            start = System.nanoTime();
+            store.snapshot();
+            report("snapshot-rewrite loaded=1", total, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (LocalDate date : lazy.getDates()) {
+                lazy.getEvents(date);
+            }
+            report("materialize-all n=" + total, total, System.nanoTime() - start);
+            store.close();
+
+            // Readers touching the same unloaded days at once must each see the whole day and its free slots
+            Scheduler racing = new Scheduler(firstDay, 0, LocalTime.MIN, LocalTime.MAX);
+            store = EventStore.open(directory, racing, false, Integer.MAX_VALUE);
+            List<Thread> readers = new ArrayList<>();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            java.util.concurrent.CyclicBarrier barrier = new java.util.concurrent.CyclicBarrier(8);
+            for (int t = 0; t < 8; t++) {
+                readers.add(new Thread(() -> {
+                    try {
+                        for (int d = 0; d < Math.min(days, 30); d++) {
+                            LocalDate date = firstDay.plusDays(d);
+                            barrier.await();
+                            int expected = d == days / 2 ? eventsPerDay - 1 : eventsPerDay;
+                            if (racing.getEvents(date).size() != expected || racing.findFreeSlots(date, duration).isEmpty()) {
+                                throw new IllegalStateException("A racing reader saw " + racing.getEvents(date).size() + " events on " + date);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            store.close();
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException(failures.size() + " racing readers failed", failures.get(0));
+            }
+
+            try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Overlap checks and free-slot queries on the object-based tree versus the epoch-second array tree.
+    static void primitiveTree(int n, int queries) {
+        Random random = new Random(42);
+        IntervalTree objects = new IntervalTree();
+        EpochIntervalTree primitives = new EpochIntervalTree(n);
+        for (int i = 0; i < n; i++) {
+            Event event = event("E" + i, random.nextInt(n * 10), 1 + random.nextInt(8));
+            objects.insert(event);
+            primitives.insert(event);
+        }
+
+        long[] starts = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            starts[i] = random.nextInt(n * 10);
+        }
+        long baseSecond = EpochIntervalTree.toEpochSecond(BASE);
+        LocalDateTime[] times = new LocalDateTime[queries];
+        for (int i = 0; i < queries; i++) {
+            times[i] = BASE.plusSeconds(starts[i]);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            int hits = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                Event probe = new Event("probe", "", "", Duration.ofSeconds(4), times[i], times[i].plusSeconds(4), 4, false);
+                if (objects.hasOverlap(probe)) hits++;
+            }
+            report("overlap object hits=" + hits, queries, System.nanoTime() - start);
+
+            hits = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                long from = baseSecond + starts[i];
+                if (primitives.hasOverlap(from, from + 4)) hits++;
+            }
+            report("overlap primitive hits=" + hits, queries, System.nanoTime() - start);
+
+            // Free slots of at least 3 seconds in a 10-minute window
+            int slots = 0;
+            int windows = queries / 10;
+            start = System.nanoTime();
+            for (int i = 0; i < windows; i++) {
+                slots += objects.findFreeSlots(times[i], times[i].plusMinutes(10), Duration.ofSeconds(3)).size();
+            }
+            report("free-slots object slots=" + slots, windows, System.nanoTime() - start);
+
+            slots = 0;
+            long[] bounds = new long[512];
+            start = System.nanoTime();
+            for (int i = 0; i < windows; i++) {
+                long from = baseSecond + starts[i];
+                slots += primitives.freeSlots(from, from + 600, 3, bounds);
+            }
+            report("free-slots primitive slots=" + slots, windows, System.nanoTime() - start);
+        }
+    }
+
+    // Striped locking under the room index: reader threads ask which rooms are free while writer threads make the
+    // first bookings of days created on demand, in random rooms. All threads move to a new day every few
+    // operations, so the index fill of each day races the publish callbacks of its first bookings. Fails if the
+    // threads do not finish within the timeout (a lock cycle) or if the index then disagrees with scanning each room.
+    static void concurrentRooms(int roomCount, int threads, int operationsPerDay, int operationsPerThread) {
+        int days = operationsPerThread / operationsPerDay + 1;
+        LocalDate firstDay = BASE.toLocalDate();
+        List<String> locations = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            locations.add("Room" + r);
+        }
+        LocationScheduler rooms = new LocationScheduler(locations, firstDay, 1, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        for (String location : locations) {
+            rooms.getScheduler(location).setCreateDaysOnDemand(true);
+        }
+        java.util.concurrent.ExecutorService workers = java.util.concurrent.Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "concurrent-rooms");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<java.util.concurrent.Future<?>> done = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            done.add(workers.submit(() -> {
+                Random random = new Random(thread);
+                for (int i = 0; i < operationsPerThread; i++) {
+                    LocalDate date = firstDay.plusDays(i / operationsPerDay + random.nextInt(2));
+                    LocalDateTime at = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(15L * random.nextInt(44));
+                    Duration duration = Duration.ofMinutes(15 + 15 * random.nextInt(4));
+                    if (thread % 2 == 0) {
+                        if (random.nextBoolean()) {
+                            rooms.findFreeRoom(at, duration);
+                        } else {
+                            rooms.findFreeRooms(at, duration);
+                        }
+                    } else if (random.nextInt(4) == 0) {
+                        rooms.scheduleInAnyRoom(date, new Event("A" + thread + "_" + i, "", "", duration, at, at.plus(duration), 4, false));
+                    } else {
+                        rooms.getScheduler(locations.get(random.nextInt(roomCount))).schedule(date, new Event("T" + thread + "_" + i,
+                                "", "", duration, at, at.plus(duration), 4, false), ConflictPolicy.REJECT);
+                    }
+                }
+            }));
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(60, java.util.concurrent.TimeUnit.SECONDS)) {
+                StringBuilder stuck = new StringBuilder();
+                for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+                    if (entry.getKey().getName().equals("concurrent-rooms")) {
+                        stuck.append('\n').append(entry.getKey().getState());
+                        for (StackTraceElement frame : Arrays.copyOf(entry.getValue(), Math.min(entry.getValue().length, 8))) {
+                            stuck.append("\n  at ").append(frame);
+                        }
+                    }
+                }
+                throw new IllegalStateException("Room queries and first bookings did not finish within 60 s:" + stuck);
+            }
+            for (java.util.concurrent.Future<?> future : done) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IllegalStateException("Worker failed", e.getCause());
+        }
+        report("concurrent-rooms threads=" + threads, threads * operationsPerThread, System.nanoTime() - start);
+
+        for (int d = 0; d < days; d++) {
+            for (int slot = 0; slot < 48; slot++) {
+                LocalDateTime at = LocalDateTime.of(firstDay.plusDays(d), LocalTime.of(8, 0)).plusMinutes(15L * slot);
+                Set<String> free = new HashSet<>(rooms.findFreeRooms(at, Duration.ofMinutes(15)));
+                Event probe = new Event("probe", "", "", Duration.ofMinutes(15), at, at.plusMinutes(15), 4, false);
+                for (String location : locations) {
+                    Scheduler scheduler = rooms.getScheduler(location);
+                    boolean scanFree = scheduler.hasDay(at.toLocalDate()) && scheduler.findConflicts(at.toLocalDate(), probe).isEmpty();
+                    if (scanFree != free.contains(location)) {
+                        throw new IllegalStateException("Room index is stale for " + location + " at " + at);
+                    }
+                }
+            }
+        }
+    }
+
+    static void concurrentBooking(int threads, int days, int operationsPerThread) {
+        try {
+            Path directory = Files.createTempDirectory("concurrent-bench");
+            LocalDate firstDay = BASE.toLocalDate();
+            LocalTime open = LocalTime.of(8, 0);
+            LocalTime close = LocalTime.of(18, 0);
+            Scheduler scheduler = new Scheduler(firstDay, days, open, close);
+            EventStore store = EventStore.open(directory, scheduler, false, 5_000);
+            java.util.concurrent.atomic.AtomicLong balance = new java.util.concurrent.atomic.AtomicLong();
+
+            List<Thread> workers = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers.add(new Thread(() -> {
+                    Random random = new Random(thread);
+                    List<String> series = new ArrayList<>();
+                    List<Event> booked = new ArrayList<>();
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        LocalDate date = firstDay.plusDays(random.nextInt(days));
+                        LocalDateTime eventStart = LocalDateTime.of(date, open).plusMinutes(10L * random.nextInt(60));
+                        Duration duration = Duration.ofMinutes(5 + random.nextInt(55));
+                        int op = random.nextInt(10);
+                        if (op < 5) {
+                            Event event = new Event("T" + thread + "_" + i, "", "", duration, eventStart,
+                                    eventStart.plus(duration), 1 + random.nextInt(4), false);
+                            ConflictPolicy policy = op < 3 ? ConflictPolicy.REJECT : ConflictPolicy.RESCHEDULE_LOWER_PRIORITY;
+                            if (scheduler.schedule(date, event, policy).isSuccess()) {
+                                balance.incrementAndGet();
+                                booked.add(event);
+                            }
+                        } else if (op < 7 && !booked.isEmpty()) {
+                            Event event = booked.remove(random.nextInt(booked.size()));
+                            if (scheduler.delete(event.getStartTime().toLocalDate(), event.getEventId())) {
+                                balance.decrementAndGet();
+                            }
+                        } else if (op < 8 && !booked.isEmpty()) {
+                            Event event = booked.get(random.nextInt(booked.size()));
+                            LocalDate day = event.getStartTime().toLocalDate();
+                            scheduler.modifyTime(day, event.getEventId(),
+                                    LocalDateTime.of(day, open).plusMinutes(10L * random.nextInt(60)),
+                                    event.getDuration(), ConflictPolicy.REJECT);
+                        } else if (op < 9) {
+                            String baseEventId = "S" + thread + "_" + i;
+                            Map<LocalDate, Event> occurrences = new HashMap<>();
+                            for (int d = 0; d < days; d++) {
+                                LocalDate day = firstDay.plusDays(d);
+                                LocalDateTime at = LocalDateTime.of(day, eventStart.toLocalTime());
+                                occurrences.put(day, new Event(Scheduler.occurrenceId(baseEventId, day), "", "",
+                                        duration, at, at.plus(duration), 4, true));
+                            }
+                            for (ScheduleResult result : scheduler.scheduleSeries(occurrences, ConflictPolicy.REJECT).values()) {
+                                if (result.isSuccess()) balance.incrementAndGet();
+                            }
+                            series.add(baseEventId);
+                        } else if (!series.isEmpty()) {
+                            balance.addAndGet(-scheduler.deleteAll(series.remove(random.nextInt(series.size()))));
+                        }
+                    }
+                }));
+            }
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            report("concurrent-booking threads=" + threads, threads * operationsPerThread, System.nanoTime() - start);
+
+            StringBuilder calendar = new StringBuilder();
+            long stored = 0;
+            for (int d = 0; d < days; d++) {
+                LocalDate date = firstDay.plusDays(d);
+                Event previous = null;
+                for (Event event : scheduler.getEvents(date)) {
+                    if (previous != null && previous.getEndTime().isAfter(event.getStartTime())) {
+                        throw new IllegalStateException("Double booking on " + date + ": "
+                                + previous.getEventId() + " and " + event.getEventId());
+                    }
+                    if (!date.equals(scheduler.findOccurrences(Scheduler.baseEventId(event)).get(event.getEventId()))) {
+                        throw new IllegalStateException("Event index lost " + event.getEventId());
+                    }
+                    calendar.append(date).append(' ').append(event.getEventId()).append(' ')
+                            .append(event.getStartTime()).append('\n');
+                    previous = event;
+                    stored++;
+                }
+            }
+            if (stored != balance.get()) {
+                throw new IllegalStateException("Stored " + stored + " events but " + balance.get() + " bookings succeeded");
+            }
+            store.close();
+
+            Scheduler recovered = new Scheduler(firstDay, 0, open, close);
+            EventStore.open(directory, recovered, false, Integer.MAX_VALUE).close();
+            StringBuilder replayed = new StringBuilder();
+            for (int d = 0; d < days; d++) {
+                LocalDate date = firstDay.plusDays(d);
+                for (Event event : recovered.getEvents(date)) {
+                    replayed.append(date).append(' ').append(event.getEventId()).append(' ')
+                            .append(event.getStartTime()).append('\n');
+                }
+            }
+            if (!calendar.toString().equals(replayed.toString())) {
+                throw new IllegalStateException("Recovered calendar differs from the live one");
+            }
+            System.out.println("concurrent-booking ok: " + stored + " events, no overlaps, recovery matches");
+
+            try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Reader threads query free slots and event lists of one day without locking while a writer keeps forcing
+    // reschedules on it. Every read must see a complete day: the same number of events, none overlapping.
+    static void snapshotReads(int eventsPerDay, int readsPerThread) {
+        LocalDate date = BASE.toLocalDate();
+        LocalTime open = LocalTime.of(0, 0);
+        LocalTime close = LocalTime.of(23, 59);
+        Scheduler scheduler = new Scheduler(date, 1, open, close);
+        for (int i = 0; i < eventsPerDay; i++) {
+            LocalDateTime start = LocalDateTime.of(date, open).plusMinutes(5L * i);
+            scheduler.schedule(date, new Event("E" + i, "", "", Duration.ofMinutes(3), start, start.plusMinutes(3), 4, false),
+                    ConflictPolicy.REJECT);
+        }
+
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+            java.util.concurrent.atomic.AtomicInteger storms = new java.util.concurrent.atomic.AtomicInteger();
+            Thread writer = new Thread(() -> {
+                Random random = new Random(threads);
+                while (!done.get()) {
+                    // A higher-priority booking displaces an event, which is then moved back out of the way
+                    int victim = random.nextInt(eventsPerDay);
+                    LocalDateTime start = LocalDateTime.of(date, open).plusMinutes(5L * victim + 1);
+                    Event urgent = new Event("U", "", "", Duration.ofMinutes(1), start, start.plusMinutes(1), 1, false);
+                    if (scheduler.schedule(date, urgent, ConflictPolicy.RESCHEDULE_LOWER_PRIORITY).isSuccess()) {
+                        scheduler.delete(date, "U");
+                        storms.incrementAndGet();
+                    }
+                }
+            });
+            writer.start();
+
+            List<Thread> readers = new ArrayList<>();
+            java.util.concurrent.atomic.AtomicReference<String> failure = new java.util.concurrent.atomic.AtomicReference<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                readers.add(new Thread(() -> {
+                    for (int i = 0; i < readsPerThread; i++) {
+                        if ((i & 1) == 0) {
+                            scheduler.findFreeSlots(date, Duration.ofMinutes(2));
+                            continue;
+                        }
+                        List<Event> events = scheduler.getEvents(date);
+                        int expected = events.stream().anyMatch(e -> e.getEventId().equals("U")) ? eventsPerDay + 1 : eventsPerDay;
+                        if (events.size() != expected) {
+                            failure.compareAndSet(null, "Read " + events.size() + " events, expected " + expected);
+                        }
+                        for (int e = 1; e < events.size(); e++) {
+                            if (events.get(e - 1).getEndTime().isAfter(events.get(e).getStartTime())) {
+                                failure.compareAndSet(null, "Read overlapping events " + events.get(e - 1).getEventId()
+                                        + " and " + events.get(e).getEventId());
+                            }
+                        }
+                    }
+                }));
+            }
+            try {
+                for (Thread reader : readers) {
+                    reader.start();
+                }
+                for (Thread reader : readers) {
+                    reader.join();
+                }
+                long elapsed = System.nanoTime() - start;
+                done.set(true);
+                writer.join();
+                report("snapshot-reads threads=" + threads, threads * readsPerThread, elapsed);
+                System.out.println("  reschedules during run: " + storms.get());
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (failure.get() != null) {
+                throw new IllegalStateException(failure.get());
+            }
+        }
+    }
+
+    // Reschedules that fail now cost no tree changes, and a recurring series commits on every day or on none.
+    static void transactions(int eventsPerDay, int attempts, int days) {
+        LocalDate date = BASE.toLocalDate();
+        LocalTime open = LocalTime.of(0, 0);
+        Duration length = Duration.ofSeconds(86_399 / eventsPerDay);
+        // A day packed end to end: a displaced event has nowhere to go
+        LocalTime close = LocalTime.ofSecondOfDay(length.getSeconds() * eventsPerDay);
+        Scheduler full = new Scheduler(date, 1, open, close);
+        for (int i = 0; i < eventsPerDay; i++) {
+            LocalDateTime start = LocalDateTime.of(date, open).plus(length.multipliedBy(i));
+            full.schedule(date, new Event("E" + i, "", "", length, start, start.plus(length), 4, false), ConflictPolicy.REJECT);
+        }
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        for (int i = 0; i < attempts; i++) {
+            LocalDateTime at = LocalDateTime.of(date, open).plus(length.multipliedBy(random.nextInt(eventsPerDay)));
+            Event urgent = new Event("U", "", "", length, at, at.plus(length), 1, false);
+            if (full.schedule(date, urgent, ConflictPolicy.RESCHEDULE_LOWER_PRIORITY).isSuccess()) {
+                throw new IllegalStateException("Reschedule succeeded on a full day");
+            }
+        }
+        report("reschedule-fail n=" + eventsPerDay, attempts, System.nanoTime() - start);
+
+        // Half-full day: every displaced event finds a slot later in the day
+        Scheduler half = new Scheduler(date, 1, open, close);
+        for (int i = 0; i < eventsPerDay / 2; i++) {
+            LocalDateTime at = LocalDateTime.of(date, open).plus(length.multipliedBy(i));
+            half.schedule(date, new Event("E" + i, "", "", length, at, at.plus(length), 4, false), ConflictPolicy.REJECT);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < attempts; i++) {
+            LocalDateTime at = LocalDateTime.of(date, open).plus(length.multipliedBy(random.nextInt(eventsPerDay / 2)));
+            Event urgent = new Event("U" + i, "", "", length, at, at.plus(length), 1, false);
+            if (!half.schedule(date, urgent, ConflictPolicy.RESCHEDULE_LOWER_PRIORITY).isSuccess()) {
+                throw new IllegalStateException("Reschedule failed on a half-full day");
+            }
+            half.delete(date, "U" + i);
+        }
+        report("reschedule-ok n=" + eventsPerDay / 2, attempts, System.nanoTime() - start);
+
+        // A series with one blocked day must leave every other day untouched
+        Scheduler calendar = new Scheduler(date, days, LocalTime.of(8, 0), LocalTime.of(18, 0));
+        LocalDate blocked = date.plusDays(days / 2);
+        calendar.schedule(blocked, new Event("B", "", "", Duration.ofHours(1), LocalDateTime.of(blocked, LocalTime.of(9, 0)),
+                LocalDateTime.of(blocked, LocalTime.of(10, 0)), 1, false), ConflictPolicy.REJECT);
+        for (String series : new String[]{"S1", "S2"}) {
+            LocalTime at = series.equals("S1") ? LocalTime.of(9, 30) : LocalTime.of(11, 0);
+            ScheduleTransaction transaction = calendar.begin();
+            for (int d = 0; d < days; d++) {
+                LocalDate day = date.plusDays(d);
+                LocalDateTime eventStart = LocalDateTime.of(day, at);
+                transaction.schedule(day, new Event(Scheduler.occurrenceId(series, day), "", "", Duration.ofMinutes(30),
+                        eventStart, eventStart.plusMinutes(30), 2, true));
+            }
+            start = System.nanoTime();
+            ScheduleResult result = transaction.commit();
+            report("series-commit " + series + (result.isSuccess() ? " ok" : " rejected"), days, System.nanoTime() - start);
+            int stored = calendar.findOccurrences(series).size();
+            if (stored != (result.isSuccess() ? days : 0)) {
+                throw new IllegalStateException("Series " + series + " left " + stored + " occurrences");
+            }
+        }
+        dayWindow(date);
+    }
+
+    // An event reaching past midnight or outside the window is rejected by every write path, so it can never sit
+    // unseen over the next day's bookings.
+    private static void dayWindow(LocalDate date) {
+        Scheduler calendar = new Scheduler(date, 2, LocalTime.MIN, LocalTime.MAX);
+        LocalDateTime lateStart = LocalDateTime.of(date, LocalTime.of(23, 30));
+        Event late = new Event("Late", "", "", Duration.ofMinutes(120), lateStart, lateStart.plusMinutes(120), 2, false);
+        LocalDateTime nextStart = LocalDateTime.of(date.plusDays(1), LocalTime.of(0, 30));
+        Event next = new Event("Next", "", "", Duration.ofMinutes(30), nextStart, nextStart.plusMinutes(30), 2, false);
+        LocalDateTime eveningStart = LocalDateTime.of(date, LocalTime.of(23, 0));
+        Event evening = new Event("Evening", "", "", Duration.ofMinutes(60), eveningStart, eveningStart.plusMinutes(60), 2, false);
+        if (!calendar.schedule(date, evening, ConflictPolicy.REJECT).isSuccess()) {
+            throw new IllegalStateException("An event ending at midnight was not scheduled");
+        }
+        List<ScheduleResult> results = new ArrayList<>();
+        results.add(calendar.schedule(date, late, ConflictPolicy.REJECT));
+        results.add(calendar.begin().schedule(date, late).commit());
+        results.add(calendar.addSeries(new Event("Nightly", "", "", Duration.ofMinutes(120), lateStart, lateStart.plusMinutes(120), 2, true),
+                RecurrenceRule.daily(date)));
+        results.add(calendar.modifyTime(date, "Evening", lateStart, Duration.ofMinutes(120), ConflictPolicy.REJECT));
+        results.add(calendar.begin().move(date, "Evening", lateStart, Duration.ofMinutes(120)).commit());
+        ImportResult imported = calendar.importEvents(java.util.stream.Stream.of(late));
+        if (imported.getImportedCount() != 0 || imported.getRejected().size() != 1) {
+            throw new IllegalStateException("Import took an event past midnight");
+        }
+        results.add(imported.getRejected().get(0));
+        for (ScheduleResult result : results) {
+            if (result.getStatus() != ScheduleResult.Status.REJECTED) {
+                throw new IllegalStateException("An event past midnight was " + result.getStatus());
+            }
+        }
+        if (!calendar.schedule(date.plusDays(1), next, ConflictPolicy.REJECT).isSuccess()
+                || calendar.getEvents(date).size() != 1 || !calendar.getEvents(date).get(0).getEndTime().equals(date.plusDays(1).atStartOfDay())) {
+            throw new IllegalStateException("The window left " + calendar.getEvents(date) + " on " + date);
+        }
+    }
+
+    // Solve time and quality of the resolvers against day size and number of displaced events. Each trial packs a
+    // day with n slots, one in twenty left empty, and books an urgent event over k consecutive events.
+    static void conflictResolver(int trials) {
+        LocalDateTime windowStart = BASE;
+        LocalDateTime windowEnd = BASE.plusDays(1);
+        ConflictResolver firstFit = new FirstFitResolver();
+        ConflictResolver optimal = new OptimalConflictResolver(Duration.ofMillis(5));
+        for (int n : new int[]{100, 1_000, 10_000}) {
+            for (int k : new int[]{3, 6, 10}) {
+                Random random = new Random(n * 31L + k);
+                long slot = 86_400L / n;
+                int firstFitSolved = 0, optimalSolved = 0, bothSolved = 0;
+                double savings = 0;
+                long firstFitNanos = 0, optimalNanos = 0;
+                for (int trial = 0; trial < trials; trial++) {
+                    List<Event> events = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) {
+                        if (random.nextInt(20) > 0) {
+                            Event event = event("B" + i, slot * i, Math.max(1, slot * (50 + random.nextInt(45)) / 100));
+                            event.setPriority(2 + random.nextInt(3));
+                            events.add(event);
+                        }
+                    }
+                    int first = random.nextInt(events.size() - k);
+                    List<Event> displaced = new ArrayList<>(events.subList(first, first + k));
+                    events.subList(first, first + k).clear();
+                    Event urgent = displaced.get(0);
+                    long urgentStart = Duration.between(BASE, urgent.getStartTime()).getSeconds();
+                    long urgentEnd = Duration.between(BASE, displaced.get(k - 1).getEndTime()).getSeconds();
+                    events.add(event("U", urgentStart, urgentEnd - urgentStart));
+                    PersistentIntervalTree day = PersistentIntervalTree.of(events);
+
+                    long start = System.nanoTime();
+                    Map<String, LocalDateTime> greedy = firstFit.resolve(day, windowStart, windowEnd, displaced);
+                    firstFitNanos += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    Map<String, LocalDateTime> best = optimal.resolve(day, windowStart, windowEnd, displaced);
+                    optimalNanos += System.nanoTime() - start;
+
+                    if (greedy != null) firstFitSolved++;
+                    if (best != null) optimalSolved++;
+                    if (greedy != null && best != null) {
+                        long before = OptimalConflictResolver.disruption(displaced, greedy);
+                        long after = OptimalConflictResolver.disruption(displaced, best);
+                        if (after > before) {
+                            throw new IllegalStateException("Optimal resolver did worse than first fit");
+                        }
+                        savings += before == 0 ? 0 : 1 - (double) after / before;
+                        bothSolved++;
+                    }
+                }
+                report("first-fit n=" + n + " k=" + k, trials, firstFitNanos);
+                report("optimal n=" + n + " k=" + k, trials, optimalNanos);
+                System.out.printf("  solved first-fit %d, optimal %d of %d; disruption %.0f%% lower where both solved%n",
+                        firstFitSolved, optimalSolved, trials, 100 * savings / Math.max(1, bothSolved));
+            }
+        }
+    }
+
+    // Batch placement throughput per policy: events of 5-60 minutes placed across a year of 08:00-20:00 days,
+    // in batches of 1,000, until the calendar is full or every event has been tried.
+    static void autoPlacement(int days, int events) {
+        LocalDate firstDay = BASE.toLocalDate();
+        List<LocalDate> dates = new ArrayList<>();
+        for (int d = 0; d < days; d++) {
+            dates.add(firstDay.plusDays(d));
+        }
+        PlacementPolicy[] policies = {PlacementPolicy.EARLIEST, PlacementPolicy.LATEST, PlacementPolicy.BEST_FIT,
+                PlacementPolicy.preferredWindow(LocalTime.of(13, 0), LocalTime.of(15, 0)), PlacementPolicy.SPREAD};
+        for (PlacementPolicy policy : policies) {
+            Scheduler scheduler = new Scheduler(firstDay, days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+            Random random = new Random(11);
+            int placed = 0;
+            long start = System.nanoTime();
+            for (int batch = 0; batch < events; batch += 1_000) {
+                List<Event> incoming = new ArrayList<>(1_000);
+                for (int i = batch; i < Math.min(events, batch + 1_000); i++) {
+                    incoming.add(new Event("A" + i, "", "", Duration.ofMinutes(5 + random.nextInt(56)), null, null,
+                            1 + random.nextInt(4), false));
+                }
+                for (ScheduleResult result : scheduler.placeAll(dates, incoming, policy)) {
+                    if (result.isSuccess()) placed++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            for (LocalDate date : dates) {
+                Event previous = null;
+                for (Event event : scheduler.getEvents(date)) {
+                    if (previous != null && previous.getEndTime().isAfter(event.getStartTime())) {
+                        throw new IllegalStateException("Placement overlapped " + previous.getEventId() + " and " + event.getEventId());
+                    }
+                    previous = event;
+                }
+            }
+            report("place " + policy.getKind().name().toLowerCase() + " placed=" + placed, events, elapsed);
+        }
+    }
+
+    // The same recurring events stored as one rule each and as one materialized occurrence per day: creation time,
+    // retained heap, free-slot queries across the calendar and recovery. Both calendars must agree on every day,
+    // including after one occurrence of each series is moved and another deleted.
+    static void recurrence(int days, int seriesCount) {
+        LocalDate firstDay = BASE.toLocalDate();
+        List<LocalDate> dates = new ArrayList<>();
+        for (int d = 0; d < days; d++) {
+            dates.add(firstDay.plusDays(d));
+        }
+        Duration duration = Duration.ofMinutes(5);
+        List<RecurringSeries> series = new ArrayList<>();
+        for (int k = 0; k < seriesCount; k++) {
+            // Series k starts every 10 minutes from 08:00; one in three repeats weekly, one in three monthly
+            LocalDateTime start = LocalDateTime.of(firstDay, LocalTime.of(8, 0)).plusMinutes(10L * k);
+            RecurrenceRule rule = k % 3 == 0 ? RecurrenceRule.daily(firstDay)
+                    : k % 3 == 1 ? RecurrenceRule.weekly(firstDay, DayOfWeek.MONDAY, DayOfWeek.THURSDAY)
+                    : RecurrenceRule.monthly(firstDay.plusDays(k % 28));
+            series.add(new RecurringSeries("R" + k, new Event("R" + k, "", "", duration, start, start.plus(duration),
+                    4, true), k % 5 == 0 ? rule.every(2) : rule));
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        Scheduler materialized = new Scheduler(firstDay, days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        int occurrences = 0;
+        for (RecurringSeries entry : series) {
+            Map<LocalDate, Event> byDate = new TreeMap<>();
+            for (LocalDate date : dates) {
+                if (entry.occursOn(date)) {
+                    byDate.put(date, entry.occurrence(date));
+                }
+            }
+            occurrences += byDate.size();
+            materialized.scheduleSeries(byDate, ConflictPolicy.REJECT);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.gc();
+        long materializedHeap = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+        report("materialized-series n=" + occurrences, seriesCount, elapsed);
+
+        System.gc();
+        heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        start = System.nanoTime();
+        Scheduler ruled = new Scheduler(firstDay, days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        for (RecurringSeries entry : series) {
+            if (!ruled.addSeries(entry.getTemplate(), entry.getRule()).isSuccess()) {
+                throw new IllegalStateException("Series " + entry.getBaseEventId() + " was rejected");
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        System.gc();
+        long ruledHeap = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+        report("rule-series n=" + occurrences, seriesCount, elapsed);
+        System.out.printf("  retained heap: materialized %,d KB, rules %,d KB%n", materializedHeap / 1024, ruledHeap / 1024);
+
+        for (Scheduler scheduler : new Scheduler[]{materialized, ruled}) {
+            start = System.nanoTime();
+            int slots = 0;
+            for (int pass = 0; pass < 10; pass++) {
+                for (LocalDate date : dates) {
+                    slots += scheduler.findFreeSlots(date, Duration.ofMinutes(30)).size();
+                }
+            }
+            report((scheduler == ruled ? "rule" : "materialized") + "-free-slots slots=" + slots, 10 * days,
+                    System.nanoTime() - start);
+        }
+
+        // A journaled copy of the rule calendar goes through the same changes, plus a series added and removed
+        Path directory;
+        Scheduler journaled = new Scheduler(firstDay, days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        EventStore store;
+        try {
+            directory = Files.createTempDirectory("recurrence-bench");
+            store = EventStore.open(directory, journaled, false, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        for (RecurringSeries entry : series) {
+            journaled.addSeries(entry.getTemplate(), entry.getRule());
+        }
+        LocalDateTime evening = LocalDateTime.of(firstDay, LocalTime.of(19, 0));
+        journaled.addSeries(new Event("X", "", "", duration, evening, evening.plus(duration), 4, true),
+                RecurrenceRule.daily(firstDay));
+        if (journaled.deleteAll("X") != days) {
+            throw new IllegalStateException("deleteAll missed occurrences of a series");
+        }
+
+        // Move one occurrence of each daily series a minute later and delete another; the rules must follow suit
+        for (RecurringSeries entry : series) {
+            if (!entry.getRule().getFrequency().equals(RecurrenceRule.Frequency.DAILY)) {
+                continue;
+            }
+            LocalDate moved = entry.getRule().occurrences(firstDay.plusDays(7), firstDay.plusDays(days)).get(0);
+            LocalDate deleted = entry.getRule().occurrences(firstDay.plusDays(14), firstDay.plusDays(days)).get(0);
+            String movedId = Scheduler.occurrenceId(entry.getBaseEventId(), moved);
+            LocalDateTime later = entry.occurrence(moved).getStartTime().plusMinutes(1);
+            for (Scheduler scheduler : new Scheduler[]{materialized, ruled, journaled}) {
+                if (!scheduler.modifyTime(moved, movedId, later, duration, ConflictPolicy.REJECT).isSuccess()
+                        || !scheduler.delete(deleted, Scheduler.occurrenceId(entry.getBaseEventId(), deleted))) {
+                    throw new IllegalStateException("Could not change an occurrence of " + entry.getBaseEventId());
+                }
+            }
+        }
+        checkSameDays(materialized, ruled, dates);
+
+        try {
+            store.close();
+
+            // Once from the log, once from the snapshot and series file
+            for (int round = 0; round < 2; round++) {
+                Scheduler recovered = new Scheduler(firstDay, days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+                start = System.nanoTime();
+                store = EventStore.open(directory, recovered, false, Integer.MAX_VALUE);
+                report("recover-series " + (round == 0 ? "log" : "snapshot"), seriesCount, System.nanoTime() - start);
+                checkSameDays(ruled, recovered, dates);
+                if (round == 0) {
+                    store.snapshot();
+                }
+                store.close();
+            }
+
+            try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // "Which room is free for D minutes at T" across many rooms: the merged gap index against asking every room's
+    // calendar, with 99% of each room's half hours booked and bookings continuing between queries. Answers must agree.
+    static void freeRoom(int roomCount, int days, int queries) {
+        LocalDate firstDay = BASE.toLocalDate();
+        List<String> locations = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            locations.add("Room" + r);
+        }
+        LocationScheduler rooms = new LocationScheduler(locations, firstDay, days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        Random random = new Random(5);
+        int booked = 0;
+        for (String location : locations) {
+            Scheduler scheduler = rooms.getScheduler(location);
+            for (int d = 0; d < days; d++) {
+                LocalDate date = firstDay.plusDays(d);
+                for (int slot = 0; slot < 24; slot++) {
+                    if (random.nextInt(100) < 99) {
+                        LocalDateTime start = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(30L * slot);
+                        Duration duration = Duration.ofMinutes(30);
+                        scheduler.schedule(date, new Event("B" + booked++, "", "", duration, start, start.plus(duration),
+                                4, false), ConflictPolicy.REJECT);
+                    }
+                }
+            }
+        }
+
+        LocalDateTime[] starts = new LocalDateTime[queries];
+        Duration[] durations = new Duration[queries];
+        for (int q = 0; q < queries; q++) {
+            starts[q] = LocalDateTime.of(firstDay.plusDays(random.nextInt(days)), LocalTime.of(8, 0))
+                    .plusMinutes(random.nextInt(11 * 60));
+            durations[q] = Duration.ofMinutes(15 + 15 * random.nextInt(4));
+        }
+
+        long start = System.nanoTime();
+        String[] indexed = new String[queries];
+        for (int q = 0; q < queries; q++) {
+            indexed[q] = rooms.findFreeRoom(starts[q], durations[q]);
+            if (q % 10 == 0) {
+                // Keep booking so the index is queried while it is being maintained
+                String location = locations.get(random.nextInt(roomCount));
+                rooms.getScheduler(location).schedule(starts[q].toLocalDate(), new Event("Q" + q, "", "", durations[q],
+                        starts[q], starts[q].plus(durations[q]), 4, false), ConflictPolicy.REJECT);
+            }
+        }
+        report("free-room index rooms=" + roomCount, queries, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int q = 0; q < queries; q++) {
+            String scanned = null;
+            Event probe = new Event("probe", "", "", durations[q], starts[q], starts[q].plus(durations[q]), 4, false);
+            for (String location : locations) {
+                Scheduler scheduler = rooms.getScheduler(location);
+                if (!probe.getEndTime().toLocalTime().isAfter(LocalTime.of(20, 0))
+                        && scheduler.findConflicts(starts[q].toLocalDate(), probe).isEmpty()) {
+                    scanned = location;
+                    break;
+                }
+            }
+            if (scanned != null) found++;
+            // The index answered before the bookings that followed it, so only a "none free" answer is comparable
+            if ((indexed[q] == null) != (scanned == null) && (q == queries - 1 || indexed[q] == null)) {
+                throw new IllegalStateException("Index and scan disagree on query " + q);
+            }
+        }
+        report("free-room scan rooms=" + roomCount + " found=" + found, queries, System.nanoTime() - start);
+
+        // With bookings finished, every indexed answer must be a room the scan also finds free
+        for (int q = 0; q < queries; q += 97) {
+            Set<String> free = new HashSet<>(rooms.findFreeRooms(starts[q], durations[q]));
+            Event probe = new Event("probe", "", "", durations[q], starts[q], starts[q].plus(durations[q]), 4, false);
+            for (String location : locations) {
+                boolean scanFree = !probe.getEndTime().toLocalTime().isAfter(LocalTime.of(20, 0))
+                        && rooms.getScheduler(location).findConflicts(starts[q].toLocalDate(), probe).isEmpty();
+                if (scanFree != free.contains(location)) {
+                    throw new IllegalStateException("Room index is stale for " + location + " on query " + q);
+                }
+            }
+        }
+
+        // Dates no room has answer "none free" and are not indexed
+        int indexedDates = rooms.indexedDates();
+        for (int d = 1; d <= 1_000; d++) {
+            if (rooms.findFreeRoom(LocalDateTime.of(firstDay.plusDays(days + d), LocalTime.of(9, 0)), Duration.ofMinutes(15)) != null) {
+                throw new IllegalStateException("Free room found on a date outside the calendars");
+            }
+        }
+        if (rooms.indexedDates() != indexedDates) {
+            throw new IllegalStateException("Dates outside the calendars were indexed: " + (rooms.indexedDates() - indexedDates));
+        }
+        freeRoomRefresh(5, 3, 5_000);
+    }
+
+    // The room index is patched only around each write's changed ranges; after every kind of change (bookings,
+    // reschedules, moves, deletes, series and their single occurrences) it must match scanning each room.
+    static void freeRoomRefresh(int roomCount, int days, int operations) {
+        LocalDate firstDay = BASE.toLocalDate();
+        List<String> locations = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            locations.add("Room" + r);
+        }
+        LocationScheduler rooms = new LocationScheduler(locations, firstDay, days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        Random random = new Random(18);
+        Map<String, List<String>> booked = new HashMap<>();
+        for (int i = 0; i < operations; i++) {
+            String location = locations.get(random.nextInt(roomCount));
+            Scheduler scheduler = rooms.getScheduler(location);
+            LocalDate date = firstDay.plusDays(random.nextInt(days));
+            LocalDateTime start = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(15L * random.nextInt(46));
+            Duration duration = Duration.ofMinutes(15 + 15 * random.nextInt(6));
+            List<String> mine = booked.computeIfAbsent(location, l -> new ArrayList<>());
+            int kind = random.nextInt(100);
+            if (kind < 45) {
+                Event event = new Event("E" + i, "", "", duration, start, start.plus(duration), 1 + random.nextInt(4), false);
+                if (scheduler.schedule(date, event, random.nextBoolean() ? ConflictPolicy.REJECT
+                        : ConflictPolicy.RESCHEDULE_LOWER_PRIORITY).isSuccess()) {
+                    mine.add("E" + i);
+                }
+            } else if (kind < 65 && !mine.isEmpty()) {
+                String id = mine.get(random.nextInt(mine.size()));
+                LocalDate day = scheduler.findOccurrences(id).get(id);
+                if (day != null) {
+                    scheduler.modifyTime(day, id, LocalDateTime.of(day, start.toLocalTime()), duration, ConflictPolicy.REJECT);
+                }
+            } else if (kind < 90 && !mine.isEmpty()) {
+                scheduler.deleteAll(mine.remove(random.nextInt(mine.size())));
+            } else if (kind < 95) {
+                Event template = new Event("S" + i, "", "", duration, LocalDateTime.of(firstDay, start.toLocalTime()),
+                        LocalDateTime.of(firstDay, start.toLocalTime()).plus(duration), 4, true);
+                if (scheduler.addSeries(template, RecurrenceRule.daily(firstDay)).isSuccess()) {
+                    mine.add("S" + i);
+                }
+            } else if (!scheduler.getSeries().isEmpty()) {
+                RecurringSeries series = scheduler.getSeries().get(random.nextInt(scheduler.getSeries().size()));
+                scheduler.delete(date, Scheduler.occurrenceId(series.getBaseEventId(), date));
+            }
+            if (i % 50 == 0 || i == operations - 1) {
+                for (int d = 0; d < days; d++) {
+                    for (int slot = 0; slot < 48; slot++) {
+                        LocalDateTime at = LocalDateTime.of(firstDay.plusDays(d), LocalTime.of(8, 0)).plusMinutes(15L * slot);
+                        Set<String> free = new HashSet<>(rooms.findFreeRooms(at, Duration.ofMinutes(15)));
+                        Event probe = new Event("probe", "", "", Duration.ofMinutes(15), at, at.plusMinutes(15), 4, false);
+                        for (String room : locations) {
+                            if (rooms.getScheduler(room).findConflicts(at.toLocalDate(), probe).isEmpty() != free.contains(room)) {
+                                throw new IllegalStateException("Room index is stale for " + room + " at " + at + " after operation " + i);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Shared free time of n calendars over a working week, 08:00-18:00: the k-way sweep (all slots and first fit)
+    // against intersecting every calendar's free-slot list pairwise. Each calendar books a quarter of its
+    // half hours, so shared time shrinks as n grows; two half hours a day stay free for everyone.
+    static void commonAvailability(int participants, int days) {
+        LocalDate firstDay = BASE.toLocalDate();
+        Random random = new Random(participants);
+        List<Scheduler> calendars = new ArrayList<>();
+        int events = 0;
+        for (int p = 0; p < participants; p++) {
+            Scheduler calendar = new Scheduler(firstDay, days, LocalTime.of(8, 0), LocalTime.of(18, 0));
+            // The pairwise baseline repeats the same per-calendar queries; compare against computing them
+            calendar.getFreeSlotCache().setCapacity(0);
+            for (int d = 0; d < days; d++) {
+                LocalDate date = firstDay.plusDays(d);
+                for (int slot = 0; slot < 20; slot++) {
+                    if (slot != 3 && slot != 13 && random.nextInt(4) == 0) {
+                        // Events stay inside their half hour
+                        int offset = random.nextInt(15);
+                        LocalDateTime start = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(30L * slot + offset);
+                        Duration duration = Duration.ofMinutes(15 + random.nextInt(16 - offset));
+                        calendar.schedule(date, new Event("P" + p + "_" + events++, "", "", duration, start,
+                                start.plus(duration), 4, false), ConflictPolicy.REJECT);
+                    }
+                }
+            }
+            calendars.add(calendar);
+        }
+        Duration duration = Duration.ofMinutes(30);
+        // The first pass only warms up the JIT; the second is reported
+        for (int pass = 0; pass < 2; pass++) {
+            commonAvailabilityPass(calendars, firstDay, days, duration, pass == 0 ? 10 : Math.max(100, 100_000 / participants),
+                    pass == 1);
+        }
+    }
+
+    private static void commonAvailabilityPass(List<Scheduler> calendars, LocalDate firstDay, int days, Duration duration,
+                                               int rounds, boolean print) {
+        int participants = calendars.size();
+        long start = System.nanoTime();
+        int swept = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (int d = 0; d < days; d++) {
+                Iterator<TimeSlot> slots = CommonAvailability.freeSlots(calendars, firstDay.plusDays(d), duration);
+                while (slots.hasNext()) {
+                    slots.next();
+                    swept++;
+                }
+            }
+        }
+        if (print) report("common-sweep k=" + participants + " slots=" + swept / rounds, rounds * days, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int d = 0; d < days; d++) {
+                if (CommonAvailability.firstFit(calendars, firstDay.plusDays(d), duration) == null) {
+                    throw new IllegalStateException("No shared slot found on day " + d);
+                }
+            }
+        }
+        if (print) report("common-first-fit k=" + participants, rounds * days, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int d = 0; d < days; d++) {
+                LocalDate date = firstDay.plusDays(d);
+                List<TimeSlot> common = calendars.get(0).findFreeSlots(date, Duration.ofNanos(1));
+                for (int p = 1; p < participants; p++) {
+                    common = intersect(common, calendars.get(p).findFreeSlots(date, Duration.ofNanos(1)));
+                }
+                List<TimeSlot> expected = new ArrayList<>();
+                for (TimeSlot slot : common) {
+                    if (Duration.between(slot.getStart(), slot.getEnd()).compareTo(duration) >= 0) {
+                        expected.add(slot);
+                    }
+                }
+                if (r == 0) {
+                    List<TimeSlot> actual = new ArrayList<>();
+                    CommonAvailability.freeSlots(calendars, date, duration).forEachRemaining(actual::add);
+                    boolean same = expected.size() == actual.size();
+                    for (int i = 0; same && i < expected.size(); i++) {
+                        same = expected.get(i).getStart().equals(actual.get(i).getStart())
+                                && expected.get(i).getEnd().equals(actual.get(i).getEnd());
+                    }
+                    if (!same) {
+                        throw new IllegalStateException("Sweep and pairwise intersection differ on " + date);
+                    }
+                }
+            }
+        }
+        if (print) report("common-pairwise k=" + participants, rounds * days, System.nanoTime() - start);
+    }
+
+    // The sorted day index: a calendar created with 30 days grows on demand to three years of bookings, answers
+    // five-week range queries from a submap (against filtering every day), and archives all but the last 90 days.
+    static void dayIndex(int days, int eventsPerDay, int queries) {
+        LocalDate firstDay = BASE.toLocalDate();
+        Scheduler scheduler = new Scheduler(firstDay, 30, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        scheduler.setCreateDaysOnDemand(true);
+        long start = System.nanoTime();
+        // Booked newest day first, so the index never sees dates in order
+        for (int d = days - 1; d >= 0; d--) {
+            LocalDate date = firstDay.plusDays(d);
+            for (int i = 0; i < eventsPerDay; i++) {
+                LocalDateTime eventStart = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(30L * i);
+                if (!scheduler.schedule(date, new Event("D" + d + "_" + i, "", "", Duration.ofMinutes(20), eventStart,
+                        eventStart.plusMinutes(20), 4, false), ConflictPolicy.REJECT).isSuccess()) {
+                    throw new IllegalStateException("Day " + date + " was not created on demand");
+                }
+            }
+        }
+        report("on-demand-days n=" + days, days * eventsPerDay, System.nanoTime() - start);
+        List<LocalDate> dates = scheduler.getDates();
+        for (int d = 0; d < dates.size(); d++) {
+            if (!dates.get(d).equals(firstDay.plusDays(d))) {
+                throw new IllegalStateException("Days are not in date order at " + dates.get(d));
+            }
+        }
+
+        Random random = new Random(3);
+        LocalDate[] froms = new LocalDate[queries];
+        for (int q = 0; q < queries; q++) {
+            froms[q] = firstDay.plusDays(random.nextInt(days - 35));
+        }
+        start = System.nanoTime();
+        long found = 0;
+        for (int q = 0; q < queries; q++) {
+            found += scheduler.getEventsBetween(froms[q], froms[q].plusDays(34)).size();
+        }
+        report("range-submap found=" + found, queries, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        long scanned = 0;
+        for (int q = 0; q < queries; q++) {
+            for (LocalDate date : scheduler.getDates()) {
+                if (!date.isBefore(froms[q]) && !date.isAfter(froms[q].plusDays(34))) {
+                    scanned += scheduler.getEvents(date).size();
+                }
+            }
+        }
+        report("range-scan found=" + scanned, queries, System.nanoTime() - start);
+        if (found != scanned || found != (long) queries * 35 * eventsPerDay) {
+            throw new IllegalStateException("Range query returned " + found + " events, scan " + scanned);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        LocalDate cutoff = firstDay.plusDays(days - 90);
+        start = System.nanoTime();
+        int archived = 0;
+        for (List<Event> events : scheduler.archiveBefore(cutoff).values()) {
+            archived += events.size();
+        }
+        report("archive n=" + archived, days - 90, System.nanoTime() - start);
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("  heap: before %,d KB, after archiving %,d KB%n", heapBefore / 1024, heapAfter / 1024);
+        if (scheduler.getDates().size() != 90 || !scheduler.getDates().get(0).equals(cutoff)
+                || !scheduler.findOccurrences("D0_0").isEmpty()
+                || scheduler.schedule(firstDay, new Event("Late", "", "", Duration.ofMinutes(20), firstDay.atTime(8, 0),
+                        firstDay.atTime(8, 20), 4, false), ConflictPolicy.REJECT).getStatus() != ScheduleResult.Status.NOT_FOUND) {
+            throw new IllegalStateException("Archived days are still visible");
+        }
+    }
+
+    // Same day tree with and without a minute bitmap: overlap checks and fit-after are timed and must give
+    // identical answers, including after churn and while a sub-minute event forces the fallback to the tree.
+    static void minuteBitmap(int eventsPerDay, int queries) {
+        LocalDateTime windowStart = BASE.plusHours(8);
+        LocalDateTime windowEnd = BASE.plusHours(20);
+        IntervalTree plain = new IntervalTree(windowStart, windowEnd);
+        IntervalTree bitmap = new IntervalTree(windowStart, windowEnd);
+        if (!bitmap.setMinuteBitmap(true)) {
+            throw new IllegalStateException("Window on whole minutes was refused a bitmap");
+        }
+        Random random = new Random(21);
+        List<Event> stored = new ArrayList<>();
+        for (int i = 0; i < eventsPerDay * 4; i++) {
+            // Churn: keep about eventsPerDay events, some overlapping, so releases must honour the events still there
+            if (stored.size() >= eventsPerDay) {
+                Event removed = stored.remove(random.nextInt(stored.size()));
+                plain.delete(removed.getEventId());
+                bitmap.delete(removed.getEventId());
+            }
+            LocalDateTime start = windowStart.plusMinutes(random.nextInt(720));
+            Duration length = Duration.ofMinutes(1 + random.nextInt(4));
+            Event event = new Event("M" + i, "", "", length, start, start.plus(length), 4, false);
+            stored.add(event);
+            plain.insert(event);
+            bitmap.insert(event);
+        }
+
+        LocalDateTime[] starts = new LocalDateTime[queries];
+        Duration[] lengths = new Duration[queries];
+        for (int q = 0; q < queries; q++) {
+            // Some probes start mid-minute; the bitmap still answers them exactly
+            starts[q] = windowStart.plusSeconds(random.nextInt(700 * 60));
+            lengths[q] = Duration.ofSeconds(30 + random.nextInt(15 * 60));
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int q = 0; q < queries; q++) {
+                if (plain.hasOverlap(starts[q], starts[q].plus(lengths[q]))) hits++;
+            }
+            report("overlap tree hits=" + hits, queries, System.nanoTime() - start);
+            start = System.nanoTime();
+            int bitmapHits = 0;
+            for (int q = 0; q < queries; q++) {
+                if (bitmap.hasOverlap(starts[q], starts[q].plus(lengths[q]))) bitmapHits++;
+            }
+            report("overlap bitmap hits=" + bitmapHits, queries, System.nanoTime() - start);
+            if (hits != bitmapHits) {
+                throw new IllegalStateException("Bitmap found " + bitmapHits + " overlaps, tree " + hits);
+            }
+
+            int fits = queries;
+            start = System.nanoTime();
+            for (int q = 0; q < fits; q++) {
+                plain.findFitAfter(starts[q].withSecond(0), lengths[q]);
+            }
+            report("fit-after gap index", fits, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int q = 0; q < fits; q++) {
+                bitmap.findFitAfter(starts[q].withSecond(0), lengths[q]);
+            }
+            report("fit-after bitmap", fits, System.nanoTime() - start);
+        }
+        if (countMismatches(plain, bitmap, starts, lengths) != 0) {
+            throw new IllegalStateException("Bitmap fit queries differ from the gap index");
+        }
+
+        // A sub-minute event cannot be represented, so the tree answers until it is removed again
+        Event odd = new Event("Odd", "", "", Duration.ofSeconds(90), windowStart.plusSeconds(30), windowStart.plusSeconds(120), 4, false);
+        plain.insert(odd);
+        bitmap.insert(odd);
+        if (countMismatches(plain, bitmap, starts, lengths) != 0
+                || bitmap.hasOverlap(windowStart, windowStart.plusSeconds(30)) != plain.hasOverlap(windowStart, windowStart.plusSeconds(30))) {
+            throw new IllegalStateException("Fallback with a sub-minute event differs from the tree");
+        }
+        plain.delete("Odd");
+        bitmap.delete("Odd");
+        if (countMismatches(plain, bitmap, starts, lengths) != 0) {
+            throw new IllegalStateException("Bitmap differs from the tree after the sub-minute event left");
+        }
+
+        // Whole calendars: the same bookings and preferred-window placements land in the same places
+        LocalDate firstDay = BASE.toLocalDate();
+        Scheduler withTrees = new Scheduler(firstDay, 30, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        Scheduler withBitmaps = new Scheduler(firstDay, 30, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        if (!withBitmaps.setMinuteBitmaps(true)) {
+            throw new IllegalStateException("Calendar refused minute bitmaps");
+        }
+        PlacementPolicy afternoon = PlacementPolicy.preferredWindow(LocalTime.of(13, 0), LocalTime.of(17, 0));
+        long start = System.nanoTime();
+        for (int i = 0; i < 3_000; i++) {
+            LocalDate date = firstDay.plusDays(i % 30);
+            LocalDateTime at = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(random.nextInt(700));
+            Duration length = Duration.ofMinutes(5 + random.nextInt(40));
+            ScheduleResult.Status expected = withTrees.schedule(date,
+                    new Event("S" + i, "", "", length, at, at.plus(length), 4, false), ConflictPolicy.REJECT).getStatus();
+            ScheduleResult.Status actual = withBitmaps.schedule(date,
+                    new Event("S" + i, "", "", length, at, at.plus(length), 4, false), ConflictPolicy.REJECT).getStatus();
+            ScheduleResult expectedPlace = withTrees.place(date,
+                    new Event("P" + i, "", "", length, at, at.plus(length), 4, false), afternoon);
+            ScheduleResult actualPlace = withBitmaps.place(date,
+                    new Event("P" + i, "", "", length, at, at.plus(length), 4, false), afternoon);
+            if (expected != actual || expectedPlace.getStatus() != actualPlace.getStatus() || (expectedPlace.isSuccess()
+                    && !expectedPlace.getEvent().getStartTime().equals(actualPlace.getEvent().getStartTime()))) {
+                throw new IllegalStateException("Calendars with and without bitmaps disagree on booking " + i);
+            }
+        }
+        report("calendar cross-check", 3_000, System.nanoTime() - start);
+    }
+
+    // Availability polling with a write every writeEvery polls, with and without the free-slot cache. Both passes
+    // must see identical slots; then readers poll while writers book, and every cached answer left behind must
+    // match a fresh computation.
+    static void freeSlotCache(int days, int polls, int writeEvery) {
+        long expected = 0;
+        for (int capacity : new int[]{0, 4096}) {
+            Scheduler scheduler = new Scheduler(BASE.toLocalDate(), days, LocalTime.of(8, 0), LocalTime.of(20, 0));
+            scheduler.getFreeSlotCache().setCapacity(capacity);
+            Random random = new Random(22);
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < polls; i++) {
+                LocalDate date = BASE.toLocalDate().plusDays(random.nextInt(days));
+                if (i % writeEvery == 0) {
+                    LocalDateTime at = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(5L * random.nextInt(140));
+                    scheduler.schedule(date, new Event("C" + i, "", "", Duration.ofMinutes(20), at, at.plusMinutes(20), 4, false),
+                            ConflictPolicy.REJECT);
+                    continue;
+                }
+                checksum = 31 * checksum + slotsChecksum(scheduler.findFreeSlots(date, pollFrom(random), LocalTime.of(20, 0),
+                        Duration.ofMinutes(15L << random.nextInt(3))));
+            }
+            report("poll cache=" + capacity, polls, System.nanoTime() - start);
+            System.out.println("  " + scheduler.getFreeSlotCache());
+            if (capacity == 0) {
+                expected = checksum;
+            } else if (checksum != expected) {
+                throw new IllegalStateException("Cached free slots differ from computed ones");
+            }
+        }
+
+        Scheduler scheduler = new Scheduler(BASE.toLocalDate(), 4, LocalTime.of(8, 0), LocalTime.of(20, 0));
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(thread);
+                for (int i = 0; i < 5_000; i++) {
+                    LocalDate date = BASE.toLocalDate().plusDays(random.nextInt(4));
+                    if (thread % 2 == 0) {
+                        LocalDateTime at = LocalDateTime.of(date, LocalTime.of(8, 0)).plusMinutes(5L * random.nextInt(140));
+                        String eventId = "W" + thread + "_" + (i % 50);
+                        scheduler.delete(date, eventId);
+                        scheduler.schedule(date, new Event(eventId, "", "", Duration.ofMinutes(20), at, at.plusMinutes(20), 4, false),
+                                ConflictPolicy.REJECT);
+                    } else {
+                        scheduler.findFreeSlots(date, pollFrom(random), LocalTime.of(20, 0), Duration.ofMinutes(15L << random.nextInt(3)));
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        List<Long> cached = new ArrayList<>();
+        for (int d = 0; d < 4; d++) {
+            for (int from = 8; from < 20; from += 4) {
+                for (int shift = 0; shift < 3; shift++) {
+                    cached.add(slotsChecksum(scheduler.findFreeSlots(BASE.toLocalDate().plusDays(d), LocalTime.of(from, 0),
+                            LocalTime.of(20, 0), Duration.ofMinutes(15L << shift))));
+                }
+            }
+        }
+        System.out.println("  concurrent: " + scheduler.getFreeSlotCache());
+        scheduler.getFreeSlotCache().setCapacity(0);
+        int q = 0;
+        for (int d = 0; d < 4; d++) {
+            for (int from = 8; from < 20; from += 4) {
+                for (int shift = 0; shift < 3; shift++) {
+                    if (cached.get(q++) != slotsChecksum(scheduler.findFreeSlots(BASE.toLocalDate().plusDays(d),
+                            LocalTime.of(from, 0), LocalTime.of(20, 0), Duration.ofMinutes(15L << shift)))) {
+                        throw new IllegalStateException("Stale free slots cached for day " + d + " from " + from + ":00");
+                    }
+                }
+            }
+        }
+    }
+
+    // One of three query windows a booking page polls: the whole day, from noon, or from 16:00.
+    private static LocalTime pollFrom(Random random) {
+        return LocalTime.of(8 + 4 * random.nextInt(3), 0);
+    }
+
+    private static long slotsChecksum(List<TimeSlot> slots) {
+        long checksum = slots.size();
+        for (TimeSlot slot : slots) {
+            checksum = 31 * checksum + slot.getStart().hashCode();
+            checksum = 31 * checksum + slot.getEnd().hashCode();
+        }
+        return checksum;
+    }
+
+    // Compares overlap, first-fit and fit-after answers of two trees over the first few thousand probes.
+    private static int countMismatches(IntervalTree expected, IntervalTree actual, LocalDateTime[] starts, Duration[] lengths) {
+        int mismatches = 0;
+        for (int q = 0; q < Math.min(starts.length, 5_000); q++) {
+            LocalDateTime end = starts[q].plus(lengths[q]);
+            if (expected.hasOverlap(starts[q], end) != actual.hasOverlap(starts[q], end)
+                    || expected.findOverlapping(starts[q], end).size() != actual.findOverlapping(starts[q], end).size()) {
+                mismatches++;
+            }
+            LocalDateTime after = starts[q].withSecond(0);
+            if (!sameSlot(expected.findFirstFit(lengths[q]), actual.findFirstFit(lengths[q]))
+                    || !sameSlot(expected.findFitAfter(after, lengths[q]), actual.findFitAfter(after, lengths[q]))) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    private static boolean sameSlot(TimeSlot a, TimeSlot b) {
+        return a == null ? b == null : b != null && a.getStart().equals(b.getStart()) && a.getEnd().equals(b.getEnd());
+    }
+
+    // Two-pointer intersection of two time-ordered free-slot lists.
+    private static List<TimeSlot> intersect(List<TimeSlot> a, List<TimeSlot> b) {
+        List<TimeSlot> result = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < a.size() && j < b.size()) {
+            LocalDateTime start = a.get(i).getStart().isAfter(b.get(j).getStart()) ? a.get(i).getStart() : b.get(j).getStart();
+            LocalDateTime end = a.get(i).getEnd().isBefore(b.get(j).getEnd()) ? a.get(i).getEnd() : b.get(j).getEnd();
+            if (start.isBefore(end)) {
+                result.add(new TimeSlot(start, end));
+            }
+            if (a.get(i).getEnd().isBefore(b.get(j).getEnd())) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private static void checkSameDays(Scheduler expected, Scheduler actual, List<LocalDate> dates) {
+        for (LocalDate date : dates) {
+            List<Event> want = expected.getEvents(date);
+            List<Event> got = actual.getEvents(date);
+            boolean same = want.size() == got.size();
+            for (int i = 0; same && i < want.size(); i++) {
+                same = want.get(i).getEventId().equals(got.get(i).getEventId())
+                        && want.get(i).getStartTime().equals(got.get(i).getStartTime());
+            }
+            List<TimeSlot> wantSlots = expected.findFreeSlots(date, Duration.ofMinutes(1));
+            List<TimeSlot> gotSlots = actual.findFreeSlots(date, Duration.ofMinutes(1));
+            same &= wantSlots.size() == gotSlots.size();
+            for (int i = 0; same && i < wantSlots.size(); i++) {
+                same = wantSlots.get(i).getStart().equals(gotSlots.get(i).getStart())
+                        && wantSlots.get(i).getEnd().equals(gotSlots.get(i).getEnd());
+            }
+            if (!same) {
+                throw new IllegalStateException("Calendars differ on " + date);
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+import org.junit.jupiter.api.Test;
+
+// Runs the self-checking SchedulerBenchmark scenarios (every one except "suite" and "http-load") under mvn test.
+// A scenario throws IllegalStateException when an invariant breaks, which fails the test.
+class SchedulerScenariosTest {
+
+    @Test
+    void scenarios() {
+        SchedulerBenchmark.main(new String[0]);
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+
+// Reproducible scheduling workloads for benchmarks. Everything is drawn from one java.util.Random seeded by the
+// caller; its sequence is fixed by the Random specification, so a seed produces the same events on every JVM and
+// in every version of this program, and benchmark results from different versions measure the same work.
+final class WorkloadGenerator {
+    enum Order {
+        CHRONOLOGICAL,  // Sorted by start time, the worst case for an unbalanced tree
+        RANDOM          // Shuffled
+    }
+
+    enum Density {
+        SPARSE(8),      // A few events per day with free time between them
+        DENSE(40);      // Back-to-back events that often overlap their neighbours
+
+        final int eventsPerDay;
+
+        Density(int eventsPerDay) {
+            this.eventsPerDay = eventsPerDay;
+        }
+    }
+
+    private final Random random;
+    private final LocalDate firstDay;
+    private final LocalTime dayStart;
+    private final long windowMinutes;
+
+    public WorkloadGenerator(long seed, LocalDate firstDay, LocalTime dayStart, LocalTime dayEnd) {
+        this.random = new Random(seed);
+        this.firstDay = firstDay;
+        this.dayStart = dayStart;
+        this.windowMinutes = Duration.between(dayStart, dayEnd).toMinutes();
+    }
+
+    // Number of days a workload of count events at the given density spans.
+    public static int days(int count, Density density) {
+        return (count + density.eventsPerDay - 1) / density.eventsPerDay;
+    }
+
+    // count events from firstDay on, density.eventsPerDay per day, each in its own share of the daily window and
+    // lasting 30-80% of it (on dense days up to 130%, overlapping the next share). Priorities are 2-4, below
+    // urgent events. IDs are "W<day>_<n>".
+    public List<Event> events(int count, Density density, Order order) {
+        List<Event> events = new ArrayList<>(count);
+        long share = windowMinutes / density.eventsPerDay;
+        for (int i = 0; i < count; i++) {
+            int day = i / density.eventsPerDay;
+            int n = i % density.eventsPerDay;
+            LocalDateTime start = LocalDateTime.of(firstDay.plusDays(day), dayStart).plusMinutes(share * n + random.nextInt((int) (share / 2) + 1));
+            long minutes = Math.max(1, share * (30 + random.nextInt(density == Density.DENSE ? 100 : 50)) / 100);
+            Duration duration = Duration.ofMinutes(minutes);
+            events.add(new Event("W" + day + "_" + n, "Workload " + i, "", duration, start, start.plus(duration),
+                    2 + random.nextInt(3), false));
+        }
+        if (order == Order.RANDOM) {
+            Collections.shuffle(events, random);
+        }
+        return events;
+    }
+
+    // count query ranges of the given length starting on whole minutes inside the daily window of the first days days.
+    public List<TimeSlot> probes(int count, int days, Duration length) {
+        List<TimeSlot> probes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LocalDateTime start = LocalDateTime.of(firstDay.plusDays(random.nextInt(days)), dayStart)
+                    .plusMinutes(random.nextInt((int) windowMinutes));
+            probes.add(new TimeSlot(start, start.plus(length)));
+        }
+        return probes;
+    }
+
+    // count recurring series starting on firstDay, each in its own half hour of the day so none overlap another:
+    // daily, weekly on two weekdays, every other day and monthly in turn. IDs are "R<n>".
+    public Map<Event, RecurrenceRule> series(int count) {
+        Map<Event, RecurrenceRule> series = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            LocalDateTime start = LocalDateTime.of(firstDay, dayStart).plusMinutes(30L * (i % (windowMinutes / 30)));
+            Duration duration = Duration.ofMinutes(15 + 5 * random.nextInt(4));
+            RecurrenceRule rule;
+            switch (i % 4) {
+                case 0:
+                    rule = RecurrenceRule.daily(firstDay);
+                    break;
+                case 1:
+                    rule = RecurrenceRule.weekly(firstDay, DayOfWeek.of(1 + random.nextInt(7)), DayOfWeek.of(1 + random.nextInt(7)));
+                    break;
+                case 2:
+                    rule = RecurrenceRule.daily(firstDay).every(2);
+                    break;
+                default:
+                    rule = RecurrenceRule.monthly(firstDay);
+            }
+            series.put(new Event("R" + i, "Series " + i, "", duration, start, start.plus(duration), 2, true), rule);
+        }
+        return series;
+    }
+
+    // count urgent (priority 1, the highest) events at random places in the first days days, each 30-90 minutes
+    // long, so that booking them displaces lower-priority work. IDs are "U<n>".
+    public List<Event> urgent(int count, int days) {
+        List<Event> urgent = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Duration duration = Duration.ofMinutes(30 + random.nextInt(61));
+            LocalDateTime start = LocalDateTime.of(firstDay.plusDays(random.nextInt(days)), dayStart)
+                    .plusMinutes(random.nextInt((int) (windowMinutes - duration.toMinutes())));
+            urgent.add(new Event("U" + i, "Urgent " + i, "", duration, start, start.plus(duration), 1, false));
+        }
+        return urgent;
+    }
+}